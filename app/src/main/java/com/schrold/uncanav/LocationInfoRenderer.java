@@ -0,0 +1,65 @@
+package com.schrold.uncanav;
+
+import android.app.Activity;
+import android.widget.TextView;
+
+import com.here.android.mpa.common.GeoPosition;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.LocationInfoFormatter;
+
+/**
+ * Renders the location information of position fixes into the text view of the main activity.
+ * The view is looked up once, and it is only updated when the displayed text changes.
+ */
+public class LocationInfoRenderer {
+
+    // Names of the position source bits
+    private static final LocationInfoFormatter.BitNames SOURCE_NAMES = new LocationInfoFormatter.BitNames(
+            new int[] {GeoPosition.SOURCE_CACHE, GeoPosition.SOURCE_FUSION, GeoPosition.SOURCE_HARDWARE,
+                    GeoPosition.SOURCE_INDOOR, GeoPosition.SOURCE_OFFLINE, GeoPosition.SOURCE_ONLINE},
+            new String[] {"CACHE", "FUSION", "HARDWARE", "INDOOR", "OFFLINE", "ONLINE"});
+
+    // Names of the position technology bits
+    private static final LocationInfoFormatter.BitNames TECHNOLOGY_NAMES = new LocationInfoFormatter.BitNames(
+            new int[] {GeoPosition.TECHNOLOGY_BLE, GeoPosition.TECHNOLOGY_CELL, GeoPosition.TECHNOLOGY_GNSS,
+                    GeoPosition.TECHNOLOGY_WIFI, GeoPosition.TECHNOLOGY_SENSORS},
+            new String[] {"BLE", "CELL", "GNSS", "WIFI", "SENSORS"});
+
+    // Reference to the main activity
+    private final Activity activity;
+
+    // Formats the fields of each fix
+    private final LocationInfoFormatter formatter =
+            new LocationInfoFormatter(SOURCE_NAMES, TECHNOLOGY_NAMES);
+
+    // The text view, null until it has been found
+    private TextView view;
+
+    /**
+     * Creates a renderer for the location information view of an activity.
+     *
+     * @param activity the main activity
+     */
+    public LocationInfoRenderer(Activity activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Shows the location information of a fix.
+     *
+     * @param fix the user's position
+     */
+    public void render(Fix fix) {
+        if (view == null) {
+            view = activity.findViewById(R.id.textViewPosInfo);
+            if (view == null) {
+                return;
+            }
+            formatter.reset();
+        }
+        // The view keeps referring to the formatter's buffer, which only changes in format()
+        if (formatter.format(fix)) {
+            view.setText(formatter.getChars(), 0, formatter.length());
+        }
+    }
+}
@@ -1,29 +1,52 @@
 package com.schrold.uncanav;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.os.StrictMode;
+import android.os.SystemClock;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
 import android.view.WindowManager;
 import android.widget.Toast;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.schrold.uncanav.offline.MapCacheManifest;
+import com.schrold.uncanav.speech.PromptAudioCache;
+import com.schrold.uncanav.speech.UtteranceScheduler;
+import com.schrold.uncanav.startup.StartupGraph;
+import com.schrold.uncanav.startup.StartupTrace;
+import com.schrold.uncanav.venue.VenueDirectory;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -56,6 +79,15 @@ public class MainActivity extends AppCompatActivity {
     // Flag for the initialization of TTS engine
     public static boolean canSpeak = false;
 
+    // Decides which utterance the TTS engine speaks next, null until the engine is ready
+    private static volatile UtteranceScheduler utterances;
+
+    // Prompts synthesized ahead of time, null until the TTS engine is ready
+    private static volatile PromptAudioCache promptAudio;
+
+    // Synthesizes prompts into the prompt audio cache, null until startup is ready
+    private static volatile PromptSynthesizer promptSynthesizer;
+
     // Speech recognizer object
     private static SpeechRecognizer speechRecognizer;
 
@@ -65,6 +97,70 @@ public class MainActivity extends AppCompatActivity {
     // Flag indicating whether user is speaking or not
     private static boolean userSpeaking = false;
 
+    // Delay after the map is ready before missing or old map data is fetched in the background
+    private static final long MAP_FETCH_DELAY = 30000;
+
+    // Fetches missing or old map data once the map is running, null if there is none
+    private TieredMapPrefetcher backgroundPrefetch;
+
+    // Flag indicating whether map data is being downloaded before the map starts
+    private volatile boolean downloadingMap = false;
+
+    // Buildings and destinations on campus, loaded once at startup, null if they failed to load
+    private volatile VenueDirectory venueDirectory;
+
+    // Status of the cached map data, checked at startup
+    private volatile MapCacheManifest.Status mapCacheStatus;
+
+    // Flag indicating whether to fetch missing or old map data once the map is ready
+    private boolean fetchMapData;
+
+    // Completes the map data startup step once the download activity returns, null otherwise
+    private StartupGraph.Completion mapDataDownloaded;
+
+    // Campus venues whose stored radio maps are missing or outdated, checked at startup
+    private volatile List<String> outdatedRadioMaps;
+
+    // Loads the outdated radio maps, null when not loading
+    private RadioMapDownload radioMapDownload;
+
+    // Handler of the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Timeline of this launch, shared with the map download activity
+    static StartupTrace startupTrace;
+
+    // Flag indicating whether the startup timeline has been written
+    private final AtomicBoolean traceWritten = new AtomicBoolean();
+
+    // Time after startup begins at which the timeline is written even if startup has not finished
+    private static final long TRACE_TIMEOUT = 60000;
+
+    // Directory of the startup timelines and the file summarizing the latest launches
+    private static final String TRACE_DIRECTORY = "startup";
+    private static final String SUMMARY_FILE = "launches.jsonl";
+
+    // Number of launches kept in the summary file
+    private static final int MAX_LAUNCHES = 50;
+
+    // Number of recognition hypotheses to request from the speech recognizer
+    private static final int MAX_SPEECH_RESULTS = 5;
+
+    // Directory of the prompts synthesized ahead of time, and the number of recordings kept
+    private static final String PROMPT_AUDIO_DIRECTORY = "prompts";
+    private static final int MAX_PROMPT_FILES = 200;
+
+    // Times a guidance phrase is synthesized live before it is recorded, e.g. a recurring maneuver
+    // prompt of the FTCR navigation
+    private static final int PROMPT_RECUR_THRESHOLD = 2;
+
+    // Fixed prompts synthesized ahead of time, including the maneuvers of on-device routes
+    private static final int[] FIXED_PROMPTS = {R.string.pos_found, R.string.pos_failed,
+            R.string.waiting_positioning, R.string.start_map_dl, R.string.start_nav, R.string.no_destination,
+            R.string.rerouting, R.string.arrived, R.string.route_error, R.string.speech_error,
+            R.string.turn_left, R.string.turn_right, R.string.stairs_up, R.string.stairs_down,
+            R.string.door_left, R.string.door_right, R.string.door_ahead};
+
     /**
      * Called when application is started.
      * @param savedInstanceState unused
@@ -73,6 +169,13 @@ public class MainActivity extends AppCompatActivity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Time the launch from the start of the process
+        startupTrace = new StartupTrace(() -> SystemClock.elapsedRealtimeNanos() / 1000,
+                Process.getStartElapsedRealtime() * 1000);
+        startupTrace.span("process", "launch", Process.getStartElapsedRealtime() * 1000, startupTrace.now());
+        startupTrace.setAttribute("device", Build.MANUFACTURER + " " + Build.MODEL);
+        startupTrace.setAttribute("sdk", Build.VERSION.SDK_INT);
+
         // Keep the screen on when in the app
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -89,36 +192,135 @@ public class MainActivity extends AppCompatActivity {
         executorService =  Executors.newFixedThreadPool(4);
 
         // Check the user's permissions, then proceed
+        startupTrace.begin("permissions", "launch");
         checkPermissions();
     }
 
     /**
-     * Initialize the application.
+     * Initialize the application. The startup steps run as a graph: each step starts once the
+     * steps it depends on are done, so TTS, the speech recognizer, the map cache check and the
+     * venue data load run alongside the map engine initialization, and positioning starts
+     * alongside the venue service as soon as the engine is ready.
      */
     private void initialize() {
         // Set up external storage to save map cache data
-        File externalCacheFile = new File(this.getExternalFilesDir(null), ".here-maps");
-        com.here.android.mpa.common.MapSettings.setDiskCacheRootPath(externalCacheFile.getAbsolutePath());
+        com.here.android.mpa.common.MapSettings.setDiskCacheRootPath(MapCache.getDirectory(this).getAbsolutePath());
+
+        final Executor main = this::runOnUiThread;
+        final StartupGraph startup = new StartupGraph(startupTrace::now, new StartupListener());
+        startup.add("tts", executorService, this::initTTS)
+                .add("speech", main, StartupGraph.sync(this::initSpeechRecognizer))
+                .add("directory", executorService, StartupGraph.sync(
+                        () -> venueDirectory = VenueDirectoryAsset.load(getApplicationContext())))
+                .add("mapCache", executorService, StartupGraph.sync(this::checkMapCache), "directory")
+                .add("layout", main, StartupGraph.sync(this::initLayout))
+                .add("venueData", executorService, StartupGraph.sync(() -> mapFragmentView.loadData(venueDirectory)),
+                        "layout", "directory")
+                .add("engine", main, completion -> mapFragmentView.initMap(completion), "layout")
+                .add("mapData", main, this::checkMapData, "mapCache", "engine")
+                .add("positioning", main, completion -> {
+                    if (mapFragmentView.startPositioning()) {
+                        completion.complete();
+                    } else {
+                        completion.fail("positioning did not start");
+                    }
+                }, "engine")
+                .add("venueService", main, completion -> mapFragmentView.whenVenueServiceReady(() -> {
+                    startupTrace.setAttribute("venueService", mapFragmentView.isVenueServiceOnline() ? "online" : "offline");
+                    completion.complete();
+                }), "engine")
+                .add("venuePreload", main, StartupGraph.sync(() -> mapFragmentView.preloadVenues()),
+                        "venueService", "venueData", "positioning")
+                .add("venue", main, completion -> mapFragmentView.selectVenue(completion::complete), "venueService", "mapData")
+                .add("backgroundFetch", main, StartupGraph.sync(this::scheduleBackgroundFetch), "venueService", "mapData")
+                .add("radioMapCache", executorService, StartupGraph.sync(
+                        () -> outdatedRadioMaps = RadioMapCache.outdated(getApplicationContext(), venueDirectory)),
+                        "directory")
+                .add("radioMaps", main, this::loadRadioMaps, "radioMapCache", "venueService")
+                .add("firstFix", main, completion -> mapFragmentView.whenPositionFound(completion::complete), "positioning")
+                .add("ready", main, StartupGraph.sync(() -> speak(getResources().getString(R.string.pos_found),
+                        UtteranceScheduler.Priority.INFO)),
+                        "tts", "speech", "firstFix", "venueData")
+                .add("promptAudio", executorService, StartupGraph.sync(this::openPromptAudio), "tts")
+                .add("promptSynthesis", main, StartupGraph.sync(this::synthesizePrompts), "promptAudio")
+                .start();
+
+        // Write what has been traced if a step never finishes
+        mainHandler.postDelayed(this::writeStartupTrace, TRACE_TIMEOUT);
+    }
 
-        // Initialize TTS engine in background thread
-        executorService.execute(runTTS());
+    /**
+     * Starts the TTS engine, completes once it is ready.
+     *
+     * @param completion reports whether the TTS engine initialized
+     */
+    private void initTTS(StartupGraph.Completion completion) {
+        textToSpeech = new TextToSpeech(getApplicationContext(), new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int status) {
+                if(status != TextToSpeech.ERROR) {
+                    textToSpeech.setLanguage(Locale.US);
+                    utterances = new UtteranceScheduler(new SpeechEngine(), new UtteranceLogger(),
+                            SystemClock::elapsedRealtime);
+                    textToSpeech.setOnUtteranceProgressListener(new UtteranceCallbacks(utterances));
+                    canSpeak = true;
+                    if (downloadingMap) {
+                        speak(getResources().getString(R.string.start_map_dl), UtteranceScheduler.Priority.INFO);
+                    }
+                    completion.complete();
+                } else {
+                    completion.fail("TTS engine failed to initialize");
+                    finish();
+                }
+            }});
+    }
+
+    /**
+     * Opens the cache of prompts synthesized ahead of time for the voice of the TTS engine.
+     */
+    private void openPromptAudio() {
+        final Voice voice = textToSpeech.getVoice();
+        final String name = voice != null ? voice.getName() : "default";
+        final Locale locale = voice != null && voice.getLocale() != null ? voice.getLocale() : Locale.US;
+        promptAudio = new PromptAudioCache(new File(getCacheDir(), PROMPT_AUDIO_DIRECTORY), name,
+                locale.toString(), MAX_PROMPT_FILES);
+        startupTrace.setAttribute("promptAudio", promptAudio.size() + " cached");
+    }
 
-        // Update and download map data in background thread
-        executorService.execute(runMapDownload());
+    /**
+     * Synthesizes the fixed prompts that are not cached yet, while nothing is being spoken.
+     */
+    private void synthesizePrompts() {
+        promptSynthesizer = new PromptSynthesizer(getApplicationContext(), promptAudio, textToSpeech.getVoice(),
+                () -> utterances.size() == 0);
+        final List<String> prompts = new ArrayList<>();
+        for (int id : FIXED_PROMPTS) {
+            prompts.add(getResources().getString(id));
+        }
+        promptSynthesizer.addAll(prompts);
+    }
 
-        // Initialize the speech recognizer
+    /**
+     * Initialize the speech recognizer.
+     */
+    private void initSpeechRecognizer() {
         // NOTE: in order to work, device must have Google search bar package
         speechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
         speechRecognizerIntent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
         speechRecognizerIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL,RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
         speechRecognizerIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.getDefault());
+        speechRecognizerIntent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, MAX_SPEECH_RESULTS);
+        speechRecognizerIntent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
         speechRecognizer.setRecognitionListener(new RecognitionListener() {
             @Override
             public void onResults(Bundle bundle) {
                 // Successful speech recognition
                 ArrayList<String> data = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
-                System.out.println("SPEECH RESULTS: " + data.get(0));
-                mapFragmentView.speechCallback(data.get(0));
+                float[] scores = bundle.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES);
+                System.out.println("SPEECH RESULTS: " + data);
+                if (data != null && !data.isEmpty()) {
+                    mapFragmentView.speechCallback(data, scores);
+                }
                 userSpeaking = false;
             }
 
@@ -146,13 +348,93 @@ public class MainActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onPartialResults(Bundle bundle) {            }
+            public void onPartialResults(Bundle bundle) {
+                // Start routing to a destination named before the user has finished speaking
+                ArrayList<String> data = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+                if (data != null && !data.isEmpty()) {
+                    mapFragmentView.onPartialSpeech(data);
+                }
+            }
 
             @Override
             public void onEvent(int i, Bundle bundle) {            }
         });
     }
 
+    /**
+     * Set the content view to the map, and create the map fragment view.
+     */
+    private void initLayout() {
+        setContentView(R.layout.activity_main);
+        mapFragmentView = new MapFragmentView(this);
+    }
+
+    /**
+     * Checks the cached map data, and records the type of start in the startup timeline: cold
+     * when the map data has to be downloaded, warm when it is cached, offline without a network.
+     */
+    private void checkMapCache() {
+        mapCacheStatus = MapCache.check(getApplicationContext(), MapCache.plan(venueDirectory));
+        final NetworkInfo network = ((ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE))
+                .getActiveNetworkInfo();
+        final boolean online = network != null && network.isConnected();
+        startupTrace.setAttribute("cache", mapCacheStatus);
+        startupTrace.setAttribute("start", !online ? "offline"
+                : mapCacheStatus == MapCacheManifest.Status.INVALID ? "cold" : "warm");
+    }
+
+    /**
+     * Continues with the cached map data if it is usable, and downloads the map data first
+     * otherwise. The download reuses the map engine, which is initialized by then.
+     *
+     * @param completion completes once usable map data is cached
+     */
+    private void checkMapData(StartupGraph.Completion completion) {
+        if (mapCacheStatus != MapCacheManifest.Status.INVALID) {
+            // Old map data is refreshed once the map is running
+            fetchMapData = mapCacheStatus == MapCacheManifest.Status.STALE;
+            completion.complete();
+            return;
+        }
+        downloadingMap = true;
+        speak(getResources().getString(R.string.start_map_dl));
+        mapDataDownloaded = completion;
+        startActivityForResult(new Intent(this, MapDownloadActivity_bbox.class), DL_ACTIVITY_CODE);
+    }
+
+    /**
+     * Loads the radio maps of the campus venues that are missing or outdated, skips the download
+     * when the stored radio maps are current.
+     *
+     * @param completion completes once the radio maps have been loaded or have failed
+     */
+    private void loadRadioMaps(StartupGraph.Completion completion) {
+        final List<String> venueIds = outdatedRadioMaps;
+        startupTrace.setAttribute("radioMaps", venueIds.isEmpty() ? "current" : venueIds.size() + " outdated");
+        if (venueIds.isEmpty()) {
+            completion.complete();
+            return;
+        }
+        radioMapDownload = new RadioMapDownload(getApplicationContext(), mapFragmentView.getVenueService(),
+                venueIds, (loaded, failed) -> {
+                    radioMapDownload = null;
+                    // Positioning falls back on online lookups for the venues that failed
+                    completion.complete();
+                });
+        radioMapDownload.start();
+    }
+
+    /**
+     * Fetches missing or old map data in the background once the map has been running for a
+     * while.
+     */
+    private void scheduleBackgroundFetch() {
+        if (fetchMapData) {
+            mainHandler.postDelayed(
+                    () -> backgroundPrefetch = MapCache.fetchInBackground(getApplicationContext(), venueDirectory), MAP_FETCH_DELAY);
+        }
+    }
+
     /**
      * Handles result returned by requested activity.
      *
@@ -162,55 +444,75 @@ public class MainActivity extends AppCompatActivity {
      */
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (requestCode == DL_ACTIVITY_CODE && resultCode == RESULT_OK) {
-            // Successfully downloaded map data
+        if (requestCode != DL_ACTIVITY_CODE || mapDataDownloaded == null) {
+            return;
+        }
+        downloadingMap = false;
+        if (resultCode == RESULT_OK) {
+            // Successfully downloaded the map data of the venue
             System.out.println("Map data successfully downloaded.");
-            // Initialize the map for the user
-            startMap();
+            // Continue starting the map, and fetch the wider areas afterwards
+            fetchMapData = true;
+            mapDataDownloaded.complete();
         } else {
             // Map data failed to download
             //TODO: error popup window, move from fragment view
             System.out.println("ERROR: Map data failed to download.");
+            mapDataDownloaded.fail("map data failed to download");
             finish();
         }
+        mapDataDownloaded = null;
     }
 
     /**
-     * Returns a runnable object for instantiating the TTS engine.
+     * Writes the startup timeline and appends the summary of this launch, once per launch.
      */
-    private Runnable runTTS() {
-        return
-                () -> textToSpeech = new TextToSpeech(getApplicationContext(), new TextToSpeech.OnInitListener() {
-                    @Override
-                    public void onInit(int status) {
-                        if(status != TextToSpeech.ERROR) {
-                            textToSpeech.setLanguage(Locale.US);
-                            canSpeak = true;
-                            speak(getResources().getString(R.string.start_map_dl));
-                        } else {
-                            finish();
-                        }
-                    }});
+    private void writeStartupTrace() {
+        if (executorService.isShutdown() || !traceWritten.compareAndSet(false, true)) {
+            return;
+        }
+        final StartupTrace trace = startupTrace;
+        final File directory = new File(getFilesDir(), TRACE_DIRECTORY);
+        executorService.execute(() -> {
+            final StartupTrace.Summary summary = trace.summarize("ready");
+            System.out.println("Startup summary: " + summary);
+            try {
+                // One timeline per type of start, so cold, warm and offline starts can be compared
+                final String start = summary.getLaunch().getOrDefault("start", "unknown");
+                trace.writeTimeline(new File(directory, "trace-" + start + ".json"));
+                StartupTrace.appendSummary(new File(directory, SUMMARY_FILE), summary, MAX_LAUNCHES);
+            } catch (IOException e) {
+                System.out.println("ERROR: Startup trace failed to write: " + e);
+            }
+        });
     }
 
     /**
-     * Returns a runnable object for downloading map data.
+     * Traces the startup steps, and logs how long each took.
      */
-    private Runnable runMapDownload() {
-        final Intent intent = new Intent(this, MapDownloadActivity_bbox.class);
-        return () -> startActivityForResult(intent, DL_ACTIVITY_CODE);
-    }
+    private class StartupListener implements StartupGraph.Listener {
+        // Start time of each step in microseconds
+        private final Map<String, Long> started = new ConcurrentHashMap<>();
+
+        @Override
+        public void onStepStarted(String name, long time) {
+            started.put(name, time);
+            startupTrace.begin(name, "startup");
+        }
 
-    /**
-     * Start the map activity, and initialize the map engine.
-     */
-    private void startMap() {
-        // Set the content view to main activity
-        setContentView(R.layout.activity_main);
+        @Override
+        public void onStepFinished(String name, long time, String failure) {
+            startupTrace.end(name, failure);
+            final Long start = started.get(name);
+            System.out.println("Startup step " + name + (failure == null ? " done" : " failed: " + failure)
+                    + (start != null ? " after " + (time - start) / 1000 + " ms" : ""));
+        }
 
-        // Initialize the map fragment on a new thread
-        mapFragmentView = new MapFragmentView(this);
-        executorService.execute(() -> mapFragmentView.initialize());
+        @Override
+        public void onFinished(boolean success) {
+            System.out.println("Startup " + (success ? "complete" : "incomplete"));
+            writeStartupTrace();
+        }
     }
 
     /**
@@ -219,9 +521,110 @@ public class MainActivity extends AppCompatActivity {
      * @param text the string to speak
      */
     public static void speak(String text) {
+        speak(text, UtteranceScheduler.Priority.RESPONSE);
+    }
+
+    /**
+     * Outputs a string verbally using text-to-speech, after the more important utterances.
+     *
+     * @param text the string to speak
+     * @param priority the priority of the utterance
+     */
+    public static void speak(String text, UtteranceScheduler.Priority priority) {
         if (canSpeak) {
-            textToSpeech.speak(text,
-                    TextToSpeech.QUEUE_ADD, null, TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID);
+            utterances.say(text, priority);
+        }
+    }
+
+    /**
+     * Outputs a guidance prompt verbally using text-to-speech. The prompt interrupts less
+     * important speech, and is dropped if it is no longer relevant by the time it would be spoken.
+     *
+     * @param text the prompt to speak
+     * @param relevant checked before the prompt is spoken, null if it stays relevant
+     */
+    public static void speakGuidance(String text, BooleanSupplier relevant) {
+        if (canSpeak) {
+            utterances.say(text, UtteranceScheduler.Priority.GUIDANCE, relevant);
+        }
+    }
+
+    /**
+     * Speaks the utterances chosen by the scheduler through the TTS engine.
+     */
+    private static class SpeechEngine implements UtteranceScheduler.Engine {
+        @Override
+        public void speak(String utteranceId, String text, UtteranceScheduler.Priority priority, boolean flush) {
+            // Play the recording of the text if there is one, and record recurring guidance, other
+            // speech such as announced destinations varies too much to be worth recording
+            final PromptAudioCache cache = promptAudio;
+            if (cache != null) {
+                final File recording = cache.lookup(text);
+                if (recording != null) {
+                    textToSpeech.addSpeech(text, recording);
+                } else if (priority == UtteranceScheduler.Priority.GUIDANCE && promptSynthesizer != null
+                        && cache.recurs(text, PROMPT_RECUR_THRESHOLD)) {
+                    promptSynthesizer.add(text);
+                }
+            }
+            int result = textToSpeech.speak(text,
+                    flush ? TextToSpeech.QUEUE_FLUSH : TextToSpeech.QUEUE_ADD, null, utteranceId);
+            if (result == TextToSpeech.ERROR) {
+                utterances.onError(utteranceId);
+            }
+        }
+
+        @Override
+        public void stop() {
+            textToSpeech.stop();
+        }
+    }
+
+    /**
+     * Reports the progress of each utterance of the TTS engine to the scheduler.
+     */
+    private static class UtteranceCallbacks extends UtteranceProgressListener {
+        // Scheduler of the utterances
+        private final UtteranceScheduler scheduler;
+
+        UtteranceCallbacks(UtteranceScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void onStart(String utteranceId) {
+            scheduler.onStart(utteranceId);
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            scheduler.onDone(utteranceId);
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            scheduler.onError(utteranceId);
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            scheduler.onError(utteranceId);
+        }
+    }
+
+    /**
+     * Logs how long each utterance waited, and the utterances that were not spoken.
+     */
+    private static class UtteranceLogger implements UtteranceScheduler.Listener {
+        @Override
+        public void onSpoken(UtteranceScheduler.Utterance utterance) {
+            System.out.println("Spoke " + utterance + " after " + utterance.getWait() + " ms in queue, "
+                    + utterance.getDuration() + " ms long");
+        }
+
+        @Override
+        public void onDropped(UtteranceScheduler.Utterance utterance, String reason) {
+            System.out.println("Dropped " + utterance + ": " + reason);
         }
     }
 
@@ -289,6 +692,7 @@ public class MainActivity extends AppCompatActivity {
                                            @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == REQUEST_CODE_ASK_PERMISSIONS) {
+            startupTrace.end("permissions", null);
             for (int index = permissions.length - 1; index >= 0; --index) {
                 if (grantResults[index] != PackageManager.PERMISSION_GRANTED) {
                     // exit the app if one permission is not granted
@@ -308,9 +712,9 @@ public class MainActivity extends AppCompatActivity {
      */
     @Override
     protected void onPause() {
-        // Stop TTS engine
+        // Stop TTS engine and drop the utterances waiting for it
         if(textToSpeech != null && canSpeak) {
-            textToSpeech.stop();
+            utterances.clear();
         }
         // Stop positioning updates
         if (mapFragmentView != null) {
@@ -342,14 +746,33 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         // Shuts down TTS engine
         if(textToSpeech != null && canSpeak) {
-            textToSpeech.stop();
+            canSpeak = false;
+            utterances.clear();
             textToSpeech.shutdown();
         }
+        // Stops synthesizing prompts, completed recordings stay cached
+        if (promptSynthesizer != null) {
+            promptSynthesizer.shutdown();
+            promptSynthesizer = null;
+        }
         // Stops positioning updates
         if (mapFragmentView != null) {
             mapFragmentView.destroy();
             mapFragmentView = null;
         }
+        // Stops loading radio maps, loaded venues stay recorded
+        if (radioMapDownload != null) {
+            radioMapDownload.cancel();
+            radioMapDownload = null;
+        }
+        // Stops fetching map data, completed tiers stay in the cache
+        mainHandler.removeCallbacksAndMessages(null);
+        if (backgroundPrefetch != null) {
+            backgroundPrefetch.cancel();
+            backgroundPrefetch = null;
+        }
+        // Keeps the timeline of a launch that ended before startup finished
+        writeStartupTrace();
         // Shuts down thread executor service
         executorService.shutdown();
         speechRecognizer.cancel();
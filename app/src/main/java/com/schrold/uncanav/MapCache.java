@@ -0,0 +1,229 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+
+import com.here.android.mpa.common.GeoBoundingBox;
+import com.here.android.mpa.common.GeoCoordinate;
+import com.here.android.mpa.common.Version;
+import com.here.android.mpa.prefetcher.MapDataPrefetcher;
+import com.schrold.uncanav.offline.Area;
+import com.schrold.uncanav.offline.ChunkLedger;
+import com.schrold.uncanav.offline.MapCacheManifest;
+import com.schrold.uncanav.offline.PrefetchPlan;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HERE map data cached on the device for the campus, and the manifest that records what the
+ * cache holds so that warm starts can skip the download. The data is fetched in tiers: the venue
+ * first, then the campus and the region around it.
+ */
+final class MapCache {
+
+    // Areas around campus whose map data is cached after the venue
+    private static final Area CAMPUS = new Area(35.614395, -82.566610, 3000, 3000);
+    private static final Area REGION = new Area(35.614395, -82.566610, 20000, 20000);
+
+    // Margin around the destinations of the venue tier in meters
+    private static final double VENUE_MARGIN = 250;
+
+    // Age after which a complete cache is refreshed in the background
+    private static final long REFRESH_AGE = TimeUnit.DAYS.toMillis(7);
+
+    // Directory of the HERE map data cache in the app's external files
+    private static final String CACHE_DIRECTORY = ".here-maps";
+
+    // Manifest and chunk ledger files, kept inside the cache directory so all are removed together
+    private static final String MANIFEST_FILE = "uncanav-manifest.json";
+    private static final String LEDGER_FILE = "uncanav-chunks.ledger";
+
+    // Failed requests in a row before a background fetch gives up until the next start
+    private static final int BACKGROUND_ATTEMPTS = 8;
+
+    private MapCache() {
+    }
+
+    /**
+     * @return the root directory of the HERE map data cache
+     */
+    static File getDirectory(Context context) {
+        return new File(context.getExternalFilesDir(null), CACHE_DIRECTORY);
+    }
+
+    /**
+     * Creates the prefetch plan, with the venue tier computed from the destinations.
+     *
+     * @param directory the venue directory, null if it failed to load
+     * @return the plan, starting with the campus tier without a directory
+     */
+    static PrefetchPlan plan(VenueDirectory directory) {
+        final List<Destination> destinations = directory != null ? directory.getDestinations()
+                : Collections.<Destination>emptyList();
+        return PrefetchPlan.around(destinations, VENUE_MARGIN,
+                new PrefetchPlan.Tier("campus", CAMPUS), new PrefetchPlan.Tier("region", REGION));
+    }
+
+    /**
+     * Converts an area to a bounding box for the map data prefetcher.
+     */
+    static GeoBoundingBox toBoundingBox(Area area) {
+        return new GeoBoundingBox(new GeoCoordinate(area.getLatitude(), area.getLongitude()),
+                (float) area.getWidth(), (float) area.getHeight());
+    }
+
+    /**
+     * Checks whether the cached map data can be used without fetching it first. The cache is
+     * usable if it holds the first tier of the plan; it is stale if it misses wider tiers or is
+     * old.
+     *
+     * @param context the application context
+     * @param plan the prefetch plan
+     * @return the status of the cache
+     */
+    static MapCacheManifest.Status check(Context context, PrefetchPlan plan) {
+        final MapCacheManifest manifest = MapCacheManifest.read(manifestFile(context));
+        final long now = System.currentTimeMillis();
+        MapCacheManifest.Status status = MapCacheManifest.check(manifest, Version.getSdkVersion(),
+                plan.getFirst().getArea(), now, REFRESH_AGE);
+        if (status == MapCacheManifest.Status.VALID) {
+            status = MapCacheManifest.check(manifest, Version.getSdkVersion(), plan.getLast().getArea(), now,
+                    REFRESH_AGE) == MapCacheManifest.Status.VALID ? status : MapCacheManifest.Status.STALE;
+        }
+        System.out.println("Map cache " + status + ": " + manifest);
+        return status;
+    }
+
+    /**
+     * Records a completed fetch of a tier. The recorded coverage only grows: a tier inside the
+     * coverage already recorded, e.g. the venue tier of a refresh, leaves the manifest as it is,
+     * so that an interrupted refresh does not forget the wider tiers. Their age is kept until the
+     * refresh reaches them.
+     *
+     * @param context the application context
+     * @param tier the fetched tier
+     */
+    static void recordFetch(Context context, PrefetchPlan.Tier tier) {
+        final MapCacheManifest previous = MapCacheManifest.read(manifestFile(context));
+        if (previous != null && previous.getDataVersion().equals(Version.getSdkVersion())
+                && previous.getCoverage().contains(tier.getArea())) {
+            return;
+        }
+        final MapCacheManifest manifest = new MapCacheManifest(Version.getSdkVersion(), tier.getArea(),
+                Math.max(tier.getSizeKB(), 0), System.currentTimeMillis());
+        try {
+            manifest.write(manifestFile(context));
+        } catch (IOException e) {
+            // The next start downloads the map data again
+            System.out.println("ERROR: Unable to write map cache manifest: " + e);
+        }
+    }
+
+    /**
+     * @return true if map data of any version is cached, which the map can use when offline
+     */
+    static boolean hasCache(Context context) {
+        return manifestFile(context).isFile();
+    }
+
+    /**
+     * Clears the cached map data if it was fetched with another SDK version. Map data of this
+     * version is kept, so an interrupted download resumes with the chunks it is missing. The
+     * map engine must be initialized.
+     *
+     * @param context the application context
+     */
+    static void clearIfOutdated(Context context) {
+        final MapCacheManifest manifest = MapCacheManifest.read(manifestFile(context));
+        if (manifest != null && !manifest.getDataVersion().equals(Version.getSdkVersion())) {
+            System.out.println("Clearing map data of version " + manifest.getDataVersion());
+            // Forget the data before clearing so that an interrupted clear is not mistaken for data
+            invalidate(context);
+            MapDataPrefetcher.getInstance().clearMapDataCache();
+        }
+    }
+
+    /**
+     * Forgets the cached map data, before the cache is cleared or replaced.
+     */
+    static void invalidate(Context context) {
+        for (File file : new File[] {manifestFile(context), ledgerFile(context)}) {
+            if (file.exists() && !file.delete()) {
+                System.out.println("ERROR: Unable to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Creates a prefetcher for tiers of map data, which resumes at the chunks that are missing
+     * from the cache or old.
+     *
+     * @param context the application context
+     * @param tiers the tiers in the order they are fetched
+     * @param maxAttempts failed requests in a row before giving up
+     * @param listener receives the progress of the tiers
+     * @return the prefetcher, not started
+     */
+    static TieredMapPrefetcher newPrefetcher(Context context, List<PrefetchPlan.Tier> tiers, int maxAttempts,
+                                             TieredMapPrefetcher.Listener listener) {
+        ChunkLedger ledger = null;
+        try {
+            ledger = ChunkLedger.open(ledgerFile(context), Version.getSdkVersion());
+        } catch (IOException e) {
+            // Fetch every chunk instead
+            System.out.println("ERROR: Unable to open chunk ledger: " + e);
+        }
+        return new TieredMapPrefetcher(context, tiers, ledger, System.currentTimeMillis() - REFRESH_AGE,
+                maxAttempts, listener);
+    }
+
+    /**
+     * Fetches the tiers that are missing from the cache or old in the background, one at a time
+     * and keeping the cache usable meanwhile. The map engine must be initialized. Chunks that
+     * fail are fetched on the next start.
+     *
+     * @param context the application context
+     * @param directory the venue directory, null if it failed to load
+     * @return the running prefetcher, or null if the cache is complete
+     */
+    static TieredMapPrefetcher fetchInBackground(Context context, VenueDirectory directory) {
+        final PrefetchPlan plan = plan(directory);
+        final List<PrefetchPlan.Tier> missing = plan.getMissing(MapCacheManifest.read(manifestFile(context)),
+                Version.getSdkVersion(), System.currentTimeMillis(), REFRESH_AGE);
+        if (missing.isEmpty()) {
+            return null;
+        }
+        System.out.println("Fetching map data in the background: " + missing);
+        final TieredMapPrefetcher prefetcher = newPrefetcher(context, missing, BACKGROUND_ATTEMPTS,
+                new TieredMapPrefetcher.Listener() {
+                    @Override
+                    public void onTierProgress(PrefetchPlan.Tier tier) {
+                    }
+
+                    @Override
+                    public void onTierComplete(PrefetchPlan.Tier tier) {
+                    }
+
+                    @Override
+                    public void onFinished(boolean success) {
+                        System.out.println("Background map data fetch " + (success ? "complete: " : "failed: ")
+                                + plan.getFetchedKB() + " KB");
+                    }
+                });
+        prefetcher.start();
+        return prefetcher;
+    }
+
+    private static File manifestFile(Context context) {
+        return new File(getDirectory(context), MANIFEST_FILE);
+    }
+
+    private static File ledgerFile(Context context) {
+        return new File(getDirectory(context), LEDGER_FILE);
+    }
+}
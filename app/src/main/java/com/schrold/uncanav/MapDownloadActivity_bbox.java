@@ -1,12 +1,14 @@
-// TODO: download radio map data
-
 package com.schrold.uncanav;
 
 import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -15,22 +17,30 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.here.android.mpa.common.ApplicationContext;
-import com.here.android.mpa.common.GeoBoundingBox;
 import com.here.android.mpa.common.GeoCoordinate;
 import com.here.android.mpa.common.MapEngine;
 import com.here.android.mpa.common.OnEngineInitListener;
 import com.here.android.mpa.odml.MapLoader;
 import com.here.android.mpa.odml.MapPackage;
-import com.here.android.mpa.prefetcher.MapDataPrefetcher;
+import com.schrold.uncanav.offline.DownloadFlow;
+import com.schrold.uncanav.offline.PrefetchPlan;
+import com.schrold.uncanav.startup.StartupTrace;
 
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Random;
 
 /**
- * Helper activity to download and cache map data to the user's device.
+ * Helper activity to download and cache map data to the user's device. The download is driven
+ * by a {@link DownloadFlow}, which waits for connectivity events rather than polling the
+ * network, and falls back on cached map data when the device stays offline.
  */
 public class MapDownloadActivity_bbox extends AppCompatActivity
         implements MapLoader.MapPackageAtCoordinateListener {
 
+    // Failed prefetch requests in a row before the download gives up
+    private static final int PREFETCH_ATTEMPTS = 8;
+
     // The MapLoader object for downloading map data
     private MapLoader m_mapLoader;
 
@@ -40,9 +50,17 @@ public class MapDownloadActivity_bbox extends AppCompatActivity
     // The ProgressBar object for displaying download progress
     private ProgressBar progressBar;
 
-    private long diskSize;
-    private MapDataPrefetcher m_mapDataPrefetcher;
-    private GeoBoundingBox m_geoBoundingBox;
+    // Fetches the first tier of map data, which the map needs to start, null when not fetching
+    private TieredMapPrefetcher m_prefetcher;
+
+    // Handler of the main thread, which runs the download flow
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // The state machine of the download
+    private DownloadFlow flow;
+
+    // Receives connectivity changes, null when not registered
+    private ConnectivityManager.NetworkCallback networkCallback;
 
     /**
      * Begins the activity by setting the view, initializing variables, and
@@ -63,6 +81,20 @@ public class MapDownloadActivity_bbox extends AppCompatActivity
         startDownload();
     }
 
+    /**
+     * Stops the download when the activity is destroyed, the chunks fetched so far are kept.
+     */
+    @Override
+    protected void onDestroy() {
+        unregisterNetworkCallback();
+        handler.removeCallbacksAndMessages(null);
+        if (m_prefetcher != null) {
+            m_prefetcher.cancel();
+            m_prefetcher = null;
+        }
+        super.onDestroy();
+    }
+
     /**
      * Wrapper method to finish the activity.
      *
@@ -75,117 +107,184 @@ public class MapDownloadActivity_bbox extends AppCompatActivity
     }
 
     /**
-     * Starts the download process for map and radio map data.
+     * Starts the download process for map data. Radio map data is loaded by
+     * {@link RadioMapDownload} once the venue service is ready.
      */
     private void startDownload() {
-        /*
-         * HERE Android SDK objects can only be instantiated after the MapEngine has been
-         * successfully initialized.
-         */
-        MapEngine.getInstance().init(new ApplicationContext(this), new OnEngineInitListener() {
-            @Override
-            public void onEngineInitializationCompleted(Error error) {
-                if (error == Error.NONE) {
-                    System.out.println("Map engine initialized for download.");
+        flow = new DownloadFlow(new DownloadActions(), this::onTransition, handler::postDelayed,
+                SystemClock::elapsedRealtime, MapCache.hasCache(getApplicationContext()), new Random());
 
-                    // MapLoader object for downloading map data
-                    m_mapLoader = MapLoader.getInstance();
+        // Follow the default network, the callbacks arrive on a system thread
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(() -> flow.onNetworkChanged(true));
+            }
 
-                    // Begin the MapPackage download process for the MapLoader
-                    m_mapLoader.addMapPackageAtCoordinateListener(MapDownloadActivity_bbox.this);
+            @Override
+            public void onLost(Network network) {
+                handler.post(() -> flow.onNetworkChanged(false));
+            }
+        };
+        getConnectivityManager().registerDefaultNetworkCallback(networkCallback);
 
-                    // Wait for the device to be connected to the internet.
-                    while (!isNetworkAvailable()) {
-                        System.out.println("ERROR: Network unavailable.");
-                    }
+        flow.start(isNetworkAvailable());
+    }
 
-                    m_mapLoader.getMapPackageAtCoordinate(new GeoCoordinate(35.615330, -82.5659220));
-                } else {
-                    // Error initializing MapEngine, finish
-                    finishResult(RESULT_CANCELED);
-                }
+    /**
+     * Shows and logs the transitions of the download flow.
+     */
+    private void onTransition(DownloadFlow.Phase from, DownloadFlow.Phase to, long elapsed) {
+        System.out.println("Map download " + from + " -> " + to + " after " + elapsed + " ms");
+        final StartupTrace trace = MainActivity.startupTrace;
+        if (trace != null && from != DownloadFlow.Phase.IDLE) {
+            // Add the phase left to the startup timeline
+            final long now = trace.now();
+            trace.span("download " + from.name().toLowerCase(Locale.US), "download", now - elapsed * 1000, now);
+            if (to == DownloadFlow.Phase.DONE) {
+                trace.setAttribute("download", flow.getOutcome());
             }
-        });
+        }
+        switch (to) {
+            case ENGINE_INIT:
+                textView.setText(R.string.initializing);
+                break;
+            case WAITING_FOR_NETWORK:
+                textView.setText(R.string.waiting_network);
+                break;
+            case LOCATING_PACKAGE:
+                textView.setText(R.string.fetching_map_content);
+                break;
+            case PREFETCHING:
+                textView.setText(R.string.map_pack_retrieved);
+                break;
+            case DONE:
+                System.out.println("Map download " + flow.getOutcome() + ", phases " + flow.getDurations());
+                break;
+            default:
+                break;
+        }
     }
 
-    @Override
-    public void onGetMapPackageAtCoordinateComplete(@Nullable MapPackage mapPackage, @Nullable GeoCoordinate geoCoordinate, MapLoader.ResultCode resultCode) {
-        if (resultCode == MapLoader.ResultCode.OPERATION_SUCCESSFUL) {
-            textView.setText(R.string.map_pack_retrieved);
+    /**
+     * Carries out the steps of the download flow.
+     */
+    private class DownloadActions implements DownloadFlow.Actions {
+        @Override
+        public void initEngine() {
+            if (MapEngine.isInitialized()) {
+                // Already initialized by the map fragment at startup
+                handler.post(() -> flow.onEngineInitialized(true));
+                return;
+            }
+            /*
+             * HERE Android SDK objects can only be instantiated after the MapEngine has been
+             * successfully initialized.
+             */
+            MapEngine.getInstance().init(new ApplicationContext(MapDownloadActivity_bbox.this), new OnEngineInitListener() {
+                @Override
+                public void onEngineInitializationCompleted(Error error) {
+                    if (error == Error.NONE) {
+                        System.out.println("Map engine initialized for download.");
+                    } else {
+                        System.out.println("ERROR: Map engine initialization failed: " + error);
+                    }
+                    handler.post(() -> flow.onEngineInitialized(error == Error.NONE));
+                }
+            });
+        }
+
+        @Override
+        public void locateMapPackage() {
+            if (m_mapLoader == null) {
+                // MapLoader object for downloading map data
+                m_mapLoader = MapLoader.getInstance();
+                m_mapLoader.addMapPackageAtCoordinateListener(MapDownloadActivity_bbox.this);
+            }
+            if (!m_mapLoader.getMapPackageAtCoordinate(new GeoCoordinate(35.615330, -82.5659220))) {
+                // The map loader is busy with an earlier lookup, try again later
+                flow.onMapPackageLocated(false);
+            }
+        }
 
-            // Prefetch map using bounding box around campus
-            m_mapDataPrefetcher = MapDataPrefetcher.getInstance();
+        @Override
+        public void startPrefetch() {
+            // Map data of another SDK version is cleared first, data of this version is resumed
+            MapCache.clearIfOutdated(getApplicationContext());
 
-            m_mapDataPrefetcher.addListener(new PrefetchMapDataListener());
+            // Prefetch the map data around the venue, wider areas are fetched once the map runs
+            final PrefetchPlan plan = MapCache.plan(VenueDirectoryAsset.load(getApplicationContext()));
+            m_prefetcher = MapCache.newPrefetcher(getApplicationContext(),
+                    Collections.singletonList(plan.getFirst()), PREFETCH_ATTEMPTS, new PrefetchMapDataListener());
+            m_prefetcher.start();
+        }
 
-            GeoCoordinate m_geoCoordinate = new GeoCoordinate(35.614395, -82.566610);
-            m_geoBoundingBox = new GeoBoundingBox(m_geoCoordinate, 20000, 20000);
+        @Override
+        public void stopPrefetch() {
+            if (m_prefetcher != null) {
+                m_prefetcher.cancel();
+                m_prefetcher = null;
+            }
+        }
 
-            m_mapDataPrefetcher.clearMapDataCache();
+        @Override
+        public void finish(DownloadFlow.Outcome outcome) {
+            unregisterNetworkCallback();
+            if (outcome == DownloadFlow.Outcome.FAILED) {
+                Toast.makeText(getApplicationContext(), R.string.m_data_install_fail, Toast.LENGTH_SHORT).show();
+            }
+            finishResult(outcome == DownloadFlow.Outcome.FAILED ? RESULT_CANCELED : RESULT_OK);
+        }
+    }
 
-            m_mapDataPrefetcher.estimateMapDataSize(m_geoBoundingBox);
-        } else {
-            // The map loader is busy, just try again
+    @Override
+    public void onGetMapPackageAtCoordinateComplete(@Nullable MapPackage mapPackage, @Nullable GeoCoordinate geoCoordinate, MapLoader.ResultCode resultCode) {
+        if (resultCode != MapLoader.ResultCode.OPERATION_SUCCESSFUL) {
             textView.setText(resultCode.toString());
-            m_mapLoader.cancelCurrentOperation();
-            m_mapLoader.getMapPackageAtCoordinate(new GeoCoordinate(35.615330, -82.5659220));
         }
+        flow.onMapPackageLocated(resultCode == MapLoader.ResultCode.OPERATION_SUCCESSFUL);
     }
 
     /**
-     * Contains callback functions for the MapDataPrefetcher.
+     * Contains callback functions for the TieredMapPrefetcher.
      */
-    private class PrefetchMapDataListener implements MapDataPrefetcher.Listener {
+    private class PrefetchMapDataListener implements TieredMapPrefetcher.Listener {
         @Override
-        public void onDataSizeEstimated(int requestId, boolean success, long dataSizeKB) {
-            if (success) {
-                diskSize = dataSizeKB;
-                textView.setText(String.format(Locale.US, "0%% [%.1f MB]", diskSize/1000.0));
-                m_mapDataPrefetcher.fetchMapData(m_geoBoundingBox);
-            } else {
-                m_mapDataPrefetcher.estimateMapDataSize(m_geoBoundingBox);
-            }
+        public void onTierProgress(PrefetchPlan.Tier tier) {
+            progressBar.setProgress((int) tier.getProgress());
+            textView.setText(tier.toString());
         }
 
         @Override
-        public void onProgress(int requestId, float progress) {
-            System.out.println("progress" + progress);
-            if ((int) progress >= 100) {
-                Toast.makeText(getApplicationContext(), R.string.m_data_install_complete, Toast.LENGTH_SHORT).show();
-            } else {
-                progressBar.setProgress((int) progress);
-                textView.setText(String.format(Locale.US, "%d%% [%.1f MB]", (int) progress, diskSize/1000.0));
-            }
+        public void onTierComplete(PrefetchPlan.Tier tier) {
+            Toast.makeText(getApplicationContext(), R.string.m_data_install_complete, Toast.LENGTH_SHORT).show();
         }
 
         @Override
-        public void onStatus(int requestId, PrefetchStatus status) {
-            if (status == PrefetchStatus.PREFETCH_SUCCESS) {
-                // Fetched map package
-                finishResult(RESULT_OK);
-            } else if (status == PrefetchStatus.PREFETCH_FAILURE || status == PrefetchStatus.PREFETCH_CANCELLED){
-                // Network failure, retry
-                m_mapDataPrefetcher.cancelAllRequests();
-                m_mapDataPrefetcher.fetchMapData(m_geoBoundingBox);
-            }
-            System.out.println(status.toString());
+        public void onFinished(boolean success) {
+            m_prefetcher = null;
+            flow.onPrefetchFinished(success);
         }
+    }
 
-        @Override
-        public void onCachePurged(boolean b) {
-
+    private void unregisterNetworkCallback() {
+        if (networkCallback != null) {
+            getConnectivityManager().unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
         }
     }
 
+    private ConnectivityManager getConnectivityManager() {
+        return (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
     /**
      * Determine if the user's device is connected to the internet.
      *
      * @return true if network is available
      */
     private boolean isNetworkAvailable() {
-        ConnectivityManager connectivityManager
-                = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+        NetworkInfo activeNetworkInfo = getConnectivityManager().getActiveNetworkInfo();
         return activeNetworkInfo != null && activeNetworkInfo.isConnected();
     }
 }
@@ -4,7 +4,9 @@ import android.app.AlertDialog;
 import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.PointF;
-import android.widget.TextView;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -39,17 +41,49 @@ import com.here.android.mpa.venues3d.DeselectionSource;
 import com.here.android.mpa.venues3d.Level;
 import com.here.android.mpa.venues3d.Space;
 import com.here.android.mpa.venues3d.Venue;
+import com.here.android.mpa.venues3d.VenueInfo;
 import com.here.android.mpa.venues3d.VenueMapFragment;
 import com.here.android.mpa.venues3d.VenueService;
-
+import com.schrold.uncanav.navigation.LocalRoutePlanner;
+import com.schrold.uncanav.navigation.NavigationSession;
+import com.schrold.uncanav.navigation.Prompts;
+import com.schrold.uncanav.navigation.Speaker;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.KalmanPositionFilter;
+import com.schrold.uncanav.positioning.PositionDispatcher;
+import com.schrold.uncanav.positioning.PositionFilter;
+import com.schrold.uncanav.positioning.TraceReader;
+import com.schrold.uncanav.positioning.TraceRecorder;
+import com.schrold.uncanav.positioning.TraceReplayer;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteCache;
+import com.schrold.uncanav.routing.RouteTable;
+import com.schrold.uncanav.speech.DestinationRanker;
+import com.schrold.uncanav.speech.Speculation;
+import com.schrold.uncanav.speech.UtteranceScheduler;
+import com.schrold.uncanav.startup.StartupGraph;
+import com.schrold.uncanav.startup.StartupTrace;
+import com.schrold.uncanav.venue.BuildingLocator;
+import com.schrold.uncanav.venue.BuildingTracker;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueCache;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 /**
  * Wrapper class to handle everything related to the map fragment. Also handles positioning and
@@ -88,8 +122,129 @@ public class MapFragmentView {
     // Current routing task
     private FTCRRouter.CancellableTask ftcrRoutingTask;
 
-    // Flag to determine if user has been welcomed
-    private boolean speak_welcome = false;
+    // Venue identifier of Rhoades-Robinson, the building with an indoor graph, which is active
+    // until the user is located in a building
+    private static final String DEFAULT_VENUE = "DM_15755";
+
+    // Fixes in a row that must agree before the active building changes
+    private static final int BUILDING_CONFIRM_FIXES = 3;
+
+    // Whether to fall back to the FTCRRouter when the on-device router has no route
+    private static final boolean FTCR_FALLBACK = true;
+
+    // Distance in meters from the end of a local route at which the user has arrived
+    private static final double ARRIVAL_RADIUS = 2.0;
+
+    // Number of routes kept in memory by each route cache
+    private static final int ROUTE_CACHE_SIZE = 32;
+
+    // Number of venues kept loaded, so that switching between nearby buildings is instant
+    private static final int VENUE_CACHE_SIZE = 4;
+
+    // Radius in meters around the user within which venues are preloaded
+    private static final double PRELOAD_RADIUS = 500;
+
+    // Minimum time in milliseconds and movement in meters between venue preloads
+    private static final long PRELOAD_INTERVAL = 30000;
+    private static final double PRELOAD_DISTANCE = 100;
+
+    // Center of campus, where venues are preloaded before the user's position is known
+    private static final double CAMPUS_LATITUDE = 35.615330;
+    private static final double CAMPUS_LONGITUDE = -82.5659220;
+
+    // Minimum time in milliseconds and movement in meters between camera moves, so that each
+    // animation finishes before the next one starts
+    private static final long CAMERA_INTERVAL = 1000;
+    private static final double CAMERA_DISTANCE = 1.0;
+
+    // Minimum time in milliseconds between location info updates
+    private static final long LOCATION_INFO_INTERVAL = 250;
+
+    // Directory of position traces in the app's files directory
+    private static final String TRACE_DIRECTORY = "traces";
+
+    // Trace recording every fix, and a trace that is replayed instead of live positions if present
+    private static final String TRACE_FILE = "positions.trace";
+    private static final String REPLAY_FILE = "replay.trace";
+
+    // Number of fixes kept in the trace, about nine hours at two fixes per second
+    private static final int TRACE_CAPACITY = 65536;
+
+    // Playback speed of a replayed trace
+    private static final double REPLAY_SPEED = 1.0;
+
+    // Handler of the main thread, runs deferred position deliveries
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Reports the map engine initialization to the startup graph
+    private StartupGraph.Completion engineReady;
+
+    // Flag indicating if the venue service is ready, and a task waiting for it
+    private boolean venueServiceReady;
+    private Runnable venueServiceTask;
+
+    // Flag indicating if the venue service initialized online rather than from offline data
+    private boolean venueServiceOnline;
+
+    // Building the user was last located in, whose venue and routing data are active
+    private volatile String activeVenue = DEFAULT_VENUE;
+
+    // Building of the navigation session's routing data
+    private volatile String sessionVenue = DEFAULT_VENUE;
+
+    // Flag indicating if the routing data of another building is being loaded
+    private boolean switchingSession;
+
+    // Detects building entry and exit from each fix, null until the venue directory has been loaded
+    private volatile BuildingTracker buildingTracker;
+
+    // Loaded venues near the user, null until the venue service is ready
+    private VenueCache<Venue> venueCache;
+
+    // Task run once the active venue has been selected
+    private Runnable venueSelectedTask;
+
+    // Task run once the user's position has been found
+    private Runnable positionFoundTask;
+
+    // Delivers position fixes to the camera, location info and guidance at their own rates
+    private final PositionDispatcher positionDispatcher =
+            new PositionDispatcher(SystemClock::elapsedRealtime, mainHandler::postDelayed);
+
+    // Fix reused for every position update
+    private final Fix positionFix = new Fix();
+
+    // Records every live fix, null if the trace file cannot be opened
+    private volatile TraceRecorder traceRecorder;
+
+    // Replays a recorded trace in place of live positions, null when positions are live
+    private volatile TraceReplayer traceReplayer;
+
+    // Shows the location information of each fix
+    private final LocationInfoRenderer locationInfo;
+
+    // Filters, snaps and guides positions, ranks destinations and plans local routes, null until
+    // the venue directory has been loaded
+    private volatile NavigationSession navigation;
+
+    // Cache of routes calculated by the FTCRRouter
+    private final RouteCache<FTCRRoute> ftcrRouteCache = new RouteCache<>(ROUTE_CACHE_SIZE);
+
+    // Background thread for speculative route calculations
+    private final ExecutorService routingExecutor = Executors.newSingleThreadExecutor();
+
+    // Local route calculated while the user is still speaking, keyed by origin node and destination
+    private final Speculation<String, Route> speculativeRoute = new Speculation<>(routingExecutor);
+
+    // FTCR calculation started while the user is still speaking, and its key
+    private FTCRRouter.CancellableTask speculativeFtcrTask;
+    private String speculativeFtcrKey;
+
+    // Whether the final speech result has confirmed the speculative FTCR calculation
+    private boolean speculativeFtcrConfirmed;
+
+    // Number of maneuvers passed during FTCR navigation, a prompt given before the last one is stale
+    private volatile int maneuversPassed;
 
     // Map object indicating current route
     private MapPolyline currentRoute;
@@ -105,6 +260,13 @@ public class MapFragmentView {
     public MapFragmentView(AppCompatActivity activity) {
         this.activity = activity;
         mapFragment = getMapFragment();
+        locationInfo = new LocationInfoRenderer(activity);
+        positionDispatcher.addListener("camera", this::moveCamera, CAMERA_INTERVAL, CAMERA_DISTANCE);
+        positionDispatcher.addListener("info", locationInfo::render, LOCATION_INFO_INTERVAL, 0);
+        positionDispatcher.addListener("guidance", this::updateGuidance, 0, 0);
+        positionDispatcher.addListener("building", this::updateBuilding, 0, 0);
+        positionDispatcher.addListener("venues", fix -> preloadVenues(fix.latitude, fix.longitude),
+                PRELOAD_INTERVAL, PRELOAD_DISTANCE);
     }
 
     /**
@@ -117,79 +279,417 @@ public class MapFragmentView {
     }
 
     /**
-     * Initializes the map engine and starts positioning updates.
+     * Loads the indoor graph and the position traces. Does not need the map engine, so it can run
+     * on a background thread while the engine initializes.
+     *
+     * @param directory the venue directory, null if it failed to load
+     */
+    public void loadData(VenueDirectory directory) {
+        // Load the destinations and indoor graph so routes can be calculated on the device
+        loadVenueData(directory);
+        openTraces();
+    }
+
+    /**
+     * Initializes the map engine through the map fragment, followed by the venue service. The map
+     * is set up and the FTCRRouter and navigation manager are created as soon as the engine is
+     * ready, without waiting for the venue service.
+     *
+     * @param engineReady reports whether the map engine initialized
+     */
+    public void initMap(StartupGraph.Completion engineReady) {
+        this.engineReady = engineReady;
+        mapFragment.init(m_onEngineInitListener, m_venueServiceListener);
+    }
+
+    /**
+     * Starts positioning updates, shows an error if they cannot be started. The map engine must
+     * be initialized.
+     *
+     * @return true if positioning has started
+     */
+    public boolean startPositioning() {
+        if (!initPositioning()) {
+            // Positioning initialization failed
+            showErrorMessage("Positioning initialization", "Positioning initialization failed. Exiting.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs a task once the venue service is ready, right away if it already is. Must be called on
+     * the main thread, the task runs on the main thread.
+     *
+     * @param task the task
+     */
+    public void whenVenueServiceReady(Runnable task) {
+        if (venueServiceReady) {
+            task.run();
+        } else {
+            venueServiceTask = task;
+        }
+    }
+
+    /**
+     * @return whether the venue service initialized online, valid once it is ready
+     */
+    public boolean isVenueServiceOnline() {
+        return venueServiceOnline;
+    }
+
+    /**
+     * Selects the active venue. The venue service must be ready. Must be called on the main
+     * thread.
+     *
+     * @param onSelected task run on the main thread once the venue is selected
+     */
+    public void selectVenue(Runnable onSelected) {
+        venueSelectedTask = onSelected;
+        showVenue(activeVenue);
+    }
+
+    /**
+     * Selects a venue on the map, from the venue cache if it is loaded. Must be called on the main
+     * thread once the venue service is ready.
+     *
+     * @param venueId the venue identifier
+     */
+    public void showVenue(String venueId) {
+        venueCache.request(venueId, venue -> {
+            if (venue != null) {
+                mapFragment.selectVenue(venue);
+            } else {
+                // Let the map fragment load the venue itself
+                mapFragment.selectVenueAsync(venueId);
+            }
+        });
+    }
+
+    /**
+     * Preloads the venues near the user's last known position, or near the center of campus if
+     * it is unknown. Must be called on the main thread once the venue service is ready.
+     */
+    public void preloadVenues() {
+        GeoPosition position = posManager != null ? posManager.getLastKnownPosition() : null;
+        if (position != null && position.isValid() && position.getCoordinate() != null) {
+            preloadVenues(position.getCoordinate().getLatitude(), position.getCoordinate().getLongitude());
+        } else {
+            preloadVenues(CAMPUS_LATITUDE, CAMPUS_LONGITUDE);
+        }
+    }
+
+    /**
+     * Preloads the venues near a position, nearest first.
+     *
+     * @param latitude the latitude of the position
+     * @param longitude the longitude of the position
+     */
+    private void preloadVenues(double latitude, double longitude) {
+        NavigationSession session = navigation;
+        if (venueCache == null || session == null) {
+            return;
+        }
+        List<String> venueIds = new ArrayList<>();
+        for (VenueDirectory.Building building : session.getDirectory().getBuildingsNear(latitude, longitude, PRELOAD_RADIUS)) {
+            venueIds.add(building.getId());
+        }
+        venueCache.preload(venueIds);
+    }
+
+    /**
+     * Creates the venue cache, which loads venues through the venue service.
      */
-    public void initialize() {
-        OnEngineInitListener m_onEngineInitListener = new OnEngineInitListener() {
+    private void createVenueCache() {
+        final VenueService venueService = mapFragment.getVenueService();
+        venueCache = new VenueCache<>(VENUE_CACHE_SIZE, venueService::getVenueAsync, new VenueCache.Listener<Venue>() {
             @Override
-            public void onEngineInitializationCompleted(final OnEngineInitListener.Error error) {
-                if (error == OnEngineInitListener.Error.NONE) {
-                    // Add listener for venues
-                    mapFragment.addListener(m_venueListener);
-                    // Add listener for map gestures
-                    mapFragment.getMapGesture().addOnGestureListener(m_onGestureListener, 0, true);
-                    // Retrieve a reference of the map from the map fragment
-                    map = mapFragment.getMap();
-                    // Set the zoom level
-                    map.setZoomLevel(map.getMaxZoomLevel() * 0.90);
-                    // Set the tilt to 45 degrees
-                    map.setTilt(45);
-                    // Set initial center of map
-                    map.setCenter(new GeoCoordinate(35.615330, -82.5659220, 0), Map.Animation.NONE);
-                    // Other customization options
-                    map.setMapScheme(Map.Scheme.PEDESTRIAN_DAY);
-                    int nightModeFlags =
-                            activity.getApplicationContext().getResources().getConfiguration().uiMode &
-                                    Configuration.UI_MODE_NIGHT_MASK;
-                    if (nightModeFlags == Configuration.UI_MODE_NIGHT_YES) {
-                        map.setMapScheme(Map.Scheme.PEDESTRIAN_NIGHT);
-                    }
-                    map.setPedestrianFeaturesVisible(EnumSet.of(Map.PedestrianFeature.CROSSWALK));
-                    map.setLandmarksVisible(true);
-                    map.setExtrudedBuildingsVisible(true);
-                } else {
-                    showErrorMessage(error.name(), error.getDetails());
+            public void onLoaded(String venueId, Venue venue, long elapsed) {
+                System.out.println("Venue " + venueId + (venue != null ? " loaded" : " failed to load")
+                        + " in " + elapsed + " ms, " + venueCache);
+                StartupTrace trace = MainActivity.startupTrace;
+                if (trace != null) {
+                    long now = trace.now();
+                    trace.span("venue load " + venueId, "venue", now - elapsed * 1000, now);
                 }
             }
-        };
 
-        VenueService.VenueServiceListener m_venueServiceListener = new VenueService.VenueServiceListener() {
             @Override
-            public void onInitializationCompleted(VenueService.InitStatus initStatus) {
-                switch (initStatus) {
-                    case IN_PROGRESS:
-                        break;
-                    case OFFLINE_SUCCESS:
-                    case ONLINE_SUCCESS:
-                        // Initialize positioning updates
-                        if (!initPositioning()) {
-                            // Positioning initialization failed
-                            showErrorMessage("Positioning initialization", "Positioning initialization failed. Exiting.");
-                        }
-                        // Select Rhoades-Robinson building
-                        mapFragment.selectVenueAsync("DM_15755");
-                        // Initialize the FTCRRouter and NavigationManager
-                        router = new FTCRRouter();
-                        navigationManager = new FTCRNavigationManager();
-                        // Set up the navigation manager and speech settings
-                        navigationManager.setMap(map);
-                        navigationManager.addNavigationListener(m_FTCRNavigationListener);
-                        navigationManager.setMapTrackingMode(FTCRNavigationManager.TrackingMode.NONE);
-                        navigationManager.getAudioPlayer().setDelegate(m_audioPlayerDelegate);
-                        navigationManager.getVoiceGuidanceOptions().setVoicePromptDistanceRangeFromPreviousManeuver(new FTCRVoiceGuidanceOptions.Range(10, -1));
-                        navigationManager.getVoiceGuidanceOptions().setVoicePromptDistanceRangeToNextManeuver(new FTCRVoiceGuidanceOptions.Range(-1, 4));
-                        navigationManager.getVoiceGuidanceOptions().setVoicePromptTimeRangeToNextManeuver(new FTCRVoiceGuidanceOptions.Range(-1, -1));
-                        break;
-                    default:
-                        // Initialization failed, retry
-                        System.out.println("Initialization status:" + initStatus.toString());
-                        initialize();
-                        break;
+            public void onEvicted(String venueId, Venue venue) {
+                System.out.println("Venue " + venueId + " evicted");
+            }
+        }, SystemClock::elapsedRealtime);
+        venueService.addVenueLoadListener(m_venueLoadListener);
+    }
+
+    /**
+     * Reports venue loads to the venue cache on the main thread.
+     */
+    private final VenueService.VenueLoadListener m_venueLoadListener = new VenueService.VenueLoadListener() {
+        @Override
+        public void onVenueLoadCompleted(Venue venue, VenueInfo venueInfo, VenueService.VenueLoadStatus status) {
+            final String venueId = venueInfo != null ? venueInfo.getId()
+                    : venue != null && venue.getVenueInfo() != null ? venue.getVenueInfo().getId() : null;
+            if (venueId == null) {
+                System.out.println("ERROR: Venue load completed without a venue: " + status);
+                return;
+            }
+            mainHandler.post(() -> {
+                if (venueCache == null) {
+                    return;
+                }
+                if (status != VenueService.VenueLoadStatus.FAILED && venue != null) {
+                    venueCache.onLoaded(venueId, venue);
+                } else {
+                    venueCache.onLoadFailed(venueId);
+                }
+            });
+        }
+    };
+
+    /**
+     * @return the venue service of the map fragment, initialized once the venue service is ready
+     */
+    public VenueService getVenueService() {
+        return mapFragment.getVenueService();
+    }
+
+    /**
+     * Runs a task once the user's position has been found, right away if it already has. Must be
+     * called on the main thread, the task runs on the main thread.
+     *
+     * @param task the task
+     */
+    public void whenPositionFound(Runnable task) {
+        if (foundPos) {
+            task.run();
+        } else {
+            positionFoundTask = task;
+        }
+    }
+
+    /**
+     * Sets up the map and the navigation manager once the map engine is initialized.
+     */
+    private final OnEngineInitListener m_onEngineInitListener = new OnEngineInitListener() {
+        @Override
+        public void onEngineInitializationCompleted(final OnEngineInitListener.Error error) {
+            if (error == OnEngineInitListener.Error.NONE) {
+                // Add listener for venues
+                mapFragment.addListener(m_venueListener);
+                // Add listener for map gestures
+                mapFragment.getMapGesture().addOnGestureListener(m_onGestureListener, 0, true);
+                // Retrieve a reference of the map from the map fragment
+                map = mapFragment.getMap();
+                // Set the zoom level
+                map.setZoomLevel(map.getMaxZoomLevel() * 0.90);
+                // Set the tilt to 45 degrees
+                map.setTilt(45);
+                // Set initial center of map
+                map.setCenter(new GeoCoordinate(35.615330, -82.5659220, 0), Map.Animation.NONE);
+                // Other customization options
+                map.setMapScheme(Map.Scheme.PEDESTRIAN_DAY);
+                int nightModeFlags =
+                        activity.getApplicationContext().getResources().getConfiguration().uiMode &
+                                Configuration.UI_MODE_NIGHT_MASK;
+                if (nightModeFlags == Configuration.UI_MODE_NIGHT_YES) {
+                    map.setMapScheme(Map.Scheme.PEDESTRIAN_NIGHT);
+                }
+                map.setPedestrianFeaturesVisible(EnumSet.of(Map.PedestrianFeature.CROSSWALK));
+                map.setLandmarksVisible(true);
+                map.setExtrudedBuildingsVisible(true);
+                if (navigationManager == null) {
+                    // Initialize the FTCRRouter and NavigationManager
+                    router = new FTCRRouter();
+                    navigationManager = new FTCRNavigationManager();
+                    // Set up the navigation manager and speech settings
+                    navigationManager.setMap(map);
+                    navigationManager.addNavigationListener(m_FTCRNavigationListener);
+                    navigationManager.setMapTrackingMode(FTCRNavigationManager.TrackingMode.NONE);
+                    navigationManager.getAudioPlayer().setDelegate(m_audioPlayerDelegate);
+                    navigationManager.getVoiceGuidanceOptions().setVoicePromptDistanceRangeFromPreviousManeuver(new FTCRVoiceGuidanceOptions.Range(10, -1));
+                    navigationManager.getVoiceGuidanceOptions().setVoicePromptDistanceRangeToNextManeuver(new FTCRVoiceGuidanceOptions.Range(-1, 4));
+                    navigationManager.getVoiceGuidanceOptions().setVoicePromptTimeRangeToNextManeuver(new FTCRVoiceGuidanceOptions.Range(-1, -1));
                 }
+                engineReady.complete();
+            } else {
+                showErrorMessage(error.name(), error.getDetails());
+                engineReady.fail(error.name());
             }
-        };
+        }
+    };
 
-        mapFragment.init(m_onEngineInitListener, m_venueServiceListener);
+    /**
+     * Runs the task waiting for the venue service once it is ready, retries a failed
+     * initialization.
+     */
+    private final VenueService.VenueServiceListener m_venueServiceListener = new VenueService.VenueServiceListener() {
+        @Override
+        public void onInitializationCompleted(VenueService.InitStatus initStatus) {
+            switch (initStatus) {
+                case IN_PROGRESS:
+                    break;
+                case OFFLINE_SUCCESS:
+                case ONLINE_SUCCESS:
+                    mainHandler.post(() -> {
+                        if (venueCache == null) {
+                            createVenueCache();
+                        }
+                        venueServiceOnline = initStatus == VenueService.InitStatus.ONLINE_SUCCESS;
+                        venueServiceReady = true;
+                        if (venueServiceTask != null) {
+                            venueServiceTask.run();
+                            venueServiceTask = null;
+                        }
+                    });
+                    break;
+                default:
+                    // Initialization failed, retry
+                    System.out.println("Initialization status:" + initStatus.toString());
+                    mapFragment.init(m_onEngineInitListener, m_venueServiceListener);
+                    break;
+            }
+        }
+    };
+
+    /**
+     * Loads the indoor graph of the active building, and creates the navigation session and the
+     * building tracker. On first run the routes to every destination in the building are
+     * precomputed into a route table file. Without a graph routing falls back to the FTCRRouter.
+     *
+     * @param directory the venue directory, null if it failed to load
+     */
+    private void loadVenueData(VenueDirectory directory) {
+        if (navigation != null || directory == null) {
+            return;
+        }
+        String venueId = activeVenue;
+        navigation = createSession(directory, venueId, new KalmanPositionFilter());
+        sessionVenue = venueId;
+        buildingTracker = new BuildingTracker(directory, new BuildingLocator(directory.getBuildings()),
+                BUILDING_CONFIRM_FIXES, m_buildingListener);
+    }
+
+    /**
+     * Creates a navigation session with the routing data of a building.
+     *
+     * @param directory the venue directory
+     * @param venueId the venue identifier of the building
+     * @param filter smooths fixes, shared with the session being replaced
+     * @return the session
+     */
+    private NavigationSession createSession(VenueDirectory directory, String venueId, PositionFilter filter) {
+        return new NavigationSession(directory, loadRoutePlanner(directory, venueId), filter,
+                ARRIVAL_RADIUS, m_speaker, new Prompts(
+                        activity.getResources().getString(R.string.start_nav),
+                        activity.getResources().getString(R.string.no_destination),
+                        activity.getResources().getString(R.string.rerouting),
+                        activity.getResources().getString(R.string.arrived),
+                        activity.getResources().getString(R.string.turn_left),
+                        activity.getResources().getString(R.string.turn_right),
+                        activity.getResources().getString(R.string.stairs_up),
+                        activity.getResources().getString(R.string.stairs_down),
+                        activity.getResources().getString(R.string.door_left),
+                        activity.getResources().getString(R.string.door_right),
+                        activity.getResources().getString(R.string.door_ahead)),
+                m_navigationListener);
+    }
+
+    /**
+     * Loads the indoor graph of a venue and its route table, for routing on the device.
+     *
+     * @param directory the venue directory
+     * @param venueId the venue identifier of the building
+     * @return the route planner, or null if the venue has no indoor graph
+     */
+    @Nullable
+    private LocalRoutePlanner loadRoutePlanner(VenueDirectory directory, String venueId) {
+        VenueDirectory.Building building = directory.getBuilding(venueId);
+        if (building == null || building.getGraphAsset() == null) {
+            return null;
+        }
+        IndoorGraph graph;
+        try (Reader reader = openAsset(building.getGraphAsset())) {
+            graph = IndoorGraph.fromJson(reader);
+        } catch (IOException e) {
+            System.out.println("ERROR: Indoor graph failed to load: " + e);
+            return null;
+        }
+        IndoorRouter router = new IndoorRouter(graph);
+        try {
+            File tableFile = new File(activity.getFilesDir(), building.getId() + "_routes.bin");
+            router.setRouteTable(RouteTable.openOrBuild(graph,
+                    destinationNodes(graph, directory.getDestinations(building.getId())), tableFile));
+        } catch (IOException e) {
+            // Routes are searched instead
+            System.out.println("ERROR: Route table unavailable: " + e);
+        }
+        // Cached routes are only valid for the graph they were calculated on
+        File cacheDir = new File(activity.getCacheDir(), "routes/" + Long.toHexString(graph.fingerprint()));
+        // Cache files are written on the routing thread, routes are stored from the main thread
+        return new LocalRoutePlanner(router, new RouteCache<>(ROUTE_CACHE_SIZE, cacheDir, Route.CODEC,
+                RouteCache.DEFAULT_DISK_CAPACITY, routingExecutor));
+    }
+
+    /**
+     * Opens the position trace for recording, or the trace to replay when one has been placed
+     * in the trace directory.
+     */
+    private void openTraces() {
+        if (traceRecorder != null || traceReplayer != null) {
+            return;
+        }
+        File directory = new File(activity.getFilesDir(), TRACE_DIRECTORY);
+        File replayFile = new File(directory, REPLAY_FILE);
+        if (replayFile.isFile()) {
+            try {
+                TraceReader reader = TraceReader.open(replayFile);
+                traceReplayer = new TraceReplayer(reader, this::onFix, mainHandler::postDelayed, REPLAY_SPEED);
+                System.out.println("Replaying " + reader.size() + " fixes from " + replayFile);
+                return;
+            } catch (IOException e) {
+                System.out.println("ERROR: Trace failed to open for replay: " + e);
+            }
+        }
+        try {
+            traceRecorder = new TraceRecorder(new File(directory, TRACE_FILE), TRACE_CAPACITY);
+        } catch (IOException e) {
+            System.out.println("ERROR: Trace failed to open for recording: " + e);
+        }
+    }
+
+    /**
+     * Opens a UTF-8 text asset.
+     *
+     * @param name the name of the asset
+     * @return a reader for the asset
+     * @throws IOException if the asset cannot be opened
+     */
+    private Reader openAsset(String name) throws IOException {
+        return new InputStreamReader(activity.getAssets().open(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the graph nodes of a list of destinations.
+     *
+     * @param graph the indoor graph
+     * @param destinations the destinations
+     * @return the distinct graph nodes in ascending order
+     */
+    private static int[] destinationNodes(IndoorGraph graph, List<Destination> destinations) {
+        TreeSet<Integer> nodes = new TreeSet<>();
+        for (Destination destination : destinations) {
+            int node = destination.getNode() != null ? graph.indexOf(destination.getNode()) : -1;
+            if (node >= 0) {
+                nodes.add(node);
+            }
+        }
+        int[] result = new int[nodes.size()];
+        int i = 0;
+        for (int node : nodes) {
+            result[i++] = node;
+        }
+        return result;
     }
 
     /**
@@ -208,6 +708,11 @@ public class MapFragmentView {
         // Set the position and accuracy indicator to be visible
         mapFragment.getPositionIndicator().setVisible(true);
         mapFragment.getPositionIndicator().setAccuracyIndicatorVisible(true);
+        // Play back a recorded trace instead of the live positions
+        TraceReplayer replayer = traceReplayer;
+        if (replayer != null) {
+            mainHandler.post(replayer::start);
+        }
         return true;
     }
 
@@ -227,12 +732,16 @@ public class MapFragmentView {
         @Override public boolean playText(@NonNull final String s) {
             // Trim out 'road names'
             if (s.contains("on") && !s.contains("arrive")) {
-                MainActivity.speak(s.substring(0, s.indexOf("on")));
+                // Drop the prompt if its maneuver is passed before it is spoken
+                final int maneuver = maneuversPassed;
+                MainActivity.speakGuidance(s.substring(0, s.indexOf("on")), () -> maneuver == maneuversPassed);
             }
             return true;
         }
 
         @Override public boolean playFiles(@NonNull String[] strings) {
+            // Guidance uses a TTS voice skin, recurring prompts are played from recordings made
+            // by the prompt audio cache
             return false;
         }
     };
@@ -243,10 +752,33 @@ public class MapFragmentView {
      * @param route the route to draw on the map
      */
     private void drawRoute(FTCRRoute route) {
+        drawRoute(route.getGeometry());
+    }
+
+    /**
+     * Draws a route calculated on the device onto the map and removes previous route.
+     *
+     * @param route the route to draw on the map
+     */
+    private void drawRoute(Route route) {
+        List<GeoCoordinate> geometry = new ArrayList<>(route.size());
+        for (int i = 0; i < route.size(); i++) {
+            geometry.add(new GeoCoordinate(route.latitude(i), route.longitude(i)));
+        }
+        drawRoute(geometry);
+    }
+
+    /**
+     * Draws a polyline onto the map, replacing the geometry of the previous route in place.
+     *
+     * @param geometry the points of the route
+     */
+    private void drawRoute(List<GeoCoordinate> geometry) {
         if (currentRoute != null) {
-            map.removeMapObject(currentRoute);
+            currentRoute.setGeoPolyline(new GeoPolyline(geometry));
+            return;
         }
-        currentRoute = new MapPolyline(new GeoPolyline(route.getGeometry()));
+        currentRoute = new MapPolyline(new GeoPolyline(geometry));
         currentRoute.setLineColor(Color.argb(255, 185, 63, 2));
         currentRoute.setLineWidth(15);
         currentRoute.setPatternStyle(MapPolyline.PatternStyle.DASH_PATTERN);
@@ -254,14 +786,167 @@ public class MapFragmentView {
     }
 
     /**
-     * Begins the routing process using a GeoCoordinate as input.
+     * Begins the routing process to a destination. The route is taken from the route caches or
+     * calculated on the device when possible, otherwise by the FTCRRouter.
      *
-     * @param destination the GeoCoordinate of the destination
+     * @param target the destination from the venue directory
      */
-    private void startRouting(GeoCoordinate destination) {
+    private void startRouting(Destination target) {
         // Clear the map
         map.removeAllMapObjects();
+        currentRoute = null;
+        NavigationSession session = navigation;
+        session.stop();
 
+        // Add a marker on map for destination
+        String destinationId = target.getId();
+        GeoCoordinate destination = new GeoCoordinate(target.getLatitude(), target.getLongitude());
+        map.addMapObject(new MapMarker(destination));
+
+        // Route from the user's position on the corridors, whose graph node keys the route caches
+        GeoCoordinate currentLocation = getCurrentLocation();
+        int originNode = session.originNode(target);
+
+        // Use the route calculated from partial speech results if it is for the same trip
+        String key = speculationKey(originNode, destinationId);
+        Route route = speculativeRoute.claim(key);
+        if (route != null) {
+            session.commitRoute(originNode, target, route);
+        } else {
+            route = session.route(originNode, target);
+        }
+        if (route != null) {
+            discardSpeculativeFtcr();
+            session.follow(route);
+        } else if (FTCR_FALLBACK) {
+            FTCRRoute cached = originNode >= 0 ? ftcrRouteCache.get(originNode, destinationId) : null;
+            if (cached != null) {
+                discardSpeculativeFtcr();
+                drawRoute(cached);
+                navigationManager.start(cached);
+            } else if (key.equals(speculativeFtcrKey)) {
+                // The calculation is already running, navigation starts when it finishes
+                speculativeFtcrConfirmed = true;
+            } else {
+                discardSpeculativeFtcr();
+                startFTCRRouting(originNode, destinationId, currentLocation, destination);
+            }
+        } else {
+            discardSpeculativeFtcr();
+            MainActivity.speak(activity.getResources().getString(R.string.route_error));
+        }
+    }
+
+    /**
+     * Returns the user's position, snapped onto the corridors when inside the indoor graph.
+     *
+     * @return the position
+     */
+    private GeoCoordinate getCurrentLocation() {
+        NavigationSession session = navigation;
+        if (session != null && session.hasPosition()) {
+            return new GeoCoordinate(session.getPosition().latitude, session.getPosition().longitude);
+        }
+        return new GeoCoordinate(posManager.getPosition().getCoordinate());
+    }
+
+    /**
+     * Starts calculating the route to the destination named in a partial speech result, so that
+     * navigation can start without waiting once the final result confirms it. Nothing is drawn
+     * or spoken; a calculation the final result does not confirm is discarded.
+     *
+     * @param hypotheses the partial texts captured by the speech recognizer, best first
+     */
+    public void onPartialSpeech(List<String> hypotheses) {
+        final NavigationSession session = navigation;
+        if (session == null || navigationManager == null || isNavigating()) {
+            return;
+        }
+        final Destination target = session.rank(hypotheses, null).destination;
+        if (target == null) {
+            return;
+        }
+        final int originNode = session.originNode(target);
+        String key = speculationKey(originNode, target.getId());
+        GeoCoordinate position = getCurrentLocation();
+
+        if (session.isRoutable(target)) {
+            speculativeRoute.speculate(key, () -> session.speculateRoute(originNode, target));
+        } else if (FTCR_FALLBACK && !key.equals(speculativeFtcrKey)
+                && (originNode < 0 || ftcrRouteCache.get(originNode, target.getId()) == null)) {
+            discardSpeculativeFtcr();
+            speculateFTCRRouting(key, originNode, target.getId(), position,
+                    new GeoCoordinate(target.getLatitude(), target.getLongitude()));
+        }
+    }
+
+    /**
+     * Returns the key of a speculative route calculation.
+     */
+    private static String speculationKey(int originNode, String destinationId) {
+        return originNode + ":" + destinationId;
+    }
+
+    /**
+     * Calculates a route with the FTCRRouter ahead of the final speech result. The route is only
+     * stored in the route cache, unless the final result has confirmed it by the time it arrives.
+     *
+     * @param key the speculation key of the trip
+     * @param originNode the graph node nearest to the user
+     * @param destinationId the identifier of the destination
+     * @param currentLocation the user's position
+     * @param destination the GeoCoordinate of the destination
+     */
+    private void speculateFTCRRouting(final String key, final int originNode, final String destinationId,
+                                      GeoCoordinate currentLocation, GeoCoordinate destination) {
+        speculativeFtcrKey = key;
+        speculativeFtcrConfirmed = false;
+        speculativeFtcrTask = router.calculateRoute(createRoutePlan(currentLocation, destination),
+                new FTCRRouter.Listener() {
+            @Override
+            public void onCalculateRouteFinished(@NonNull List<FTCRRoute> routeResults, @NonNull FTCRRouter.ErrorResponse errorResponse) {
+                if (!key.equals(speculativeFtcrKey)) {
+                    // Discarded while the calculation was running
+                    return;
+                }
+                boolean confirmed = speculativeFtcrConfirmed;
+                speculativeFtcrKey = null;
+                speculativeFtcrTask = null;
+                if (errorResponse.getErrorCode() == RoutingError.NONE) {
+                    if (originNode >= 0) {
+                        ftcrRouteCache.put(originNode, destinationId, routeResults.get(0));
+                    }
+                    if (confirmed) {
+                        drawRoute(routeResults.get(0));
+                        navigationManager.start(routeResults.get(0));
+                    }
+                } else if (confirmed) {
+                    MainActivity.speak(activity.getResources().getString(R.string.route_error));
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the speculative FTCR calculation, if any.
+     */
+    private void discardSpeculativeFtcr() {
+        if (speculativeFtcrTask != null) {
+            speculativeFtcrTask.cancel();
+        }
+        speculativeFtcrTask = null;
+        speculativeFtcrKey = null;
+        speculativeFtcrConfirmed = false;
+    }
+
+    /**
+     * Creates a pedestrian route plan over the FTCR map overlay of the campus.
+     *
+     * @param currentLocation the user's position
+     * @param destination the GeoCoordinate of the destination
+     * @return the route plan
+     */
+    private FTCRRoutePlan createRoutePlan(GeoCoordinate currentLocation, GeoCoordinate destination) {
         // Create the RouteOptions and set transport mode & routing type
         FTCRRouteOptions routeOptions = new FTCRRouteOptions();
         routeOptions.setTransportMode(FTCRRouteOptions.TransportMode.PEDESTRIAN);
@@ -270,7 +955,6 @@ public class MapFragmentView {
 
         // Create the RoutePlan with two waypoints
         List<RouteWaypoint> routePoints = new ArrayList<>();
-        GeoCoordinate currentLocation = new GeoCoordinate(posManager.getPosition().getCoordinate());
         routePoints.add(new RouteWaypoint(currentLocation));
         routePoints.add(new RouteWaypoint(destination));
         FTCRRoutePlan routePlan = new FTCRRoutePlan(routePoints, routeOptions);
@@ -278,17 +962,29 @@ public class MapFragmentView {
         // Set the name of the FTCR map overlay to use
         // See:     https://tcs.ext.here.com/examples/v3/cre_submit_overlay
         routePlan.setOverlay("OVERLAYRRO1");
+        return routePlan;
+    }
 
-        // Add a marker on map for destination
-        MapMarker endMapMarker = new MapMarker(destination);
-        map.addMapObject(endMapMarker);
-
+    /**
+     * Calculates a route with the FTCRRouter and starts its navigation manager.
+     *
+     * @param originNode the graph node nearest to the user, or -1 if unknown
+     * @param destinationId the identifier of the destination
+     * @param currentLocation the user's position
+     * @param destination the GeoCoordinate of the destination
+     */
+    private void startFTCRRouting(final int originNode, final String destinationId,
+                                  GeoCoordinate currentLocation, GeoCoordinate destination) {
         // Calculate the route
-        ftcrRoutingTask = router.calculateRoute(routePlan, new FTCRRouter.Listener() {
+        ftcrRoutingTask = router.calculateRoute(createRoutePlan(currentLocation, destination), new FTCRRouter.Listener() {
             @Override
             public void onCalculateRouteFinished(@NonNull List<FTCRRoute> routeResults, @NonNull FTCRRouter.ErrorResponse errorResponse) {
                 // If the route was calculated successfully
                 if (errorResponse.getErrorCode() == RoutingError.NONE) {
+                    // Keep the route for repeated trips
+                    if (originNode >= 0) {
+                        ftcrRouteCache.put(originNode, destinationId, routeResults.get(0));
+                    }
                     // Draw the route on the map
                     drawRoute(routeResults.get(0));
                     // Start navigation
@@ -306,6 +1002,10 @@ public class MapFragmentView {
      * Stops navigation and removes routing overlays from map.
      */
     private void stopRouting() {
+        NavigationSession session = navigation;
+        if (session != null) {
+            session.stop();
+        }
         if (navigationManager != null && navigationManager.isActive()) {
             navigationManager.getAudioPlayer().stop();
             navigationManager.stop();
@@ -313,66 +1013,47 @@ public class MapFragmentView {
         if (ftcrRoutingTask != null) {
             ftcrRoutingTask.cancel();
         }
+        speculativeRoute.discard();
+        discardSpeculativeFtcr();
         map.removeAllMapObjects();
+        currentRoute = null;
     }
 
     /**
-     * A HashMap containing key-value pairs for room numbers and their coordinates.
-     */
-    private final HashMap<String, GeoCoordinate> classrooms = new HashMap<String, GeoCoordinate>() {{
-        put("106", new GeoCoordinate(35.615634,-82.565787));
-        put("111", new GeoCoordinate(35.615754,-82.565703));
-        put("113", new GeoCoordinate(35.615784,-82.565677));
-        put("114", new GeoCoordinate(35.615817,-82.56563));
-        put("115", new GeoCoordinate(35.615852,-82.565596));
-        put("117", new GeoCoordinate(35.61586,-82.565557));
-
-        put("108", new GeoCoordinate(35.615657,-82.56567));
-        put("110", new GeoCoordinate(35.615706,-82.56561));
-        put("112", new GeoCoordinate(35.615722,-82.56559));
-        put("116", new GeoCoordinate(35.615793,-82.565531));
-
-        put("125", new GeoCoordinate(35.61594,-82.565401));
-        put("126", new GeoCoordinate(35.615906,-82.565364));
-        put("127", new GeoCoordinate(35.61589,-82.565319));
-        put("128", new GeoCoordinate(35.615863,-82.5653));
-
-        put("131", new GeoCoordinate(35.615789,-82.56522));
-        put("132", new GeoCoordinate(35.615726,-82.565289));
-        put("135", new GeoCoordinate(35.615655,-82.56536));
-        put("138", new GeoCoordinate(35.615558,-82.565471));
-    }};
-
-    /**
-     * Callback function for handling speech recognizer results. If result matches
-     * a valid destination, begin routing.
-     *
-     * @param result the string captured by the speech recognizer
-     */
-    public void speechCallback(String result) {
-        // Check if user cancelled input
-        Pattern cancel = Pattern.compile("cancel|nevermind|never mind", Pattern.CASE_INSENSITIVE);
-        if (result != null && !cancel.matcher(result).find()) {
-            // Check if input contains a room number or bathroom
-            Pattern p_num = Pattern.compile("\\d+|bathroom");
-            Matcher m = p_num.matcher(result);
-            String match = "";
-            boolean no_dest = true;
-            if (m.find()) {
-                // Possible destination, check if in room hashmap
-                match = m.group();
-                System.out.printf("regex match: %s%n", match);
-                if (classrooms.containsKey(match)) {
-                    MainActivity.speak(activity.getResources().getString(R.string.start_nav));
-                    no_dest = false;
-                }
-            }
+     * Checks whether the user is currently being guided to a destination.
+     *
+     * @return true if a local route or the navigation manager is active
+     */
+    private boolean isNavigating() {
+        NavigationSession session = navigation;
+        return (session != null && session.isFollowing())
+                || (navigationManager != null && navigationManager.isActive());
+    }
+
+    /**
+     * Callback function for handling speech recognizer results. Every hypothesis is scored
+     * against the venue directory, and if the best one names a destination, routing begins.
+     *
+     * @param hypotheses the n-best texts captured by the speech recognizer, best first
+     * @param confidences the recognizer's confidence in each hypothesis, may be null
+     */
+    public void speechCallback(List<String> hypotheses, @Nullable float[] confidences) {
+        NavigationSession session = navigation;
+        if (session == null) {
             // If there is no destination, tell user
-            if (no_dest)
-                MainActivity.speak(activity.getResources().getString(R.string.no_destination));
-            else
-                startRouting(classrooms.get(match));
+            MainActivity.speak(activity.getResources().getString(R.string.no_destination));
+            return;
+        }
+        // Announces the destination, or that there is none
+        DestinationRanker.Result result = session.onSpeech(hypotheses, confidences);
+        if (result.destination == null) {
+            // User cancelled input or named no destination
+            speculativeRoute.discard();
+            discardSpeculativeFtcr();
+            return;
         }
+        System.out.printf("destination match: %s (%.2f)%n", result.destination, result.score);
+        startRouting(result.destination);
     }
 
     /**
@@ -381,19 +1062,16 @@ public class MapFragmentView {
     private final PositioningManager.OnPositionChangedListener m_onPositionChangedListener = new OnPositionChangedListener() {
         @Override
         public void onPositionUpdated(PositioningManager.LocationMethod locationMethod, @Nullable GeoPosition geoPosition, boolean b) {
-            // Set the center of the map when app is in foreground
-            if (!paused && geoPosition != null) {
-                map.setCenter(geoPosition.getCoordinate(), Map.Animation.BOW);
-                if (!foundPos) {
-                    foundPos = true;
-                }
-                if (!speak_welcome) {
-                    MainActivity.speak(activity.getResources().getString(R.string.pos_found));
-                    speak_welcome = true;
-                }
+            TraceReplayer replayer = traceReplayer;
+            if (geoPosition == null || (replayer != null && replayer.isRunning())) {
+                return;
             }
-            // Update the location information in the text view
-            updateLocationInfo(geoPosition);
+            Fix fix = toFix(geoPosition, positionFix);
+            TraceRecorder recorder = traceRecorder;
+            if (recorder != null) {
+                recorder.append(fix);
+            }
+            onFix(fix);
         }
 
         @Override
@@ -402,6 +1080,141 @@ public class MapFragmentView {
         }
     };
 
+    /**
+     * Processes a live or replayed fix: smooths it, snaps it onto the corridors, then hands it
+     * to the camera, location info and guidance.
+     *
+     * @param fix the user's position
+     */
+    private void onFix(Fix fix) {
+        NavigationSession session = navigation;
+        if (session != null) {
+            session.locate(fix);
+        }
+        positionDispatcher.submit(fix);
+    }
+
+    /**
+     * Copies a position from the PositioningManager into a fix.
+     *
+     * @param geoPosition the position
+     * @param fix the fix to fill
+     * @return the fix
+     */
+    private static Fix toFix(GeoPosition geoPosition, Fix fix) {
+        final GeoCoordinate coord = geoPosition.getCoordinate();
+        fix.time = SystemClock.elapsedRealtime();
+        fix.latitude = coord.getLatitude();
+        fix.longitude = coord.getLongitude();
+        fix.altitude = coord.getAltitude() != GeoCoordinate.UNKNOWN_ALTITUDE ? coord.getAltitude() : Double.NaN;
+        fix.accuracy = known(geoPosition.getLatitudeAccuracy());
+        fix.heading = known(geoPosition.getHeading());
+        fix.speed = known(geoPosition.getSpeed());
+        fix.source = geoPosition.getPositionSource() != GeoPosition.UNKNOWN
+                ? geoPosition.getPositionSource() : Fix.UNKNOWN_BITS;
+        fix.technology = geoPosition.getPositionTechnology() != GeoPosition.UNKNOWN
+                ? geoPosition.getPositionTechnology() : Fix.UNKNOWN_BITS;
+        fix.buildingId = geoPosition.getBuildingId();
+        fix.buildingName = geoPosition.getBuildingName();
+        fix.floorId = geoPosition.getFloorId();
+        return fix;
+    }
+
+    /**
+     * @return the value, or NaN if it is GeoPosition.UNKNOWN
+     */
+    private static double known(double value) {
+        return value != GeoPosition.UNKNOWN ? value : Double.NaN;
+    }
+
+    /**
+     * Centers the map on the user's position when the app is in the foreground.
+     *
+     * @param fix the user's position
+     */
+    private void moveCamera(Fix fix) {
+        if (!paused && map != null) {
+            map.setCenter(new GeoCoordinate(fix.latitude, fix.longitude), Map.Animation.BOW);
+        }
+    }
+
+    /**
+     * Reports the first position found and checks for arrival.
+     *
+     * @param fix the user's position
+     */
+    private void updateGuidance(Fix fix) {
+        if (paused) {
+            return;
+        }
+        if (!foundPos) {
+            foundPos = true;
+            if (positionFoundTask != null) {
+                positionFoundTask.run();
+                positionFoundTask = null;
+            }
+        }
+        NavigationSession session = navigation;
+        if (session != null) {
+            session.guide(fix);
+        }
+    }
+
+    /**
+     * Tracks the building the user is in, and switches the routing data to the active building
+     * once no route is being followed.
+     *
+     * @param fix the user's position
+     */
+    private void updateBuilding(Fix fix) {
+        BuildingTracker tracker = buildingTracker;
+        if (tracker == null) {
+            return;
+        }
+        tracker.update(fix);
+        NavigationSession session = navigation;
+        String venueId = activeVenue;
+        if (!switchingSession && session != null && !venueId.equals(sessionVenue) && !session.isFollowing()) {
+            // Load the routing data in the background, the current session guides meanwhile
+            switchingSession = true;
+            routingExecutor.execute(() -> {
+                NavigationSession next = createSession(session.getDirectory(), venueId, session.getFilter());
+                mainHandler.post(() -> {
+                    switchingSession = false;
+                    // Navigation may have started while the data loaded, the next fix retries
+                    if (navigation != session || session.isFollowing()) {
+                        return;
+                    }
+                    next.continueFrom(session);
+                    navigation = next;
+                    sessionVenue = venueId;
+                    System.out.println("Routing data switched to " + venueId);
+                });
+            });
+        }
+    }
+
+    /**
+     * Switches the venue on the map when the user enters or leaves a building.
+     */
+    private final BuildingTracker.Listener m_buildingListener = new BuildingTracker.Listener() {
+        @Override
+        public void onEnter(String buildingId) {
+            System.out.println("Entered building " + buildingId);
+            activeVenue = buildingId;
+            if (venueCache != null) {
+                showVenue(buildingId);
+            }
+        }
+
+        @Override
+        public void onExit(String buildingId) {
+            System.out.println("Left building " + buildingId);
+            // The routing data of the building stays active until another building is entered
+            mapFragment.deselectVenue();
+        }
+    };
+
     /**
      * Contains listener functions for input gestures.
      */
@@ -411,11 +1224,12 @@ public class MapFragmentView {
             // GeoCoordinate touchLocation = map.pixelToGeo(tapPoint);
             // Do not accept input unless navigation manager has been initialized
             if (!foundPos || navigationManager == null){
-                MainActivity.speak(activity.getResources().getString(R.string.waiting_positioning));
+                MainActivity.speak(activity.getResources().getString(R.string.waiting_positioning),
+                        UtteranceScheduler.Priority.INFO);
                 return false;
             }
             // If not navigating, attempt speech recognition
-            if (!navigationManager.isActive()) {
+            if (!isNavigating()) {
                 activity.runOnUiThread(MainActivity::startListening);
             }
             return true;
@@ -480,12 +1294,42 @@ public class MapFragmentView {
         }
     };
 
+    /**
+     * Speaks the prompts of the navigation session, guidance ahead of other speech.
+     */
+    private final Speaker m_speaker = new Speaker() {
+        @Override
+        public void speak(String text) {
+            MainActivity.speak(text);
+        }
+
+        @Override
+        public void speakGuidance(String text, BooleanSupplier relevant) {
+            MainActivity.speakGuidance(text, relevant);
+        }
+    };
+
+    /**
+     * Draws the routes of the navigation session.
+     */
+    private final NavigationSession.Listener m_navigationListener = new NavigationSession.Listener() {
+        @Override
+        public void onRouteChanged(Route route) {
+            drawRoute(route);
+        }
+
+        @Override
+        public void onArrived() {        }
+    };
+
     /**
      * Contains listener functions for navigation callbacks.
      */
     private final FTCRNavigationManager.FTCRNavigationManagerListener m_FTCRNavigationListener = new FTCRNavigationManager.FTCRNavigationManagerListener() {
         @Override
-        public void onCurrentManeuverChanged(@Nullable FTCRManeuver ftcrManeuver, @Nullable FTCRManeuver ftcrManeuver1) {        }
+        public void onCurrentManeuverChanged(@Nullable FTCRManeuver ftcrManeuver, @Nullable FTCRManeuver ftcrManeuver1) {
+            maneuversPassed++;
+        }
 
         @Override
         public void onStopoverReached(int i) {        }
@@ -493,7 +1337,8 @@ public class MapFragmentView {
         @Override
         public void onDestinationReached() {
             // Notify the user
-            MainActivity.speak(activity.getResources().getString(R.string.arrived));
+            MainActivity.speak(activity.getResources().getString(R.string.arrived),
+                    UtteranceScheduler.Priority.GUIDANCE);
         }
 
         @Override
@@ -503,7 +1348,8 @@ public class MapFragmentView {
         public void onRerouteEnd(@Nullable FTCRRoute newRoute, @NonNull FTCRRouter.ErrorResponse error) {
             // We must remove the old route from the map and add the new one
             if (error.getErrorCode() == RoutingError.NONE && newRoute != null) {
-                MainActivity.speak(activity.getResources().getString(R.string.rerouting));
+                MainActivity.speak(activity.getResources().getString(R.string.rerouting),
+                        UtteranceScheduler.Priority.GUIDANCE);
                 drawRoute(newRoute);
             }
         }
@@ -520,7 +1366,12 @@ public class MapFragmentView {
         public void onVenueTapped(Venue venue, float v, float v1) {        }
 
         @Override
-        public void onVenueSelected(Venue venue) {        }
+        public void onVenueSelected(Venue venue) {
+            if (venueSelectedTask != null) {
+                mainHandler.post(venueSelectedTask);
+                venueSelectedTask = null;
+            }
+        }
 
         @Override
         public void onVenueDeselected(Venue venue, DeselectionSource deselectionSource) {        }
@@ -538,107 +1389,6 @@ public class MapFragmentView {
         public void onVenueVisibleInViewport(Venue venue, boolean b) {        }
     };
 
-    /**
-     * Update location information to the text view.
-     */
-    private void updateLocationInfo(GeoPosition geoPosition) {
-        TextView mLocationInfo = activity.findViewById(R.id.textViewPosInfo);
-        if (mLocationInfo == null) {
-            return;
-        }
-        final StringBuilder sb = new StringBuilder();
-        final GeoCoordinate coord = geoPosition.getCoordinate();
-        if(geoPosition.getPositionSource() != GeoPosition.UNKNOWN) {
-            sb.append("Position Source: ").append(String.format(Locale.US, "%s\n", positionSourceToString(geoPosition)));
-        }
-        if (geoPosition.getPositionTechnology() != GeoPosition.UNKNOWN) {
-            sb.append("Position Technology: ").append(String.format(Locale.US, "%s\n", positionTechnologyToString(geoPosition)));
-        }
-        sb.append("Coordinate:").append(String.format(Locale.US, "%.6f, %.6f\n", coord.getLatitude(), coord.getLongitude()));
-        if (geoPosition.getLatitudeAccuracy() != GeoPosition.UNKNOWN) {
-            sb.append("Uncertainty:").append(String.format(Locale.US, "%.2fm\n", geoPosition.getLatitudeAccuracy()));
-        }
-        if (coord.getAltitude() != GeoCoordinate.UNKNOWN_ALTITUDE) {
-            sb.append("Altitude:").append(String.format(Locale.US, "%.2fm\n", coord.getAltitude()));
-        }
-        if (geoPosition.getHeading() != GeoPosition.UNKNOWN) {
-            sb.append("Heading:").append(String.format(Locale.US, "%.2f\n", geoPosition.getHeading()));
-        }
-        if (geoPosition.getSpeed() != GeoPosition.UNKNOWN) {
-            sb.append("Speed:").append(String.format(Locale.US, "%.2fm/s\n", geoPosition.getSpeed()));
-        }
-        if (geoPosition.getBuildingName() != null) {
-            sb.append("Building: ").append(geoPosition.getBuildingName());
-            if (geoPosition.getBuildingId() != null) {
-                sb.append(" (").append(geoPosition.getBuildingId()).append(")\n");
-            } else {
-                sb.append("\n");
-            }
-        }
-        if (geoPosition.getFloorId() != null) {
-            sb.append("Floor ID: ").append(geoPosition.getFloorId()).append("\n");
-        }
-        sb.deleteCharAt(sb.length() - 1);
-        mLocationInfo.setText(sb.toString());
-    }
-
-    /**
-     * Converting position source to string.
-     */
-    private String positionSourceToString(GeoPosition geoPosition) {
-        final int sources = geoPosition.getPositionSource();
-        if (sources == GeoPosition.SOURCE_NONE) {
-            return "NONE";
-        }
-        final StringBuilder result = new StringBuilder();
-        if ((sources & GeoPosition.SOURCE_CACHE) != 0) {
-            result.append("CACHE ");
-        }
-        if ((sources & GeoPosition.SOURCE_FUSION) != 0) {
-            result.append("FUSION ");
-        }
-        if ((sources & GeoPosition.SOURCE_HARDWARE) != 0) {
-            result.append("HARDWARE ");
-        }
-        if ((sources & GeoPosition.SOURCE_INDOOR) != 0) {
-            result.append("INDOOR ");
-        }
-        if ((sources & GeoPosition.SOURCE_OFFLINE) != 0) {
-            result.append("OFFLINE ");
-        }
-        if ((sources & GeoPosition.SOURCE_ONLINE) != 0) {
-            result.append("ONLINE ");
-        }
-        return result.toString().trim();
-    }
-
-    /**
-     * Converting position technology to string.
-     */
-    private String positionTechnologyToString(GeoPosition geoPosition) {
-        final int technologies = geoPosition.getPositionTechnology();
-        if (technologies == GeoPosition.TECHNOLOGY_NONE) {
-            return "NONE";
-        }
-        final StringBuilder result = new StringBuilder();
-        if ((technologies & GeoPosition.TECHNOLOGY_BLE) != 0) {
-            result.append("BLE ");
-        }
-        if ((technologies & GeoPosition.TECHNOLOGY_CELL) != 0) {
-            result.append("CELL ");
-        }
-        if ((technologies & GeoPosition.TECHNOLOGY_GNSS) != 0) {
-            result.append("GNSS ");
-        }
-        if ((technologies & GeoPosition.TECHNOLOGY_WIFI) != 0) {
-            result.append("WIFI ");
-        }
-        if ((technologies & GeoPosition.TECHNOLOGY_SENSORS) != 0) {
-            result.append("SENSORS ");
-        }
-        return result.toString().trim();
-    }
-
     /**
      * Display a toast on the UI thread.
      * TODO: remove this method
@@ -671,6 +1421,16 @@ public class MapFragmentView {
         }
         paused = true;
         foundPos = false;
+        System.out.println("Position updates paused: " + positionDispatcher);
+        positionDispatcher.reset();
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            recorder.flush();
+        }
+        NavigationSession session = navigation;
+        if (session != null) {
+            session.reset();
+        }
     }
 
     /**
@@ -694,6 +1454,26 @@ public class MapFragmentView {
         if (navigationManager != null) {
             navigationManager.stop();
         }
+        if (venueCache != null) {
+            mapFragment.getVenueService().removeVenueLoadListener(m_venueLoadListener);
+            venueCache = null;
+        }
+        speculativeRoute.discard();
+        routingExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+        TraceReplayer replayer = traceReplayer;
+        if (replayer != null) {
+            replayer.stop();
+        }
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                System.out.println("ERROR: Trace failed to close: " + e);
+            }
+            traceRecorder = null;
+        }
         map = null;
     }
 }
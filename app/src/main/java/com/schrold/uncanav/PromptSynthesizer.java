@@ -0,0 +1,194 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
+
+import com.schrold.uncanav.speech.PromptAudioCache;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Synthesizes prompts into the prompt audio cache ahead of their use. Synthesis runs on a TTS
+ * engine of its own, so that flushing spoken output does not drop it, and prompts are synthesized
+ * one at a time while nothing is being spoken, so that synthesis does not hold up speech.
+ */
+final class PromptSynthesizer {
+
+    // Time in milliseconds to wait for speech to end before synthesizing
+    private static final long IDLE_RETRY = 1000;
+
+    private final Context context;
+    private final PromptAudioCache cache;
+    private final Voice voice;
+
+    // Whether nothing is being spoken
+    private final BooleanSupplier speechIdle;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Tries the next synthesis again once speech may have ended
+    private final Runnable retry = this::next;
+
+    // Texts waiting to be synthesized
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+
+    // TTS engine for synthesis, null until the first text is added
+    private TextToSpeech engine;
+
+    // Whether the engine has initialized
+    private boolean ready;
+
+    // Text being synthesized and its utterance identifier, null when idle
+    private String current;
+    private String currentId;
+
+    // Counter for utterance identifiers
+    private int serial;
+
+    /**
+     * Creates a synthesizer. Must be called on the main thread.
+     *
+     * @param context the application context
+     * @param cache the cache the prompts are synthesized into
+     * @param voice the voice of the spoken prompts, null for the default voice
+     * @param speechIdle whether nothing is being spoken
+     */
+    PromptSynthesizer(Context context, PromptAudioCache cache, Voice voice, BooleanSupplier speechIdle) {
+        this.context = context;
+        this.cache = cache;
+        this.voice = voice;
+        this.speechIdle = speechIdle;
+    }
+
+    /**
+     * Synthesizes the texts that are not in the cache, in order. May be called on any thread.
+     *
+     * @param texts the texts
+     */
+    void addAll(List<String> texts) {
+        handler.post(() -> {
+            queue.addAll(cache.missing(texts));
+            next();
+        });
+    }
+
+    /**
+     * Synthesizes a text unless it is in the cache. May be called on any thread.
+     *
+     * @param text the text
+     */
+    void add(String text) {
+        handler.post(() -> {
+            if (!queue.contains(text) && !cache.missing(Collections.singletonList(text)).isEmpty()) {
+                queue.add(text);
+                next();
+            }
+        });
+    }
+
+    /**
+     * Stops synthesizing and shuts the engine down. Must be called on the main thread.
+     */
+    void shutdown() {
+        handler.removeCallbacksAndMessages(null);
+        queue.clear();
+        if (current != null) {
+            cache.abort(current);
+            current = null;
+        }
+        if (engine != null) {
+            engine.stop();
+            engine.shutdown();
+            engine = null;
+        }
+    }
+
+    private void next() {
+        if (queue.isEmpty() || current != null) {
+            return;
+        }
+        if (engine == null) {
+            engine = new TextToSpeech(context, status -> {
+                if (engine == null) {
+                    // Shut down before it initialized
+                    return;
+                }
+                if (status == TextToSpeech.ERROR) {
+                    System.out.println("ERROR: Prompt synthesis engine failed to initialize");
+                    queue.clear();
+                    return;
+                }
+                engine.setLanguage(Locale.US);
+                if (voice != null) {
+                    engine.setVoice(voice);
+                }
+                engine.setOnUtteranceProgressListener(new SynthesisCallbacks());
+                ready = true;
+                next();
+            });
+            return;
+        }
+        if (!ready) {
+            return;
+        }
+        if (!speechIdle.getAsBoolean()) {
+            handler.removeCallbacks(retry);
+            handler.postDelayed(retry, IDLE_RETRY);
+            return;
+        }
+        final String text = queue.poll();
+        final File file = cache.begin(text);
+        current = text;
+        currentId = "prompt-" + (++serial);
+        if (engine.synthesizeToFile(text, new Bundle(), file, currentId) == TextToSpeech.ERROR) {
+            System.out.println("ERROR: Prompt \"" + text + "\" could not be synthesized");
+            finish(currentId, false);
+        }
+    }
+
+    /**
+     * Ends the synthesis of the current text and starts the next one.
+     */
+    private void finish(String utteranceId, boolean success) {
+        if (current == null || !utteranceId.equals(currentId)) {
+            return;
+        }
+        if (success) {
+            cache.commit(current);
+        } else {
+            cache.abort(current);
+        }
+        current = null;
+        currentId = null;
+        next();
+    }
+
+    /**
+     * Reports the end of each synthesis on the main thread.
+     */
+    private class SynthesisCallbacks extends UtteranceProgressListener {
+        @Override
+        public void onStart(String utteranceId) {
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            handler.post(() -> finish(utteranceId, true));
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            handler.post(() -> finish(utteranceId, false));
+        }
+    }
+}
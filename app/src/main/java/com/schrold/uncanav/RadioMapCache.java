@@ -0,0 +1,83 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+
+import com.here.android.mpa.common.Version;
+import com.schrold.uncanav.offline.RadioMapManifest;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The radio maps of the campus venues stored on the device for indoor positioning, and the
+ * manifest that records which venues are stored with which data version, so that startup only
+ * loads the radio maps that are missing or outdated.
+ */
+final class RadioMapCache {
+
+    // Age after which a radio map is loaded again to pick up changes
+    private static final long REFRESH_AGE = TimeUnit.DAYS.toMillis(30);
+
+    // Manifest of the stored radio maps in the app's files directory
+    private static final String MANIFEST_FILE = "uncanav-radiomaps.json";
+
+    private RadioMapCache() {
+    }
+
+    /**
+     * @param directory the venue directory, null if it failed to load
+     * @return the identifiers of the campus venues in the order their radio maps are loaded
+     */
+    static List<String> venueIds(VenueDirectory directory) {
+        final List<String> ids = new ArrayList<>();
+        if (directory != null) {
+            // The active building comes first in the directory
+            for (VenueDirectory.Building building : directory.getBuildings()) {
+                ids.add(building.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the venues whose radio maps are missing, of another SDK version or old.
+     *
+     * @param context the application context
+     * @param directory the venue directory, null if it failed to load
+     * @return the venues to load, empty if the stored radio maps are current
+     */
+    static List<String> outdated(Context context, VenueDirectory directory) {
+        final RadioMapManifest manifest = RadioMapManifest.read(manifestFile(context));
+        final List<String> outdated = manifest.getOutdated(venueIds(directory), Version.getSdkVersion(),
+                System.currentTimeMillis(), REFRESH_AGE);
+        System.out.println("Radio maps outdated: " + outdated + ", " + manifest);
+        return Collections.unmodifiableList(outdated);
+    }
+
+    /**
+     * Records a loaded radio map.
+     *
+     * @param context the application context
+     * @param venueId the venue whose radio map was loaded
+     */
+    static void recordLoad(Context context, String venueId) {
+        final File file = manifestFile(context);
+        final RadioMapManifest manifest = RadioMapManifest.read(file);
+        manifest.record(venueId, Version.getSdkVersion(), System.currentTimeMillis());
+        try {
+            manifest.write(file);
+        } catch (IOException e) {
+            // The radio map is loaded again on the next start
+            System.out.println("ERROR: Unable to write radio map manifest: " + e);
+        }
+    }
+
+    private static File manifestFile(Context context) {
+        return new File(context.getFilesDir(), MANIFEST_FILE);
+    }
+}
@@ -0,0 +1,127 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+
+import com.here.android.mpa.common.LocationDataSourceHERE;
+import com.here.android.mpa.venues3d.VenueInfo;
+import com.here.android.mpa.venues3d.VenueService;
+import com.here.android.positioning.radiomap.RadioMapLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the radio maps of a list of venues one after the other with the HERE radio map loader,
+ * so that indoor positioning works from the data on the device instead of online lookups. Each
+ * loaded venue is recorded in the radio map manifest right away; a venue that fails is skipped
+ * and loaded again on the next start.
+ */
+final class RadioMapDownload implements RadioMapLoader.Listener {
+
+    /**
+     * Receives the end of the download on the main thread.
+     */
+    interface Listener {
+
+        /**
+         * @param loaded the number of venues whose radio maps were loaded
+         * @param failed the number of venues that failed
+         */
+        void onFinished(int loaded, int failed);
+    }
+
+    private final Context context;
+    private final VenueService venueService;
+    private final List<String> venueIds;
+    private final Listener listener;
+
+    // Index of the venue being loaded, and its load job
+    private int index;
+    private RadioMapLoader.Job job;
+
+    // Counts of the loaded and failed venues
+    private int loaded;
+    private int failed;
+
+    // Whether the download has not finished or been cancelled
+    private boolean running;
+
+    /**
+     * Creates a download.
+     *
+     * @param context the application context
+     * @param venueService the initialized venue service
+     * @param venueIds the venues in the order they are loaded
+     * @param listener receives the end of the download
+     */
+    RadioMapDownload(Context context, VenueService venueService, List<String> venueIds, Listener listener) {
+        this.context = context;
+        this.venueService = venueService;
+        this.venueIds = new ArrayList<>(venueIds);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts loading at the first venue. Must be called on the main thread.
+     */
+    void start() {
+        if (running || index > 0) {
+            return;
+        }
+        running = true;
+        next();
+    }
+
+    /**
+     * Stops the download and cancels the load in progress, the radio maps loaded so far stay
+     * recorded. Must be called on the main thread.
+     */
+    void cancel() {
+        running = false;
+        if (job != null) {
+            job.cancel();
+            job = null;
+        }
+    }
+
+    private void next() {
+        while (running && index < venueIds.size()) {
+            final String venueId = venueIds.get(index);
+            final VenueInfo venue = venueService.getVenueInfo(venueId);
+            job = venue != null
+                    ? LocationDataSourceHERE.getInstance().getRadioMapLoader().load(this, venue) : null;
+            if (job != null) {
+                return;
+            }
+            System.out.println("ERROR: Radio map of " + venueId + " could not be loaded");
+            failed++;
+            index++;
+        }
+        if (running) {
+            running = false;
+            System.out.println("Radio maps loaded: " + loaded + ", failed: " + failed);
+            listener.onFinished(loaded, failed);
+        }
+    }
+
+    @Override
+    public void onProgress(RadioMapLoader.Job job, int progress) {
+    }
+
+    @Override
+    public void onJobCompleted(RadioMapLoader.Job job) {
+        if (job != this.job || !running) {
+            return;
+        }
+        final String venueId = venueIds.get(index);
+        if (job.getStatus() == RadioMapLoader.Status.OK) {
+            RadioMapCache.recordLoad(context, venueId);
+            loaded++;
+        } else {
+            System.out.println("ERROR: Radio map of " + venueId + " failed to load: " + job.getStatus());
+            failed++;
+        }
+        index++;
+        next();
+    }
+}
@@ -0,0 +1,273 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.here.android.mpa.common.GeoBoundingBox;
+import com.here.android.mpa.prefetcher.MapDataPrefetcher;
+import com.schrold.uncanav.offline.Area;
+import com.schrold.uncanav.offline.Backoff;
+import com.schrold.uncanav.offline.ChunkLedger;
+import com.schrold.uncanav.offline.PrefetchPlan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fetches the tiers of a prefetch plan one after the other with the HERE map data prefetcher.
+ * Each tier is estimated, then fetched in chunks that are recorded in a {@link ChunkLedger} as
+ * they complete, so a failed or interrupted download resumes with the missing chunks only. A
+ * failed request is retried with exponential backoff. A tier is recorded in the map cache
+ * manifest once all its chunks are fetched, so the map can start as soon as the first tier is
+ * in the cache.
+ */
+final class TieredMapPrefetcher implements MapDataPrefetcher.Listener {
+
+    /**
+     * Receives the progress of the tiers on the main thread.
+     */
+    interface Listener {
+        void onTierProgress(PrefetchPlan.Tier tier);
+
+        void onTierComplete(PrefetchPlan.Tier tier);
+
+        /**
+         * @param success false if requests failed too often, the remaining tiers are not fetched
+         */
+        void onFinished(boolean success);
+    }
+
+    // Largest width and height of a chunk in meters
+    private static final double CHUNK_SIZE = 2500;
+
+    // Delay after the first failed request and the largest delay in milliseconds
+    private static final long RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    // Share of the retry delay that is randomized
+    private static final double RETRY_JITTER = 0.25;
+
+    private final Context context;
+    private final List<PrefetchPlan.Tier> tiers;
+    private final Listener listener;
+    private final MapDataPrefetcher prefetcher = MapDataPrefetcher.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Backoff backoff = new Backoff(RETRY_DELAY, MAX_RETRY_DELAY, RETRY_JITTER, new Random());
+
+    // Fetched chunks, null if the ledger could not be opened
+    private final ChunkLedger ledger;
+
+    // Chunks fetched before this time in milliseconds since the epoch are fetched again
+    private final long fetchedSince;
+
+    // Failed requests in a row before giving up
+    private final int maxAttempts;
+
+    // Index of the tier being fetched, its chunks, and the index of the chunk being fetched
+    private int index;
+    private List<Area> chunks;
+    private int chunk;
+
+    // Identifier of the current prefetcher request, other requests are ignored
+    private int requestId = -1;
+
+    // Whether the size of the current tier is being estimated rather than fetched
+    private boolean estimating;
+
+    // Whether the prefetcher has been started, and whether it has not finished or been cancelled
+    private boolean started;
+    private boolean running;
+
+    // Retries the current request after a backoff delay
+    private final Runnable retry = this::next;
+
+    /**
+     * Creates a prefetcher for a list of tiers.
+     *
+     * @param context the application context
+     * @param tiers the tiers in the order they are fetched
+     * @param ledger the ledger of fetched chunks, or null to fetch every chunk
+     * @param fetchedSince chunks fetched before this time in milliseconds since the epoch are
+     *                     fetched again
+     * @param maxAttempts failed requests in a row before giving up
+     * @param listener receives the progress of the tiers
+     */
+    TieredMapPrefetcher(Context context, List<PrefetchPlan.Tier> tiers, ChunkLedger ledger, long fetchedSince,
+                        int maxAttempts, Listener listener) {
+        this.context = context;
+        this.tiers = new ArrayList<>(tiers);
+        this.ledger = ledger;
+        this.fetchedSince = fetchedSince;
+        this.maxAttempts = maxAttempts;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts fetching at the first chunk that is not in the ledger. The map engine must be
+     * initialized. A prefetcher runs only once.
+     */
+    void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        running = true;
+        prefetcher.addListener(this);
+        next();
+    }
+
+    /**
+     * Stops fetching, the chunks fetched so far stay in the cache and the ledger.
+     */
+    void cancel() {
+        if (!running) {
+            return;
+        }
+        if (requestId >= 0) {
+            prefetcher.cancelRequest(requestId);
+        }
+        finish();
+    }
+
+    private void next() {
+        if (!running) {
+            return;
+        }
+        while (index < tiers.size()) {
+            final PrefetchPlan.Tier tier = tiers.get(index);
+            if (tier.isComplete()) {
+                index++;
+                continue;
+            }
+            if (tier.getSizeKB() < 0) {
+                request(tier.getArea(), true);
+                return;
+            }
+            if (chunks == null) {
+                chunks = tier.getArea().split(CHUNK_SIZE);
+                chunk = 0;
+            }
+            while (chunk < chunks.size() && ledger != null && ledger.isFetched(chunks.get(chunk), fetchedSince)) {
+                chunk++;
+            }
+            if (chunk < chunks.size()) {
+                progressed(tier, 0);
+                request(chunks.get(chunk), false);
+                return;
+            }
+            tier.completed();
+            MapCache.recordFetch(context, tier);
+            System.out.println("Map data tier complete: " + tier + " in " + chunks.size() + " chunks");
+            listener.onTierComplete(tier);
+            index++;
+            chunks = null;
+        }
+        finish();
+        listener.onFinished(true);
+    }
+
+    private void request(Area area, boolean estimate) {
+        estimating = estimate;
+        final GeoBoundingBox box = MapCache.toBoundingBox(area);
+        final MapDataPrefetcher.Request request = estimate
+                ? prefetcher.estimateMapDataSize(box) : prefetcher.fetchMapData(box);
+        if (request == null) {
+            failed();
+        } else {
+            requestId = request.requestId;
+        }
+    }
+
+    private void failed() {
+        requestId = -1;
+        if (backoff.getFailures() + 1 >= maxAttempts) {
+            System.out.println("ERROR: Map data request failed " + maxAttempts + " times, at " + tiers.get(index));
+            finish();
+            listener.onFinished(false);
+            return;
+        }
+        final long delay = backoff.fail();
+        System.out.println("Map data request failed, retrying in " + delay + " ms");
+        handler.postDelayed(retry, delay);
+    }
+
+    private void succeeded() {
+        requestId = -1;
+        backoff.succeed();
+    }
+
+    private void finish() {
+        running = false;
+        requestId = -1;
+        handler.removeCallbacks(retry);
+        prefetcher.removeListener(this);
+        if (ledger != null) {
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.out.println("ERROR: Chunk ledger failed to close: " + e);
+            }
+        }
+    }
+
+    /**
+     * Reports the progress of a tier from its fetched chunks and the progress of the current one.
+     */
+    private void progressed(PrefetchPlan.Tier tier, float chunkProgress) {
+        tier.progressed((chunk + Math.min(chunkProgress, 100f) / 100f) * 100f / chunks.size());
+        listener.onTierProgress(tier);
+    }
+
+    @Override
+    public void onDataSizeEstimated(int requestId, boolean success, long dataSizeKB) {
+        if (requestId != this.requestId || !estimating) {
+            return;
+        }
+        if (success) {
+            succeeded();
+            tiers.get(index).estimated(dataSizeKB);
+            listener.onTierProgress(tiers.get(index));
+            next();
+        } else {
+            failed();
+        }
+    }
+
+    @Override
+    public void onProgress(int requestId, float progress) {
+        if (requestId != this.requestId || estimating) {
+            return;
+        }
+        progressed(tiers.get(index), progress);
+    }
+
+    @Override
+    public void onStatus(int requestId, PrefetchStatus status) {
+        if (requestId != this.requestId || estimating) {
+            return;
+        }
+        if (status == PrefetchStatus.PREFETCH_SUCCESS) {
+            succeeded();
+            if (ledger != null) {
+                try {
+                    ledger.record(chunks.get(chunk), tiers.get(index).getSizeKB() / chunks.size(),
+                            System.currentTimeMillis());
+                } catch (IOException e) {
+                    // The chunk is fetched again next time
+                    System.out.println("ERROR: Unable to record map data chunk: " + e);
+                }
+            }
+            chunk++;
+            next();
+        } else if (status == PrefetchStatus.PREFETCH_FAILURE || status == PrefetchStatus.PREFETCH_CANCELLED) {
+            failed();
+        }
+    }
+
+    @Override
+    public void onCachePurged(boolean success) {
+    }
+}
@@ -0,0 +1,45 @@
+package com.schrold.uncanav;
+
+import android.content.Context;
+
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The venue directory asset listing the buildings and destinations on campus. It is parsed once
+ * per process and shared by the map cache, the radio map cache and the navigation session.
+ */
+final class VenueDirectoryAsset {
+
+    // Asset containing the buildings on campus, the active building first, and their destinations
+    private static final String ASSET = "venues.json";
+
+    // Directory parsed from the asset, null until it has loaded
+    private static VenueDirectory directory;
+
+    private VenueDirectoryAsset() {
+    }
+
+    /**
+     * Returns the venue directory, parsing the asset on the first call. Reads an asset, so call
+     * it off the main thread.
+     *
+     * @param context the application context
+     * @return the directory, or null if the asset failed to load
+     */
+    static synchronized VenueDirectory load(Context context) {
+        if (directory == null) {
+            try (Reader reader = new InputStreamReader(context.getAssets().open(ASSET),
+                    StandardCharsets.UTF_8)) {
+                directory = VenueDirectory.fromJson(reader);
+            } catch (IOException e) {
+                System.out.println("ERROR: Venue directory failed to load: " + e);
+            }
+        }
+        return directory;
+    }
+}
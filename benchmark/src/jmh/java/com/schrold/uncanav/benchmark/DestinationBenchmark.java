@@ -0,0 +1,132 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.speech.DestinationRanker;
+import com.schrold.uncanav.speech.NumberNormalizer;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turning speech recognizer results into a destination: the ranker used by speechCallback, the
+ * directory lookup and number normalization it is built on, and the regular expression match it
+ * replaced for reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DestinationBenchmark {
+
+    // Position of the user, in front of Rhoades-Robinson
+    private static final double LATITUDE = 35.615330;
+    private static final double LONGITUDE = -82.565922;
+
+    // Generated buildings added around Rhoades-Robinson, and rooms on each of their floors
+    private static final int CAMPUS_BUILDINGS = 40;
+    private static final int CAMPUS_ROOMS_PER_FLOOR = 50;
+
+    // Recognizer results: digits, spoken numbers, a homophone, and a shared name
+    @Param({"digits", "spoken", "homophone", "restroom"})
+    public String utterance;
+
+    // Destinations: the directory asset, or the asset with generated buildings sharing its room
+    // numbers, about six thousand destinations
+    @Param({"assets", "campus"})
+    public String venue;
+
+    private VenueDirectory directory;
+    private DestinationRanker ranker;
+    private final NumberNormalizer normalizer = new NumberNormalizer();
+    private final StringBuilder normalized = new StringBuilder();
+    private List<String> hypotheses;
+    private final float[] confidences = {0.9f, 0.6f, 0.3f};
+
+    // The rooms by number, as looked up before the directory existed
+    private final HashMap<String, Destination> classrooms = new HashMap<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Venue.load().directory;
+        if (venue.equals("campus")) {
+            directory = Venue.campus(directory, CAMPUS_BUILDINGS, CAMPUS_ROOMS_PER_FLOOR);
+        }
+        ranker = new DestinationRanker(directory);
+        for (Destination destination : directory.getDestinations()) {
+            for (String name : destination.getNames()) {
+                classrooms.put(name, destination);
+            }
+        }
+        final String expected;
+        switch (utterance) {
+            case "digits":
+                hypotheses = Arrays.asList("take me to room 131", "take me to room 132", "take me to 131");
+                expected = "rro-131";
+                break;
+            case "spoken":
+                hypotheses = Arrays.asList("take me to one thirty one", "take me to one thirty two",
+                        "take me to a hundred and thirty one");
+                expected = "rro-131";
+                break;
+            case "homophone":
+                hypotheses = Arrays.asList("take me to won thirty one", "take me two one thirty one",
+                        "take me to one thirty won");
+                expected = "rro-131";
+                break;
+            default:
+                hypotheses = Arrays.asList("where is the restroom", "where is the rest room", "where is the bathroom");
+                expected = "rro-restroom-1";
+                break;
+        }
+        // Time only inputs that resolve, a broken reading would be measured as a fast miss
+        final Destination ranked = rank();
+        if (ranked == null || !ranked.getId().equals(expected)) {
+            throw new IllegalStateException(utterance + " ranked " + ranked + ", expected " + expected);
+        }
+    }
+
+    @Benchmark
+    public Destination rank() {
+        return ranker.rank(hypotheses, confidences, LATITUDE, LONGITUDE).destination;
+    }
+
+    @Benchmark
+    public Destination resolve() {
+        return directory.resolve(hypotheses.get(0), LATITUDE, LONGITUDE);
+    }
+
+    @Benchmark
+    public StringBuilder normalize() {
+        normalized.setLength(0);
+        normalizer.normalize(hypotheses.get(0), true, normalized);
+        return normalized;
+    }
+
+    /**
+     * The original speechCallback: patterns compiled per call, then a lookup of the first match.
+     */
+    @Benchmark
+    public Destination legacyRegex() {
+        final String result = hypotheses.get(0);
+        final Pattern cancel = Pattern.compile("cancel|nevermind|never mind", Pattern.CASE_INSENSITIVE);
+        if (cancel.matcher(result).find()) {
+            return null;
+        }
+        final Matcher m = Pattern.compile("\\d+|bathroom").matcher(result);
+        return m.find() ? classrooms.get(m.group()) : null;
+    }
+}
@@ -0,0 +1,117 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.LocationInfoFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting the location info overlay for each fix. The formatter should allocate nothing per
+ * fix; the String.format version it replaced is kept for reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LocationInfoBenchmark {
+
+    // Bit names as the app sets them up, with the bit values of the HERE SDK
+    private static final LocationInfoFormatter.BitNames SOURCE_NAMES = new LocationInfoFormatter.BitNames(
+            new int[] {1, 2, 4, 8, 16, 32}, new String[] {"CACHE", "FUSION", "HARDWARE", "INDOOR", "OFFLINE", "ONLINE"});
+    private static final LocationInfoFormatter.BitNames TECHNOLOGY_NAMES = new LocationInfoFormatter.BitNames(
+            new int[] {1, 2, 4, 8, 16}, new String[] {"BLE", "CELL", "GNSS", "WIFI", "SENSORS"});
+
+    // Number of distinct fixes cycled through
+    private static final int FIXES = 1024;
+
+    private final LocationInfoFormatter formatter = new LocationInfoFormatter(SOURCE_NAMES, TECHNOLOGY_NAMES);
+    private final Fix[] fixes = new Fix[FIXES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        for (int i = 0; i < FIXES; i++) {
+            final Fix fix = new Fix();
+            fix.time = i * 1000L;
+            fix.latitude = 35.615330 + random.nextGaussian() * 3e-5;
+            fix.longitude = -82.565922 + random.nextGaussian() * 3e-5;
+            fix.altitude = 650 + random.nextGaussian();
+            fix.accuracy = 3 + random.nextFloat() * 5;
+            fix.heading = random.nextFloat() * 360;
+            fix.speed = random.nextFloat() * 1.5;
+            fix.source = i % 8 == 0 ? 8 | 4 : 8;
+            fix.technology = i % 8 == 0 ? 1 | 8 : 1;
+            fix.buildingId = "DM_15755";
+            fix.buildingName = "Rhoades-Robinson Hall";
+            fix.floorId = i % 64 < 32 ? "1" : "2";
+            fixes[i] = fix;
+        }
+    }
+
+    /**
+     * A walking user: every fix changes the text.
+     */
+    @Benchmark
+    public boolean formatMoving() {
+        return formatter.format(fixes[next++ & (FIXES - 1)]);
+    }
+
+    /**
+     * A user standing still: the same fix over and over.
+     */
+    @Benchmark
+    public boolean formatStationary() {
+        return formatter.format(fixes[0]);
+    }
+
+    /**
+     * The original updateLocationInfo, building a new string with String.format for every fix.
+     */
+    @Benchmark
+    public String legacyStringFormat() {
+        final Fix fix = fixes[next++ & (FIXES - 1)];
+        final StringBuilder sb = new StringBuilder();
+        if (fix.source != Fix.UNKNOWN_BITS) {
+            sb.append("Position Source: ").append(String.format(Locale.US, "%s\n", SOURCE_NAMES.name(fix.source)));
+        }
+        if (fix.technology != Fix.UNKNOWN_BITS) {
+            sb.append("Position Technology: ").append(String.format(Locale.US, "%s\n", TECHNOLOGY_NAMES.name(fix.technology)));
+        }
+        sb.append("Coordinate:").append(String.format(Locale.US, "%.6f, %.6f\n", fix.latitude, fix.longitude));
+        if (Fix.isKnown(fix.accuracy)) {
+            sb.append("Uncertainty:").append(String.format(Locale.US, "%.2fm\n", fix.accuracy));
+        }
+        if (Fix.isKnown(fix.altitude)) {
+            sb.append("Altitude:").append(String.format(Locale.US, "%.2fm\n", fix.altitude));
+        }
+        if (Fix.isKnown(fix.heading)) {
+            sb.append("Heading:").append(String.format(Locale.US, "%.2f\n", fix.heading));
+        }
+        if (Fix.isKnown(fix.speed)) {
+            sb.append("Speed:").append(String.format(Locale.US, "%.2fm/s\n", fix.speed));
+        }
+        if (fix.buildingName != null) {
+            sb.append("Building: ").append(fix.buildingName);
+            if (fix.buildingId != null) {
+                sb.append(" (").append(fix.buildingId).append(")\n");
+            } else {
+                sb.append("\n");
+            }
+        }
+        if (fix.floorId != null) {
+            sb.append("Floor ID: ").append(fix.floorId).append("\n");
+        }
+        sb.deleteCharAt(sb.length() - 1);
+        return sb.toString();
+    }
+}
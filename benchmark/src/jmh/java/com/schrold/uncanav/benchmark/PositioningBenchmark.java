@@ -0,0 +1,149 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.navigation.LocalRoutePlanner;
+import com.schrold.uncanav.navigation.NavigationSession;
+import com.schrold.uncanav.navigation.Prompts;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.KalmanPositionFilter;
+import com.schrold.uncanav.positioning.PositionDispatcher;
+import com.schrold.uncanav.routing.CorridorSnapper;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteProgressTracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-fix positioning pipeline on a walk through the building: each stage on its own, and
+ * a navigation session running all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PositioningBenchmark {
+
+    // Walking speed in m/s and positioning noise in meters
+    private static final double WALKING_SPEED = 1.3;
+    private static final double POSITION_NOISE = 3.0;
+
+    private Fix[] fixes;
+    private final Fix fix = new Fix();
+    private int next;
+    private long clock;
+
+    private final KalmanPositionFilter filter = new KalmanPositionFilter();
+    private CorridorSnapper snapper;
+    private final CorridorSnapper.Match match = new CorridorSnapper.Match();
+    private final RouteProgressTracker tracker = new RouteProgressTracker(2.0);
+    private Route route;
+    private PositionDispatcher dispatcher;
+    private NavigationSession session;
+
+    // Deliveries and prompts, so that consumers are not optimized away
+    public long delivered;
+    public long spoken;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Venue venue = Venue.load();
+        final IndoorRouter router = venue.router(true);
+        route = longestRoute(venue, router);
+        fixes = Venue.walk(route, WALKING_SPEED, POSITION_NOISE, new Random(1), new ArrayList<double[]>())
+                .toArray(new Fix[0]);
+        snapper = new CorridorSnapper(venue.graph);
+        tracker.setRoute(route);
+
+        // Consumers at the rates the app uses, with no deferred deliveries
+        dispatcher = new PositionDispatcher(() -> clock, (task, delay) -> { });
+        dispatcher.addListener("camera", f -> delivered++, 1000, 1.0);
+        dispatcher.addListener("info", f -> delivered++, 250, 0);
+        dispatcher.addListener("guidance", f -> delivered++, 0, 0);
+
+        session = new NavigationSession(venue.directory, new LocalRoutePlanner(router, null), new KalmanPositionFilter(),
+                2.0, text -> spoken++, new Prompts("start", "none", "rerouting", "arrived"),
+                new NavigationSession.Listener() {
+                    @Override
+                    public void onRouteChanged(Route route) {
+                    }
+
+                    @Override
+                    public void onArrived() {
+                    }
+                });
+    }
+
+    /**
+     * @return the next fix of the walk, repeated from the start when it ends
+     */
+    private Fix nextFix() {
+        final int i = next++;
+        if (i % fixes.length == 0) {
+            tracker.setRoute(route);
+        }
+        fix.set(fixes[i % fixes.length]);
+        fix.time += (long) (i / fixes.length) * (fixes.length + 60) * 1000L;
+        clock = fix.time;
+        return fix;
+    }
+
+    @Benchmark
+    public Fix filter() {
+        final Fix f = nextFix();
+        filter.filter(f);
+        return f;
+    }
+
+    @Benchmark
+    public boolean snap() {
+        final Fix f = nextFix();
+        return snapper.snap(f.latitude, f.longitude, Double.NaN, match);
+    }
+
+    @Benchmark
+    public RouteProgressTracker.State track() {
+        final Fix f = nextFix();
+        return tracker.update(f.latitude, f.longitude, f.time);
+    }
+
+    @Benchmark
+    public long dispatch() {
+        dispatcher.submit(nextFix());
+        return delivered;
+    }
+
+    /**
+     * Filtering, snapping and guidance along a route, as the app runs them for each fix.
+     */
+    @Benchmark
+    public boolean session() {
+        if (!session.isFollowing()) {
+            session.follow(route);
+        }
+        session.onFix(nextFix());
+        return session.isFollowing();
+    }
+
+    private static Route longestRoute(Venue venue, IndoorRouter router) {
+        Route longest = null;
+        for (int from : venue.destinationNodes) {
+            for (int to : venue.destinationNodes) {
+                final Route route = router.route(from, to);
+                if (route != null && (longest == null || route.getLength() > longest.getLength())) {
+                    longest = route;
+                }
+            }
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,143 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.geo.GeoMath;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.KalmanPositionFilter;
+import com.schrold.uncanav.positioning.PositionDispatcher;
+import com.schrold.uncanav.positioning.TraceReader;
+import com.schrold.uncanav.positioning.TraceRecorder;
+import com.schrold.uncanav.positioning.TraceReplayer;
+import com.schrold.uncanav.routing.CorridorSnapper;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded walk through the building, raw, filtered, and filtered and snapped onto the
+ * corridors. Measures how many traces are replayed per second, and prints the RMS error of the
+ * positions against the true walk at the end of each run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark {
+
+    // Walking speed in m/s and positioning noise in meters
+    private static final double WALKING_SPEED = 1.3;
+    private static final double POSITION_NOISE = 4.0;
+
+    // Walks recorded into the trace, between random destinations
+    private static final int WALKS = 20;
+
+    private File file;
+    private TraceReader reader;
+    private final List<double[]> truth = new ArrayList<>();
+    private final KalmanPositionFilter filter = new KalmanPositionFilter();
+    private CorridorSnapper snapper;
+    private final CorridorSnapper.Match match = new CorridorSnapper.Match();
+
+    // Error of the replayed positions against the true walk
+    private double squaredError;
+    private long count;
+    private String stage;
+
+    private final PositionDispatcher.Listener raw = this::measure;
+
+    private final PositionDispatcher.Listener filtered = fix -> {
+        filter.filter(fix);
+        measure(fix);
+    };
+
+    private final PositionDispatcher.Listener snapped = fix -> {
+        filter.filter(fix);
+        if (snapper.snap(fix.latitude, fix.longitude, fix.speed >= 0.5 ? fix.heading : Double.NaN, match)) {
+            fix.latitude = match.getLatitude();
+            fix.longitude = match.getLongitude();
+        }
+        measure(fix);
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        final Venue venue = Venue.load();
+        final Random random = new Random(1);
+        final List<Fix> fixes = new ArrayList<>();
+        final IndoorRouter router = venue.router(true);
+        long time = 0;
+        for (int i = 0; i < WALKS; i++) {
+            final int from = venue.destinationNodes[random.nextInt(venue.destinationNodes.length)];
+            final int to = venue.destinationNodes[random.nextInt(venue.destinationNodes.length)];
+            final Route route = router.route(from, to);
+            if (route == null || route.size() < 2) {
+                continue;
+            }
+            for (Fix fix : Venue.walk(route, WALKING_SPEED, POSITION_NOISE, random, truth)) {
+                fix.time += time;
+                fixes.add(fix);
+            }
+            time = fixes.get(fixes.size() - 1).time + 30000;
+        }
+        file = File.createTempFile("replay", ".trace");
+        file.deleteOnExit();
+        try (TraceRecorder recorder = new TraceRecorder(file, fixes.size())) {
+            for (Fix fix : fixes) {
+                recorder.append(fix);
+            }
+        }
+        reader = TraceReader.open(file);
+        snapper = new CorridorSnapper(venue.graph);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (count > 0) {
+            System.out.printf(Locale.US, "%n%s: RMS error %.2f m over %d fixes%n",
+                    stage, Math.sqrt(squaredError / count), count);
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public int replayRaw() {
+        stage = "raw";
+        return TraceReplayer.replayAll(reader, raw);
+    }
+
+    @Benchmark
+    public int replayFiltered() {
+        stage = "filtered";
+        filter.reset();
+        return TraceReplayer.replayAll(reader, filtered);
+    }
+
+    @Benchmark
+    public int replayFilteredSnapped() {
+        stage = "filtered and snapped";
+        filter.reset();
+        snapper.reset();
+        return TraceReplayer.replayAll(reader, snapped);
+    }
+
+    private void measure(Fix fix) {
+        final double[] position = truth.get((int) (count++ % truth.size()));
+        final double error = GeoMath.distance(fix.latitude, fix.longitude, position[0], position[1]);
+        squaredError += error * error;
+    }
+}
@@ -0,0 +1,97 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route calculation on the device and route geometry handling: searching the indoor graph,
+ * following the precomputed route table, prepending the user's position, and the encoding used
+ * by the disk route cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RoutingBenchmark {
+
+    // Number of origin and destination pairs cycled through
+    private static final int TRIPS = 256;
+
+    private IndoorRouter searchRouter;
+    private IndoorRouter tableRouter;
+    private final int[] origins = new int[TRIPS];
+    private final int[] destinations = new int[TRIPS];
+    private final Route[] routes = new Route[TRIPS];
+    private final double[] positions = new double[2 * TRIPS];
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private byte[][] encoded;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Venue venue = Venue.load();
+        searchRouter = venue.router(false);
+        tableRouter = venue.router(true);
+        final Random random = new Random(1);
+        encoded = new byte[TRIPS][];
+        for (int i = 0; i < TRIPS; i++) {
+            origins[i] = random.nextInt(venue.graph.size());
+            destinations[i] = venue.destinationNodes[random.nextInt(venue.destinationNodes.length)];
+            routes[i] = tableRouter.route(origins[i], destinations[i]);
+            positions[2 * i] = venue.graph.latitude(origins[i]) + random.nextGaussian() * 2e-5;
+            positions[2 * i + 1] = venue.graph.longitude(origins[i]) + random.nextGaussian() * 2e-5;
+            encoded[i] = encode(routes[i]);
+        }
+    }
+
+    @Benchmark
+    public Route search() {
+        final int i = next++ & (TRIPS - 1);
+        return searchRouter.route(origins[i], destinations[i]);
+    }
+
+    @Benchmark
+    public Route table() {
+        final int i = next++ & (TRIPS - 1);
+        return tableRouter.route(origins[i], destinations[i]);
+    }
+
+    @Benchmark
+    public Route startingAt() {
+        final int i = next++ & (TRIPS - 1);
+        return routes[i].startingAt(positions[2 * i], positions[2 * i + 1]);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return encode(routes[next++ & (TRIPS - 1)]);
+    }
+
+    @Benchmark
+    public Route decode() throws IOException {
+        return Route.CODEC.read(new DataInputStream(new ByteArrayInputStream(encoded[next++ & (TRIPS - 1)])));
+    }
+
+    private byte[] encode(Route route) throws IOException {
+        bytes.reset();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        Route.CODEC.write(route, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,194 @@
+package com.schrold.uncanav.benchmark;
+
+import com.schrold.uncanav.geo.GeoMath;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteTable;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * The campus venue the benchmarks run on, loaded from the app's assets. The assets only map
+ * Rhoades-Robinson, so {@link #campus} adds generated buildings around it for the lookups that
+ * have to scale to the whole campus.
+ */
+final class Venue {
+
+    // Directory of the app's assets, set by the build
+    private static final String ASSETS = System.getProperty("uncanav.assets", "../app/src/main/assets");
+
+    // Venue identifier of Rhoades-Robinson, the building with an indoor graph
+    static final String ACTIVE_VENUE = "DM_15755";
+
+    // Corner of the grid of generated buildings, south-west of Rhoades-Robinson, and the spacing
+    // and size of the buildings in degrees
+    private static final double CAMPUS_LATITUDE = 35.6090;
+    private static final double CAMPUS_LONGITUDE = -82.5720;
+    private static final double CAMPUS_SPACING = 0.0010;
+    private static final double BUILDING_SIZE = 0.0004;
+
+    // Generated buildings per row of the grid, and floors per building
+    private static final int CAMPUS_COLUMNS = 8;
+    private static final int CAMPUS_FLOORS = 3;
+
+    final VenueDirectory directory;
+    final IndoorGraph graph;
+
+    // Destinations on the indoor graph and their nodes
+    final List<Destination> destinations = new ArrayList<>();
+    final int[] destinationNodes;
+
+    private Venue(VenueDirectory directory, IndoorGraph graph) {
+        this.directory = directory;
+        this.graph = graph;
+        final TreeSet<Integer> nodes = new TreeSet<>();
+        for (Destination destination : directory.getDestinations(ACTIVE_VENUE)) {
+            final int node = destination.getNode() != null ? graph.indexOf(destination.getNode()) : -1;
+            if (node >= 0) {
+                destinations.add(destination);
+                nodes.add(node);
+            }
+        }
+        destinationNodes = new int[nodes.size()];
+        int i = 0;
+        for (int node : nodes) {
+            destinationNodes[i++] = node;
+        }
+    }
+
+    /**
+     * Loads the venue directory and the indoor graph of the active building.
+     */
+    static Venue load() throws IOException {
+        final VenueDirectory directory;
+        try (Reader reader = open("venues.json")) {
+            directory = VenueDirectory.fromJson(reader);
+        }
+        try (Reader reader = open(directory.getBuilding(ACTIVE_VENUE).getGraphAsset())) {
+            return new Venue(directory, IndoorGraph.fromJson(reader));
+        }
+    }
+
+    /**
+     * Creates a router, with a route table to every destination if requested.
+     */
+    IndoorRouter router(boolean table) throws IOException {
+        final IndoorRouter router = new IndoorRouter(graph);
+        if (table) {
+            final File file = File.createTempFile(ACTIVE_VENUE, "_routes.bin");
+            file.deleteOnExit();
+            router.setRouteTable(RouteTable.openOrBuild(graph, destinationNodes, file));
+        }
+        return router;
+    }
+
+    /**
+     * Samples a walk along a route at 1 Hz: the true positions and noisy fixes of them.
+     *
+     * @param route the route walked
+     * @param speed walking speed in m/s
+     * @param noise standard deviation of the positioning noise in meters
+     * @param random the noise source
+     * @param truth receives the true position of each fix as {latitude, longitude}
+     * @return the fixes
+     */
+    static List<Fix> walk(Route route, double speed, double noise, Random random, List<double[]> truth) {
+        final List<Fix> fixes = new ArrayList<>();
+        long time = 0;
+        for (int i = 1; i < route.size(); i++) {
+            final double length = GeoMath.distance(route.latitude(i - 1), route.longitude(i - 1),
+                    route.latitude(i), route.longitude(i));
+            final int steps = Math.max(1, (int) Math.round(length / speed));
+            for (int s = 0; s < steps; s++) {
+                final double t = (double) s / steps;
+                final double lat = route.latitude(i - 1) + t * (route.latitude(i) - route.latitude(i - 1));
+                final double lon = route.longitude(i - 1) + t * (route.longitude(i) - route.longitude(i - 1));
+                final Fix fix = new Fix();
+                fix.time = time += 1000;
+                fix.latitude = lat + random.nextGaussian() * noise / GeoMath.METERS_PER_DEGREE;
+                fix.longitude = lon + random.nextGaussian() * noise / GeoMath.metersPerDegreeLongitude(lat);
+                fix.accuracy = noise;
+                fix.floorId = "1";
+                fixes.add(fix);
+                truth.add(new double[] {lat, lon});
+            }
+        }
+        return fixes;
+    }
+
+    /**
+     * Adds generated buildings to a directory, each with numbered rooms and a restroom on every
+     * floor. Room numbers repeat from building to building, as they do on campus, so lookups have
+     * to tell them apart by distance.
+     *
+     * @param directory the directory
+     * @param buildings the number of buildings to add
+     * @param roomsPerFloor the number of rooms on each floor
+     * @return a directory with the buildings and destinations of both
+     */
+    static VenueDirectory campus(VenueDirectory directory, int buildings, int roomsPerFloor) throws IOException {
+        final StringBuilder json = new StringBuilder("{\"buildings\": [");
+        for (int b = 0; b < buildings; b++) {
+            final double lat = CAMPUS_LATITUDE - (b / CAMPUS_COLUMNS) * CAMPUS_SPACING;
+            final double lon = CAMPUS_LONGITUDE + (b % CAMPUS_COLUMNS) * CAMPUS_SPACING;
+            json.append(b > 0 ? ",\n" : "\n").append(String.format(Locale.US,
+                    "{\"id\": \"GEN_%d\", \"name\": \"Hall %d\", \"footprint\": "
+                            + "[[%.6f, %.6f], [%.6f, %.6f], [%.6f, %.6f], [%.6f, %.6f]]}",
+                    b, b, lat, lon, lat, lon + BUILDING_SIZE, lat + BUILDING_SIZE, lon + BUILDING_SIZE,
+                    lat + BUILDING_SIZE, lon));
+        }
+        json.append("],\n\"destinations\": [");
+        boolean first = true;
+        for (int b = 0; b < buildings; b++) {
+            final double lat = CAMPUS_LATITUDE - (b / CAMPUS_COLUMNS) * CAMPUS_SPACING;
+            final double lon = CAMPUS_LONGITUDE + (b % CAMPUS_COLUMNS) * CAMPUS_SPACING;
+            for (int floor = 1; floor <= CAMPUS_FLOORS; floor++) {
+                for (int r = 0; r <= roomsPerFloor; r++) {
+                    final double t = (double) r / roomsPerFloor;
+                    json.append(first ? "\n" : ",\n");
+                    first = false;
+                    if (r == 0) {
+                        json.append(String.format(Locale.US,
+                                "{\"id\": \"gen-%d-restroom-%d\", \"building\": \"GEN_%d\", \"floor\": %d, "
+                                        + "\"category\": \"RESTROOM\", \"lat\": %.6f, \"lon\": %.6f, "
+                                        + "\"names\": [\"restroom\", \"bathroom\"]}",
+                                b, floor, b, floor, lat, lon));
+                    } else {
+                        final int room = floor * 100 + r;
+                        json.append(String.format(Locale.US,
+                                "{\"id\": \"gen-%d-%d\", \"building\": \"GEN_%d\", \"floor\": %d, "
+                                        + "\"category\": \"CLASSROOM\", \"lat\": %.6f, \"lon\": %.6f, "
+                                        + "\"names\": [\"%d\", \"room %d\"]}",
+                                b, room, b, floor, lat + t * BUILDING_SIZE, lon + t * BUILDING_SIZE, room, room));
+                    }
+                }
+            }
+        }
+        json.append("]}");
+        final VenueDirectory generated = VenueDirectory.fromJson(new StringReader(json.toString()));
+        final List<VenueDirectory.Building> allBuildings = new ArrayList<>(directory.getBuildings());
+        allBuildings.addAll(generated.getBuildings());
+        final List<Destination> allDestinations = new ArrayList<>(directory.getDestinations());
+        allDestinations.addAll(generated.getDestinations());
+        return new VenueDirectory(allBuildings, allDestinations);
+    }
+
+    private static Reader open(String asset) throws IOException {
+        return new InputStreamReader(new FileInputStream(new File(ASSETS, asset)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,158 @@
+package com.schrold.uncanav.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the results of a JMH run with the checked-in baseline, or replaces the baseline with
+ * them. A benchmark regresses when its throughput drops, or its allocation per operation grows,
+ * by more than the tolerance of the baseline.
+ * <p>
+ * Usage: {@code BaselineCheck check|update <results.json> <baseline.json>}
+ */
+public final class BaselineCheck {
+
+    // Relative change in throughput or allocation tolerated by a new baseline. Short runs with
+    // one fork vary by well over ten percent between runs on the same machine
+    private static final double DEFAULT_TOLERANCE = 0.25;
+
+    // Growth of the allocation per operation in bytes that is always tolerated, for JIT noise
+    private static final double ALLOCATION_SLACK = 16;
+
+    /**
+     * The baseline file.
+     */
+    private static final class Baseline {
+        double tolerance = DEFAULT_TOLERANCE;
+        TreeMap<String, Result> benchmarks = new TreeMap<>();
+    }
+
+    /**
+     * The result of one benchmark.
+     */
+    private static final class Result {
+        double score;
+        double error;
+        String unit;
+        double allocated = Double.NaN;
+    }
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("check") || args[0].equals("update"))) {
+            System.err.println("Usage: BaselineCheck check|update <results.json> <baseline.json>");
+            System.exit(2);
+        }
+        final File resultsFile = new File(args[1]);
+        final File baselineFile = new File(args[2]);
+        if (!resultsFile.isFile()) {
+            System.err.println("No benchmark results at " + resultsFile + ", run the jmh task first");
+            System.exit(2);
+        }
+        final Map<String, Result> results = readResults(resultsFile);
+        final Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+        Baseline baseline = new Baseline();
+        if (baselineFile.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(baselineFile), StandardCharsets.UTF_8)) {
+                baseline = gson.fromJson(reader, Baseline.class);
+            }
+        }
+
+        if (args[0].equals("update")) {
+            baseline.benchmarks.putAll(results);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(baselineFile), StandardCharsets.UTF_8)) {
+                gson.toJson(baseline, writer);
+                writer.write('\n');
+            }
+            System.out.println("Baseline " + baselineFile + " updated with " + results.size() + " benchmarks");
+            return;
+        }
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            final Result result = entry.getValue();
+            final Result base = baseline.benchmarks.get(entry.getKey());
+            if (base == null) {
+                System.out.printf(Locale.US, "NEW        %-70s %12.3f %s%n", entry.getKey(), result.score, result.unit);
+                continue;
+            }
+            final double change = result.score / base.score - 1;
+            final boolean slower = change < -baseline.tolerance;
+            final boolean allocates = !Double.isNaN(base.allocated) && !Double.isNaN(result.allocated)
+                    && result.allocated > base.allocated + Math.max(ALLOCATION_SLACK, base.allocated * baseline.tolerance);
+            if (slower || allocates) {
+                regressions++;
+            }
+            System.out.printf(Locale.US, "%-10s %-70s %12.3f %s (%+.1f%%)  %8.1f B/op (baseline %.1f)%n",
+                    slower || allocates ? "REGRESSED" : "ok", entry.getKey(), result.score, result.unit,
+                    100 * change, result.allocated, base.allocated);
+        }
+        for (String name : baseline.benchmarks.keySet()) {
+            if (!results.containsKey(name)) {
+                System.out.printf(Locale.US, "MISSING    %s%n", name);
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmarks regressed against " + baselineFile);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a JMH JSON result file, keyed by benchmark name and parameters.
+     */
+    private static Map<String, Result> readResults(File file) throws IOException {
+        final JsonArray runs;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            runs = JsonParser.parseReader(reader).getAsJsonArray();
+        }
+        final Map<String, Result> results = new TreeMap<>();
+        for (JsonElement element : runs) {
+            final JsonObject run = element.getAsJsonObject();
+            final StringBuilder name = new StringBuilder(run.get("benchmark").getAsString()
+                    .replace("com.schrold.uncanav.benchmark.", ""));
+            if (run.has("params")) {
+                final TreeMap<String, String> params = new TreeMap<>();
+                for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                    params.put(param.getKey(), param.getValue().getAsString());
+                }
+                for (Map.Entry<String, String> param : params.entrySet()) {
+                    name.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+            final JsonObject primary = run.getAsJsonObject("primaryMetric");
+            final Result result = new Result();
+            result.score = primary.get("score").getAsDouble();
+            result.error = primary.get("scoreError").isJsonPrimitive() ? primary.get("scoreError").getAsDouble() : Double.NaN;
+            result.unit = primary.get("scoreUnit").getAsString();
+            if (run.has("secondaryMetrics")) {
+                for (Map.Entry<String, JsonElement> metric : run.getAsJsonObject("secondaryMetrics").entrySet()) {
+                    if (metric.getKey().endsWith("gc.alloc.rate.norm")) {
+                        result.allocated = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+                    }
+                }
+            }
+            results.put(name.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,75 @@
+package com.schrold.uncanav.geo;
+
+/**
+ * Small geodesy helpers for building-scale distances. Uses an equirectangular approximation,
+ * which is accurate to well under a centimeter over the few hundred meters of a campus venue.
+ */
+public final class GeoMath {
+
+    // Mean radius of the earth in meters
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    // Length of one degree of latitude in meters
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180.0;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Returns the length of one degree of longitude at the given latitude.
+     *
+     * @param latitude the latitude in degrees
+     * @return meters per degree of longitude
+     */
+    public static double metersPerDegreeLongitude(double latitude) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Returns the distance between two coordinates.
+     *
+     * @param lat1 latitude of the first coordinate
+     * @param lon1 longitude of the first coordinate
+     * @param lat2 latitude of the second coordinate
+     * @param lon2 longitude of the second coordinate
+     * @return the distance in meters
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        final double dy = (lat2 - lat1) * METERS_PER_DEGREE;
+        final double dx = (lon2 - lon1) * metersPerDegreeLongitude((lat1 + lat2) * 0.5);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the initial bearing from the first coordinate to the second.
+     *
+     * @param lat1 latitude of the first coordinate
+     * @param lon1 longitude of the first coordinate
+     * @param lat2 latitude of the second coordinate
+     * @param lon2 longitude of the second coordinate
+     * @return the bearing in degrees clockwise from north, in [0, 360)
+     */
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        final double dy = (lat2 - lat1) * METERS_PER_DEGREE;
+        final double dx = (lon2 - lon1) * metersPerDegreeLongitude((lat1 + lat2) * 0.5);
+        final double deg = Math.toDegrees(Math.atan2(dx, dy));
+        return deg < 0 ? deg + 360.0 : deg;
+    }
+
+    /**
+     * Returns the signed difference between two bearings.
+     *
+     * @param from the first bearing in degrees
+     * @param to the second bearing in degrees
+     * @return the turn from {@code from} to {@code to} in degrees, in (-180, 180]
+     */
+    public static double bearingDelta(double from, double to) {
+        double d = (to - from) % 360.0;
+        if (d > 180.0) {
+            d -= 360.0;
+        } else if (d <= -180.0) {
+            d += 360.0;
+        }
+        return d;
+    }
+}
@@ -0,0 +1,86 @@
+package com.schrold.uncanav.navigation;
+
+import com.schrold.uncanav.routing.CorridorSnapper;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteCache;
+
+/**
+ * Plans routes on the device with an {@link IndoorRouter}, keeping recent routes in a
+ * {@link RouteCache}.
+ */
+public final class LocalRoutePlanner implements RoutePlanner {
+
+    // The on-device router
+    private final IndoorRouter router;
+
+    // Cache of routes by origin node and destination, may be null
+    private final RouteCache<Route> cache;
+
+    /**
+     * Creates a planner.
+     *
+     * @param router the on-device router
+     * @param cache the route cache, or null to calculate every route
+     */
+    public LocalRoutePlanner(IndoorRouter router, RouteCache<Route> cache) {
+        this.router = router;
+        this.cache = cache;
+    }
+
+    @Override
+    public IndoorGraph getGraph() {
+        return router.getGraph();
+    }
+
+    /**
+     * @return the route cache, or null
+     */
+    public RouteCache<Route> getCache() {
+        return cache;
+    }
+
+    @Override
+    public int originNode(double latitude, double longitude, CorridorSnapper.Match match, int destination) {
+        if (match != null && match.isMatched()) {
+            return router.entryNode(match, destination);
+        }
+        return router.getGraph().nearestNode(latitude, longitude);
+    }
+
+    @Override
+    public Route route(int origin, int destination) {
+        if (origin < 0 || destination < 0) {
+            return null;
+        }
+        if (cache == null) {
+            return router.route(origin, destination);
+        }
+        final String destinationId = router.getGraph().id(destination);
+        Route route = cache.get(origin, destinationId);
+        if (route == null) {
+            route = router.route(origin, destination);
+            if (route != null) {
+                cache.put(origin, destinationId, route);
+            }
+        }
+        return route;
+    }
+
+    @Override
+    public Route speculate(int origin, int destination) {
+        if (origin < 0 || destination < 0) {
+            return null;
+        }
+        final Route route = cache != null ? cache.get(origin, router.getGraph().id(destination)) : null;
+        return route != null ? route : router.route(origin, destination);
+    }
+
+    @Override
+    public void commit(int origin, int destination, Route route) {
+        if (cache != null && origin >= 0 && destination >= 0 && route != null) {
+            cache.put(origin, router.getGraph().id(destination), route);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.schrold.uncanav.navigation;
+
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.PositionFilter;
+import com.schrold.uncanav.routing.CorridorSnapper;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.Maneuvers;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteProgressTracker;
+import com.schrold.uncanav.speech.DestinationRanker;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.util.List;
+
+/**
+ * The navigation core, free of Android and map dependencies: picks the destination from speech
+ * results, locates the user on the indoor graph, plans the route and guides the user along it
+ * with spoken prompts, announcing each turn, staircase and the side of the destination door as
+ * the user approaches it.
+ * <p>
+ * A session is confined to one thread, except for {@link #route(int, Destination)} which may be
+ * called from any thread.
+ */
+public final class NavigationSession {
+
+    // Speed in m/s above which the heading of a fix is used for map matching
+    private static final double MIN_HEADING_SPEED = 0.5;
+
+    // Distance before a maneuver in meters at which it is announced
+    private static final double MANEUVER_PROMPT_DISTANCE = 4.0;
+
+    // Time in milliseconds after a failed reroute before another is attempted
+    private static final long REROUTE_RETRY_INTERVAL = 10000;
+
+    /**
+     * Receives route changes, e.g. to draw them on a map.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a route is started or replaced by a reroute.
+         *
+         * @param route the route now being followed
+         */
+        void onRouteChanged(Route route);
+
+        /**
+         * Called when the user arrives at the end of the route.
+         */
+        void onArrived();
+    }
+
+    // Directory of destinations
+    private final VenueDirectory directory;
+
+    // Matches speech recognizer results against the directory
+    private final DestinationRanker ranker;
+
+    // Plans routes over the indoor graph, may be null
+    private final RoutePlanner planner;
+
+    // Smooths fixes before they are used
+    private final PositionFilter filter;
+
+    // Snaps fixes onto the corridors of the graph, null without a planner
+    private final CorridorSnapper snapper;
+
+    // Follows the user's progress along the route
+    private final RouteProgressTracker tracker;
+
+    // Speaks the prompts
+    private final Speaker speaker;
+    private final Prompts prompts;
+
+    // Receives route changes
+    private final Listener listener;
+
+    // The last located fix and its match on the graph
+    private final Fix lastFix = new Fix();
+    private final CorridorSnapper.Match match = new CorridorSnapper.Match();
+    private boolean hasFix;
+
+    // Route being followed, null when not navigating; read by prompt relevance checks on other
+    // threads
+    private volatile Route activeRoute;
+
+    // Distance walked along the active route in meters, for the relevance of maneuver prompts
+    private volatile double distanceAlong;
+
+    // Maneuvers of the route being followed, and the next one to announce
+    private Maneuvers maneuvers;
+    private int nextManeuver;
+
+    // Time of the fix before which no reroute is attempted after a failed one
+    private long rerouteRetryAt = Long.MIN_VALUE;
+
+    // Statistics
+    private int rerouteCount;
+
+    /**
+     * Creates a session.
+     *
+     * @param directory the directory of destinations
+     * @param planner plans routes on the indoor graph, or null if there is none
+     * @param filter smooths fixes
+     * @param arrivalRadius distance from the end of the route in meters at which the user has
+     *                      arrived
+     * @param speaker speaks the prompts
+     * @param prompts the texts of the prompts
+     * @param listener receives route changes
+     */
+    public NavigationSession(VenueDirectory directory, RoutePlanner planner, PositionFilter filter,
+                             double arrivalRadius, Speaker speaker, Prompts prompts, Listener listener) {
+        this.directory = directory;
+        this.ranker = new DestinationRanker(directory);
+        this.planner = planner;
+        this.filter = filter;
+        this.snapper = planner != null ? new CorridorSnapper(planner.getGraph()) : null;
+        this.tracker = new RouteProgressTracker(arrivalRadius);
+        this.speaker = speaker;
+        this.prompts = prompts;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the directory of destinations
+     */
+    public VenueDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the filter smoothing fixes, to be shared with a session replacing this one
+     */
+    public PositionFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Takes over the user's position from the session this one replaces, e.g. when the routing
+     * data of another building becomes active, so that routes can be planned before the next
+     * fix. The position is snapped onto this session's graph.
+     *
+     * @param previous the replaced session
+     */
+    public void continueFrom(NavigationSession previous) {
+        if (!previous.hasFix) {
+            return;
+        }
+        lastFix.set(previous.lastFix);
+        if (snapper != null && snapper.snap(lastFix.latitude, lastFix.longitude, Double.NaN, match)) {
+            lastFix.latitude = match.getLatitude();
+            lastFix.longitude = match.getLongitude();
+        }
+        hasFix = true;
+    }
+
+    /**
+     * Smooths a fix and snaps it onto the corridors in place, and remembers it as the user's
+     * position. Fixes away from the graph are only smoothed.
+     *
+     * @param fix the fix
+     */
+    public void locate(Fix fix) {
+        filter.filter(fix);
+        if (snapper != null) {
+            // The heading of a user standing still is noise
+            final double heading = Fix.isKnown(fix.speed) && fix.speed >= MIN_HEADING_SPEED ? fix.heading : Double.NaN;
+            if (snapper.snap(fix.latitude, fix.longitude, heading, match)) {
+                fix.latitude = match.getLatitude();
+                fix.longitude = match.getLongitude();
+            }
+        }
+        lastFix.set(fix);
+        hasFix = true;
+    }
+
+    /**
+     * Follows the user's progress along the route. Announces arrival at its end, and plans a
+     * new route when the user has left it.
+     *
+     * @param fix a located fix
+     */
+    public void guide(Fix fix) {
+        final Route route = activeRoute;
+        if (route == null) {
+            return;
+        }
+        if (tracker.getRoute() != route) {
+            tracker.setRoute(route);
+        }
+        switch (tracker.update(fix.latitude, fix.longitude, fix.time)) {
+            case ARRIVED:
+                setActiveRoute(null);
+                speaker.speakGuidance(prompts.arrived, null);
+                listener.onArrived();
+                break;
+            case OFF_ROUTE:
+                reroute(route, fix);
+                break;
+            default:
+                distanceAlong = tracker.getDistanceAlong();
+                announceManeuver(route);
+                break;
+        }
+    }
+
+    /**
+     * Announces the next maneuver once the user is close to it. Maneuvers the user has already
+     * passed, e.g. after a jump in position, are skipped, and so is a prompt still waiting for
+     * other speech when the user passes its maneuver or the route changes.
+     */
+    private void announceManeuver(Route route) {
+        final double along = distanceAlong;
+        while (nextManeuver < maneuvers.size() && maneuvers.distance(nextManeuver) < along) {
+            nextManeuver++;
+        }
+        if (nextManeuver < maneuvers.size()
+                && maneuvers.distance(nextManeuver) - along <= MANEUVER_PROMPT_DISTANCE) {
+            final String prompt = prompts.maneuver(maneuvers.type(nextManeuver));
+            final double at = maneuvers.distance(nextManeuver);
+            nextManeuver++;
+            if (prompt != null) {
+                speaker.speakGuidance(prompt, () -> activeRoute == route && distanceAlong <= at);
+            }
+        }
+    }
+
+    /**
+     * Locates a fix, then guides the user with it.
+     *
+     * @param fix the fix
+     */
+    public void onFix(Fix fix) {
+        locate(fix);
+        guide(fix);
+    }
+
+    /**
+     * Ranks speech recognizer results against the directory, near the user's position if it is
+     * known.
+     *
+     * @param hypotheses the recognized texts, best first
+     * @param confidences the recognizer's confidence in each hypothesis, may be null
+     * @return the ranking result
+     */
+    public DestinationRanker.Result rank(List<String> hypotheses, float[] confidences) {
+        // Without a position, destinations sharing a name are not told apart by distance
+        return hasFix ? ranker.rank(hypotheses, confidences, lastFix.latitude, lastFix.longitude)
+                : ranker.rank(hypotheses, confidences, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Handles the final result of the speech recognizer: announces whether a destination was
+     * recognized. The caller starts routing to it.
+     *
+     * @param hypotheses the recognized texts, best first
+     * @param confidences the recognizer's confidence in each hypothesis, may be null
+     * @return the ranking result
+     */
+    public DestinationRanker.Result onSpeech(List<String> hypotheses, float[] confidences) {
+        final DestinationRanker.Result result = rank(hypotheses, confidences);
+        if (result.cancelled) {
+            return result;
+        }
+        speaker.speak(result.destination != null ? prompts.startNavigation : prompts.noDestination);
+        return result;
+    }
+
+    /**
+     * Returns the graph node to route from to a destination. Destinations off the indoor graph
+     * get the node nearest to the user, which still identifies the trip for route caches.
+     *
+     * @param destination the destination
+     * @return the node, or -1 if there is no indoor graph or position
+     */
+    public int originNode(Destination destination) {
+        if (planner == null || !hasFix) {
+            return -1;
+        }
+        return planner.originNode(lastFix.latitude, lastFix.longitude, match, node(destination));
+    }
+
+    /**
+     * @return whether routes to a destination are calculated on the device
+     */
+    public boolean isRoutable(Destination destination) {
+        return node(destination) >= 0;
+    }
+
+    /**
+     * Calculates the route from a graph node to a destination. May be called from any thread.
+     *
+     * @param originNode the origin node
+     * @param destination the destination
+     * @return the route, or null if the destination cannot be routed to on the device
+     */
+    public Route route(int originNode, Destination destination) {
+        final int target = node(destination);
+        return target >= 0 && originNode >= 0 ? planner.route(originNode, target) : null;
+    }
+
+    /**
+     * Plans the route to a destination on the device without storing it, for a guess of the
+     * destination that may be discarded. May be called from any thread.
+     *
+     * @param originNode the origin node
+     * @param destination the destination
+     * @return the route, or null if the destination is not on the graph or cannot be reached
+     */
+    public Route speculateRoute(int originNode, Destination destination) {
+        final int target = node(destination);
+        return target >= 0 && originNode >= 0 ? planner.speculate(originNode, target) : null;
+    }
+
+    /**
+     * Stores a route planned by {@link #speculateRoute} once the destination is confirmed.
+     *
+     * @param originNode the origin node
+     * @param destination the destination
+     * @param route the route
+     */
+    public void commitRoute(int originNode, Destination destination, Route route) {
+        final int target = node(destination);
+        if (target >= 0) {
+            planner.commit(originNode, target, route);
+        }
+    }
+
+    /**
+     * Plans and follows the route to a destination on the device.
+     *
+     * @param destination the destination
+     * @return whether a route was found
+     */
+    public boolean navigateTo(Destination destination) {
+        final Route route = route(originNode(destination), destination);
+        if (route == null) {
+            return false;
+        }
+        follow(route);
+        return true;
+    }
+
+    /**
+     * Starts following a route from the user's position.
+     *
+     * @param route the route from the user's graph node
+     */
+    public void follow(Route route) {
+        setActiveRoute(hasFix ? route.startingAt(lastFix.latitude, lastFix.longitude) : route);
+        listener.onRouteChanged(activeRoute);
+    }
+
+    /**
+     * Stops following the route.
+     */
+    public void stop() {
+        setActiveRoute(null);
+    }
+
+    /**
+     * @return whether a route is being followed
+     */
+    public boolean isFollowing() {
+        return activeRoute != null;
+    }
+
+    /**
+     * @return the route being followed, or null
+     */
+    public Route getActiveRoute() {
+        return activeRoute;
+    }
+
+    /**
+     * @return whether a fix has been located
+     */
+    public boolean hasPosition() {
+        return hasFix;
+    }
+
+    /**
+     * @return the user's last located position, valid once {@link #hasPosition()}
+     */
+    public Fix getPosition() {
+        return lastFix;
+    }
+
+    /**
+     * @return the user's last position on the graph, may be unmatched
+     */
+    public CorridorSnapper.Match getMatch() {
+        return match;
+    }
+
+    /**
+     * @return the number of reroutes since the session was created
+     */
+    public int getRerouteCount() {
+        return rerouteCount;
+    }
+
+    /**
+     * Forgets the position history, e.g. after positioning was paused.
+     */
+    public void reset() {
+        filter.reset();
+        match.clear();
+        if (snapper != null) {
+            snapper.reset();
+        }
+    }
+
+    /**
+     * Replaces the route with one from the user's current position to the same destination. If
+     * none is found, guidance continues along the old route from where the user left it, and no
+     * reroute is attempted for {@link #REROUTE_RETRY_INTERVAL}.
+     */
+    private void reroute(Route route, Fix fix) {
+        if (fix.time < rerouteRetryAt) {
+            tracker.resume();
+            return;
+        }
+        final int origin = planner != null
+                ? planner.originNode(fix.latitude, fix.longitude, match, route.getDestination())
+                : -1;
+        final Route detour = origin >= 0 ? planner.route(origin, route.getDestination()) : null;
+        if (detour == null) {
+            // Keep guiding along the old route and detect the deviation again
+            tracker.resume();
+            rerouteRetryAt = fix.time + REROUTE_RETRY_INTERVAL;
+            return;
+        }
+        rerouteCount++;
+        final Route next = detour.startingAt(fix.latitude, fix.longitude);
+        setActiveRoute(next);
+        speaker.speakGuidance(prompts.rerouting, () -> activeRoute == next);
+        listener.onRouteChanged(activeRoute);
+    }
+
+    /**
+     * Starts following a route from its beginning, with its maneuvers.
+     *
+     * @param route the route, or null to stop following
+     */
+    private void setActiveRoute(Route route) {
+        activeRoute = route;
+        distanceAlong = 0;
+        tracker.setRoute(route);
+        maneuvers = route != null ? Maneuvers.of(route, planner != null ? planner.getGraph() : null) : null;
+        nextManeuver = 0;
+        rerouteRetryAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the graph node of a destination, or -1 if it is not on the indoor graph
+     */
+    private int node(Destination destination) {
+        if (planner == null || destination.getNode() == null) {
+            return -1;
+        }
+        final IndoorGraph graph = planner.getGraph();
+        if (!destination.getBuilding().equals(graph.getVenueId())) {
+            return -1;
+        }
+        return graph.indexOf(destination.getNode());
+    }
+}
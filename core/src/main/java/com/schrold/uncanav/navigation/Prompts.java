@@ -0,0 +1,66 @@
+package com.schrold.uncanav.navigation;
+
+import com.schrold.uncanav.routing.Maneuvers;
+
+/**
+ * The texts of the prompts spoken during navigation, usually taken from localized resources.
+ */
+public final class Prompts {
+
+    // Spoken when a destination was recognized and navigation starts
+    public final String startNavigation;
+
+    // Spoken when no destination was recognized
+    public final String noDestination;
+
+    // Spoken when a new route was calculated after the user left the old one
+    public final String rerouting;
+
+    // Spoken when the user reaches the destination
+    public final String arrived;
+
+    // Spoken as the user approaches each kind of maneuver, indexed by Maneuvers.Type, null
+    // entries are not announced
+    private final String[] maneuvers;
+
+    /**
+     * Creates the prompts, without maneuver prompts.
+     *
+     * @param startNavigation spoken when navigation starts
+     * @param noDestination spoken when no destination was recognized
+     * @param rerouting spoken after a reroute
+     * @param arrived spoken on arrival
+     */
+    public Prompts(String startNavigation, String noDestination, String rerouting, String arrived) {
+        this(startNavigation, noDestination, rerouting, arrived, new String[Maneuvers.Type.values().length]);
+    }
+
+    /**
+     * Creates the prompts.
+     *
+     * @param startNavigation spoken when navigation starts
+     * @param noDestination spoken when no destination was recognized
+     * @param rerouting spoken after a reroute
+     * @param arrived spoken on arrival
+     * @param maneuvers spoken before each kind of maneuver, in the order of
+     *                  {@link Maneuvers.Type}
+     */
+    public Prompts(String startNavigation, String noDestination, String rerouting, String arrived,
+                   String... maneuvers) {
+        if (maneuvers.length != Maneuvers.Type.values().length) {
+            throw new IllegalArgumentException("Expected " + Maneuvers.Type.values().length + " maneuver prompts");
+        }
+        this.startNavigation = startNavigation;
+        this.noDestination = noDestination;
+        this.rerouting = rerouting;
+        this.arrived = arrived;
+        this.maneuvers = maneuvers.clone();
+    }
+
+    /**
+     * @return the prompt of a kind of maneuver, or null if it is not announced
+     */
+    public String maneuver(Maneuvers.Type type) {
+        return maneuvers[type.ordinal()];
+    }
+}
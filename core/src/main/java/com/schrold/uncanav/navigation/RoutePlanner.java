@@ -0,0 +1,56 @@
+package com.schrold.uncanav.navigation;
+
+import com.schrold.uncanav.routing.CorridorSnapper;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.Route;
+
+/**
+ * Calculates walking routes over the indoor graph of a building.
+ */
+public interface RoutePlanner {
+
+    /**
+     * @return the graph routes are calculated on
+     */
+    IndoorGraph getGraph();
+
+    /**
+     * Returns the graph node to route from.
+     *
+     * @param latitude the user's latitude
+     * @param longitude the user's longitude
+     * @param match the user's position snapped onto the graph, may be unmatched
+     * @param destination the destination node, or -1 if unknown
+     * @return the origin node, or -1 if there is none
+     */
+    int originNode(double latitude, double longitude, CorridorSnapper.Match match, int destination);
+
+    /**
+     * Calculates the route between two graph nodes. May be called from any thread.
+     *
+     * @param origin the origin node
+     * @param destination the destination node
+     * @return the route, or null if the destination cannot be reached
+     */
+    Route route(int origin, int destination);
+
+    /**
+     * Calculates the route between two graph nodes like {@link #route}, but without storing it,
+     * for speculative work whose result may be thrown away. May be called from any thread.
+     *
+     * @param origin the origin node
+     * @param destination the destination node
+     * @return the route, or null if the destination cannot be reached
+     */
+    Route speculate(int origin, int destination);
+
+    /**
+     * Stores a route calculated by {@link #speculate} once it is used, as {@link #route} would
+     * have.
+     *
+     * @param origin the origin node
+     * @param destination the destination node
+     * @param route the route
+     */
+    void commit(int origin, int destination, Route route);
+}
@@ -0,0 +1,29 @@
+package com.schrold.uncanav.navigation;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Speaks prompts to the user, e.g. through text-to-speech.
+ */
+public interface Speaker {
+
+    /**
+     * Speaks a prompt.
+     *
+     * @param text the prompt
+     */
+    void speak(String text);
+
+    /**
+     * Speaks a guidance prompt, which is urgent and only worth speaking right away. A prompt that
+     * has to wait for other speech is dropped once it is no longer relevant. By default it is
+     * spoken like any other prompt.
+     *
+     * @param text the prompt
+     * @param relevant whether the prompt is still worth speaking, may be called on any thread;
+     *                 null if it stays relevant
+     */
+    default void speakGuidance(String text, BooleanSupplier relevant) {
+        speak(text);
+    }
+}
@@ -0,0 +1,143 @@
+package com.schrold.uncanav.offline;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rectangular area on the map, given by its center and its size in meters, in the same form
+ * as the bounding boxes passed to the HERE map data prefetcher.
+ */
+public final class Area {
+
+    // Center of the area in degrees
+    private double latitude;
+    private double longitude;
+
+    // Size of the area in meters
+    private double width;
+    private double height;
+
+    Area() {
+    }
+
+    /**
+     * Creates an area.
+     *
+     * @param latitude the latitude of the center
+     * @param longitude the longitude of the center
+     * @param width the east-west extent in meters
+     * @param height the north-south extent in meters
+     */
+    public Area(double latitude, double longitude, double width, double height) {
+        if (!(width >= 0) || !(height >= 0)) {
+            throw new IllegalArgumentException("width and height must not be negative");
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.width = width;
+        this.height = height;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getNorth() {
+        return latitude + height * 0.5 / GeoMath.METERS_PER_DEGREE;
+    }
+
+    public double getSouth() {
+        return latitude - height * 0.5 / GeoMath.METERS_PER_DEGREE;
+    }
+
+    public double getEast() {
+        return longitude + width * 0.5 / GeoMath.metersPerDegreeLongitude(latitude);
+    }
+
+    public double getWest() {
+        return longitude - width * 0.5 / GeoMath.metersPerDegreeLongitude(latitude);
+    }
+
+    /**
+     * @return true if the coordinate lies inside this area
+     */
+    public boolean contains(double latitude, double longitude) {
+        return latitude >= getSouth() && latitude <= getNorth()
+                && longitude >= getWest() && longitude <= getEast();
+    }
+
+    /**
+     * @return true if the other area lies entirely inside this one
+     */
+    public boolean contains(Area other) {
+        return other.getSouth() >= getSouth() && other.getNorth() <= getNorth()
+                && other.getWest() >= getWest() && other.getEast() <= getEast();
+    }
+
+    /**
+     * Splits this area into a grid of equal cells no larger than the given size. The cells are
+     * computed the same way every time, so they can be used as identifiers.
+     *
+     * @param cellSize the maximum width and height of a cell in meters
+     * @return the cells row by row, from the south-west corner
+     */
+    public List<Area> split(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        final int rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        final int columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        final double cellHeight = height / rows;
+        final double cellWidth = width / columns;
+        final double south = getSouth();
+        final double west = getWest();
+        final double latitudeStep = (getNorth() - south) / rows;
+        final double longitudeStep = (getEast() - west) / columns;
+        final List<Area> cells = new ArrayList<>(rows * columns);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                cells.add(new Area(south + (row + 0.5) * latitudeStep, west + (column + 0.5) * longitudeStep,
+                        cellWidth, cellHeight));
+            }
+        }
+        return cells;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Area)) {
+            return false;
+        }
+        Area other = (Area) o;
+        return latitude == other.latitude && longitude == other.longitude
+                && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(latitude);
+        bits = 31 * bits + Double.doubleToLongBits(longitude);
+        bits = 31 * bits + Double.doubleToLongBits(width);
+        bits = 31 * bits + Double.doubleToLongBits(height);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Area[" + latitude + ", " + longitude + ", " + width + "m x " + height + "m]";
+    }
+}
@@ -0,0 +1,78 @@
+package com.schrold.uncanav.offline;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes files that replace their previous version in one step. The contents are written to a
+ * temporary file next to the target, which is then renamed over it, so an interrupted write
+ * leaves either the old file or none, never a partial one.
+ */
+public final class AtomicFile {
+
+    /**
+     * Writes the contents of a file as bytes.
+     */
+    public interface Contents {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes the contents of a file as text.
+     */
+    public interface TextContents {
+        void write(Writer writer) throws IOException;
+    }
+
+    // Suffix of the temporary file the contents are written to
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFile() {
+    }
+
+    /**
+     * Replaces a file with new contents, creating its directory if needed.
+     *
+     * @param file the file to replace
+     * @param contents writes the new contents
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, Contents contents) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            contents.write(out);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Replaces a file with new UTF-8 text, creating its directory if needed.
+     *
+     * @param file the file to replace
+     * @param contents writes the new text
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeText(File file, TextContents contents) throws IOException {
+        write(file, out -> {
+            final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            contents.write(writer);
+            writer.flush();
+        });
+    }
+}
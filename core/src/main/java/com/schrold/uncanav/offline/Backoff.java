@@ -0,0 +1,75 @@
+package com.schrold.uncanav.offline;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff between retries of a failed download. Each failure doubles the delay up
+ * to a maximum, with random jitter so that retries do not line up with a flaky network's
+ * rhythm. A success resets the delay.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class Backoff {
+
+    // Delay after the first failure and the largest delay in milliseconds
+    private final long initialDelay;
+    private final long maxDelay;
+
+    // Share of the delay that is randomized, in [0, 1]
+    private final double jitter;
+
+    private final Random random;
+
+    // Failures since the last success
+    private int failures;
+
+    /**
+     * Creates a backoff.
+     *
+     * @param initialDelay the delay after the first failure in milliseconds
+     * @param maxDelay the largest delay in milliseconds
+     * @param jitter the share of the delay that is randomized, in [0, 1]
+     * @param random the source of the jitter
+     */
+    public Backoff(long initialDelay, long maxDelay, double jitter, Random random) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("delays must be positive and initialDelay <= maxDelay");
+        }
+        if (!(jitter >= 0 && jitter <= 1)) {
+            throw new IllegalArgumentException("jitter must be in [0, 1]");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    /**
+     * Records a failure.
+     *
+     * @return the delay before the next attempt in milliseconds
+     */
+    public long fail() {
+        long delay = initialDelay;
+        for (int i = 0; i < failures && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        failures++;
+        delay = Math.min(delay, maxDelay);
+        return delay - (long) (delay * jitter * random.nextDouble());
+    }
+
+    /**
+     * Records a success, the next failure waits the initial delay again.
+     */
+    public void succeed() {
+        failures = 0;
+    }
+
+    /**
+     * @return the number of failures since the last success
+     */
+    public int getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,236 @@
+package com.schrold.uncanav.offline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent record of the map data chunks that have been fetched, so that an interrupted
+ * download resumes with the chunks it is missing, also after the app restarts. Each chunk is
+ * identified by its area. Records are appended as chunks complete and carry a checksum; a
+ * record that is torn or corrupt is dropped when the ledger is opened, and its chunk is fetched
+ * again.
+ * <p>
+ * The file has the following big-endian layout:
+ * <pre>
+ * int    magic            'UNCL'
+ * int    version
+ * UTF    data version     map data version of every chunk in the ledger
+ * n x record:
+ *   double latitude       center of the chunk
+ *   double longitude
+ *   double width          meters
+ *   double height         meters
+ *   long   size           estimated kilobytes
+ *   long   fetched at     milliseconds since the epoch
+ *   int    checksum       CRC32 of the preceding 48 bytes
+ * </pre>
+ * The file is compacted every time it is opened. A ledger of another data version is discarded.
+ */
+public final class ChunkLedger implements Closeable {
+
+    // File identification
+    static final int MAGIC = 0x554E434C;
+    static final int VERSION = 1;
+
+    // Sizes of a record in bytes, without and with the checksum
+    static final int DATA_SIZE = 48;
+    static final int RECORD_SIZE = DATA_SIZE + 4;
+
+    /**
+     * A fetched chunk.
+     */
+    private static final class Entry {
+        final long sizeKB;
+        final long fetchedAt;
+
+        Entry(long sizeKB, long fetchedAt) {
+            this.sizeKB = sizeKB;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    // The ledger file, appended to as chunks complete
+    private final File file;
+    private final FileOutputStream stream;
+    private final DataOutputStream out;
+
+    // Fetched chunks by area, in the order they were recorded
+    private final LinkedHashMap<Area, Entry> entries;
+
+    // Records dropped on opening because they were torn or failed their checksum
+    private final int corrupt;
+
+    // Buffer and checksum reused for every record
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private ChunkLedger(File file, String dataVersion, LinkedHashMap<Area, Entry> entries, int corrupt)
+            throws IOException {
+        this.file = file;
+        this.entries = entries;
+        this.corrupt = corrupt;
+
+        // Rewrite the valid records, then append to the compacted file
+        AtomicFile.write(file, out -> {
+            final DataOutputStream compacted = new DataOutputStream(out);
+            writeHeader(compacted, dataVersion);
+            for (Map.Entry<Area, Entry> entry : entries.entrySet()) {
+                compacted.write(encode(entry.getKey(), entry.getValue().sizeKB, entry.getValue().fetchedAt));
+            }
+            compacted.flush();
+        });
+        this.stream = new FileOutputStream(file, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, RECORD_SIZE));
+    }
+
+    /**
+     * Opens a ledger, creating it if it does not exist or belongs to another data version.
+     *
+     * @param file the ledger file
+     * @param dataVersion the current map data version
+     * @return the ledger
+     * @throws IOException if the ledger cannot be written
+     */
+    public static ChunkLedger open(File file, String dataVersion) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        final LinkedHashMap<Area, Entry> entries = new LinkedHashMap<>();
+        int corrupt = 0;
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readUTF().equals(dataVersion)) {
+                    corrupt = readRecords(in, entries);
+                } else {
+                    System.out.println("Discarding chunk ledger of another version: " + file);
+                }
+            } catch (IOException e) {
+                System.out.println("ERROR: Unreadable chunk ledger header " + file + ": " + e);
+            }
+            if (corrupt > 0) {
+                System.out.println("ERROR: Dropped " + corrupt + " corrupt records from chunk ledger " + file);
+            }
+        }
+        return new ChunkLedger(file, dataVersion, entries, corrupt);
+    }
+
+    /**
+     * Reads records until the end of the file.
+     *
+     * @return the number of corrupt or torn records
+     */
+    private static int readRecords(DataInputStream in, Map<Area, Entry> entries) throws IOException {
+        final byte[] bytes = new byte[RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final CRC32 crc = new CRC32();
+        int corrupt = 0;
+        while (true) {
+            int read = 0;
+            while (read < RECORD_SIZE) {
+                final int n = in.read(bytes, read, RECORD_SIZE - read);
+                if (n < 0) {
+                    // A torn record at the end is left by a crash during a write
+                    return read > 0 ? corrupt + 1 : corrupt;
+                }
+                read += n;
+            }
+            crc.reset();
+            crc.update(bytes, 0, DATA_SIZE);
+            buffer.clear();
+            if ((int) crc.getValue() != buffer.getInt(DATA_SIZE)) {
+                corrupt++;
+                continue;
+            }
+            final Area area;
+            try {
+                area = new Area(buffer.getDouble(0), buffer.getDouble(8), buffer.getDouble(16), buffer.getDouble(24));
+            } catch (IllegalArgumentException e) {
+                corrupt++;
+                continue;
+            }
+            entries.remove(area);
+            entries.put(area, new Entry(buffer.getLong(32), buffer.getLong(40)));
+        }
+    }
+
+    /**
+     * @return the number of fetched chunks in the ledger
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of records dropped on opening because they were torn or corrupt
+     */
+    public int getCorruptCount() {
+        return corrupt;
+    }
+
+    /**
+     * Checks whether a chunk has been fetched.
+     *
+     * @param chunk the area of the chunk
+     * @param since the earliest fetch time in milliseconds since the epoch that counts
+     * @return true if the chunk was fetched at or after the given time
+     */
+    public synchronized boolean isFetched(Area chunk, long since) {
+        final Entry entry = entries.get(chunk);
+        return entry != null && entry.fetchedAt >= since;
+    }
+
+    /**
+     * Records a fetched chunk and writes it through to the device.
+     *
+     * @param chunk the area of the chunk
+     * @param sizeKB the estimated size of the chunk in kilobytes
+     * @param fetchedAt the time the fetch completed in milliseconds since the epoch
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void record(Area chunk, long sizeKB, long fetchedAt) throws IOException {
+        entries.remove(chunk);
+        entries.put(chunk, new Entry(sizeKB, fetchedAt));
+        out.write(encode(chunk, sizeKB, fetchedAt));
+        out.flush();
+        stream.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChunkLedger[" + file.getName() + ", chunks=" + entries.size() + ", corrupt=" + corrupt + "]";
+    }
+
+    private byte[] encode(Area chunk, long sizeKB, long fetchedAt) {
+        record.clear();
+        record.putDouble(chunk.getLatitude()).putDouble(chunk.getLongitude())
+                .putDouble(chunk.getWidth()).putDouble(chunk.getHeight())
+                .putLong(sizeKB).putLong(fetchedAt);
+        crc.reset();
+        crc.update(record.array(), 0, DATA_SIZE);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    private static void writeHeader(DataOutputStream out, String dataVersion) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(dataVersion);
+    }
+}
@@ -0,0 +1,327 @@
+package com.schrold.uncanav.offline;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * The map data download at startup as a state machine, driven by events from the map engine,
+ * the network and the prefetcher instead of polling. Every wait has a timeout: the engine must
+ * initialize in time, and a map package lookup that takes too long or fails is retried with
+ * exponential backoff. While there is no network the flow waits for a connectivity event, and
+ * falls back to the cached map data, if there is any, once the offline timeout has passed. A
+ * prefetch interrupted by a lost network resumes when the network is back.
+ * <p>
+ * Each transition is reported with the time spent in the phase it leaves, so startup time can
+ * be measured per phase.
+ * <p>
+ * The flow is confined to one thread: events must be delivered, and scheduled timeouts run, on
+ * the same thread, e.g. the main looper.
+ */
+public final class DownloadFlow {
+
+    /**
+     * The phases of the download.
+     */
+    public enum Phase {
+        // Not started yet
+        IDLE,
+        // Waiting for the map engine to initialize
+        ENGINE_INIT,
+        // Waiting for a network connection
+        WAITING_FOR_NETWORK,
+        // Looking up the map package around campus
+        LOCATING_PACKAGE,
+        // Fetching the map data
+        PREFETCHING,
+        // Finished, see the outcome
+        DONE
+    }
+
+    /**
+     * How the download finished.
+     */
+    public enum Outcome {
+        // The map data was fetched
+        DOWNLOADED,
+        // The network stayed unavailable and the cached map data is used
+        CACHED,
+        // The map data could not be fetched and there is no cache to fall back on
+        FAILED
+    }
+
+    /**
+     * Carries out the steps of the download. Each step reports back through the matching event
+     * method of the flow.
+     */
+    public interface Actions {
+        void initEngine();
+
+        void locateMapPackage();
+
+        void startPrefetch();
+
+        void stopPrefetch();
+
+        void finish(Outcome outcome);
+    }
+
+    /**
+     * Receives the transitions of the flow.
+     */
+    public interface Listener {
+
+        /**
+         * @param from the phase left
+         * @param to the phase entered
+         * @param elapsed the time spent in the phase left in milliseconds
+         */
+        void onTransition(Phase from, Phase to, long elapsed);
+    }
+
+    /**
+     * Runs timeouts and retries on the flow's thread.
+     */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    // Longest wait for the map engine to initialize in milliseconds
+    public static final long ENGINE_TIMEOUT = 30000;
+
+    // Wait for a network connection before falling back on cached map data in milliseconds
+    public static final long OFFLINE_TIMEOUT = 10000;
+
+    // Longest wait for a map package lookup before it is retried in milliseconds
+    public static final long LOCATE_TIMEOUT = 20000;
+
+    // Delay after the first failed map package lookup and the largest delay in milliseconds
+    private static final long RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private final Actions actions;
+    private final Listener listener;
+    private final Scheduler scheduler;
+    private final LongSupplier clock;
+    private final Backoff backoff;
+
+    // Whether usable map data is cached, to fall back on when offline
+    private final boolean hasCache;
+
+    // Current phase and the time it was entered
+    private Phase phase = Phase.IDLE;
+    private long phaseStart;
+
+    // Counts transitions, so that timeouts of an earlier phase are ignored
+    private int serial;
+
+    // Whether the network is available
+    private boolean online;
+
+    // Whether the map package has been located, so a resumed download prefetches directly
+    private boolean located;
+
+    // Whether the offline timeout has passed without a network
+    private boolean offlineTimedOut;
+
+    // Time spent in each phase in milliseconds
+    private final EnumMap<Phase, Long> durations = new EnumMap<>(Phase.class);
+
+    // How the flow finished, null until it has
+    private Outcome outcome;
+
+    /**
+     * Creates a flow.
+     *
+     * @param actions carries out the steps of the download
+     * @param listener receives the transitions
+     * @param scheduler runs timeouts and retries on the flow's thread
+     * @param clock the monotonic clock in milliseconds
+     * @param hasCache whether usable map data is cached, to fall back on when offline
+     * @param random the source of the retry jitter
+     */
+    public DownloadFlow(Actions actions, Listener listener, Scheduler scheduler, LongSupplier clock,
+                        boolean hasCache, Random random) {
+        this.actions = actions;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.hasCache = hasCache;
+        this.backoff = new Backoff(RETRY_DELAY, MAX_RETRY_DELAY, 0.25, random);
+    }
+
+    /**
+     * Starts the download by initializing the map engine.
+     *
+     * @param online whether the network is available
+     */
+    public void start(boolean online) {
+        if (phase != Phase.IDLE) {
+            return;
+        }
+        this.online = online;
+        phaseStart = clock.getAsLong();
+        enter(Phase.ENGINE_INIT);
+        timeout(ENGINE_TIMEOUT);
+        actions.initEngine();
+    }
+
+    public void onEngineInitialized(boolean success) {
+        if (phase != Phase.ENGINE_INIT) {
+            return;
+        }
+        if (success) {
+            proceed();
+        } else {
+            // The map cannot run without the engine, cached data or not
+            finish(Outcome.FAILED);
+        }
+    }
+
+    public void onNetworkChanged(boolean available) {
+        if (available == online) {
+            return;
+        }
+        online = available;
+        if (available && phase == Phase.WAITING_FOR_NETWORK) {
+            proceed();
+        } else if (!available && (phase == Phase.LOCATING_PACKAGE || phase == Phase.PREFETCHING)) {
+            if (phase == Phase.PREFETCHING) {
+                actions.stopPrefetch();
+            }
+            waitForNetwork();
+        }
+    }
+
+    public void onMapPackageLocated(boolean success) {
+        if (phase != Phase.LOCATING_PACKAGE) {
+            return;
+        }
+        if (success) {
+            located = true;
+            backoff.succeed();
+            enter(Phase.PREFETCHING);
+            actions.startPrefetch();
+        } else {
+            retryLocate();
+        }
+    }
+
+    public void onPrefetchFinished(boolean success) {
+        if (phase != Phase.PREFETCHING) {
+            return;
+        }
+        finish(success ? Outcome.DOWNLOADED : hasCache ? Outcome.CACHED : Outcome.FAILED);
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return how the flow finished, or null if it has not
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the time spent in each phase so far in milliseconds, including the current one
+     */
+    public Map<Phase, Long> getDurations() {
+        final EnumMap<Phase, Long> result = new EnumMap<>(durations);
+        if (phase != Phase.IDLE && phase != Phase.DONE) {
+            result.merge(phase, clock.getAsLong() - phaseStart, Long::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Continues once the engine is ready or the network is back.
+     */
+    private void proceed() {
+        if (!online) {
+            waitForNetwork();
+        } else if (located) {
+            enter(Phase.PREFETCHING);
+            actions.startPrefetch();
+        } else {
+            locate();
+        }
+    }
+
+    private void waitForNetwork() {
+        enter(Phase.WAITING_FOR_NETWORK);
+        if (!offlineTimedOut) {
+            timeout(OFFLINE_TIMEOUT);
+        }
+    }
+
+    private void locate() {
+        enter(Phase.LOCATING_PACKAGE);
+        timeout(LOCATE_TIMEOUT);
+        actions.locateMapPackage();
+    }
+
+    private void retryLocate() {
+        final int retrySerial = ++serial;
+        final long delay = backoff.fail();
+        System.out.println("Map package lookup failed, retrying in " + delay + " ms");
+        scheduler.schedule(() -> {
+            if (retrySerial == serial && phase == Phase.LOCATING_PACKAGE) {
+                locate();
+            }
+        }, delay);
+    }
+
+    private void timeout(long delay) {
+        final int timeoutSerial = serial;
+        final Phase timeoutPhase = phase;
+        scheduler.schedule(() -> {
+            if (timeoutSerial == serial && phase == timeoutPhase) {
+                onTimeout();
+            }
+        }, delay);
+    }
+
+    private void onTimeout() {
+        System.out.println("Map download timed out in " + phase);
+        switch (phase) {
+            case ENGINE_INIT:
+                finish(Outcome.FAILED);
+                break;
+            case WAITING_FOR_NETWORK:
+                // Keep waiting for the network if there is nothing to fall back on
+                offlineTimedOut = true;
+                if (hasCache) {
+                    finish(Outcome.CACHED);
+                }
+                break;
+            case LOCATING_PACKAGE:
+                retryLocate();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void finish(Outcome outcome) {
+        this.outcome = outcome;
+        enter(Phase.DONE);
+        actions.finish(outcome);
+    }
+
+    private void enter(Phase next) {
+        final long now = clock.getAsLong();
+        final long elapsed = now - phaseStart;
+        final Phase previous = phase;
+        if (previous != Phase.IDLE) {
+            durations.merge(previous, elapsed, Long::sum);
+        }
+        phase = next;
+        phaseStart = now;
+        serial++;
+        listener.onTransition(previous, next, elapsed);
+    }
+}
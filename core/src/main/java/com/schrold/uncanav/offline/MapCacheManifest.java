@@ -0,0 +1,153 @@
+package com.schrold.uncanav.offline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Describes the map data in the device's map cache: the area it covers, the map data version it
+ * was fetched with, and when it was fetched. It is written once a fetch completes, so a cache
+ * with a valid manifest can be used at startup without fetching it again.
+ */
+public final class MapCacheManifest {
+
+    /**
+     * Whether the cached map data can be used for a given area and data version.
+     */
+    public enum Status {
+        // The cache is complete and recent
+        VALID,
+        // The cache is complete but old, it can be used and should be refreshed in the background
+        STALE,
+        // There is no usable cache, the map data has to be fetched before the map starts
+        INVALID
+    }
+
+    // Version of the manifest format, manifests of another format are ignored
+    static final int FORMAT = 1;
+
+    // Format of this manifest
+    private int format;
+
+    // Map data version the cache was fetched with
+    private String dataVersion;
+
+    // Area covered by the cache
+    private Area coverage;
+
+    // Estimated size of the cached data in kilobytes
+    private long sizeKB;
+
+    // Time the fetch completed in milliseconds since the epoch
+    private long fetchedAt;
+
+    MapCacheManifest() {
+    }
+
+    /**
+     * Creates a manifest for a completed fetch.
+     *
+     * @param dataVersion the map data version the cache was fetched with
+     * @param coverage the area covered by the cache
+     * @param sizeKB the estimated size of the cached data in kilobytes
+     * @param fetchedAt the time the fetch completed in milliseconds since the epoch
+     */
+    public MapCacheManifest(String dataVersion, Area coverage, long sizeKB, long fetchedAt) {
+        if (dataVersion == null || coverage == null) {
+            throw new IllegalArgumentException("dataVersion and coverage must not be null");
+        }
+        this.format = FORMAT;
+        this.dataVersion = dataVersion;
+        this.coverage = coverage;
+        this.sizeKB = sizeKB;
+        this.fetchedAt = fetchedAt;
+    }
+
+    public String getDataVersion() {
+        return dataVersion;
+    }
+
+    public Area getCoverage() {
+        return coverage;
+    }
+
+    public long getSizeKB() {
+        return sizeKB;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * Checks whether the cache can be used for an area. A cache fetched in the future, e.g. after
+     * the clock was changed, is treated as stale.
+     *
+     * @param dataVersion the current map data version
+     * @param area the area the map has to cover
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshAge the age in milliseconds after which the cache should be refreshed
+     * @return the status of the cache
+     */
+    public Status check(String dataVersion, Area area, long now, long refreshAge) {
+        if (format != FORMAT || !this.dataVersion.equals(dataVersion) || !coverage.contains(area)) {
+            return Status.INVALID;
+        }
+        final long age = now - fetchedAt;
+        return age >= 0 && age < refreshAge ? Status.VALID : Status.STALE;
+    }
+
+    /**
+     * Checks whether a possibly missing cache can be used for an area.
+     *
+     * @param manifest the manifest of the cache, or null if there is none
+     * @see #check(String, Area, long, long)
+     */
+    public static Status check(MapCacheManifest manifest, String dataVersion, Area area, long now, long refreshAge) {
+        return manifest != null ? manifest.check(dataVersion, area, now, refreshAge) : Status.INVALID;
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param file the manifest file
+     * @return the manifest, or null if there is none or it is unreadable
+     */
+    public static MapCacheManifest read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            final MapCacheManifest manifest = new Gson().fromJson(reader, MapCacheManifest.class);
+            if (manifest == null || manifest.dataVersion == null || manifest.coverage == null) {
+                System.out.println("ERROR: Incomplete map cache manifest " + file);
+                return null;
+            }
+            return manifest;
+        } catch (IOException | JsonParseException e) {
+            System.out.println("ERROR: Unreadable map cache manifest " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes this manifest, replacing the previous one through {@link AtomicFile}.
+     *
+     * @param file the manifest file
+     * @throws IOException if the manifest cannot be written
+     */
+    public void write(File file) throws IOException {
+        AtomicFile.writeText(file, writer -> new Gson().toJson(this, writer));
+    }
+
+    @Override
+    public String toString() {
+        return "MapCacheManifest[" + dataVersion + ", " + coverage + ", " + sizeKB + " KB, fetched at " + fetchedAt + "]";
+    }
+}
@@ -0,0 +1,228 @@
+package com.schrold.uncanav.offline;
+
+import com.schrold.uncanav.geo.GeoMath;
+import com.schrold.uncanav.venue.Destination;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Map data to prefetch in tiers of growing areas. The first tier is a tight box around the
+ * venue, which is all the map needs to start; the wider tiers around it are fetched afterwards.
+ * Each tier keeps its estimated size and progress, so downloads can be reported per tier.
+ */
+public final class PrefetchPlan {
+
+    /**
+     * One area of the plan and the progress of its download.
+     */
+    public static final class Tier {
+
+        // Name of the tier for progress reports
+        private final String name;
+
+        // Area fetched by the tier
+        private final Area area;
+
+        // Estimated size in kilobytes, -1 until estimated
+        private long sizeKB = -1;
+
+        // Download progress in percent
+        private float progress;
+
+        // Whether the download has completed
+        private boolean complete;
+
+        /**
+         * Creates a tier.
+         *
+         * @param name the name of the tier
+         * @param area the area fetched by the tier
+         */
+        public Tier(String name, Area area) {
+            this.name = name;
+            this.area = area;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Area getArea() {
+            return area;
+        }
+
+        /**
+         * @return the estimated size in kilobytes, or -1 if it is not estimated yet
+         */
+        public long getSizeKB() {
+            return sizeKB;
+        }
+
+        /**
+         * @return the download progress in percent
+         */
+        public float getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return the kilobytes downloaded so far, as a share of the estimated size
+         */
+        public long getFetchedKB() {
+            return sizeKB > 0 ? Math.round(sizeKB * (double) Math.min(progress, 100f) / 100) : 0;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Records the estimated size of the tier.
+         */
+        public void estimated(long sizeKB) {
+            this.sizeKB = sizeKB;
+        }
+
+        /**
+         * Records the progress of the download.
+         */
+        public void progressed(float progress) {
+            this.progress = Math.max(0f, Math.min(progress, 100f));
+        }
+
+        /**
+         * Records the completion of the download.
+         */
+        public void completed() {
+            progress = 100f;
+            complete = true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %d%% [%.1f of %.1f MB]", name, (int) progress,
+                    getFetchedKB() / 1000.0, Math.max(sizeKB, 0) / 1000.0);
+        }
+    }
+
+    // Tiers in the order they are fetched, each containing the ones before it
+    private final List<Tier> tiers;
+
+    /**
+     * Creates a plan.
+     *
+     * @param tiers the tiers in the order they are fetched
+     */
+    public PrefetchPlan(List<Tier> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("a plan needs at least one tier");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+    }
+
+    /**
+     * Creates a plan that starts with a box around the destinations, followed by wider areas.
+     * Without destinations the plan starts with the first wider area.
+     *
+     * @param destinations the destinations of the venue
+     * @param margin the margin around the destinations in meters
+     * @param wider the wider tiers, from the smallest to the largest
+     * @return the plan
+     */
+    public static PrefetchPlan around(Collection<Destination> destinations, double margin, Tier... wider) {
+        final List<Tier> tiers = new ArrayList<>();
+        final Area venue = bounds(destinations, margin);
+        if (venue != null) {
+            tiers.add(new Tier("venue", venue));
+        }
+        Collections.addAll(tiers, wider);
+        return new PrefetchPlan(tiers);
+    }
+
+    /**
+     * Returns the box around a set of destinations.
+     *
+     * @param destinations the destinations
+     * @param margin the margin around the destinations in meters
+     * @return the box, or null if there are no destinations
+     */
+    public static Area bounds(Collection<Destination> destinations, double margin) {
+        if (destinations.isEmpty()) {
+            return null;
+        }
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (Destination destination : destinations) {
+            south = Math.min(south, destination.getLatitude());
+            north = Math.max(north, destination.getLatitude());
+            west = Math.min(west, destination.getLongitude());
+            east = Math.max(east, destination.getLongitude());
+        }
+        final double latitude = (south + north) * 0.5;
+        return new Area(latitude, (west + east) * 0.5,
+                (east - west) * GeoMath.metersPerDegreeLongitude(latitude) + 2 * margin,
+                (north - south) * GeoMath.METERS_PER_DEGREE + 2 * margin);
+    }
+
+    /**
+     * @return the first tier, which the map needs to start
+     */
+    public Tier getFirst() {
+        return tiers.get(0);
+    }
+
+    /**
+     * @return the last and widest tier
+     */
+    public Tier getLast() {
+        return tiers.get(tiers.size() - 1);
+    }
+
+    /**
+     * @return the tiers in the order they are fetched
+     */
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Returns the tiers that the cache does not hold, or holds too old.
+     *
+     * @param manifest the manifest of the cache, or null if there is none
+     * @param dataVersion the current map data version
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshAge the age in milliseconds after which cached data is fetched again
+     * @return the tiers to fetch, in order
+     */
+    public List<Tier> getMissing(MapCacheManifest manifest, String dataVersion, long now, long refreshAge) {
+        final List<Tier> missing = new ArrayList<>();
+        for (Tier tier : tiers) {
+            if (MapCacheManifest.check(manifest, dataVersion, tier.area, now, refreshAge) != MapCacheManifest.Status.VALID) {
+                missing.add(tier);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return the kilobytes downloaded so far over all tiers
+     */
+    public long getFetchedKB() {
+        long fetched = 0;
+        for (Tier tier : tiers) {
+            fetched += tier.getFetchedKB();
+        }
+        return fetched;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchPlan" + tiers;
+    }
+}
@@ -0,0 +1,163 @@
+package com.schrold.uncanav.offline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the venues whose radio maps, the Wi-Fi and Bluetooth fingerprints used for indoor
+ * positioning, are stored on the device: the data version each was loaded with and when. Each
+ * venue is recorded as soon as its radio map is loaded, so an update loads only the venues that
+ * are new, of another data version or old, and an interrupted download resumes with the venues
+ * it is missing.
+ */
+public final class RadioMapManifest {
+
+    /**
+     * The radio map of a venue.
+     */
+    private static final class Entry {
+        // Data version the radio map was loaded with
+        private String dataVersion;
+
+        // Time the load completed in milliseconds since the epoch
+        private long fetchedAt;
+
+        Entry() {
+        }
+
+        Entry(String dataVersion, long fetchedAt) {
+            this.dataVersion = dataVersion;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    // Version of the manifest format, manifests of another format are ignored
+    static final int FORMAT = 1;
+
+    // Format of this manifest
+    private int format = FORMAT;
+
+    // Radio maps by venue identifier
+    private LinkedHashMap<String, Entry> venues = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty manifest.
+     */
+    public RadioMapManifest() {
+    }
+
+    /**
+     * Checks whether the radio map of a venue is stored and current. A radio map loaded in the
+     * future, e.g. after the clock was changed, is not current.
+     *
+     * @param venueId the venue identifier
+     * @param dataVersion the current data version
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshAge the age in milliseconds after which the radio map is loaded again
+     * @return true if the radio map does not need to be loaded
+     */
+    public boolean isCurrent(String venueId, String dataVersion, long now, long refreshAge) {
+        final Entry entry = venues.get(venueId);
+        if (entry == null || !dataVersion.equals(entry.dataVersion)) {
+            return false;
+        }
+        final long age = now - entry.fetchedAt;
+        return age >= 0 && age < refreshAge;
+    }
+
+    /**
+     * Returns the venues whose radio maps need to be loaded.
+     *
+     * @param venueIds the venues in the order they should be loaded
+     * @param dataVersion the current data version
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshAge the age in milliseconds after which a radio map is loaded again
+     * @return the venues that are missing, of another data version or old, in the given order
+     */
+    public List<String> getOutdated(List<String> venueIds, String dataVersion, long now, long refreshAge) {
+        final List<String> outdated = new ArrayList<>();
+        for (String venueId : venueIds) {
+            if (!isCurrent(venueId, dataVersion, now, refreshAge)) {
+                outdated.add(venueId);
+            }
+        }
+        return outdated;
+    }
+
+    /**
+     * Records a loaded radio map.
+     *
+     * @param venueId the venue identifier
+     * @param dataVersion the data version the radio map was loaded with
+     * @param fetchedAt the time the load completed in milliseconds since the epoch
+     */
+    public void record(String venueId, String dataVersion, long fetchedAt) {
+        venues.put(venueId, new Entry(dataVersion, fetchedAt));
+    }
+
+    /**
+     * @return the number of venues recorded
+     */
+    public int size() {
+        return venues.size();
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param file the manifest file
+     * @return the manifest, or an empty one if there is none, it is unreadable or of another
+     *         format
+     */
+    public static RadioMapManifest read(File file) {
+        if (!file.isFile()) {
+            return new RadioMapManifest();
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            final RadioMapManifest manifest = new Gson().fromJson(reader, RadioMapManifest.class);
+            if (manifest == null || manifest.format != FORMAT || manifest.venues == null) {
+                System.out.println("ERROR: Incomplete radio map manifest " + file);
+                return new RadioMapManifest();
+            }
+            return manifest;
+        } catch (IOException | JsonParseException e) {
+            System.out.println("ERROR: Unreadable radio map manifest " + file + ": " + e);
+            return new RadioMapManifest();
+        }
+    }
+
+    /**
+     * Writes this manifest with every venue recorded so far, replacing the previous one through
+     * {@link AtomicFile}.
+     *
+     * @param file the manifest file
+     * @throws IOException if the manifest cannot be written
+     */
+    public void write(File file) throws IOException {
+        AtomicFile.writeText(file, writer -> new Gson().toJson(this, writer));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("RadioMapManifest[");
+        for (Map.Entry<String, Entry> venue : venues.entrySet()) {
+            if (builder.length() > "RadioMapManifest[".length()) {
+                builder.append(", ");
+            }
+            builder.append(venue.getKey()).append(' ').append(venue.getValue().dataVersion)
+                    .append(" at ").append(venue.getValue().fetchedAt);
+        }
+        return builder.append(']').toString();
+    }
+}
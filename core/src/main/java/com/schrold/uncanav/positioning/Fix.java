@@ -0,0 +1,72 @@
+package com.schrold.uncanav.positioning;
+
+/**
+ * A position fix. Fixes are mutable so that the positioning pipeline can reuse instances instead
+ * of allocating one per update; consumers must copy a fix they want to keep.
+ * <p>
+ * Values that the positioning source did not report are {@link Double#NaN}, or
+ * {@link #UNKNOWN_BITS} for the source and technology bitmasks.
+ */
+public final class Fix {
+
+    // Value of the source and technology bitmasks when they are not reported
+    public static final int UNKNOWN_BITS = -1;
+
+    // Monotonic time of the fix in milliseconds
+    public long time;
+
+    // WGS84 coordinate and altitude in meters
+    public double latitude;
+    public double longitude;
+    public double altitude = Double.NaN;
+
+    // Horizontal uncertainty in meters
+    public double accuracy = Double.NaN;
+
+    // Heading in degrees clockwise from north, and speed in meters per second
+    public double heading = Double.NaN;
+    public double speed = Double.NaN;
+
+    // Bitmasks of the sources and technologies the fix was derived from
+    public int source = UNKNOWN_BITS;
+    public int technology = UNKNOWN_BITS;
+
+    // Indoor location, null when outdoors or not reported
+    public String buildingId;
+    public String buildingName;
+    public String floorId;
+
+    /**
+     * Copies every field of another fix into this one.
+     *
+     * @param other the fix to copy
+     * @return this fix
+     */
+    public Fix set(Fix other) {
+        time = other.time;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        altitude = other.altitude;
+        accuracy = other.accuracy;
+        heading = other.heading;
+        speed = other.speed;
+        source = other.source;
+        technology = other.technology;
+        buildingId = other.buildingId;
+        buildingName = other.buildingName;
+        floorId = other.floorId;
+        return this;
+    }
+
+    /**
+     * @return whether a value was reported
+     */
+    public static boolean isKnown(double value) {
+        return !Double.isNaN(value);
+    }
+
+    @Override
+    public String toString() {
+        return "Fix[" + time + ", " + latitude + ", " + longitude + ", accuracy " + accuracy + "m]";
+    }
+}
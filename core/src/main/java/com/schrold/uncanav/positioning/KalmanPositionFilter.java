@@ -0,0 +1,150 @@
+package com.schrold.uncanav.positioning;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+/**
+ * Smooths fixes with a constant-velocity Kalman filter. The east and north axes are filtered
+ * independently in meters on a plane tangent to the first fix, each with a position and a
+ * velocity state. The reported accuracy of each fix is its measurement noise, so a precise fix
+ * moves the estimate much more than a vague one.
+ * <p>
+ * The filter replaces the position and accuracy of each fix with the estimate, and fills in
+ * speed and heading from the estimated velocity when the fix does not report them. It restarts
+ * after a long gap or a floor change.
+ */
+public final class KalmanPositionFilter implements PositionFilter {
+
+    // Default acceleration noise in m^2/s^3, about a pedestrian starting and stopping
+    public static final double DEFAULT_ACCELERATION_NOISE = 0.5;
+
+    // Measurement noise in meters assumed when a fix does not report its accuracy
+    private static final double DEFAULT_ACCURACY = 10.0;
+
+    // Gap in milliseconds after which the estimate is too stale to predict from
+    private static final long MAX_GAP = 10000;
+
+    // Speed in m/s below which the estimated velocity gives no useful heading
+    private static final double MIN_HEADING_SPEED = 0.3;
+
+    // Acceleration noise of the motion model
+    private final double accelerationNoise;
+
+    // Whether the filter has been initialized with a fix
+    private boolean initialized;
+
+    // Origin of the tangent plane and its scale
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+
+    // Time and floor of the last fix
+    private long lastTime;
+    private String floorId;
+
+    // State of the east and north axes: position, velocity, and covariance [p, pv; pv, v]
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+
+    /**
+     * Position and velocity along one axis.
+     */
+    private static final class Axis {
+        double position;
+        double velocity;
+        double p00;
+        double p01;
+        double p11;
+
+        void reset(double z, double variance) {
+            position = z;
+            velocity = 0;
+            p00 = variance;
+            p01 = 0;
+            // Walking speed is unknown, but below a few m/s
+            p11 = 4.0;
+        }
+
+        void predict(double dt, double q) {
+            position += velocity * dt;
+            final double dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + q * dt2 * dt / 3;
+            p01 += dt * p11 + q * dt2 / 2;
+            p11 += q * dt;
+        }
+
+        void update(double z, double variance) {
+            final double s = p00 + variance;
+            final double k0 = p00 / s;
+            final double k1 = p01 / s;
+            final double innovation = z - position;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+    }
+
+    /**
+     * Creates a filter with the default acceleration noise.
+     */
+    public KalmanPositionFilter() {
+        this(DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * Creates a filter.
+     *
+     * @param accelerationNoise acceleration noise in m^2/s^3; larger values follow the fixes
+     *                          more closely, smaller ones smooth more
+     */
+    public KalmanPositionFilter(double accelerationNoise) {
+        this.accelerationNoise = accelerationNoise;
+    }
+
+    @Override
+    public void filter(Fix fix) {
+        final double accuracy = Fix.isKnown(fix.accuracy) && fix.accuracy > 0 ? fix.accuracy : DEFAULT_ACCURACY;
+        final double variance = accuracy * accuracy;
+        final boolean floorChanged = fix.floorId == null ? floorId != null : !fix.floorId.equals(floorId);
+        if (!initialized || floorChanged || fix.time - lastTime > MAX_GAP || fix.time < lastTime) {
+            initialized = true;
+            originLatitude = fix.latitude;
+            originLongitude = fix.longitude;
+            metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(fix.latitude);
+            lastTime = fix.time;
+            floorId = fix.floorId;
+            east.reset(0, variance);
+            north.reset(0, variance);
+            fix.accuracy = accuracy;
+            return;
+        }
+
+        final double dt = (fix.time - lastTime) / 1000.0;
+        lastTime = fix.time;
+        if (dt > 0) {
+            east.predict(dt, accelerationNoise);
+            north.predict(dt, accelerationNoise);
+        }
+        east.update((fix.longitude - originLongitude) * metersPerDegreeLongitude, variance);
+        north.update((fix.latitude - originLatitude) * GeoMath.METERS_PER_DEGREE, variance);
+
+        fix.latitude = originLatitude + north.position / GeoMath.METERS_PER_DEGREE;
+        fix.longitude = originLongitude + east.position / metersPerDegreeLongitude;
+        fix.accuracy = Math.sqrt(Math.max(east.p00, north.p00));
+        final double speed = Math.sqrt(east.velocity * east.velocity + north.velocity * north.velocity);
+        if (!Fix.isKnown(fix.speed)) {
+            fix.speed = speed;
+        }
+        if (!Fix.isKnown(fix.heading) && speed >= MIN_HEADING_SPEED) {
+            final double heading = Math.toDegrees(Math.atan2(east.velocity, north.velocity));
+            fix.heading = heading < 0 ? heading + 360.0 : heading;
+        }
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        floorId = null;
+    }
+}
@@ -0,0 +1,369 @@
+package com.schrold.uncanav.positioning;
+
+import java.util.Arrays;
+
+/**
+ * Formats the location information overlay, one line per reported field of a fix:
+ * <pre>
+ * Position Source: HARDWARE INDOOR
+ * Position Technology: WIFI
+ * Coordinate:35.615330, -82.565922
+ * Uncertainty:3.20m
+ * ...
+ * </pre>
+ * Each field is kept as its own character segment and only re-formatted when its displayed
+ * value changes, e.g. a coordinate that moved less than the last printed decimal is not
+ * formatted again. Formatting does not allocate once the buffers have grown to size, and the
+ * names of source and technology bitmasks are built once per distinct mask.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class LocationInfoFormatter {
+
+    /**
+     * Names of the bits of a bitmask, such as the position sources.
+     */
+    public static final class BitNames {
+
+        // The bits and their names, in display order
+        private final int[] bits;
+        private final String[] names;
+
+        // Names of every combination of the bits, built on first use
+        private final String[] combinations;
+
+        /**
+         * Creates the names of a bitmask.
+         *
+         * @param bits the bits, in display order
+         * @param names the name of each bit
+         */
+        public BitNames(int[] bits, String[] names) {
+            this.bits = bits.clone();
+            this.names = names.clone();
+            int all = 0;
+            for (int bit : bits) {
+                all |= bit;
+            }
+            this.combinations = new String[all + 1];
+        }
+
+        /**
+         * Returns the names of the bits set in a mask separated by spaces, or "NONE".
+         *
+         * @param mask the bitmask
+         * @return the names
+         */
+        public String name(int mask) {
+            if (mask >= 0 && mask < combinations.length) {
+                String name = combinations[mask];
+                if (name == null) {
+                    name = build(mask);
+                    combinations[mask] = name;
+                }
+                return name;
+            }
+            return build(mask);
+        }
+
+        private String build(int mask) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < bits.length; i++) {
+                if ((mask & bits[i]) != 0) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(names[i]);
+                }
+            }
+            return sb.length() > 0 ? sb.toString() : "NONE";
+        }
+    }
+
+    // Fields in display order
+    private static final int SOURCE = 0;
+    private static final int TECHNOLOGY = 1;
+    private static final int COORDINATE = 2;
+    private static final int UNCERTAINTY = 3;
+    private static final int ALTITUDE = 4;
+    private static final int HEADING = 5;
+    private static final int SPEED = 6;
+    private static final int BUILDING = 7;
+    private static final int FLOOR = 8;
+    private static final int FIELD_COUNT = 9;
+
+    // Labels and units
+    private static final char[] SOURCE_LABEL = "Position Source: ".toCharArray();
+    private static final char[] TECHNOLOGY_LABEL = "Position Technology: ".toCharArray();
+    private static final char[] COORDINATE_LABEL = "Coordinate:".toCharArray();
+    private static final char[] UNCERTAINTY_LABEL = "Uncertainty:".toCharArray();
+    private static final char[] ALTITUDE_LABEL = "Altitude:".toCharArray();
+    private static final char[] HEADING_LABEL = "Heading:".toCharArray();
+    private static final char[] SPEED_LABEL = "Speed:".toCharArray();
+    private static final char[] BUILDING_LABEL = "Building: ".toCharArray();
+    private static final char[] FLOOR_LABEL = "Floor ID: ".toCharArray();
+    private static final char[] METERS = "m".toCharArray();
+    private static final char[] METERS_PER_SECOND = "m/s".toCharArray();
+    private static final char[] NONE = new char[0];
+
+    // Powers of ten for fixed-point formatting
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L};
+
+    // Names of the position sources and technologies
+    private final BitNames sourceNames;
+    private final BitNames technologyNames;
+
+    // Formatted text of each field, and whether the field is shown
+    private final char[][] segments = new char[FIELD_COUNT][32];
+    private final int[] lengths = new int[FIELD_COUNT];
+    private final boolean[] present = new boolean[FIELD_COUNT];
+
+    // Displayed values of each field, used to detect changes
+    private final long[] keys = new long[FIELD_COUNT];
+    private long longitudeKey;
+    private String buildingName;
+    private String buildingId;
+    private String floorId;
+
+    // The formatted overlay
+    private char[] text = new char[256];
+    private int length;
+
+    /**
+     * Creates a formatter.
+     *
+     * @param sourceNames names of the position source bits
+     * @param technologyNames names of the position technology bits
+     */
+    public LocationInfoFormatter(BitNames sourceNames, BitNames technologyNames) {
+        this.sourceNames = sourceNames;
+        this.technologyNames = technologyNames;
+    }
+
+    /**
+     * Formats a fix.
+     *
+     * @param fix the fix
+     * @return whether the text changed since the previous call
+     */
+    public boolean format(Fix fix) {
+        boolean changed = bitsField(SOURCE, SOURCE_LABEL, fix.source, sourceNames);
+        changed |= bitsField(TECHNOLOGY, TECHNOLOGY_LABEL, fix.technology, technologyNames);
+        changed |= coordinateField(fix.latitude, fix.longitude);
+        changed |= numberField(UNCERTAINTY, UNCERTAINTY_LABEL, fix.accuracy, METERS);
+        changed |= numberField(ALTITUDE, ALTITUDE_LABEL, fix.altitude, METERS);
+        changed |= numberField(HEADING, HEADING_LABEL, fix.heading, NONE);
+        changed |= numberField(SPEED, SPEED_LABEL, fix.speed, METERS_PER_SECOND);
+        changed |= buildingField(fix.buildingName, fix.buildingId);
+        changed |= floorField(fix.floorId);
+        if (changed) {
+            assemble();
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the displayed values, so the next fix is formatted in full.
+     */
+    public void reset() {
+        Arrays.fill(present, false);
+        buildingName = null;
+        buildingId = null;
+        floorId = null;
+        length = 0;
+    }
+
+    /**
+     * @return the buffer holding the formatted text, valid up to {@link #length()}
+     */
+    public char[] getChars() {
+        return text;
+    }
+
+    /**
+     * @return the length of the formatted text
+     */
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(text, 0, length);
+    }
+
+    private boolean bitsField(int field, char[] label, int mask, BitNames names) {
+        if (mask == Fix.UNKNOWN_BITS) {
+            return hide(field);
+        }
+        if (present[field] && keys[field] == mask) {
+            return false;
+        }
+        present[field] = true;
+        keys[field] = mask;
+        int p = put(field, 0, label);
+        lengths[field] = put(field, p, names.name(mask));
+        return true;
+    }
+
+    private boolean coordinateField(double latitude, double longitude) {
+        final long latitudeKey = Math.round(latitude * POW10[6]);
+        final long lonKey = Math.round(longitude * POW10[6]);
+        if (present[COORDINATE] && keys[COORDINATE] == latitudeKey && longitudeKey == lonKey) {
+            return false;
+        }
+        present[COORDINATE] = true;
+        keys[COORDINATE] = latitudeKey;
+        longitudeKey = lonKey;
+        int p = put(COORDINATE, 0, COORDINATE_LABEL);
+        p = putFixed(COORDINATE, p, latitudeKey, 6);
+        p = put(COORDINATE, p, ',');
+        p = put(COORDINATE, p, ' ');
+        lengths[COORDINATE] = putFixed(COORDINATE, p, lonKey, 6);
+        return true;
+    }
+
+    private boolean numberField(int field, char[] label, double value, char[] unit) {
+        if (!Fix.isKnown(value)) {
+            return hide(field);
+        }
+        final long key = Math.round(value * POW10[2]);
+        if (present[field] && keys[field] == key) {
+            return false;
+        }
+        present[field] = true;
+        keys[field] = key;
+        int p = put(field, 0, label);
+        p = putFixed(field, p, key, 2);
+        lengths[field] = put(field, p, unit);
+        return true;
+    }
+
+    private boolean buildingField(String name, String id) {
+        if (name == null) {
+            buildingName = null;
+            buildingId = null;
+            return hide(BUILDING);
+        }
+        if (present[BUILDING] && name.equals(buildingName)
+                && (id == null ? buildingId == null : id.equals(buildingId))) {
+            return false;
+        }
+        present[BUILDING] = true;
+        buildingName = name;
+        buildingId = id;
+        int p = put(BUILDING, 0, BUILDING_LABEL);
+        p = put(BUILDING, p, name);
+        if (id != null) {
+            p = put(BUILDING, p, ' ');
+            p = put(BUILDING, p, '(');
+            p = put(BUILDING, p, id);
+            p = put(BUILDING, p, ')');
+        }
+        lengths[BUILDING] = p;
+        return true;
+    }
+
+    private boolean floorField(String id) {
+        if (id == null) {
+            floorId = null;
+            return hide(FLOOR);
+        }
+        if (present[FLOOR] && id.equals(floorId)) {
+            return false;
+        }
+        present[FLOOR] = true;
+        floorId = id;
+        int p = put(FLOOR, 0, FLOOR_LABEL);
+        lengths[FLOOR] = put(FLOOR, p, id);
+        return true;
+    }
+
+    /**
+     * Hides a field that is not reported.
+     *
+     * @return whether the field was shown before
+     */
+    private boolean hide(int field) {
+        final boolean wasPresent = present[field];
+        present[field] = false;
+        return wasPresent;
+    }
+
+    /**
+     * Joins the shown fields into the text, one per line.
+     */
+    private void assemble() {
+        int p = 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (!present[field]) {
+                continue;
+            }
+            final int needed = p + lengths[field] + 1;
+            if (needed > text.length) {
+                text = Arrays.copyOf(text, Math.max(needed, text.length * 2));
+            }
+            if (p > 0) {
+                text[p++] = '\n';
+            }
+            System.arraycopy(segments[field], 0, text, p, lengths[field]);
+            p += lengths[field];
+        }
+        length = p;
+    }
+
+    /**
+     * Writes a fixed-point number given as its value times 10^decimals.
+     */
+    private int putFixed(int field, int p, long scaled, int decimals) {
+        if (scaled < 0) {
+            p = put(field, p, '-');
+            scaled = -scaled;
+        }
+        p = putDigits(field, p, scaled / POW10[decimals], 1);
+        p = put(field, p, '.');
+        return putDigits(field, p, scaled % POW10[decimals], decimals);
+    }
+
+    /**
+     * Writes a non-negative number with at least the given number of digits.
+     */
+    private int putDigits(int field, int p, long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        final char[] segment = ensure(field, p + digits);
+        for (int i = p + digits - 1; i >= p; i--) {
+            segment[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return p + digits;
+    }
+
+    private int put(int field, int p, char c) {
+        ensure(field, p + 1)[p] = c;
+        return p + 1;
+    }
+
+    private int put(int field, int p, char[] chars) {
+        System.arraycopy(chars, 0, ensure(field, p + chars.length), p, chars.length);
+        return p + chars.length;
+    }
+
+    private int put(int field, int p, String s) {
+        s.getChars(0, s.length(), ensure(field, p + s.length()), p);
+        return p + s.length();
+    }
+
+    /**
+     * @return the segment of a field, grown to hold at least the given number of characters
+     */
+    private char[] ensure(int field, int capacity) {
+        if (capacity > segments[field].length) {
+            segments[field] = Arrays.copyOf(segments[field], Math.max(capacity, segments[field].length * 2));
+        }
+        return segments[field];
+    }
+}
@@ -0,0 +1,228 @@
+package com.schrold.uncanav.positioning;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Fans position fixes out to consumers, each at its own rate. A consumer receives a fix at most
+ * once per its minimum interval; fixes arriving in between are coalesced so that only the latest
+ * one is delivered when the interval has passed. Fixes that moved less than the consumer's
+ * minimum distance from the last delivered one are dropped.
+ * <p>
+ * The dispatcher is confined to one thread: fixes must be submitted, and scheduled deliveries
+ * run, on the same thread, e.g. the main looper.
+ */
+public final class PositionDispatcher {
+
+    /**
+     * Receives the fixes delivered to a consumer.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the latest fix. The fix is reused for the next delivery and must be copied
+         * to be kept.
+         *
+         * @param fix the fix
+         */
+        void onFix(Fix fix);
+    }
+
+    /**
+     * Runs deferred deliveries on the dispatcher's thread.
+     */
+    public interface Scheduler {
+
+        /**
+         * Runs a task after a delay.
+         *
+         * @param task the task
+         * @param delayMillis the delay in milliseconds
+         */
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * A consumer and its delivery state.
+     */
+    private final class Subscription implements Runnable {
+
+        // Name of the consumer, for statistics
+        final String name;
+
+        // The consumer
+        final Listener listener;
+
+        // Minimum time between deliveries in milliseconds, and movement in meters
+        final long minInterval;
+        final double minDistance;
+
+        // The last delivered fix, handed to the listener
+        final Fix delivered = new Fix();
+        boolean hasDelivered;
+        long deliveryTime;
+
+        // Whether the latest fix is waiting to be delivered, and whether a delivery is scheduled
+        boolean pending;
+        boolean scheduled;
+
+        // Statistics
+        long deliveredCount;
+        long droppedCount;
+
+        Subscription(String name, Listener listener, long minInterval, double minDistance) {
+            this.name = name;
+            this.listener = listener;
+            this.minInterval = minInterval;
+            this.minDistance = minDistance;
+        }
+
+        @Override
+        public void run() {
+            scheduled = false;
+            dispatch(this, clock.getAsLong());
+        }
+    }
+
+    // Clock in milliseconds, must be monotonic
+    private final LongSupplier clock;
+
+    // Runs deferred deliveries
+    private final Scheduler scheduler;
+
+    // The consumers
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    // The latest submitted fix
+    private final Fix latest = new Fix();
+
+    // Number of fixes submitted
+    private long receivedCount;
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param clock monotonic clock in milliseconds
+     * @param scheduler runs deferred deliveries on the dispatcher's thread
+     */
+    public PositionDispatcher(LongSupplier clock, Scheduler scheduler) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds a consumer.
+     *
+     * @param name name of the consumer, for statistics
+     * @param listener the consumer
+     * @param minIntervalMillis minimum time between deliveries, 0 to receive every fix
+     * @param minDistance minimum movement in meters since the last delivery, 0 to receive fixes
+     *                    without movement as well
+     */
+    public void addListener(String name, Listener listener, long minIntervalMillis, double minDistance) {
+        subscriptions.add(new Subscription(name, listener, minIntervalMillis, minDistance));
+    }
+
+    /**
+     * Submits a fix. The fix is copied and may be reused by the caller.
+     *
+     * @param fix the fix
+     */
+    public void submit(Fix fix) {
+        receivedCount++;
+        latest.set(fix);
+        final long now = clock.getAsLong();
+        for (int i = 0; i < subscriptions.size(); i++) {
+            final Subscription subscription = subscriptions.get(i);
+            if (subscription.pending) {
+                // Superseded before it was delivered
+                subscription.droppedCount++;
+            }
+            subscription.pending = true;
+            dispatch(subscription, now);
+        }
+    }
+
+    /**
+     * Forgets the last delivered fixes, so the next fix is delivered to every consumer
+     * regardless of movement, e.g. after positioning resumes.
+     */
+    public void reset() {
+        for (int i = 0; i < subscriptions.size(); i++) {
+            final Subscription subscription = subscriptions.get(i);
+            subscription.hasDelivered = false;
+            subscription.pending = false;
+        }
+    }
+
+    /**
+     * Delivers the latest fix to a consumer if it is due, or schedules its delivery.
+     */
+    private void dispatch(Subscription subscription, long now) {
+        if (!subscription.pending) {
+            return;
+        }
+        if (subscription.hasDelivered && subscription.minDistance > 0
+                && GeoMath.distance(subscription.delivered.latitude, subscription.delivered.longitude,
+                        latest.latitude, latest.longitude) < subscription.minDistance) {
+            subscription.pending = false;
+            subscription.droppedCount++;
+            return;
+        }
+        final long due = subscription.deliveryTime + subscription.minInterval;
+        if (!subscription.hasDelivered || now >= due) {
+            subscription.pending = false;
+            subscription.hasDelivered = true;
+            subscription.deliveryTime = now;
+            subscription.deliveredCount++;
+            subscription.listener.onFix(subscription.delivered.set(latest));
+        } else if (!subscription.scheduled) {
+            subscription.scheduled = true;
+            scheduler.schedule(subscription, due - now);
+        }
+    }
+
+    /**
+     * @return the number of fixes submitted
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * @return the number of fixes delivered, summed over all consumers
+     */
+    public long getDeliveredCount() {
+        long count = 0;
+        for (Subscription subscription : subscriptions) {
+            count += subscription.deliveredCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of fixes coalesced or dropped for lack of movement, summed over all
+     *         consumers
+     */
+    public long getDroppedCount() {
+        long count = 0;
+        for (Subscription subscription : subscriptions) {
+            count += subscription.droppedCount;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PositionDispatcher[received=").append(receivedCount);
+        for (Subscription subscription : subscriptions) {
+            sb.append(", ").append(subscription.name)
+                    .append("=").append(subscription.deliveredCount)
+                    .append("/").append(subscription.droppedCount);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.schrold.uncanav.positioning;
+
+/**
+ * A stage between the positioning source and the consumers of fixes that smooths or otherwise
+ * corrects each fix in place. Filters see every fix at the native rate, so they must not
+ * allocate.
+ */
+public interface PositionFilter {
+
+    /**
+     * Filter that leaves fixes unchanged.
+     */
+    PositionFilter NONE = new PositionFilter() {
+        @Override
+        public void filter(Fix fix) {
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    /**
+     * Corrects a fix in place.
+     *
+     * @param fix the fix
+     */
+    void filter(Fix fix);
+
+    /**
+     * Forgets the state built from previous fixes, e.g. after positioning was paused.
+     */
+    void reset();
+}
@@ -0,0 +1,125 @@
+package com.schrold.uncanav.positioning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fixes of a trace file written by a {@link TraceRecorder}, oldest first.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class TraceReader {
+
+    // The mapped file
+    private final ByteBuffer buffer;
+
+    // Ring slot of the oldest fix, and the number of fixes in the file
+    private final int first;
+    private final int size;
+    private final int capacity;
+
+    // Floor ID of the last read record and its encoding, to avoid decoding it on every fix
+    private final byte[] lastFloorBytes = new byte[TraceRecorder.FLOOR_SIZE];
+    private int lastFloorLength = -1;
+    private String lastFloor;
+
+    private TraceReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.getInt(TraceRecorder.CAPACITY_OFFSET);
+        final long count = buffer.getLong(TraceRecorder.COUNT_OFFSET);
+        this.size = (int) Math.min(count, capacity);
+        this.first = count > capacity ? (int) (count % capacity) : 0;
+    }
+
+    /**
+     * Maps a trace file. Fixes recorded after the file was opened are not seen.
+     *
+     * @param path the trace file
+     * @return the reader
+     * @throws IOException if the file cannot be mapped or is not a trace
+     */
+    public static TraceReader open(File path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < TraceRecorder.HEADER_SIZE) {
+                throw new IOException("Trace " + path + " is truncated");
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != TraceRecorder.MAGIC || buffer.getInt(4) != TraceRecorder.VERSION
+                    || buffer.getInt(8) != TraceRecorder.RECORD_SIZE) {
+                throw new IOException(path + " is not a position trace");
+            }
+            final int capacity = buffer.getInt(TraceRecorder.CAPACITY_OFFSET);
+            if (capacity <= 0 || buffer.getLong(TraceRecorder.COUNT_OFFSET) < 0 || channel.size()
+                    != TraceRecorder.HEADER_SIZE + (long) TraceRecorder.RECORD_SIZE * capacity) {
+                throw new IOException("Trace " + path + " is corrupt");
+            }
+            return new TraceReader(buffer);
+        }
+    }
+
+    /**
+     * @return the number of fixes in the trace
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a fix. Does not allocate unless the floor changes.
+     *
+     * @param index the index of the fix, 0 for the oldest
+     * @param fix the fix to fill
+     * @return the fix
+     */
+    public Fix read(int index, Fix fix) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Fix " + index + " of " + size);
+        }
+        final int at = TraceRecorder.HEADER_SIZE + ((first + index) % capacity) * TraceRecorder.RECORD_SIZE;
+        fix.time = buffer.getLong(at + TraceRecorder.TIME);
+        fix.latitude = buffer.getDouble(at + TraceRecorder.LATITUDE);
+        fix.longitude = buffer.getDouble(at + TraceRecorder.LONGITUDE);
+        fix.altitude = buffer.getFloat(at + TraceRecorder.ALTITUDE);
+        fix.accuracy = buffer.getFloat(at + TraceRecorder.ACCURACY);
+        fix.heading = buffer.getFloat(at + TraceRecorder.HEADING);
+        fix.speed = buffer.getFloat(at + TraceRecorder.SPEED);
+        fix.source = buffer.getInt(at + TraceRecorder.SOURCE);
+        fix.technology = buffer.getInt(at + TraceRecorder.TECHNOLOGY);
+        fix.buildingId = null;
+        fix.buildingName = null;
+        fix.floorId = decodeFloor(at);
+        return fix;
+    }
+
+    /**
+     * @return the recorded time of a fix
+     */
+    public long time(int index) {
+        final int at = TraceRecorder.HEADER_SIZE + ((first + index) % capacity) * TraceRecorder.RECORD_SIZE;
+        return buffer.getLong(at + TraceRecorder.TIME);
+    }
+
+    private String decodeFloor(int at) {
+        final int length = buffer.get(at + TraceRecorder.FLOOR_LENGTH);
+        if (length < 0) {
+            return null;
+        }
+        boolean same = length == lastFloorLength;
+        for (int i = 0; same && i < length; i++) {
+            same = buffer.get(at + TraceRecorder.FLOOR + i) == lastFloorBytes[i];
+        }
+        if (!same) {
+            for (int i = 0; i < length; i++) {
+                lastFloorBytes[i] = buffer.get(at + TraceRecorder.FLOOR + i);
+            }
+            lastFloorLength = length;
+            lastFloor = new String(lastFloorBytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        return lastFloor;
+    }
+}
@@ -0,0 +1,195 @@
+package com.schrold.uncanav.positioning;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records position fixes into a memory-mapped ring buffer file, so that traces from the field
+ * can be replayed later with a {@link TraceReplayer}. When the file is full the oldest fixes are
+ * overwritten. Since the file is mapped, recorded fixes survive a crash of the app.
+ * <p>
+ * The file has the following big-endian layout:
+ * <pre>
+ * int    magic            'UTRC'
+ * int    version
+ * int    record size      64
+ * int    capacity C       in records
+ * long   count            records written since the file was created
+ * byte[40] reserved
+ * C x record:
+ *   long   time           monotonic milliseconds
+ *   double latitude
+ *   double longitude
+ *   float  altitude       NaN if unknown
+ *   float  accuracy       NaN if unknown
+ *   float  heading        NaN if unknown
+ *   float  speed          NaN if unknown
+ *   int    source bits    -1 if unknown
+ *   int    technology bits -1 if unknown
+ *   byte   floor length   -1 if there is no floor
+ *   byte[15] floor ID     ISO-8859-1, truncated
+ * </pre>
+ * Record {@code count % C} is written next.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class TraceRecorder implements Closeable {
+
+    // File identification
+    static final int MAGIC = 0x55545243;
+    static final int VERSION = 1;
+
+    // Sizes in bytes
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 64;
+    static final int FLOOR_SIZE = 15;
+
+    // Offsets in the header
+    static final int CAPACITY_OFFSET = 12;
+    static final int COUNT_OFFSET = 16;
+
+    // Offsets in a record
+    static final int TIME = 0;
+    static final int LATITUDE = 8;
+    static final int LONGITUDE = 16;
+    static final int ALTITUDE = 24;
+    static final int ACCURACY = 28;
+    static final int HEADING = 32;
+    static final int SPEED = 36;
+    static final int SOURCE = 40;
+    static final int TECHNOLOGY = 44;
+    static final int FLOOR_LENGTH = 48;
+    static final int FLOOR = 49;
+
+    // The mapped file
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    // Number of records the file holds
+    private final int capacity;
+
+    // Number of records written since the file was created
+    private long count;
+
+    // Floor ID of the last record and its encoding, to avoid encoding it on every fix
+    private String lastFloor;
+    private final byte[] floorBytes = new byte[FLOOR_SIZE];
+    private int floorLength = -1;
+
+    /**
+     * Opens a trace file for recording, continuing after the fixes already in it. A file that
+     * is missing, corrupt or of a different capacity is started afresh.
+     *
+     * @param path the trace file
+     * @param capacity the number of fixes the file holds before the oldest are overwritten
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public TraceRecorder(File path, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        final File parent = path.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        this.capacity = capacity;
+        final long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+        file = new RandomAccessFile(path, "rw");
+        final boolean sameSize;
+        try {
+            sameSize = file.length() == size;
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        if (sameSize && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == RECORD_SIZE && buffer.getInt(CAPACITY_OFFSET) == capacity
+                && buffer.getLong(COUNT_OFFSET) >= 0) {
+            count = buffer.getLong(COUNT_OFFSET);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(COUNT_OFFSET, 0);
+            count = 0;
+        }
+    }
+
+    /**
+     * Appends a fix. Does not allocate unless the floor changes.
+     *
+     * @param fix the fix
+     */
+    public void append(Fix fix) {
+        final int at = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+        buffer.putLong(at + TIME, fix.time);
+        buffer.putDouble(at + LATITUDE, fix.latitude);
+        buffer.putDouble(at + LONGITUDE, fix.longitude);
+        buffer.putFloat(at + ALTITUDE, (float) fix.altitude);
+        buffer.putFloat(at + ACCURACY, (float) fix.accuracy);
+        buffer.putFloat(at + HEADING, (float) fix.heading);
+        buffer.putFloat(at + SPEED, (float) fix.speed);
+        buffer.putInt(at + SOURCE, fix.source);
+        buffer.putInt(at + TECHNOLOGY, fix.technology);
+        encodeFloor(fix.floorId);
+        buffer.put(at + FLOOR_LENGTH, (byte) floorLength);
+        for (int i = 0; i < FLOOR_SIZE; i++) {
+            buffer.put(at + FLOOR + i, i < floorLength ? floorBytes[i] : 0);
+        }
+        // Publish the record only once it is complete
+        count++;
+        buffer.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * @return the number of fixes written since the file was created
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of fixes the file holds
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes the recorded fixes to storage. The operating system does this on its own; this is
+     * only needed before the file is copied off the device.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private void encodeFloor(String floor) {
+        if (floor == null) {
+            lastFloor = null;
+            floorLength = -1;
+            return;
+        }
+        if (floor.equals(lastFloor)) {
+            return;
+        }
+        lastFloor = floor;
+        floorLength = Math.min(floor.length(), FLOOR_SIZE);
+        for (int i = 0; i < floorLength; i++) {
+            final char c = floor.charAt(i);
+            floorBytes[i] = (byte) (c < 256 ? c : '?');
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.schrold.uncanav.positioning;
+
+/**
+ * Plays a recorded trace back into the positioning pipeline in place of the live positioning
+ * source. Fixes keep their recorded times, so filters downstream behave exactly as they did in
+ * the field whatever the playback speed; only the delay between deliveries is scaled.
+ * <p>
+ * Timed playback runs on the thread of the scheduler. {@link #replayAll} plays a trace
+ * synchronously without delays, for tests and benchmarks.
+ */
+public final class TraceReplayer implements Runnable {
+
+    // The trace
+    private final TraceReader reader;
+
+    // Receives the fixes
+    private final PositionDispatcher.Listener listener;
+
+    // Runs the delayed deliveries
+    private final PositionDispatcher.Scheduler scheduler;
+
+    // Playback speed, 1 for real time
+    private final double speed;
+
+    // Fix reused for every delivery
+    private final Fix fix = new Fix();
+
+    // Index of the next fix, whether playback is running, and whether a delivery is scheduled
+    private int next;
+    private boolean running;
+    private boolean scheduled;
+
+    /**
+     * Creates a replayer.
+     *
+     * @param reader the trace
+     * @param listener receives the fixes
+     * @param scheduler runs delayed deliveries on the listener's thread
+     * @param speed playback speed, e.g. 1 for real time or 10 for ten times faster
+     */
+    public TraceReplayer(TraceReader reader, PositionDispatcher.Listener listener,
+                         PositionDispatcher.Scheduler scheduler, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        this.reader = reader;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.speed = speed;
+    }
+
+    /**
+     * Plays every fix of a trace synchronously, without delays.
+     *
+     * @param reader the trace
+     * @param listener receives the fixes
+     * @return the number of fixes played
+     */
+    public static int replayAll(TraceReader reader, PositionDispatcher.Listener listener) {
+        final Fix fix = new Fix();
+        for (int i = 0; i < reader.size(); i++) {
+            listener.onFix(reader.read(i, fix));
+        }
+        return reader.size();
+    }
+
+    /**
+     * Starts playback from the first fix. The first fix is delivered immediately.
+     */
+    public void start() {
+        next = 0;
+        running = reader.size() > 0;
+        if (running && !scheduled) {
+            scheduled = true;
+            scheduler.schedule(this, 0);
+        }
+    }
+
+    /**
+     * Stops playback. A delivery already scheduled does nothing.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return whether playback is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Delivers the next fix and schedules the one after it.
+     */
+    @Override
+    public void run() {
+        scheduled = false;
+        if (!running) {
+            return;
+        }
+        final int index = next++;
+        listener.onFix(reader.read(index, fix));
+        if (next >= reader.size()) {
+            running = false;
+            return;
+        }
+        final long gap = Math.max(0, reader.time(next) - reader.time(index));
+        scheduled = true;
+        scheduler.schedule(this, (long) (gap / speed));
+    }
+}
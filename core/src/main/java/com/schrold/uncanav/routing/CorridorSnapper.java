@@ -0,0 +1,366 @@
+package com.schrold.uncanav.routing;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.util.Arrays;
+
+/**
+ * Map-matches positions to the walkable segments of an {@link IndoorGraph}. The segments are
+ * kept in a uniform grid, so a query only looks at the few segments near the position.
+ * <p>
+ * A candidate segment is scored by its distance from the position, by how well it lines up with
+ * the user's heading, and by whether it continues the previous match. This keeps the match from
+ * hopping between parallel corridors or into a room doorway on every jittery fix.
+ * <p>
+ * Instances remember the previous match and are not thread-safe.
+ */
+public final class CorridorSnapper {
+
+    /**
+     * A position snapped onto a segment.
+     */
+    public static final class Match {
+
+        // Matched segment, or -1 if there is no match
+        int segment = -1;
+
+        // Graph nodes at the ends of the segment
+        int from;
+        int to;
+
+        // Position along the segment, 0 at from and 1 at to
+        double fraction;
+
+        // Snapped coordinate
+        double latitude;
+        double longitude;
+
+        // Distance from the position to the segment in meters
+        double distance;
+
+        /**
+         * @return whether the position was matched to a segment
+         */
+        public boolean isMatched() {
+            return segment >= 0;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public double getFraction() {
+            return fraction;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return the end of the segment closer to the snapped position
+         */
+        public int nearerNode() {
+            return fraction <= 0.5 ? from : to;
+        }
+
+        /**
+         * Copies another match into this one.
+         *
+         * @param other the match to copy
+         * @return this match
+         */
+        public Match set(Match other) {
+            segment = other.segment;
+            from = other.from;
+            to = other.to;
+            fraction = other.fraction;
+            latitude = other.latitude;
+            longitude = other.longitude;
+            distance = other.distance;
+            return this;
+        }
+
+        /**
+         * Clears the match.
+         */
+        public void clear() {
+            segment = -1;
+        }
+    }
+
+    // Positions farther than this from every segment in meters are not matched
+    private static final double MAX_DISTANCE = 6.0;
+
+    // Side of a grid cell in meters
+    private static final double CELL_SIZE = 4.0;
+
+    // Typical position error in meters, the distance at which a candidate costs 1
+    private static final double SIGMA = 2.0;
+
+    // Cost of walking across a segment instead of along it
+    private static final double HEADING_WEIGHT = 1.0;
+
+    // Cost of leaving the previously matched segment for a neighbouring or unrelated one
+    private static final double ADJACENT_PENALTY = 0.2;
+    private static final double JUMP_PENALTY = 0.8;
+
+    // The graph
+    private final IndoorGraph graph;
+
+    // Origin and scale of the local plane in which segments are indexed
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double metersPerDegreeLongitude;
+
+    // Segment end nodes and their plane coordinates
+    private final int[] segmentFrom;
+    private final int[] segmentTo;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    // Lower corner of the grid in plane coordinates
+    private final double minX;
+    private final double minY;
+
+    // Grid: dimensions, and the segments overlapping each cell in compressed rows
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellSegments;
+
+    // Query generation of each segment, so a segment in several cells is scored once
+    private final int[] seen;
+    private int generation;
+
+    // The previous match
+    private final Match previous = new Match();
+
+    /**
+     * Indexes the segments of a graph.
+     *
+     * @param graph the graph
+     */
+    public CorridorSnapper(IndoorGraph graph) {
+        this.graph = graph;
+        final int n = graph.size();
+        originLatitude = n > 0 ? graph.latitude(0) : 0;
+        originLongitude = n > 0 ? graph.longitude(0) : 0;
+        metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(originLatitude);
+
+        // Every edge is stored in both directions, keep one segment per edge
+        int count = 0;
+        for (int node = 0; node < n; node++) {
+            for (int slot = graph.edgeStart(node); slot < graph.edgeEnd(node); slot++) {
+                if (graph.edgeTarget(slot) > node) {
+                    count++;
+                }
+            }
+        }
+        segmentFrom = new int[count];
+        segmentTo = new int[count];
+        x1 = new double[count];
+        y1 = new double[count];
+        x2 = new double[count];
+        y2 = new double[count];
+        seen = new int[count];
+        double minX = 0;
+        double minY = 0;
+        double maxX = 0;
+        double maxY = 0;
+        int s = 0;
+        for (int node = 0; node < n; node++) {
+            for (int slot = graph.edgeStart(node); slot < graph.edgeEnd(node); slot++) {
+                final int target = graph.edgeTarget(slot);
+                if (target <= node) {
+                    continue;
+                }
+                segmentFrom[s] = node;
+                segmentTo[s] = target;
+                x1[s] = x(graph.longitude(node));
+                y1[s] = y(graph.latitude(node));
+                x2[s] = x(graph.longitude(target));
+                y2[s] = y(graph.latitude(target));
+                minX = Math.min(minX, Math.min(x1[s], x2[s]));
+                minY = Math.min(minY, Math.min(y1[s], y2[s]));
+                maxX = Math.max(maxX, Math.max(x1[s], x2[s]));
+                maxY = Math.max(maxY, Math.max(y1[s], y2[s]));
+                s++;
+            }
+        }
+        this.minX = minX;
+        this.minY = minY;
+        columns = (int) ((maxX - minX) / CELL_SIZE) + 1;
+        rows = (int) ((maxY - minY) / CELL_SIZE) + 1;
+
+        // Count, then fill the segments overlapping each cell
+        cellStart = new int[columns * rows + 1];
+        for (s = 0; s < count; s++) {
+            for (int row = row(Math.min(y1[s], y2[s])); row <= row(Math.max(y1[s], y2[s])); row++) {
+                for (int col = column(Math.min(x1[s], x2[s])); col <= column(Math.max(x1[s], x2[s])); col++) {
+                    cellStart[row * columns + col + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellSegments = new int[cellStart[columns * rows]];
+        final int[] fill = Arrays.copyOf(cellStart, columns * rows);
+        for (s = 0; s < count; s++) {
+            for (int row = row(Math.min(y1[s], y2[s])); row <= row(Math.max(y1[s], y2[s])); row++) {
+                for (int col = column(Math.min(x1[s], x2[s])); col <= column(Math.max(x1[s], x2[s])); col++) {
+                    cellSegments[fill[row * columns + col]++] = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the graph whose segments are indexed
+     */
+    public IndoorGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Snaps a position onto the most plausible segment.
+     *
+     * @param latitude the latitude of the position
+     * @param longitude the longitude of the position
+     * @param heading the user's direction of travel in degrees, or NaN if unknown
+     * @param out the match to fill
+     * @return whether a segment was found within the matching distance
+     */
+    public boolean snap(double latitude, double longitude, double heading, Match out) {
+        if (++generation == 0) {
+            Arrays.fill(seen, 0);
+            generation = 1;
+        }
+        final double px = x(longitude);
+        final double py = y(latitude);
+        final boolean useHeading = !Double.isNaN(heading);
+        final double hx = useHeading ? Math.sin(Math.toRadians(heading)) : 0;
+        final double hy = useHeading ? Math.cos(Math.toRadians(heading)) : 0;
+
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+        double bestFraction = 0;
+        double bestDistance = 0;
+        final int rowEnd = Math.min(rows - 1, rowUnclamped(py + MAX_DISTANCE));
+        final int colEnd = Math.min(columns - 1, columnUnclamped(px + MAX_DISTANCE));
+        for (int row = Math.max(0, rowUnclamped(py - MAX_DISTANCE)); row <= rowEnd; row++) {
+            for (int col = Math.max(0, columnUnclamped(px - MAX_DISTANCE)); col <= colEnd; col++) {
+                final int cell = row * columns + col;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    final int s = cellSegments[i];
+                    if (seen[s] == generation) {
+                        continue;
+                    }
+                    seen[s] = generation;
+
+                    final double dx = x2[s] - x1[s];
+                    final double dy = y2[s] - y1[s];
+                    final double lengthSquared = dx * dx + dy * dy;
+                    double t = lengthSquared > 0 ? ((px - x1[s]) * dx + (py - y1[s]) * dy) / lengthSquared : 0;
+                    t = Math.max(0, Math.min(1, t));
+                    final double ex = x1[s] + t * dx - px;
+                    final double ey = y1[s] + t * dy - py;
+                    final double distance = Math.sqrt(ex * ex + ey * ey);
+                    if (distance > MAX_DISTANCE) {
+                        continue;
+                    }
+
+                    double cost = (distance / SIGMA) * (distance / SIGMA);
+                    if (useHeading && lengthSquared > 0) {
+                        // Squared sine of the angle between heading and segment, either direction
+                        final double cross = (hx * dy - hy * dx) / Math.sqrt(lengthSquared);
+                        cost += HEADING_WEIGHT * cross * cross;
+                    }
+                    cost += continuityPenalty(s);
+                    if (cost < bestCost) {
+                        best = s;
+                        bestCost = cost;
+                        bestFraction = t;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        if (best < 0) {
+            out.clear();
+            previous.clear();
+            return false;
+        }
+        out.segment = best;
+        out.from = segmentFrom[best];
+        out.to = segmentTo[best];
+        out.fraction = bestFraction;
+        out.distance = bestDistance;
+        out.latitude = originLatitude + (y1[best] + bestFraction * (y2[best] - y1[best])) / GeoMath.METERS_PER_DEGREE;
+        out.longitude = originLongitude + (x1[best] + bestFraction * (x2[best] - x1[best])) / metersPerDegreeLongitude;
+        previous.set(out);
+        return true;
+    }
+
+    /**
+     * Forgets the previous match, e.g. after positioning was paused.
+     */
+    public void reset() {
+        previous.clear();
+    }
+
+    /**
+     * @return the cost of matching a segment given the previous match
+     */
+    private double continuityPenalty(int s) {
+        if (!previous.isMatched() || previous.segment == s) {
+            return 0;
+        }
+        final int a = previous.from;
+        final int b = previous.to;
+        if (segmentFrom[s] == a || segmentFrom[s] == b || segmentTo[s] == a || segmentTo[s] == b) {
+            return ADJACENT_PENALTY;
+        }
+        return JUMP_PENALTY;
+    }
+
+    private double x(double longitude) {
+        return (longitude - originLongitude) * metersPerDegreeLongitude;
+    }
+
+    private double y(double latitude) {
+        return (latitude - originLatitude) * GeoMath.METERS_PER_DEGREE;
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, columnUnclamped(x)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, rowUnclamped(y)));
+    }
+
+    private int columnUnclamped(double x) {
+        return (int) Math.floor((x - minX) / CELL_SIZE);
+    }
+
+    private int rowUnclamped(double y) {
+        return (int) Math.floor((y - minY) / CELL_SIZE);
+    }
+}
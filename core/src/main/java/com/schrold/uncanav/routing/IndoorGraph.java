@@ -0,0 +1,262 @@
+package com.schrold.uncanav.routing;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact walkable graph of a venue. Nodes are corridor junctions and room doors, edges are the
+ * walkable segments between them. Adjacency is stored in compressed sparse row form so that a
+ * search touches only a handful of primitive arrays.
+ */
+public final class IndoorGraph {
+
+    // Identifier of the venue the graph belongs to
+    private final String venueId;
+
+    // Node identifiers, e.g. "a4" for a corridor node or "room:131" for a door
+    private final String[] ids;
+
+    // Node coordinates and floor numbers
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] floors;
+
+    // Offsets into adjTarget/adjCost for each node, length is size() + 1
+    private final int[] adjStart;
+
+    // Neighbor node and walking distance in meters for each directed edge
+    private final int[] adjTarget;
+    private final float[] adjCost;
+
+    // Lookup from node identifier to node index
+    private final HashMap<String, Integer> indexById;
+
+    private IndoorGraph(String venueId, String[] ids, double[] latitudes, double[] longitudes,
+                        int[] floors, int[] adjStart, int[] adjTarget, float[] adjCost) {
+        this.venueId = venueId;
+        this.ids = ids;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.floors = floors;
+        this.adjStart = adjStart;
+        this.adjTarget = adjTarget;
+        this.adjCost = adjCost;
+        this.indexById = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            indexById.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Parses a graph from its JSON asset form:
+     * <pre>
+     * { "building": "DM_15755",
+     *   "nodes": [ {"id": "a1", "lat": 35.6, "lon": -82.5, "floor": 1}, ... ],
+     *   "edges": [ ["a1", "a2"], ... ] }
+     * </pre>
+     * Edges are undirected and weighted by the distance between their end points.
+     *
+     * @param reader the JSON source
+     * @return the parsed graph
+     * @throws IOException if the source is malformed or references unknown nodes
+     */
+    public static IndoorGraph fromJson(Reader reader) throws IOException {
+        final GraphJson json;
+        try {
+            json = new Gson().fromJson(reader, GraphJson.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed graph data", e);
+        }
+        if (json == null || json.nodes == null || json.edges == null) {
+            throw new IOException("Graph data is missing nodes or edges");
+        }
+
+        final int n = json.nodes.size();
+        final String[] ids = new String[n];
+        final double[] lat = new double[n];
+        final double[] lon = new double[n];
+        final int[] floor = new int[n];
+        final HashMap<String, Integer> index = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            NodeJson node = json.nodes.get(i);
+            ids[i] = node.id;
+            lat[i] = node.lat;
+            lon[i] = node.lon;
+            floor[i] = node.floor;
+            if (index.put(node.id, i) != null) {
+                throw new IOException("Duplicate graph node " + node.id);
+            }
+        }
+
+        // Count the degree of each node, then fill the adjacency rows
+        final int m = json.edges.size();
+        final int[] from = new int[m];
+        final int[] to = new int[m];
+        final int[] adjStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            String[] edge = json.edges.get(e);
+            Integer a = edge.length == 2 ? index.get(edge[0]) : null;
+            Integer b = edge.length == 2 ? index.get(edge[1]) : null;
+            if (a == null || b == null) {
+                throw new IOException("Invalid graph edge " + Arrays.toString(edge));
+            }
+            from[e] = a;
+            to[e] = b;
+            adjStart[a + 1]++;
+            adjStart[b + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            adjStart[i + 1] += adjStart[i];
+        }
+        final int[] fill = Arrays.copyOf(adjStart, n);
+        final int[] adjTarget = new int[2 * m];
+        final float[] adjCost = new float[2 * m];
+        for (int e = 0; e < m; e++) {
+            int a = from[e];
+            int b = to[e];
+            float cost = (float) GeoMath.distance(lat[a], lon[a], lat[b], lon[b]);
+            adjTarget[fill[a]] = b;
+            adjCost[fill[a]++] = cost;
+            adjTarget[fill[b]] = a;
+            adjCost[fill[b]++] = cost;
+        }
+        return new IndoorGraph(json.building, ids, lat, lon, floor, adjStart, adjTarget, adjCost);
+    }
+
+    /**
+     * @return the identifier of the venue this graph describes
+     */
+    public String getVenueId() {
+        return venueId;
+    }
+
+    /**
+     * @return the number of nodes in the graph
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the index of the node with the given identifier.
+     *
+     * @param id the node identifier
+     * @return the node index, or -1 if there is no such node
+     */
+    public int indexOf(String id) {
+        Integer index = indexById.get(id);
+        return index == null ? -1 : index;
+    }
+
+    public String id(int node) {
+        return ids[node];
+    }
+
+    public double latitude(int node) {
+        return latitudes[node];
+    }
+
+    public double longitude(int node) {
+        return longitudes[node];
+    }
+
+    public int floor(int node) {
+        return floors[node];
+    }
+
+    /**
+     * @return the first adjacency slot of the node
+     */
+    public int edgeStart(int node) {
+        return adjStart[node];
+    }
+
+    /**
+     * @return one past the last adjacency slot of the node
+     */
+    public int edgeEnd(int node) {
+        return adjStart[node + 1];
+    }
+
+    /**
+     * @return the neighbor stored in the adjacency slot
+     */
+    public int edgeTarget(int slot) {
+        return adjTarget[slot];
+    }
+
+    /**
+     * @return the walking distance in meters stored in the adjacency slot
+     */
+    public float edgeCost(int slot) {
+        return adjCost[slot];
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the node identifiers, coordinates and edges. Data derived
+     * from the graph, such as a {@link RouteTable}, records it to detect a changed graph.
+     *
+     * @return the fingerprint of the graph
+     */
+    public long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < ids.length; i++) {
+            for (int c = 0; c < ids[i].length(); c++) {
+                hash = (hash ^ ids[i].charAt(c)) * 0x100000001b3L;
+            }
+            hash = (hash ^ Double.doubleToLongBits(latitudes[i])) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(longitudes[i])) * 0x100000001b3L;
+            hash = (hash ^ floors[i]) * 0x100000001b3L;
+        }
+        for (int i = 0; i < adjTarget.length; i++) {
+            hash = (hash ^ adjTarget[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the node closest to a coordinate.
+     *
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @return the index of the nearest node, or -1 if the graph is empty
+     */
+    public int nearestNode(double latitude, double longitude) {
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < ids.length; i++) {
+            double d = GeoMath.distance(latitude, longitude, latitudes[i], longitudes[i]);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * JSON form of the graph.
+     */
+    private static class GraphJson {
+        String building;
+        List<NodeJson> nodes;
+        List<String[]> edges;
+    }
+
+    /**
+     * JSON form of a single node.
+     */
+    private static class NodeJson {
+        String id;
+        double lat;
+        double lon;
+        int floor;
+    }
+}
@@ -0,0 +1,194 @@
+package com.schrold.uncanav.routing;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.util.Arrays;
+
+/**
+ * On-device A* router over an {@link IndoorGraph}. Search state lives in arrays that are reused
+ * between queries, so a route calculation allocates only the resulting {@link Route}. Routes to
+ * destinations covered by a {@link RouteTable} are read from the table without searching.
+ * <p>
+ * Searches are serialized on the router, so an instance may be shared between threads.
+ */
+public final class IndoorRouter {
+
+    // The graph to search
+    private final IndoorGraph graph;
+
+    // Best known distance from the origin for each node
+    private final float[] cost;
+
+    // Predecessor of each node on the best known path
+    private final int[] parent;
+
+    // Search generation in which cost/parent of a node were last written
+    private final int[] visited;
+
+    // Generation counter so the arrays above never need clearing
+    private int generation;
+
+    // Open set keyed by estimated total cost
+    private final NodeHeap open;
+
+    // Precomputed next hops toward fixed destinations, may be null
+    private volatile RouteTable routeTable;
+
+    /**
+     * Creates a router for the given graph.
+     *
+     * @param graph the graph to search
+     */
+    public IndoorRouter(IndoorGraph graph) {
+        this.graph = graph;
+        final int n = graph.size();
+        cost = new float[n];
+        parent = new int[n];
+        visited = new int[n];
+        open = new NodeHeap(n);
+    }
+
+    /**
+     * Sets a precomputed route table. Routes to destinations covered by the table are then read
+     * from it instead of being searched.
+     *
+     * @param routeTable the table, built for this router's graph, or null to always search
+     */
+    public void setRouteTable(RouteTable routeTable) {
+        this.routeTable = routeTable;
+    }
+
+    /**
+     * @return the graph this router searches
+     */
+    public IndoorGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Calculates the shortest walking route from an arbitrary position to a graph node. The
+     * position is attached to its nearest node.
+     *
+     * @param latitude the latitude of the origin
+     * @param longitude the longitude of the origin
+     * @param destination the destination node
+     * @return the route, or null if the destination cannot be reached
+     */
+    public Route route(double latitude, double longitude, int destination) {
+        final int origin = graph.nearestNode(latitude, longitude);
+        if (origin < 0) {
+            return null;
+        }
+        final Route route = route(origin, destination);
+        return route != null ? route.startingAt(latitude, longitude) : null;
+    }
+
+    /**
+     * Picks the end of a matched segment from which to route to a destination. When the route
+     * table covers the destination the end with the shorter total walk is chosen, so the user
+     * is not sent back along the corridor; otherwise the nearer end is used.
+     *
+     * @param match the user's position snapped onto the graph
+     * @param destination the destination node
+     * @return the node to route from
+     */
+    public int entryNode(CorridorSnapper.Match match, int destination) {
+        final RouteTable table = routeTable;
+        if (table == null || destination < 0 || !table.covers(destination)) {
+            return match.nearerNode();
+        }
+        final double length = GeoMath.distance(graph.latitude(match.getFrom()), graph.longitude(match.getFrom()),
+                graph.latitude(match.getTo()), graph.longitude(match.getTo()));
+        final double viaFrom = match.getFraction() * length + table.distance(match.getFrom(), destination);
+        final double viaTo = (1 - match.getFraction()) * length + table.distance(match.getTo(), destination);
+        return viaTo < viaFrom ? match.getTo() : match.getFrom();
+    }
+
+    /**
+     * Calculates the shortest walking route between two graph nodes.
+     *
+     * @param origin the origin node
+     * @param destination the destination node
+     * @return the route, or null if the destination cannot be reached
+     */
+    public Route route(int origin, int destination) {
+        if (origin < 0 || destination < 0 || origin >= graph.size() || destination >= graph.size()) {
+            return null;
+        }
+        final RouteTable table = routeTable;
+        if (table != null && table.covers(destination)) {
+            return table.route(origin, destination);
+        }
+        return search(origin, destination);
+    }
+
+    /**
+     * Runs an A* search between two graph nodes.
+     */
+    private synchronized Route search(int origin, int destination) {
+        if (++generation == 0) {
+            // Counter wrapped around, start from a clean slate
+            Arrays.fill(visited, 0);
+            generation = 1;
+        }
+        final double goalLat = graph.latitude(destination);
+        final double goalLon = graph.longitude(destination);
+
+        open.clear();
+        visited[origin] = generation;
+        cost[origin] = 0f;
+        parent[origin] = -1;
+        open.push(origin, heuristic(origin, goalLat, goalLon));
+
+        while (!open.isEmpty()) {
+            final float key = open.peekKey();
+            final int node = open.pop();
+            if (node == destination) {
+                return buildRoute(destination);
+            }
+            final float g = cost[node];
+            if (key > g + heuristic(node, goalLat, goalLon) + 1e-3f) {
+                // Stale heap entry, a shorter path to this node was found after it was queued
+                continue;
+            }
+            for (int slot = graph.edgeStart(node), end = graph.edgeEnd(node); slot < end; slot++) {
+                final int next = graph.edgeTarget(slot);
+                final float candidate = g + graph.edgeCost(slot);
+                if (visited[next] != generation || candidate < cost[next]) {
+                    visited[next] = generation;
+                    cost[next] = candidate;
+                    parent[next] = node;
+                    open.push(next, candidate + heuristic(next, goalLat, goalLon));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks the parent pointers back from the destination to build the polyline.
+     */
+    private Route buildRoute(int destination) {
+        int count = 0;
+        for (int node = destination; node >= 0; node = parent[node]) {
+            count++;
+        }
+        final int[] nodes = new int[count];
+        final double[] lat = new double[count];
+        final double[] lon = new double[count];
+        int i = count;
+        for (int node = destination; node >= 0; node = parent[node]) {
+            nodes[--i] = node;
+            lat[i] = graph.latitude(node);
+            lon[i] = graph.longitude(node);
+        }
+        return new Route(nodes, lat, lon, cost[destination]);
+    }
+
+    /**
+     * Straight-line distance to the goal, which never overestimates the walking distance.
+     */
+    private float heuristic(int node, double goalLat, double goalLon) {
+        return (float) GeoMath.distance(graph.latitude(node), graph.longitude(node), goalLat, goalLon);
+    }
+}
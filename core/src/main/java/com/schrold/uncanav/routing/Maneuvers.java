@@ -0,0 +1,171 @@
+package com.schrold.uncanav.routing;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+/**
+ * The maneuvers along a {@link Route}, derived from the shape of its polyline: turns where the
+ * route bends, stairs where it changes floor, and the side of the destination door at its end.
+ * Each maneuver is placed at its distance along the route, so guidance can announce it as the
+ * user approaches it.
+ */
+public final class Maneuvers {
+
+    /**
+     * The kinds of maneuvers.
+     */
+    public enum Type {
+        TURN_LEFT,
+        TURN_RIGHT,
+        STAIRS_UP,
+        STAIRS_DOWN,
+        // The destination door is on the given side of the last corridor, or straight ahead
+        DOOR_LEFT,
+        DOOR_RIGHT,
+        DOOR_AHEAD
+    }
+
+    // Change of bearing in degrees above which the route turns
+    private static final double TURN_ANGLE = 35.0;
+
+    // Segments shorter than this in meters are merged with the next one to measure bearings
+    private static final double MIN_SEGMENT = 1.0;
+
+    // Maneuvers of a route without turns
+    private static final Maneuvers NONE = new Maneuvers(new Type[0], new double[0], new int[0]);
+
+    // Kind, distance along the route in meters and route point of each maneuver, in route order
+    private final Type[] types;
+    private final double[] distances;
+    private final int[] points;
+
+    private Maneuvers(Type[] types, double[] distances, int[] points) {
+        this.types = types;
+        this.distances = distances;
+        this.points = points;
+    }
+
+    /**
+     * Derives the maneuvers of a route.
+     *
+     * @param route the route
+     * @param graph the graph of the route, for the floors of its nodes
+     * @return the maneuvers
+     */
+    public static Maneuvers of(Route route, IndoorGraph graph) {
+        final int n = route.size();
+        if (n < 2) {
+            return NONE;
+        }
+        final Type[] types = new Type[n];
+        final double[] distances = new double[n];
+        final int[] points = new int[n];
+        int count = 0;
+        double along = 0;
+        for (int i = 1; i < n - 1; i++) {
+            along += GeoMath.distance(route.latitude(i - 1), route.longitude(i - 1),
+                    route.latitude(i), route.longitude(i));
+            final Type type = maneuver(route, graph, i);
+            if (type != null) {
+                types[count] = type;
+                distances[count] = along;
+                points[count] = i;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NONE;
+        }
+        final Type[] t = new Type[count];
+        final double[] d = new double[count];
+        final int[] p = new int[count];
+        System.arraycopy(types, 0, t, 0, count);
+        System.arraycopy(distances, 0, d, 0, count);
+        System.arraycopy(points, 0, p, 0, count);
+        return new Maneuvers(t, d, p);
+    }
+
+    /**
+     * @return the number of maneuvers
+     */
+    public int size() {
+        return types.length;
+    }
+
+    public Type type(int i) {
+        return types[i];
+    }
+
+    /**
+     * @return the distance along the route to the maneuver in meters
+     */
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @return the index of the route point at which the maneuver is made
+     */
+    public int point(int i) {
+        return points[i];
+    }
+
+    /**
+     * Returns the maneuver at an interior point of a route.
+     *
+     * @return the maneuver, or null if the route goes straight on
+     */
+    private static Type maneuver(Route route, IndoorGraph graph, int i) {
+        final int node = route.node(i);
+        final int next = route.node(i + 1);
+        if (graph != null && node >= 0 && next >= 0 && graph.floor(node) != graph.floor(next)) {
+            return graph.floor(next) > graph.floor(node) ? Type.STAIRS_UP : Type.STAIRS_DOWN;
+        }
+        final int before = back(route, i);
+        final int after = ahead(route, i);
+        if (before < 0 || after < 0) {
+            return null;
+        }
+        final double in = GeoMath.bearing(route.latitude(before), route.longitude(before),
+                route.latitude(i), route.longitude(i));
+        final double out = GeoMath.bearing(route.latitude(i), route.longitude(i),
+                route.latitude(after), route.longitude(after));
+        final double turn = GeoMath.bearingDelta(in, out);
+        if (i + 1 == route.size() - 1) {
+            // The last leg leads from the corridor into the destination door
+            return turn >= TURN_ANGLE ? Type.DOOR_RIGHT : turn <= -TURN_ANGLE ? Type.DOOR_LEFT : Type.DOOR_AHEAD;
+        }
+        if (turn >= TURN_ANGLE) {
+            return Type.TURN_RIGHT;
+        }
+        if (turn <= -TURN_ANGLE) {
+            return Type.TURN_LEFT;
+        }
+        return null;
+    }
+
+    /**
+     * @return the point before {@code i} at least {@link #MIN_SEGMENT} away from it, or -1
+     */
+    private static int back(Route route, int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            if (GeoMath.distance(route.latitude(j), route.longitude(j), route.latitude(i), route.longitude(i))
+                    >= MIN_SEGMENT) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the point after {@code i} at least {@link #MIN_SEGMENT} away from it, or -1
+     */
+    private static int ahead(Route route, int i) {
+        for (int j = i + 1; j < route.size(); j++) {
+            if (GeoMath.distance(route.latitude(j), route.longitude(j), route.latitude(i), route.longitude(i))
+                    >= MIN_SEGMENT) {
+                return j;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+package com.schrold.uncanav.routing;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of graph nodes keyed by float priority, backed by primitive arrays. A node may
+ * be pushed more than once; callers skip stale entries when they are popped.
+ */
+final class NodeHeap {
+
+    // Heap entries
+    private int[] nodes;
+    private float[] keys;
+
+    // Number of entries in the heap
+    private int size;
+
+    NodeHeap(int capacity) {
+        nodes = new int[Math.max(16, capacity)];
+        keys = new float[nodes.length];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the smallest key in the heap
+     */
+    float peekKey() {
+        return keys[0];
+    }
+
+    void push(int node, float key) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (keys[up] <= key) {
+                break;
+            }
+            nodes[i] = nodes[up];
+            keys[i] = keys[up];
+            i = up;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+    }
+
+    /**
+     * Removes the entry with the smallest key.
+     *
+     * @return the node of the removed entry
+     */
+    int pop() {
+        final int top = nodes[0];
+        final int lastNode = nodes[--size];
+        final float lastKey = keys[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= lastKey) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        nodes[i] = lastNode;
+        keys[i] = lastKey;
+        return top;
+    }
+}
@@ -0,0 +1,130 @@
+package com.schrold.uncanav.routing;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * An immutable walking route through an {@link IndoorGraph}, expressed as a polyline. The first
+ * point may be the user's own position when it does not coincide with a graph node.
+ */
+public final class Route {
+
+    /**
+     * Codec for storing routes in a {@link RouteCache}.
+     */
+    public static final RouteCache.Codec<Route> CODEC = new RouteCache.Codec<Route>() {
+        @Override
+        public void write(Route route, DataOutputStream out) throws IOException {
+            out.writeInt(route.size());
+            out.writeDouble(route.length);
+            for (int i = 0; i < route.size(); i++) {
+                out.writeInt(route.nodes[i]);
+                out.writeDouble(route.latitudes[i]);
+                out.writeDouble(route.longitudes[i]);
+            }
+        }
+
+        @Override
+        public Route read(DataInputStream in) throws IOException {
+            final int n = in.readInt();
+            if (n <= 0 || n > 65536) {
+                throw new IOException("Invalid route size " + n);
+            }
+            final double length = in.readDouble();
+            final int[] nodes = new int[n];
+            final double[] lat = new double[n];
+            final double[] lon = new double[n];
+            for (int i = 0; i < n; i++) {
+                nodes[i] = in.readInt();
+                lat[i] = in.readDouble();
+                lon[i] = in.readDouble();
+            }
+            return new Route(nodes, lat, lon, length);
+        }
+    };
+
+    // Origins closer than this to the first point are not added as a separate point
+    private static final double SNAP_TOLERANCE = 0.5;
+
+    // Graph node of each polyline point, or -1 for a point that is not a node
+    private final int[] nodes;
+
+    // Polyline coordinates
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    // Total walking distance in meters
+    private final double length;
+
+    Route(int[] nodes, double[] latitudes, double[] longitudes, double length) {
+        this.nodes = nodes;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.length = length;
+    }
+
+    /**
+     * @return the number of points in the polyline
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    public double latitude(int i) {
+        return latitudes[i];
+    }
+
+    public double longitude(int i) {
+        return longitudes[i];
+    }
+
+    /**
+     * @return the graph node of the point, or -1 if the point is not a node
+     */
+    public int node(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * @return the graph node at the end of the route
+     */
+    public int getDestination() {
+        return nodes[nodes.length - 1];
+    }
+
+    /**
+     * @return the total walking distance in meters
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * Returns this route with the user's position prepended, unless the position already lies
+     * on the first point.
+     *
+     * @param latitude the latitude of the user's position
+     * @param longitude the longitude of the user's position
+     * @return the route starting at the given position
+     */
+    public Route startingAt(double latitude, double longitude) {
+        final double gap = GeoMath.distance(latitude, longitude, latitudes[0], longitudes[0]);
+        if (gap < SNAP_TOLERANCE) {
+            return this;
+        }
+        final int n = nodes.length;
+        final int[] newNodes = new int[n + 1];
+        final double[] lat = new double[n + 1];
+        final double[] lon = new double[n + 1];
+        newNodes[0] = -1;
+        lat[0] = latitude;
+        lon[0] = longitude;
+        System.arraycopy(nodes, 0, newNodes, 1, n);
+        System.arraycopy(latitudes, 0, lat, 1, n);
+        System.arraycopy(longitudes, 0, lon, 1, n);
+        return new Route(newNodes, lat, lon, length + gap);
+    }
+}
@@ -0,0 +1,374 @@
+package com.schrold.uncanav.routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded least-recently-used cache of routes, keyed by the graph node the origin was snapped
+ * to and the destination identifier. When a directory and {@link Codec} are given, entries are
+ * also written to disk so they survive restarts; a memory miss then falls through to the disk.
+ * The disk tier is bounded too, evicting the least recently used files, and each file is written
+ * under a temporary name and renamed once complete, so an interrupted write never leaves a
+ * truncated entry behind. Files can be written on a background executor, so that storing a route
+ * calculated on the main thread does no file I/O there.
+ *
+ * @param <V> the route type
+ */
+public final class RouteCache<V> {
+
+    /**
+     * Serializes cache values for the on-disk tier.
+     *
+     * @param <V> the value type
+     */
+    public interface Codec<V> {
+        void write(V value, DataOutputStream out) throws IOException;
+
+        V read(DataInputStream in) throws IOException;
+    }
+
+    // Maximum number of entries kept on disk unless given
+    public static final int DEFAULT_DISK_CAPACITY = 512;
+
+    // Suffixes of complete and partially written cache files
+    private static final String SUFFIX = ".route";
+    private static final String TEMP_SUFFIX = ".route.tmp";
+
+    // Maximum number of entries kept in memory
+    private final int capacity;
+
+    // Directory of the on-disk tier, null if the cache is memory only
+    private final File directory;
+
+    // Codec of the on-disk tier, null if the cache is memory only
+    private final Codec<V> codec;
+
+    // In-memory entries in access order, eldest first
+    private final LinkedHashMap<Key, V> entries;
+
+    // Maximum number of entries kept on disk
+    private final int diskCapacity;
+
+    // Names of the files of the on-disk tier in access order, eldest first
+    private final LinkedHashMap<String, Boolean> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Runs the writes of the on-disk tier
+    private final Executor diskExecutor;
+
+    // Incremented when the cache is cleared, so that a write queued before is discarded
+    private int generation;
+
+    // Lookup statistics
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    /**
+     * Creates a memory-only cache.
+     *
+     * @param capacity the maximum number of entries
+     */
+    public RouteCache(int capacity) {
+        this(capacity, null, null);
+    }
+
+    /**
+     * Creates a cache with an on-disk tier of {@link #DEFAULT_DISK_CAPACITY} entries.
+     *
+     * @param capacity the maximum number of entries kept in memory
+     * @param directory the directory for cache files, or null for a memory-only cache
+     * @param codec the codec for cache files, or null for a memory-only cache
+     */
+    public RouteCache(int capacity, File directory, Codec<V> codec) {
+        this(capacity, directory, codec, DEFAULT_DISK_CAPACITY, Runnable::run);
+    }
+
+    /**
+     * Creates a cache with an on-disk tier, deleting partially written files and the least
+     * recently used files over the disk capacity.
+     *
+     * @param capacity the maximum number of entries kept in memory
+     * @param directory the directory for cache files, or null for a memory-only cache
+     * @param codec the codec for cache files, or null for a memory-only cache
+     * @param diskCapacity the maximum number of entries kept on disk
+     * @param diskExecutor runs the writes of cache files one at a time, e.g. a background thread
+     */
+    public RouteCache(final int capacity, File directory, Codec<V> codec, int diskCapacity, Executor diskExecutor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (diskCapacity <= 0) {
+            throw new IllegalArgumentException("diskCapacity must be positive");
+        }
+        this.capacity = capacity;
+        this.diskCapacity = diskCapacity;
+        this.diskExecutor = diskExecutor;
+        this.directory = codec != null ? directory : null;
+        this.codec = directory != null ? codec : null;
+        this.entries = new LinkedHashMap<Key, V>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+        if (this.directory != null && !this.directory.isDirectory() && !this.directory.mkdirs()) {
+            System.out.println("ERROR: Unable to create route cache directory " + directory);
+        }
+        if (this.directory != null) {
+            scanDisk();
+        }
+    }
+
+    /**
+     * Looks up a route.
+     *
+     * @param originNode the graph node the origin was snapped to
+     * @param destinationId the destination identifier
+     * @return the cached route, or null on a miss
+     */
+    public synchronized V get(int originNode, String destinationId) {
+        final Key key = new Key(originNode, destinationId);
+        V value = entries.get(key);
+        if (value != null) {
+            memoryHits++;
+            return value;
+        }
+        value = readFromDisk(key);
+        if (value != null) {
+            diskHits++;
+            entries.put(key, value);
+            return value;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores a route, evicting the least recently used entry if the cache is full. The file of
+     * the on-disk tier is written on the disk executor.
+     *
+     * @param originNode the graph node the origin was snapped to
+     * @param destinationId the destination identifier
+     * @param value the route
+     */
+    public void put(int originNode, String destinationId, V value) {
+        final Key key = new Key(originNode, destinationId);
+        final int queuedGeneration;
+        synchronized (this) {
+            entries.put(key, value);
+            queuedGeneration = generation;
+        }
+        if (directory == null) {
+            return;
+        }
+        try {
+            diskExecutor.execute(() -> writeToDisk(key, value, queuedGeneration));
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the route stays in memory only
+        }
+    }
+
+    /**
+     * Removes every entry from memory and disk.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        files.clear();
+        generation++;
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        System.out.println("ERROR: Unable to delete " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of lookups answered from memory or disk
+     */
+    public synchronized long getHitCount() {
+        return memoryHits + diskHits;
+    }
+
+    /**
+     * @return the number of lookups answered from the on-disk tier
+     */
+    public synchronized long getDiskHitCount() {
+        return diskHits;
+    }
+
+    /**
+     * @return the number of lookups that found no route
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RouteCache[size=" + entries.size() + "/" + capacity + ", disk=" + files.size() + "/" + diskCapacity
+                + ", hits=" + memoryHits
+                + ", diskHits=" + diskHits + ", misses=" + misses + "]";
+    }
+
+    /**
+     * Builds the index of the on-disk tier, deleting partially written files and the least
+     * recently modified files over the disk capacity.
+     */
+    private void scanDisk() {
+        final File[] list = directory.listFiles();
+        if (list == null) {
+            return;
+        }
+        final List<File> complete = new ArrayList<>();
+        for (File file : list) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.getName().endsWith(SUFFIX)) {
+                complete.add(file);
+            }
+        }
+        // Oldest first, so the index is in access order
+        complete.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < complete.size(); i++) {
+            if (i < complete.size() - diskCapacity) {
+                if (!complete.get(i).delete()) {
+                    System.out.println("ERROR: Unable to delete " + complete.get(i));
+                }
+            } else {
+                files.put(complete.get(i).getName(), Boolean.TRUE);
+            }
+        }
+    }
+
+    private File fileFor(Key key) {
+        // Keep file names portable whatever the destination identifier contains
+        StringBuilder name = new StringBuilder().append(key.originNode).append('_');
+        for (int i = 0; i < key.destinationId.length(); i++) {
+            char c = key.destinationId.charAt(i);
+            name.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        name.append('_').append(Integer.toHexString(key.destinationId.hashCode())).append(SUFFIX);
+        return new File(directory, name.toString());
+    }
+
+    private V readFromDisk(Key key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = fileFor(key);
+        if (files.get(file.getName()) == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            V value = codec.read(in);
+            // Keep the access order across restarts
+            file.setLastModified(System.currentTimeMillis());
+            return value;
+        } catch (IOException e) {
+            // Missing or corrupt entry, drop it and treat the lookup as a miss
+            System.out.println("ERROR: Unreadable route cache entry " + file + ": " + e);
+            files.remove(file.getName());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the file of an entry without holding the lock, then adds it to the index.
+     */
+    private void writeToDisk(Key key, V value, int queuedGeneration) {
+        File file = fileFor(key);
+        File temp = new File(directory, file.getName().substring(0, file.getName().length() - SUFFIX.length())
+                + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            codec.write(value, out);
+        } catch (IOException e) {
+            System.out.println("ERROR: Unable to write route cache entry " + file + ": " + e);
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (queuedGeneration != generation) {
+                // Cleared while the file was written
+                temp.delete();
+                return;
+            }
+            // Replace any previous entry, renameTo does not overwrite on every platform
+            if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+                System.out.println("ERROR: Unable to write route cache entry " + file);
+                temp.delete();
+                files.remove(file.getName());
+                return;
+            }
+            files.put(file.getName(), Boolean.TRUE);
+            evictFromDisk();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files over the disk capacity.
+     */
+    private void evictFromDisk() {
+        while (files.size() > diskCapacity) {
+            String eldest = files.keySet().iterator().next();
+            files.remove(eldest);
+            if (!new File(directory, eldest).delete()) {
+                System.out.println("ERROR: Unable to delete route cache entry " + eldest);
+            }
+        }
+    }
+
+    /**
+     * Cache key made of the snapped origin node and the destination identifier.
+     */
+    private static final class Key {
+        final int originNode;
+        final String destinationId;
+
+        Key(int originNode, String destinationId) {
+            this.originNode = originNode;
+            this.destinationId = destinationId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return originNode == other.originNode && destinationId.equals(other.destinationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * originNode + destinationId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.schrold.uncanav.routing;
+
+import com.schrold.uncanav.geo.GeoMath;
+
+/**
+ * Follows the user's progress along a {@link Route} and detects when they leave it. Each
+ * position is projected onto the segments just behind and ahead of the current one, so an
+ * update costs the same however long the route is.
+ * <p>
+ * Deviation uses hysteresis in both distance and time: the user is off route only after staying
+ * farther than {@link #OFF_ROUTE_DISTANCE} from the route for {@link #OFF_ROUTE_TIME}, and a
+ * position within {@link #ON_ROUTE_DISTANCE} clears a pending deviation. A single jittery fix
+ * therefore never triggers a reroute. Arrival likewise needs {@link #ARRIVAL_FIXES} consecutive
+ * positions within the arrival radius, so a fix that strays ahead does not announce it early.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class RouteProgressTracker {
+
+    /**
+     * Where the user is relative to the route.
+     */
+    public enum State {
+        // Following the route, or not yet confirmed off it
+        ON_ROUTE,
+        // Left the route, a new route should be calculated
+        OFF_ROUTE,
+        // Within the arrival radius of the end of the route
+        ARRIVED
+    }
+
+    // Distance from the route in meters beyond which the user may be off route
+    public static final double OFF_ROUTE_DISTANCE = 5.5;
+
+    // Distance from the route in meters within which the user is back on route
+    public static final double ON_ROUTE_DISTANCE = 3.0;
+
+    // Time in milliseconds the user must stay beyond OFF_ROUTE_DISTANCE to be off route
+    public static final long OFF_ROUTE_TIME = 2000;
+
+    // Consecutive positions within the arrival radius for the user to have arrived
+    public static final int ARRIVAL_FIXES = 2;
+
+    // Distance in meters ahead of the current segment searched for the user's position
+    private static final double LOOKAHEAD = 25.0;
+
+    // Distance from the end of the route in meters at which the user has arrived
+    private final double arrivalRadius;
+
+    // The route, and its points on a plane in meters
+    private Route route;
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    // Distance along the route to each point
+    private double[] along = new double[0];
+
+    // Origin and scale of the plane
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+
+    // Current segment, from point segment to segment + 1
+    private int segment;
+
+    // Progress of the last update
+    private double distanceAlong;
+    private double distanceFromRoute;
+    private State state = State.ON_ROUTE;
+
+    // Time at which the user was first seen beyond OFF_ROUTE_DISTANCE, or -1
+    private long deviationStart = -1;
+
+    // Consecutive positions so far within the arrival radius
+    private int arrivalFixes;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param arrivalRadius distance from the end of the route in meters at which the user has
+     *                      arrived
+     */
+    public RouteProgressTracker(double arrivalRadius) {
+        this.arrivalRadius = arrivalRadius;
+    }
+
+    /**
+     * Starts following a route from its beginning.
+     *
+     * @param route the route, or null to stop following
+     */
+    public void setRoute(Route route) {
+        this.route = route;
+        segment = 0;
+        distanceAlong = 0;
+        distanceFromRoute = 0;
+        deviationStart = -1;
+        arrivalFixes = 0;
+        state = State.ON_ROUTE;
+        if (route == null) {
+            return;
+        }
+        final int n = route.size();
+        if (xs.length < n) {
+            xs = new double[n];
+            ys = new double[n];
+            along = new double[n];
+        }
+        originLatitude = route.latitude(0);
+        originLongitude = route.longitude(0);
+        metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(originLatitude);
+        for (int i = 0; i < n; i++) {
+            xs[i] = (route.longitude(i) - originLongitude) * metersPerDegreeLongitude;
+            ys[i] = (route.latitude(i) - originLatitude) * GeoMath.METERS_PER_DEGREE;
+            along[i] = i == 0 ? 0 : along[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+        }
+    }
+
+    /**
+     * Keeps following the route after the user was found off it, e.g. when no new route could be
+     * calculated. The progress along the route is kept, and the deviation has to last
+     * {@link #OFF_ROUTE_TIME} again to be reported.
+     */
+    public void resume() {
+        if (state == State.OFF_ROUTE) {
+            state = State.ON_ROUTE;
+        }
+        deviationStart = -1;
+    }
+
+    /**
+     * @return the route being followed, or null
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Updates the progress with a new position.
+     *
+     * @param latitude the latitude of the user
+     * @param longitude the longitude of the user
+     * @param time the monotonic time of the position in milliseconds
+     * @return the state after the update
+     */
+    public State update(double latitude, double longitude, long time) {
+        if (route == null || state != State.ON_ROUTE) {
+            return state;
+        }
+        final int last = route.size() - 1;
+        final double px = (longitude - originLongitude) * metersPerDegreeLongitude;
+        final double py = (latitude - originLatitude) * GeoMath.METERS_PER_DEGREE;
+
+        if (last == 0) {
+            distanceFromRoute = Math.hypot(px - xs[0], py - ys[0]);
+            distanceAlong = 0;
+        } else {
+            // Search from the segment before the current one up to LOOKAHEAD ahead of it
+            int bestSegment = segment;
+            double bestDistance = Double.MAX_VALUE;
+            double bestAlong = distanceAlong;
+            final double limit = along[segment] + LOOKAHEAD;
+            for (int s = Math.max(0, segment - 1); s < last && along[s] <= limit; s++) {
+                final double dx = xs[s + 1] - xs[s];
+                final double dy = ys[s + 1] - ys[s];
+                final double lengthSquared = dx * dx + dy * dy;
+                double t = lengthSquared > 0 ? ((px - xs[s]) * dx + (py - ys[s]) * dy) / lengthSquared : 0;
+                t = Math.max(0, Math.min(1, t));
+                final double d = Math.hypot(xs[s] + t * dx - px, ys[s] + t * dy - py);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    bestSegment = s;
+                    bestAlong = along[s] + t * (along[s + 1] - along[s]);
+                }
+            }
+            distanceFromRoute = bestDistance;
+            // Only advance while near the route, a stray fix must not skip ahead
+            if (bestDistance <= OFF_ROUTE_DISTANCE) {
+                segment = bestSegment;
+                distanceAlong = bestAlong;
+            }
+        }
+
+        if (Math.hypot(px - xs[last], py - ys[last]) <= arrivalRadius) {
+            if (++arrivalFixes >= ARRIVAL_FIXES) {
+                state = State.ARRIVED;
+            }
+            return state;
+        }
+        arrivalFixes = 0;
+        if (distanceFromRoute > OFF_ROUTE_DISTANCE) {
+            if (deviationStart < 0) {
+                deviationStart = time;
+            } else if (time - deviationStart >= OFF_ROUTE_TIME) {
+                state = State.OFF_ROUTE;
+            }
+        } else if (distanceFromRoute <= ON_ROUTE_DISTANCE) {
+            deviationStart = -1;
+        }
+        return state;
+    }
+
+    /**
+     * @return the state of the last update
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the distance walked along the route in meters
+     */
+    public double getDistanceAlong() {
+        return distanceAlong;
+    }
+
+    /**
+     * @return the distance left to the end of the route in meters
+     */
+    public double getRemainingDistance() {
+        return route == null ? 0 : along[route.size() - 1] - distanceAlong;
+    }
+
+    /**
+     * @return the distance of the last position from the route in meters
+     */
+    public double getDistanceFromRoute() {
+        return distanceFromRoute;
+    }
+
+    /**
+     * @return the index of the route point at the start of the current segment
+     */
+    public int getSegment() {
+        return segment;
+    }
+}
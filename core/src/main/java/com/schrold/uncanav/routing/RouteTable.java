@@ -0,0 +1,292 @@
+package com.schrold.uncanav.routing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Precomputed shortest paths from every node of an {@link IndoorGraph} to a fixed set of
+ * destinations. For each destination the table stores the next hop and remaining distance of
+ * every node, so a route is rebuilt by following next hops without running a search.
+ * <p>
+ * The table lives in a memory-mapped file with the following big-endian layout:
+ * <pre>
+ * int    magic            'URTB'
+ * int    version
+ * long   graph fingerprint
+ * int    node count N
+ * int    destination count D
+ * int[D] destination nodes
+ * D x char[N]  next hop toward the destination, 0xFFFF if none
+ * D x float[N] remaining distance in meters
+ * </pre>
+ */
+public final class RouteTable {
+
+    // File identification
+    private static final int MAGIC = 0x55525442;
+    private static final int VERSION = 1;
+
+    // Size of the fixed part of the header in bytes
+    private static final int HEADER_SIZE = 24;
+
+    // Next hop marker for the destination itself and for unreachable nodes
+    private static final char NO_HOP = 0xFFFF;
+
+    // The graph the table was built for
+    private final IndoorGraph graph;
+
+    // The mapped file contents
+    private final ByteBuffer buffer;
+
+    // Column of each node in the table, or -1 if the node is not a destination
+    private final int[] columnByNode;
+
+    // Byte offsets of the next hop and distance sections
+    private final int hopOffset;
+    private final int distanceOffset;
+
+    private RouteTable(IndoorGraph graph, ByteBuffer buffer, int[] destinations) {
+        this.graph = graph;
+        this.buffer = buffer;
+        this.columnByNode = new int[graph.size()];
+        Arrays.fill(columnByNode, -1);
+        for (int d = 0; d < destinations.length; d++) {
+            columnByNode[destinations[d]] = d;
+        }
+        this.hopOffset = HEADER_SIZE + 4 * destinations.length;
+        this.distanceOffset = hopOffset + 2 * destinations.length * graph.size();
+    }
+
+    /**
+     * Opens the table stored in a file, rebuilding the file first when it is missing or was built
+     * for a different graph or destination set.
+     *
+     * @param graph the graph the table belongs to
+     * @param destinations the destination nodes
+     * @param file the table file
+     * @return the mapped table
+     * @throws IOException if the file cannot be written or mapped
+     */
+    public static RouteTable openOrBuild(IndoorGraph graph, int[] destinations, File file)
+            throws IOException {
+        if (!matches(graph, destinations, file)) {
+            write(graph, destinations, file);
+        }
+        return open(graph, file);
+    }
+
+    /**
+     * Maps an existing table file.
+     *
+     * @param graph the graph the table was built for
+     * @param file the table file
+     * @return the mapped table
+     * @throws IOException if the file cannot be mapped or does not belong to the graph
+     */
+    public static RouteTable open(IndoorGraph graph, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int[] destinations = readHeader(graph, buffer);
+            if (destinations == null) {
+                throw new IOException("Route table " + file + " does not match the graph");
+            }
+            long expected = HEADER_SIZE + 4L * destinations.length
+                    + 6L * destinations.length * graph.size();
+            if (channel.size() != expected) {
+                throw new IOException("Route table " + file + " is truncated");
+            }
+            return new RouteTable(graph, buffer, destinations);
+        }
+    }
+
+    /**
+     * Computes the table for a set of destinations and writes it to a file. Runs one Dijkstra
+     * search per destination, which is cheap for a venue-sized graph.
+     *
+     * @param graph the graph to route over
+     * @param destinations the destination nodes
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(IndoorGraph graph, int[] destinations, File file) throws IOException {
+        final int n = graph.size();
+        if (n >= NO_HOP) {
+            throw new IOException("Graph is too large for a route table: " + n + " nodes");
+        }
+        final int d = destinations.length;
+        final ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 4 * d + 6 * d * n);
+        out.putInt(MAGIC).putInt(VERSION).putLong(graph.fingerprint()).putInt(n).putInt(d);
+        for (int destination : destinations) {
+            out.putInt(destination);
+        }
+
+        final float[][] distances = new float[d][];
+        final char[] hops = new char[n];
+        final NodeHeap heap = new NodeHeap(n);
+        for (int column = 0; column < d; column++) {
+            distances[column] = shortestPathTree(graph, destinations[column], heap, hops);
+            for (int i = 0; i < n; i++) {
+                out.putChar(hops[i]);
+            }
+        }
+        for (int column = 0; column < d; column++) {
+            for (int i = 0; i < n; i++) {
+                out.putFloat(distances[column][i]);
+            }
+        }
+        out.flip();
+
+        // Write to a temporary file first so a crash never leaves a partial table behind
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to replace route table " + file);
+        }
+    }
+
+    /**
+     * Checks whether a table file exists and was built for this graph and destination set.
+     */
+    private static boolean matches(IndoorGraph graph, int[] destinations, File file) {
+        try {
+            return Arrays.equals(destinations, open(graph, file).destinations());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Validates the header against the graph.
+     *
+     * @return the destination nodes, or null if the header does not belong to the graph
+     */
+    private static int[] readHeader(IndoorGraph graph, ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != graph.fingerprint()
+                || buffer.getInt(16) != graph.size()) {
+            return null;
+        }
+        final int d = buffer.getInt(20);
+        if (d < 0 || buffer.limit() < HEADER_SIZE + 4L * d) {
+            return null;
+        }
+        final int[] destinations = new int[d];
+        for (int i = 0; i < d; i++) {
+            destinations[i] = buffer.getInt(HEADER_SIZE + 4 * i);
+            if (destinations[i] < 0 || destinations[i] >= graph.size()) {
+                return null;
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * Runs Dijkstra from a destination over the undirected graph. The parent of each node in the
+     * resulting tree is its next hop toward the destination.
+     *
+     * @return the distance of every node from the destination
+     */
+    private static float[] shortestPathTree(IndoorGraph graph, int root, NodeHeap heap, char[] hops) {
+        final float[] distance = new float[graph.size()];
+        Arrays.fill(distance, Float.POSITIVE_INFINITY);
+        Arrays.fill(hops, NO_HOP);
+        distance[root] = 0f;
+        heap.clear();
+        heap.push(root, 0f);
+        while (!heap.isEmpty()) {
+            final float key = heap.peekKey();
+            final int node = heap.pop();
+            if (key > distance[node]) {
+                continue;
+            }
+            for (int slot = graph.edgeStart(node), end = graph.edgeEnd(node); slot < end; slot++) {
+                final int next = graph.edgeTarget(slot);
+                final float candidate = key + graph.edgeCost(slot);
+                if (candidate < distance[next]) {
+                    distance[next] = candidate;
+                    hops[next] = (char) node;
+                    heap.push(next, candidate);
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * @return the destination nodes covered by the table
+     */
+    public int[] destinations() {
+        final int[] destinations = new int[buffer.getInt(20)];
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = buffer.getInt(HEADER_SIZE + 4 * i);
+        }
+        return destinations;
+    }
+
+    /**
+     * @return true if the node is one of the table's destinations
+     */
+    public boolean covers(int destination) {
+        return destination >= 0 && destination < columnByNode.length && columnByNode[destination] >= 0;
+    }
+
+    /**
+     * Returns the walking distance from a node to a destination.
+     *
+     * @return the distance in meters, or infinity if the destination cannot be reached
+     */
+    public float distance(int origin, int destination) {
+        final int column = columnByNode[destination];
+        return buffer.getFloat(distanceOffset + 4 * (column * graph.size() + origin));
+    }
+
+    /**
+     * Rebuilds the route from a node to one of the table's destinations.
+     *
+     * @param origin the origin node
+     * @param destination a destination node covered by the table
+     * @return the route, or null if the destination cannot be reached
+     */
+    public Route route(int origin, int destination) {
+        final int column = columnByNode[destination];
+        if (column < 0) {
+            return null;
+        }
+        final float length = distance(origin, destination);
+        if (Float.isInfinite(length)) {
+            return null;
+        }
+        final int base = hopOffset + 2 * column * graph.size();
+        int count = 1;
+        for (int node = origin; node != destination; node = buffer.getChar(base + 2 * node)) {
+            count++;
+        }
+        final int[] nodes = new int[count];
+        final double[] lat = new double[count];
+        final double[] lon = new double[count];
+        int node = origin;
+        for (int i = 0; i < count; i++) {
+            nodes[i] = node;
+            lat[i] = graph.latitude(node);
+            lon[i] = graph.longitude(node);
+            if (node != destination) {
+                node = buffer.getChar(base + 2 * node);
+            }
+        }
+        return new Route(nodes, lat, lon, length);
+    }
+}
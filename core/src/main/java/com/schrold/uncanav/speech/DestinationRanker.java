@@ -0,0 +1,192 @@
+package com.schrold.uncanav.speech;
+
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.DestinationIndex;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the destination meant by the user from the n-best hypotheses of a speech recognizer.
+ * Every hypothesis is normalized (spoken numbers become digits) and looked up in the venue
+ * directory; destinations named by several hypotheses accumulate their confidence, so a
+ * consistent second and third guess can outvote a misrecognized first one.
+ * <p>
+ * Instances reuse their buffers and are not thread-safe.
+ */
+public final class DestinationRanker {
+
+    /**
+     * Outcome of ranking a set of hypotheses.
+     */
+    public static final class Result {
+
+        // The best destination, null if no hypothesis names one
+        public final Destination destination;
+
+        // Accumulated score of the destination
+        public final float score;
+
+        // Whether the user asked to cancel
+        public final boolean cancelled;
+
+        Result(Destination destination, float score, boolean cancelled) {
+            this.destination = destination;
+            this.score = score;
+            this.cancelled = cancelled;
+        }
+    }
+
+    // Pattern of utterances that cancel input
+    private static final Pattern CANCEL_PATTERN =
+            Pattern.compile("\\b(cancel|nevermind|never mind)\\b", Pattern.CASE_INSENSITIVE);
+
+    // Weight of a match that needed digit homophones, relative to a strict match
+    private static final float LENIENT_WEIGHT = 0.6f;
+
+    // Homophones of a hypothesis that are tried as digits, the readings grow as a power of two
+    private static final int MAX_HOMOPHONES = 6;
+
+    // Result returned when the user cancels
+    private static final Result CANCELLED = new Result(null, 0f, true);
+
+    // Result returned when no hypothesis names a destination
+    private static final Result NO_MATCH = new Result(null, 0f, false);
+
+    // The directory to resolve names against
+    private final VenueDirectory directory;
+
+    // Rewrites spoken numbers as digits
+    private final NumberNormalizer normalizer = new NumberNormalizer();
+
+    // Normalized text of the hypothesis being scored
+    private final StringBuilder text = new StringBuilder(64);
+
+    // Candidate destinations and their accumulated scores
+    private Destination[] candidates = new Destination[8];
+    private float[] scores = new float[8];
+    private int candidateCount;
+
+    /**
+     * Creates a ranker for the destinations of a directory.
+     *
+     * @param directory the venue directory
+     */
+    public DestinationRanker(VenueDirectory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Ranks the hypotheses of a recognition result.
+     *
+     * @param hypotheses the recognized texts, best first
+     * @param confidences the recognizer's confidence in each hypothesis, may be null or contain
+     *                    non-positive values when the recognizer does not report them
+     * @param latitude the user's latitude, used to pick between destinations sharing a name, NaN
+     *                 if unknown
+     * @param longitude the user's longitude, NaN if unknown
+     * @return the best destination, or a result without destination
+     */
+    public Result rank(List<String> hypotheses, float[] confidences, double latitude, double longitude) {
+        if (hypotheses == null || hypotheses.isEmpty()) {
+            return NO_MATCH;
+        }
+        // Only the recognizer's best guess may cancel, a cancel buried in the list is noise
+        if (hypotheses.get(0) != null && CANCEL_PATTERN.matcher(hypotheses.get(0)).find()) {
+            return CANCELLED;
+        }
+
+        candidateCount = 0;
+        final DestinationIndex index = directory.getIndex();
+        for (int i = 0; i < hypotheses.size(); i++) {
+            final String hypothesis = hypotheses.get(i);
+            if (hypothesis == null) {
+                continue;
+            }
+            final float confidence = confidence(confidences, i);
+
+            text.setLength(0);
+            normalizer.normalize(hypothesis, 0, text);
+            int entry = index.findEntry(text, 0, text.length());
+            float weight = 1f;
+            if (entry < 0) {
+                entry = findLenient(index, hypothesis);
+                weight = LENIENT_WEIGHT;
+            }
+            if (entry >= 0) {
+                vote(VenueDirectory.nearest(index.destinations(entry), latitude, longitude),
+                        confidence * weight);
+            }
+        }
+
+        int best = -1;
+        for (int c = 0; c < candidateCount; c++) {
+            if (best < 0 || scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        final Result result = best < 0 ? NO_MATCH : new Result(candidates[best], scores[best], false);
+        // Drop references so destinations of an old directory are not kept alive
+        for (int c = 0; c < candidateCount; c++) {
+            candidates[c] = null;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the homophones of digits in a hypothesis as numbers, one at a time, then two at a
+     * time and so on, and looks up each reading. A homophone is only read as a digit when that
+     * makes the hypothesis name a destination, so the ordinary words among them stay words.
+     *
+     * @return the entry of the first reading that names a destination, or -1 if none does
+     */
+    private int findLenient(DestinationIndex index, String hypothesis) {
+        final int homophones = Math.min(normalizer.getHomophoneCount(), MAX_HOMOPHONES);
+        final int readings = 1 << homophones;
+        for (int substitutions = 1; substitutions <= homophones; substitutions++) {
+            for (int mask = 1; mask < readings; mask++) {
+                if (Integer.bitCount(mask) != substitutions) {
+                    continue;
+                }
+                text.setLength(0);
+                normalizer.normalize(hypothesis, mask, text);
+                final int entry = index.findEntry(text, 0, text.length());
+                if (entry >= 0) {
+                    return entry;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the confidence of a hypothesis. When the recognizer does not report scores, the
+     * rank of the hypothesis is used instead.
+     */
+    private static float confidence(float[] confidences, int i) {
+        if (confidences != null && i < confidences.length && confidences[i] > 0f) {
+            return confidences[i];
+        }
+        return 1f / (i + 1);
+    }
+
+    /**
+     * Adds a hypothesis' score to a destination.
+     */
+    private void vote(Destination destination, float score) {
+        for (int c = 0; c < candidateCount; c++) {
+            if (candidates[c] == destination) {
+                scores[c] += score;
+                return;
+            }
+        }
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+            scores = Arrays.copyOf(scores, candidateCount * 2);
+        }
+        candidates[candidateCount] = destination;
+        scores[candidateCount++] = score;
+    }
+}
@@ -0,0 +1,325 @@
+package com.schrold.uncanav.speech;
+
+import java.util.Arrays;
+
+/**
+ * Rewrites spoken numbers in recognized text as digits, so that "one thirty one", "one three
+ * one" and "a hundred and thirty one" all become "131". The rest of the text is normalized the
+ * same way as destination names: lowercase words separated by single spaces.
+ * <p>
+ * Common homophones of digits ("won", "to", "too", "for", "ate") can be read as numbers as well,
+ * which recovers misrecognitions such as "won thirty one" at the cost of also rewriting ordinary
+ * words. The caller picks which homophones of the text are read as digits, so it can try the
+ * substitutions one at a time and keep a reading that names a destination. A "to" or "for"
+ * between a word and a number, as in "take me to won thirty one", is a preposition and is never
+ * joined to the number.
+ * <p>
+ * Instances reuse their token buffers and are not thread-safe.
+ */
+public final class NumberNormalizer {
+
+    // Token kinds
+    private static final int OTHER = 0;
+    private static final int DIGITS = 1;
+    private static final int UNIT = 2;
+    private static final int TEEN = 3;
+    private static final int TENS = 4;
+    private static final int HUNDRED = 5;
+    private static final int AND = 6;
+    private static final int ARTICLE = 7;
+
+    // Number words and their values
+    private static final String[] WORDS = {
+            "zero", "oh", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine",
+            "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen",
+            "eighteen", "nineteen", "twenty", "thirty", "forty", "fifty", "sixty", "seventy",
+            "eighty", "ninety", "hundred", "and", "a"};
+    private static final int[] WORD_KINDS = {
+            UNIT, UNIT, UNIT, UNIT, UNIT, UNIT, UNIT, UNIT, UNIT, UNIT, UNIT,
+            TEEN, TEEN, TEEN, TEEN, TEEN, TEEN, TEEN, TEEN, TEEN, TEEN,
+            TENS, TENS, TENS, TENS, TENS, TENS, TENS, TENS, HUNDRED, AND, ARTICLE};
+    private static final int[] WORD_VALUES = {
+            0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9,
+            10, 11, 12, 13, 14, 15, 16, 17, 18, 19,
+            20, 30, 40, 50, 60, 70, 80, 90, 100, 0, 0};
+
+    // Homophones of digits, read as digits only when the caller asks for them
+    private static final String[] HOMOPHONES = {"won", "to", "too", "for", "fore", "ate"};
+    private static final int[] HOMOPHONE_VALUES = {1, 2, 2, 4, 4, 8};
+
+    // Whether each homophone is also a preposition that may precede a number
+    private static final boolean[] HOMOPHONE_PREPOSITIONS = {false, true, true, true, true, false};
+
+    // Homophones read as digits by lenient mode
+    public static final int ALL_HOMOPHONES = -1;
+
+    // Token boundaries, kinds and values of the text being normalized
+    private int[] tokenStart = new int[16];
+    private int[] tokenEnd = new int[16];
+    private int[] kinds = new int[16];
+    private int[] values = new int[16];
+    private int tokenCount;
+
+    // Tokens of the homophones, their digit values and whether they read as prepositions
+    private int[] homophoneTokens = new int[4];
+    private int[] homophoneValues = new int[4];
+    private boolean[] homophonePrepositions = new boolean[4];
+    private int homophoneCount;
+
+    // Text of the current normalize call, for copying digit tokens
+    private CharSequence source;
+
+    /**
+     * Normalizes text and appends the result.
+     *
+     * @param text the recognized text
+     * @param lenient whether homophones of digits are read as numbers
+     * @param out the builder to append to
+     */
+    public void normalize(CharSequence text, boolean lenient, StringBuilder out) {
+        normalize(text, lenient ? ALL_HOMOPHONES : 0, out);
+    }
+
+    /**
+     * Normalizes text, reading some of its homophones of digits as numbers, and appends the
+     * result. Homophones used as prepositions before a number stay words.
+     *
+     * @param text the recognized text
+     * @param homophones bit {@code i} set to read the {@code i}-th homophone of the text as a
+     *                   digit, 0 for none and {@link #ALL_HOMOPHONES} for all
+     * @param out the builder to append to
+     */
+    public void normalize(CharSequence text, int homophones, StringBuilder out) {
+        tokenize(text);
+        substitute(homophones);
+        int k = 0;
+        while (k < tokenCount) {
+            if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                out.append(' ');
+            }
+            int next = number(k, out);
+            if (next == k) {
+                appendLower(text, tokenStart[k], tokenEnd[k], out);
+                next = k + 1;
+            }
+            k = next;
+        }
+    }
+
+    /**
+     * Reads a run of number tokens starting at a token and appends its digits.
+     *
+     * @return the token after the run, or {@code k} if no number starts there
+     */
+    private int number(int k, StringBuilder out) {
+        while (k < tokenCount) {
+            final int kind = kinds[k];
+            final int hundredAt = kind == UNIT || kind == ARTICLE ? k + 1 : -1;
+            if (hundredAt > 0 && hundredAt < tokenCount && kinds[hundredAt] == HUNDRED) {
+                // "one hundred [and] thirty one", "a hundred six"
+                int value = (kind == ARTICLE ? 1 : values[k]) * 100;
+                k = hundredAt + 1;
+                int afterAnd = k < tokenCount && kinds[k] == AND ? k + 1 : k;
+                int rest = tens(afterAnd);
+                if (rest >= 0) {
+                    value += rest;
+                    k = afterTens(afterAnd);
+                }
+                out.append(value);
+            } else if (kind == TENS || kind == TEEN) {
+                out.append(tens(k));
+                k = afterTens(k);
+            } else if (kind == UNIT) {
+                out.append(values[k]);
+                k++;
+            } else if (kind == DIGITS) {
+                k = appendDigits(k, out);
+            } else {
+                break;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * @return the value of a tens word optionally followed by a unit, a teen, or -1 if neither
+     *         starts at the token
+     */
+    private int tens(int k) {
+        if (k >= tokenCount) {
+            return -1;
+        }
+        if (kinds[k] == TEEN) {
+            return values[k];
+        }
+        if (kinds[k] == TENS) {
+            if (k + 1 < tokenCount && kinds[k + 1] == UNIT && values[k + 1] > 0) {
+                return values[k] + values[k + 1];
+            }
+            return values[k];
+        }
+        if (kinds[k] == UNIT) {
+            return values[k];
+        }
+        return -1;
+    }
+
+    /**
+     * @return the token after the number read by {@link #tens(int)}
+     */
+    private int afterTens(int k) {
+        if (kinds[k] == TENS && k + 1 < tokenCount && kinds[k + 1] == UNIT && values[k + 1] > 0) {
+            return k + 2;
+        }
+        return k + 1;
+    }
+
+    private int appendDigits(int k, StringBuilder out) {
+        for (int i = tokenStart[k]; i < tokenEnd[k]; i++) {
+            out.append(source.charAt(i));
+        }
+        return k + 1;
+    }
+
+    /**
+     * @return the number of homophones of digits in the text of the last call, prepositions
+     *         included
+     */
+    public int getHomophoneCount() {
+        return homophoneCount;
+    }
+
+    /**
+     * Reads the chosen homophones as digits, except prepositions between a word and a number.
+     */
+    private void substitute(int homophones) {
+        for (int h = 0; h < homophoneCount; h++) {
+            final boolean chosen = homophones == ALL_HOMOPHONES || (h < 32 && (homophones >>> h & 1) != 0);
+            if (chosen && !preposition(h)) {
+                kinds[homophoneTokens[h]] = UNIT;
+                values[homophoneTokens[h]] = homophoneValues[h];
+            }
+        }
+    }
+
+    /**
+     * @return true if a homophone is a "to" or "for" following a word and preceding a number or
+     *         another homophone
+     */
+    private boolean preposition(int h) {
+        if (!homophonePrepositions[h]) {
+            return false;
+        }
+        final int k = homophoneTokens[h];
+        final boolean afterWord = k == 0 || (kinds[k - 1] == OTHER && !isHomophone(k - 1));
+        final boolean beforeNumber = k + 1 < tokenCount && (kinds[k + 1] != OTHER || isHomophone(k + 1));
+        return afterWord && beforeNumber;
+    }
+
+    private boolean isHomophone(int k) {
+        for (int h = 0; h < homophoneCount; h++) {
+            if (homophoneTokens[h] == k) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the text into words and classifies each one, homophones as ordinary words.
+     */
+    private void tokenize(CharSequence text) {
+        source = text;
+        tokenCount = 0;
+        homophoneCount = 0;
+        int i = 0;
+        final int n = text.length();
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == n) {
+                break;
+            }
+            int start = i;
+            boolean digits = true;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                digits &= Character.isDigit(text.charAt(i));
+                i++;
+            }
+            // Recognizers sometimes format "one thirty one" as a time, "1:31"
+            if (digits && i + 1 < n && text.charAt(i) == ':' && Character.isDigit(text.charAt(i + 1))) {
+                addToken(start, i, DIGITS, 0);
+                i++;
+                continue;
+            }
+            classify(text, start, i, digits);
+        }
+    }
+
+    private void classify(CharSequence text, int start, int end, boolean digits) {
+        if (digits) {
+            addToken(start, end, DIGITS, 0);
+            return;
+        }
+        for (int w = 0; w < WORDS.length; w++) {
+            if (equalsIgnoreCase(text, start, end, WORDS[w])) {
+                addToken(start, end, WORD_KINDS[w], WORD_VALUES[w]);
+                return;
+            }
+        }
+        for (int w = 0; w < HOMOPHONES.length; w++) {
+            if (equalsIgnoreCase(text, start, end, HOMOPHONES[w])) {
+                addHomophone(tokenCount, HOMOPHONE_VALUES[w], HOMOPHONE_PREPOSITIONS[w]);
+                break;
+            }
+        }
+        addToken(start, end, OTHER, 0);
+    }
+
+    private void addToken(int start, int end, int kind, int value) {
+        if (tokenCount == kinds.length) {
+            int capacity = tokenCount * 2;
+            tokenStart = Arrays.copyOf(tokenStart, capacity);
+            tokenEnd = Arrays.copyOf(tokenEnd, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        tokenStart[tokenCount] = start;
+        tokenEnd[tokenCount] = end;
+        kinds[tokenCount] = kind;
+        values[tokenCount] = value;
+        tokenCount++;
+    }
+
+    private void addHomophone(int token, int value, boolean preposition) {
+        if (homophoneCount == homophoneTokens.length) {
+            int capacity = homophoneCount * 2;
+            homophoneTokens = Arrays.copyOf(homophoneTokens, capacity);
+            homophoneValues = Arrays.copyOf(homophoneValues, capacity);
+            homophonePrepositions = Arrays.copyOf(homophonePrepositions, capacity);
+        }
+        homophoneTokens[homophoneCount] = token;
+        homophoneValues[homophoneCount] = value;
+        homophonePrepositions[homophoneCount] = preposition;
+        homophoneCount++;
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence text, int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendLower(CharSequence text, int start, int end, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            out.append(Character.toLowerCase(text.charAt(i)));
+        }
+    }
+}
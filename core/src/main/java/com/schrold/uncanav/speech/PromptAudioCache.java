@@ -0,0 +1,240 @@
+package com.schrold.uncanav.speech;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Directory of prompts synthesized ahead of time, so that fixed prompts and recurring guidance
+ * phrases are played from a file instead of being synthesized when they are spoken. Each file is
+ * named by a hash of its text, voice and locale, so a change of voice or language never plays a
+ * stale recording; the files of other voices age out once the directory is over its limit. The
+ * directory is trimmed only when it is opened, so a recording handed out is never deleted while
+ * it may still be played.
+ * <p>
+ * A file is written under a temporary name and renamed once the synthesis has completed, so an
+ * interrupted synthesis never leaves a partial recording to be played.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class PromptAudioCache {
+
+    // Suffixes of completed and partial recordings
+    static final String SUFFIX = ".wav";
+    static final String TEMP_SUFFIX = ".wav.tmp";
+
+    // Phrases counted before the counts are reset, so that dynamic text does not pile up
+    private static final int MAX_COUNTED = 256;
+
+    private final File directory;
+    private final String voice;
+    private final String locale;
+
+    // Maximum number of recordings kept in the directory
+    private final int maxFiles;
+
+    // File names of the completed recordings
+    private final Set<String> ready = new HashSet<>();
+
+    // Times each phrase not yet recorded has been spoken live
+    private final HashMap<String, Integer> counts = new HashMap<>();
+
+    // Phrases whose synthesis has been requested and not yet committed
+    private final Set<String> pending = new HashSet<>();
+
+    // Lookup statistics
+    private long hits;
+    private long misses;
+
+    /**
+     * Opens a directory of recordings for a voice, deleting partial recordings and the oldest
+     * recordings over the limit.
+     *
+     * @param directory the directory of recordings, created if missing
+     * @param voice the name of the voice
+     * @param locale the locale of the voice
+     * @param maxFiles the maximum number of recordings kept
+     */
+    public PromptAudioCache(File directory, String voice, String locale, int maxFiles) {
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("maxFiles must be positive");
+        }
+        this.directory = directory;
+        this.voice = voice;
+        this.locale = locale;
+        this.maxFiles = maxFiles;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("ERROR: Unable to create " + directory);
+        }
+        trim();
+    }
+
+    /**
+     * Looks up the recording of a text.
+     *
+     * @param text the text
+     * @return the recording, or null if the text has to be synthesized live
+     */
+    public synchronized File lookup(String text) {
+        final String name = fileName(text);
+        if (ready.contains(name)) {
+            hits++;
+            return new File(directory, name);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Counts a phrase spoken live, and decides whether it recurs often enough to be recorded.
+     *
+     * @param text the phrase
+     * @param threshold the number of times a phrase is spoken live before it is recorded
+     * @return true the first time the phrase reaches the threshold
+     */
+    public synchronized boolean recurs(String text, int threshold) {
+        if (ready.contains(fileName(text)) || pending.contains(text)) {
+            return false;
+        }
+        if (counts.size() >= MAX_COUNTED && !counts.containsKey(text)) {
+            counts.clear();
+        }
+        final int count = counts.getOrDefault(text, 0) + 1;
+        if (count < threshold) {
+            counts.put(text, count);
+            return false;
+        }
+        counts.remove(text);
+        return true;
+    }
+
+    /**
+     * Returns the texts that have no recording and are not being synthesized.
+     *
+     * @param texts the texts
+     * @return the texts to synthesize, in the given order without duplicates
+     */
+    public synchronized List<String> missing(Collection<String> texts) {
+        final Set<String> missing = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (!ready.contains(fileName(text)) && !pending.contains(text)) {
+                missing.add(text);
+            }
+        }
+        return new ArrayList<>(missing);
+    }
+
+    /**
+     * Starts the synthesis of a text.
+     *
+     * @param text the text
+     * @return the temporary file to synthesize the text into
+     */
+    public synchronized File begin(String text) {
+        pending.add(text);
+        return new File(directory, key(voice, locale, text) + TEMP_SUFFIX);
+    }
+
+    /**
+     * Completes the synthesis of a text, making its recording available.
+     *
+     * @param text the text
+     * @return the recording, or null if the synthesized file is missing or cannot be renamed
+     */
+    public synchronized File commit(String text) {
+        pending.remove(text);
+        final String name = fileName(text);
+        final File temp = new File(directory, key(voice, locale, text) + TEMP_SUFFIX);
+        final File file = new File(directory, name);
+        if (!temp.isFile() || temp.length() == 0 || !temp.renameTo(file)) {
+            System.out.println("ERROR: Synthesized prompt \"" + text + "\" is missing");
+            temp.delete();
+            return null;
+        }
+        ready.add(name);
+        return file;
+    }
+
+    /**
+     * Abandons the synthesis of a text.
+     *
+     * @param text the text
+     */
+    public synchronized void abort(String text) {
+        pending.remove(text);
+        new File(directory, key(voice, locale, text) + TEMP_SUFFIX).delete();
+    }
+
+    /**
+     * @return the number of recordings in the directory
+     */
+    public synchronized int size() {
+        return ready.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PromptAudioCache[voice=" + voice + ", locale=" + locale + ", size=" + ready.size() + "/" + maxFiles
+                + ", hits=" + hits + ", misses=" + misses + ", pending=" + pending.size() + "]";
+    }
+
+    /**
+     * Builds the set of recordings from the directory, deleting partial recordings and the least
+     * recently modified recordings over the limit.
+     */
+    private void trim() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> recordings = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.getName().endsWith(SUFFIX)) {
+                recordings.add(file);
+            }
+        }
+        // Newest first, so the oldest are deleted
+        recordings.sort((a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = 0; i < recordings.size(); i++) {
+            if (i < maxFiles) {
+                ready.add(recordings.get(i).getName());
+            } else if (!recordings.get(i).delete()) {
+                System.out.println("ERROR: Unable to delete " + recordings.get(i));
+            }
+        }
+    }
+
+    private String fileName(String text) {
+        return key(voice, locale, text) + SUFFIX;
+    }
+
+    /**
+     * Returns the key of a recording, a hash of its text, voice and locale.
+     *
+     * @return the key as hexadecimal digits
+     */
+    static String key(String voice, String locale, String text) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] hash = digest.digest((voice + '\n' + locale + '\n' + text).getBytes(StandardCharsets.UTF_8));
+        final StringBuilder builder = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            builder.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
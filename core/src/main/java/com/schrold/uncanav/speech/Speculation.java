@@ -0,0 +1,121 @@
+package com.schrold.uncanav.speech;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a computation ahead of time on a guess of what will be needed, e.g. a route to the
+ * destination named in a partial speech result. At most one speculation is outstanding: a new
+ * guess cancels the previous one. When the final answer arrives it either claims the matching
+ * result, waiting for it if it is still being computed, or discards the speculation.
+ * <p>
+ * Speculative tasks must be free of visible side effects, since their result may be discarded;
+ * whatever has to outlive the speculation, such as storing the result in a cache, is done by the
+ * caller once it has claimed the result.
+ *
+ * @param <K> the key identifying what was guessed
+ * @param <V> the result of the computation
+ */
+public final class Speculation<K, V> {
+
+    // Executor running speculative tasks
+    private final Executor executor;
+
+    // Key and task of the outstanding speculation, null if there is none
+    private K key;
+    private FutureTask<V> task;
+
+    // Statistics
+    private long started;
+    private long hits;
+    private long discarded;
+
+    /**
+     * Creates a speculation running its tasks on an executor.
+     *
+     * @param executor the executor, should not be the thread that claims results
+     */
+    public Speculation(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a speculative computation unless one for the same key is already outstanding.
+     *
+     * @param key what was guessed
+     * @param computation the computation, free of visible side effects
+     */
+    public void speculate(K key, Callable<V> computation) {
+        final FutureTask<V> newTask;
+        synchronized (this) {
+            if (task != null && key.equals(this.key)) {
+                return;
+            }
+            discardLocked();
+            newTask = new FutureTask<>(computation);
+            this.key = key;
+            this.task = newTask;
+            started++;
+        }
+        executor.execute(newTask);
+    }
+
+    /**
+     * Claims the result of the outstanding speculation if it was made for the given key, waiting
+     * for it if it is still running, since it has a head start on computing it again. Any other
+     * outstanding speculation is cancelled.
+     *
+     * @param key the final answer
+     * @return the speculative result, or null if the caller has to compute it itself
+     */
+    public V claim(K key) {
+        final FutureTask<V> claimed;
+        synchronized (this) {
+            claimed = task;
+            if (claimed == null || !key.equals(this.key) || claimed.isCancelled()) {
+                discardLocked();
+                return null;
+            }
+            this.key = null;
+            this.task = null;
+        }
+        try {
+            final V value = claimed.get();
+            if (value != null) {
+                synchronized (this) {
+                    hits++;
+                }
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.out.println("ERROR: Speculative computation failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Cancels the outstanding speculation, if any.
+     */
+    public synchronized void discard() {
+        discardLocked();
+    }
+
+    private void discardLocked() {
+        if (task != null) {
+            task.cancel(true);
+            discarded++;
+        }
+        key = null;
+        task = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Speculation[started=" + started + ", hits=" + hits + ", discarded=" + discarded + "]";
+    }
+}
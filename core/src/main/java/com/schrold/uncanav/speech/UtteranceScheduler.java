@@ -0,0 +1,363 @@
+package com.schrold.uncanav.speech;
+
+import java.util.ArrayDeque;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules spoken output by priority. Utterances are handed to the speech engine one at a time,
+ * so the scheduler decides what is spoken next: the highest priority first, in order within a
+ * priority. An utterance that has waited past its deadline, or is no longer relevant, e.g. a turn
+ * prompt after the turn, is dropped instead of spoken. Urgent guidance interrupts less important
+ * speech and flushes queued information, so a turn instruction is not held up behind a welcome
+ * message.
+ * <p>
+ * The engine reports the start and end of each utterance by its identifier, and the time each
+ * utterance waited in the queue is recorded.
+ * <p>
+ * Instances are thread-safe; engine callbacks may arrive on any thread.
+ */
+public final class UtteranceScheduler {
+
+    /**
+     * The priorities of utterances, highest first.
+     */
+    public enum Priority {
+        // Navigation prompts, only useful right away
+        GUIDANCE(3000),
+        // Answers to something the user did
+        RESPONSE(10000),
+        // Status and welcome messages
+        INFO(30000);
+
+        // Default time in milliseconds an utterance may wait before it is dropped
+        final long maxWait;
+
+        Priority(long maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
+    /**
+     * Speaks utterances, e.g. a text-to-speech engine.
+     */
+    public interface Engine {
+
+        /**
+         * Speaks an utterance, and reports its start and end through the scheduler.
+         *
+         * @param utteranceId the identifier of the utterance
+         * @param text the text
+         * @param priority the priority of the utterance
+         * @param flush true to interrupt the utterance being spoken
+         */
+        void speak(String utteranceId, String text, Priority priority, boolean flush);
+
+        /**
+         * Stops speaking.
+         */
+        void stop();
+    }
+
+    /**
+     * Receives the outcome of each utterance.
+     */
+    public interface Listener {
+        void onSpoken(Utterance utterance);
+
+        /**
+         * @param utterance the utterance
+         * @param reason why it was dropped or interrupted
+         */
+        void onDropped(Utterance utterance, String reason);
+    }
+
+    /**
+     * An utterance and its timing.
+     */
+    public static final class Utterance {
+        final String id;
+        final String text;
+        final Priority priority;
+        final long enqueuedAt;
+        final long deadline;
+        final BooleanSupplier relevant;
+
+        // Times the utterance was handed to the engine, started and finished, -1 until then
+        long dispatchedAt = -1;
+        long startedAt = -1;
+        long doneAt = -1;
+
+        Utterance(String id, String text, Priority priority, long enqueuedAt, long deadline, BooleanSupplier relevant) {
+            this.id = id;
+            this.text = text;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = deadline;
+            this.relevant = relevant;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the time from enqueuing to the start of speech in milliseconds, or -1 if it has
+         *         not started
+         */
+        public long getWait() {
+            final long start = startedAt >= 0 ? startedAt : dispatchedAt;
+            return start >= 0 ? start - enqueuedAt : -1;
+        }
+
+        /**
+         * @return the time the utterance was spoken for in milliseconds, or -1 if it has not
+         *         finished
+         */
+        public long getDuration() {
+            return doneAt >= 0 && startedAt >= 0 ? doneAt - startedAt : -1;
+        }
+
+        @Override
+        public String toString() {
+            return priority + " \"" + text + "\"";
+        }
+    }
+
+    // Time in milliseconds after which an utterance the engine has not finished is given up on
+    static final long STUCK_TIMEOUT = 20000;
+
+    private final Engine engine;
+    private final Listener listener;
+    private final LongSupplier clock;
+
+    // Queued utterances of each priority, in order
+    private final ArrayDeque<Utterance>[] queues;
+
+    // Utterance being spoken, null when the engine is idle
+    private Utterance current;
+
+    // Counter for utterance identifiers
+    private long serial;
+
+    // Statistics, the wait sums and maxima are per priority
+    private int spoken;
+    private int dropped;
+    private int preempted;
+    private final long[] waitSum = new long[Priority.values().length];
+    private final long[] waitMax = new long[Priority.values().length];
+    private final int[] waitCount = new int[Priority.values().length];
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param engine speaks the utterances
+     * @param listener receives the outcome of each utterance
+     * @param clock the monotonic clock in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public UtteranceScheduler(Engine engine, Listener listener, LongSupplier clock) {
+        this.engine = engine;
+        this.listener = listener;
+        this.clock = clock;
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Schedules an utterance with the default deadline of its priority.
+     *
+     * @param text the text
+     * @param priority the priority
+     * @return the utterance
+     */
+    public Utterance say(String text, Priority priority) {
+        return say(text, priority, priority.maxWait, null);
+    }
+
+    /**
+     * Schedules an utterance with the default deadline of its priority, dropped if it is no longer
+     * relevant when its turn comes.
+     *
+     * @param text the text
+     * @param priority the priority
+     * @param relevant checked before the utterance is spoken, it is dropped if false; null if the
+     *                 utterance stays relevant
+     * @return the utterance
+     */
+    public Utterance say(String text, Priority priority, BooleanSupplier relevant) {
+        return say(text, priority, priority.maxWait, relevant);
+    }
+
+    /**
+     * Schedules an utterance. Guidance interrupts a less important utterance being spoken and
+     * drops the queued information.
+     *
+     * @param text the text
+     * @param priority the priority
+     * @param maxWait the time in milliseconds the utterance may wait before it is dropped
+     * @param relevant checked before the utterance is spoken, it is dropped if false; null if the
+     *                 utterance stays relevant
+     * @return the utterance
+     */
+    public synchronized Utterance say(String text, Priority priority, long maxWait, BooleanSupplier relevant) {
+        final long now = clock.getAsLong();
+        final Utterance utterance = new Utterance("utterance-" + (++serial), text, priority, now, now + maxWait,
+                relevant);
+        if (current != null && current.doneAt < 0 && now - current.dispatchedAt > STUCK_TIMEOUT) {
+            // The engine lost the utterance, do not wait for it any longer
+            drop(current, "no completion from the engine");
+            current = null;
+        }
+        if (priority == Priority.GUIDANCE) {
+            final ArrayDeque<Utterance> info = queues[Priority.INFO.ordinal()];
+            while (!info.isEmpty()) {
+                drop(info.poll(), "flushed by guidance");
+            }
+            if (current != null && current.priority != Priority.GUIDANCE) {
+                preempted++;
+                drop(current, "interrupted by guidance");
+                current = null;
+                start(utterance, now, true);
+                return utterance;
+            }
+        }
+        queues[priority.ordinal()].add(utterance);
+        if (current == null) {
+            next();
+        }
+        return utterance;
+    }
+
+    /**
+     * Reports that the engine started speaking an utterance.
+     *
+     * @param utteranceId the identifier of the utterance
+     */
+    public synchronized void onStart(String utteranceId) {
+        if (current != null && current.id.equals(utteranceId) && current.startedAt < 0) {
+            current.startedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Reports that the engine finished an utterance, and speaks the next one.
+     *
+     * @param utteranceId the identifier of the utterance
+     */
+    public synchronized void onDone(String utteranceId) {
+        if (current == null || !current.id.equals(utteranceId)) {
+            return;
+        }
+        final Utterance done = current;
+        current = null;
+        done.doneAt = clock.getAsLong();
+        if (done.startedAt < 0) {
+            done.startedAt = done.dispatchedAt;
+        }
+        spoken++;
+        final int p = done.priority.ordinal();
+        final long wait = done.getWait();
+        waitSum[p] += wait;
+        waitMax[p] = Math.max(waitMax[p], wait);
+        waitCount[p]++;
+        listener.onSpoken(done);
+        next();
+    }
+
+    /**
+     * Reports that the engine failed or stopped an utterance, and speaks the next one.
+     *
+     * @param utteranceId the identifier of the utterance
+     */
+    public synchronized void onError(String utteranceId) {
+        if (current == null || !current.id.equals(utteranceId)) {
+            return;
+        }
+        drop(current, "engine error");
+        current = null;
+        next();
+    }
+
+    /**
+     * Drops every queued utterance and stops speaking, e.g. when the app is paused.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Utterance> queue : queues) {
+            while (!queue.isEmpty()) {
+                drop(queue.poll(), "cleared");
+            }
+        }
+        if (current != null) {
+            drop(current, "cleared");
+            current = null;
+            engine.stop();
+        }
+    }
+
+    /**
+     * @return the number of utterances queued or being spoken
+     */
+    public synchronized int size() {
+        int size = current != null ? 1 : 0;
+        for (ArrayDeque<Utterance> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("UtteranceScheduler[spoken=").append(spoken)
+                .append(", dropped=").append(dropped).append(", preempted=").append(preempted);
+        for (Priority priority : Priority.values()) {
+            final int p = priority.ordinal();
+            if (waitCount[p] > 0) {
+                builder.append(", ").append(priority).append(" wait mean=").append(waitSum[p] / waitCount[p])
+                        .append(" max=").append(waitMax[p]).append(" ms");
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Speaks the most important queued utterance that is still due and relevant.
+     */
+    private void next() {
+        final long now = clock.getAsLong();
+        for (ArrayDeque<Utterance> queue : queues) {
+            while (!queue.isEmpty()) {
+                final Utterance utterance = queue.poll();
+                if (now > utterance.deadline) {
+                    drop(utterance, "expired after " + (now - utterance.enqueuedAt) + " ms");
+                } else if (utterance.relevant != null && !utterance.relevant.getAsBoolean()) {
+                    drop(utterance, "no longer relevant");
+                } else {
+                    start(utterance, now, false);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void start(Utterance utterance, long now, boolean flush) {
+        current = utterance;
+        utterance.dispatchedAt = now;
+        engine.speak(utterance.id, utterance.text, utterance.priority, flush);
+    }
+
+    private void drop(Utterance utterance, String reason) {
+        dropped++;
+        listener.onDropped(utterance, reason);
+    }
+}
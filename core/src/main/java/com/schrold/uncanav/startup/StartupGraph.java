@@ -0,0 +1,346 @@
+package com.schrold.uncanav.startup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * The steps of the app's startup and the dependencies between them. A step starts as soon as
+ * every step it depends on has completed, on the executor it was added with, so independent
+ * steps run concurrently. Steps are asynchronous: each one reports back through its
+ * {@link Completion}, which lets a step wait for a callback of the map engine or the TTS engine
+ * without holding a thread. A step that fails is not retried, and the steps depending on it,
+ * directly or not, are skipped.
+ * <p>
+ * Steps are added before the graph is started, from a single thread. Completions may be
+ * reported from any thread.
+ */
+public final class StartupGraph {
+
+    /**
+     * A step of the startup.
+     */
+    public interface Step {
+
+        /**
+         * Runs the step. The step reports back through the completion exactly once, either before
+         * returning or later from a callback. A step that throws has failed.
+         *
+         * @param completion reports the result of the step
+         * @throws Exception if the step fails
+         */
+        void run(Completion completion) throws Exception;
+    }
+
+    /**
+     * Reports the result of a step. Only the first report counts.
+     */
+    public interface Completion {
+        void complete();
+
+        void fail(String reason);
+    }
+
+    /**
+     * Receives the progress of the startup, on the threads the steps run or complete on.
+     */
+    public interface Listener {
+
+        /**
+         * @param name the name of the step
+         * @param time the time the step started, by the graph's clock
+         */
+        void onStepStarted(String name, long time);
+
+        /**
+         * @param name the name of the step
+         * @param time the time the step finished, by the graph's clock
+         * @param failure null if the step completed, otherwise why it failed or was skipped
+         */
+        void onStepFinished(String name, long time, String failure);
+
+        /**
+         * @param success true if every step completed
+         */
+        void onFinished(boolean success);
+    }
+
+    /**
+     * The states of a step.
+     */
+    private enum State {
+        // Waiting for the steps it depends on
+        PENDING,
+        // Started and not reported back yet
+        RUNNING,
+        // Completed
+        DONE,
+        // Failed, or skipped because a step it depends on failed
+        FAILED
+    }
+
+    /**
+     * A step in the graph.
+     */
+    private static final class Node {
+        final String name;
+        final Executor executor;
+        final Step step;
+        final String[] dependencies;
+
+        // Steps that depend on this one
+        final List<Node> dependents = new ArrayList<>();
+
+        // Steps this one depends on that have not completed yet
+        int waiting;
+
+        State state = State.PENDING;
+
+        Node(String name, Executor executor, Step step, String[] dependencies) {
+            this.name = name;
+            this.executor = executor;
+            this.step = step;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final Listener listener;
+
+    // Steps by name, in the order they were added
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<>();
+
+    // Steps that have completed or failed
+    private int finished;
+
+    private boolean started;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param clock the monotonic clock that times the steps
+     * @param listener receives the progress of the startup
+     */
+    public StartupGraph(LongSupplier clock, Listener listener) {
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    /**
+     * Wraps a task that finishes when it returns as a step.
+     *
+     * @param task the task
+     * @return a step that runs the task and completes
+     */
+    public static Step sync(Runnable task) {
+        return completion -> {
+            task.run();
+            completion.complete();
+        };
+    }
+
+    /**
+     * Adds a step.
+     *
+     * @param name the unique name of the step
+     * @param executor the executor the step runs on
+     * @param step the step
+     * @param dependencies the names of the steps that must complete before this one starts
+     * @return this graph
+     */
+    public synchronized StartupGraph add(String name, Executor executor, Step step, String... dependencies) {
+        if (started) {
+            throw new IllegalStateException("Startup graph already started");
+        }
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup step " + name);
+        }
+        nodes.put(name, new Node(name, executor, step, dependencies.clone()));
+        return this;
+    }
+
+    /**
+     * Starts every step that has no dependencies.
+     *
+     * @throws IllegalStateException if a step depends on an unknown step or the dependencies
+     *                               form a cycle
+     */
+    public void start() {
+        final List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            for (Node node : nodes.values()) {
+                for (String dependency : node.dependencies) {
+                    final Node required = nodes.get(dependency);
+                    if (required == null) {
+                        throw new IllegalStateException("Startup step " + node.name
+                                + " depends on unknown step " + dependency);
+                    }
+                    required.dependents.add(node);
+                    node.waiting++;
+                }
+            }
+            checkAcyclic();
+            started = true;
+            for (Node node : nodes.values()) {
+                if (node.waiting == 0) {
+                    node.state = State.RUNNING;
+                    ready.add(node);
+                }
+            }
+        }
+        if (nodes.isEmpty()) {
+            listener.onFinished(true);
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * @param name the name of a step
+     * @return true if the step has completed
+     */
+    public synchronized boolean isDone(String name) {
+        final Node node = nodes.get(name);
+        return node != null && node.state == State.DONE;
+    }
+
+    /**
+     * @return the names of the steps in the order they were added
+     */
+    public synchronized List<String> getSteps() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes.keySet()));
+    }
+
+    /**
+     * Checks that every step can start, by removing the steps without remaining dependencies
+     * until none are left.
+     */
+    private void checkAcyclic() {
+        final Map<Node, Integer> waiting = new LinkedHashMap<>();
+        final ArrayDeque<Node> queue = new ArrayDeque<>();
+        for (Node node : nodes.values()) {
+            waiting.put(node, node.waiting);
+            if (node.waiting == 0) {
+                queue.add(node);
+            }
+        }
+        int removed = 0;
+        while (!queue.isEmpty()) {
+            final Node node = queue.poll();
+            removed++;
+            for (Node dependent : node.dependents) {
+                if (waiting.merge(dependent, -1, Integer::sum) == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        if (removed < nodes.size()) {
+            final List<String> cycle = new ArrayList<>();
+            for (Map.Entry<Node, Integer> entry : waiting.entrySet()) {
+                if (entry.getValue() > 0) {
+                    cycle.add(entry.getKey().name);
+                }
+            }
+            throw new IllegalStateException("Startup steps depend on each other: " + cycle);
+        }
+    }
+
+    private void dispatch(List<Node> ready) {
+        for (Node node : ready) {
+            node.executor.execute(() -> run(node));
+        }
+    }
+
+    private void run(Node node) {
+        final AtomicBoolean reported = new AtomicBoolean();
+        final Completion completion = new Completion() {
+            @Override
+            public void complete() {
+                if (reported.compareAndSet(false, true)) {
+                    completed(node);
+                }
+            }
+
+            @Override
+            public void fail(String reason) {
+                if (reported.compareAndSet(false, true)) {
+                    failed(node, reason);
+                }
+            }
+        };
+        listener.onStepStarted(node.name, clock.getAsLong());
+        try {
+            node.step.run(completion);
+        } catch (Exception e) {
+            completion.fail(e.toString());
+        }
+    }
+
+    private void completed(Node node) {
+        final List<Node> ready = new ArrayList<>();
+        final boolean done;
+        synchronized (this) {
+            node.state = State.DONE;
+            finished++;
+            for (Node dependent : node.dependents) {
+                if (--dependent.waiting == 0 && dependent.state == State.PENDING) {
+                    dependent.state = State.RUNNING;
+                    ready.add(dependent);
+                }
+            }
+            done = finished == nodes.size();
+        }
+        listener.onStepFinished(node.name, clock.getAsLong(), null);
+        dispatch(ready);
+        if (done) {
+            listener.onFinished(allDone());
+        }
+    }
+
+    private void failed(Node node, String reason) {
+        final List<Node> skipped = new ArrayList<>();
+        final boolean done;
+        synchronized (this) {
+            node.state = State.FAILED;
+            finished++;
+            // Skip every step that depends on the failed one, directly or not
+            final ArrayDeque<Node> queue = new ArrayDeque<>(node.dependents);
+            while (!queue.isEmpty()) {
+                final Node dependent = queue.poll();
+                if (dependent.state == State.PENDING) {
+                    dependent.state = State.FAILED;
+                    finished++;
+                    skipped.add(dependent);
+                    queue.addAll(dependent.dependents);
+                }
+            }
+            done = finished == nodes.size();
+        }
+        final long now = clock.getAsLong();
+        System.out.println("ERROR: Startup step " + node.name + " failed: " + reason);
+        listener.onStepFinished(node.name, now, reason);
+        for (Node dependent : skipped) {
+            listener.onStepFinished(dependent.name, now, "skipped after " + node.name + " failed");
+        }
+        if (done) {
+            listener.onFinished(false);
+        }
+    }
+
+    private synchronized boolean allDone() {
+        for (Node node : nodes.values()) {
+            if (node.state != State.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,321 @@
+package com.schrold.uncanav.startup;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.schrold.uncanav.offline.AtomicFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Timeline of the phases of one app launch. Each phase is a span with a start and an end on a
+ * monotonic clock in microseconds, recorded with the thread it started on. The timeline is
+ * written in the Chrome trace event format, which chrome://tracing and Perfetto open, and
+ * summarized in one line per launch so launches can be compared across devices and start
+ * types.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class StartupTrace {
+
+    /**
+     * A phase of the launch.
+     */
+    private static final class Span {
+        final String name;
+        final String category;
+        final long start;
+        final long thread;
+
+        // End of the span, -1 while it is open
+        long end = -1;
+
+        // Why the phase failed, null if it did not
+        String failure;
+
+        Span(String name, String category, long start, long thread) {
+            this.name = name;
+            this.category = category;
+            this.start = start;
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * The summary of a launch, one JSON line in the summary file.
+     */
+    public static final class Summary {
+        // Attributes of the launch, such as the start type and the device
+        private final Map<String, String> launch;
+
+        // Time from the origin to the end of the milestone in milliseconds, -1 if not reached
+        private final long readyMs;
+
+        // Duration of each completed phase in milliseconds, in the order the phases started
+        private final Map<String, Long> phases;
+
+        // Phases that failed or did not finish
+        private final List<String> incomplete;
+
+        Summary(Map<String, String> launch, long readyMs, Map<String, Long> phases, List<String> incomplete) {
+            this.launch = launch;
+            this.readyMs = readyMs;
+            this.phases = phases;
+            this.incomplete = incomplete;
+        }
+
+        public Map<String, String> getLaunch() {
+            return launch;
+        }
+
+        public long getReadyMs() {
+            return readyMs;
+        }
+
+        public Map<String, Long> getPhases() {
+            return phases;
+        }
+
+        public List<String> getIncomplete() {
+            return incomplete;
+        }
+
+        @Override
+        public String toString() {
+            return new Gson().toJson(this);
+        }
+    }
+
+    // Process identifier written to the trace, a trace holds a single launch
+    private static final int PID = 1;
+
+    private final LongSupplier clock;
+
+    // Time zero of the launch in microseconds, usually the process start
+    private final long origin;
+
+    // Spans in the order they started, and the open spans by name
+    private final List<Span> spans = new ArrayList<>();
+    private final Map<String, Span> open = new HashMap<>();
+
+    // Names of the threads spans started on
+    private final Map<Long, String> threads = new LinkedHashMap<>();
+
+    // Attributes of the launch
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty trace.
+     *
+     * @param clock the monotonic clock in microseconds
+     * @param origin time zero of the launch in microseconds, by the same clock
+     */
+    public StartupTrace(LongSupplier clock, long origin) {
+        this.clock = clock;
+        this.origin = origin;
+    }
+
+    /**
+     * @return the current time in microseconds by the trace's clock
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Starts a span on the current thread. A span of the same name that is still open is
+     * replaced.
+     *
+     * @param name the name of the phase
+     * @param category the group of the phase, such as the component it belongs to
+     */
+    public synchronized void begin(String name, String category) {
+        final Span span = new Span(name, category, now(), thread());
+        spans.add(span);
+        final Span replaced = open.put(name, span);
+        if (replaced != null) {
+            spans.remove(replaced);
+        }
+    }
+
+    /**
+     * Ends an open span, does nothing if there is none of that name.
+     *
+     * @param name the name of the phase
+     * @param failure why the phase failed, or null if it completed
+     */
+    public synchronized void end(String name, String failure) {
+        final Span span = open.remove(name);
+        if (span != null) {
+            span.end = now();
+            span.failure = failure;
+        }
+    }
+
+    /**
+     * Records a span that has already ended, on the current thread.
+     *
+     * @param name the name of the phase
+     * @param category the group of the phase
+     * @param start the start of the phase in microseconds
+     * @param end the end of the phase in microseconds
+     */
+    public synchronized void span(String name, String category, long start, long end) {
+        final Span span = new Span(name, category, start, thread());
+        span.end = end;
+        spans.add(span);
+    }
+
+    /**
+     * Sets an attribute of the launch, written to the trace and its summary.
+     *
+     * @param key the name of the attribute
+     * @param value the value
+     */
+    public synchronized void setAttribute(String key, Object value) {
+        attributes.put(key, String.valueOf(value));
+    }
+
+    /**
+     * @param name the name of a phase
+     * @return the duration of the last completed span of the phase in microseconds, or -1
+     */
+    public synchronized long getDuration(String name) {
+        for (int i = spans.size() - 1; i >= 0; i--) {
+            final Span span = spans.get(i);
+            if (span.name.equals(name) && span.end >= 0) {
+                return span.end - span.start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Summarizes the launch.
+     *
+     * @param milestone the phase whose end marks the launch as ready
+     * @return the summary
+     */
+    public synchronized Summary summarize(String milestone) {
+        final Map<String, Long> phases = new LinkedHashMap<>();
+        final List<String> incomplete = new ArrayList<>();
+        long ready = -1;
+        for (Span span : spans) {
+            if (span.end < 0 || span.failure != null) {
+                incomplete.add(span.name);
+            } else {
+                phases.put(span.name, (span.end - span.start) / 1000);
+                if (span.name.equals(milestone)) {
+                    ready = (span.end - origin) / 1000;
+                }
+            }
+        }
+        return new Summary(new LinkedHashMap<>(attributes), ready, phases, incomplete);
+    }
+
+    /**
+     * Writes the timeline in the Chrome trace event format. Open spans are written up to the
+     * current time and marked unfinished. The file is replaced in one step.
+     *
+     * @param file the timeline file
+     * @throws IOException if the timeline cannot be written
+     */
+    public synchronized void writeTimeline(File file) throws IOException {
+        final long now = now();
+        AtomicFile.writeText(file, writer -> {
+            final JsonWriter json = new JsonWriter(writer);
+            json.beginObject();
+            json.name("displayTimeUnit").value("ms");
+            json.name("otherData").beginObject();
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                json.name(attribute.getKey()).value(attribute.getValue());
+            }
+            json.endObject();
+            json.name("traceEvents").beginArray();
+            json.beginObject().name("name").value("process_name").name("ph").value("M")
+                    .name("pid").value(PID).name("tid").value(0)
+                    .name("args").beginObject().name("name").value("uncanav").endObject().endObject();
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                json.beginObject().name("name").value("thread_name").name("ph").value("M")
+                        .name("pid").value(PID).name("tid").value(thread.getKey())
+                        .name("args").beginObject().name("name").value(thread.getValue()).endObject().endObject();
+            }
+            for (Span span : spans) {
+                final long end = span.end >= 0 ? span.end : now;
+                json.beginObject()
+                        .name("name").value(span.name)
+                        .name("cat").value(span.category)
+                        .name("ph").value("X")
+                        .name("ts").value(span.start - origin)
+                        .name("dur").value(end - span.start)
+                        .name("pid").value(PID)
+                        .name("tid").value(span.thread);
+                if (span.end < 0 || span.failure != null) {
+                    json.name("args").beginObject();
+                    if (span.end < 0) {
+                        json.name("unfinished").value(true);
+                    }
+                    if (span.failure != null) {
+                        json.name("failure").value(span.failure);
+                    }
+                    json.endObject();
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+        });
+    }
+
+    /**
+     * Appends a summary to the summary file, one JSON line per launch, keeping the latest
+     * launches only. The file is replaced in one step.
+     *
+     * @param file the summary file
+     * @param summary the summary of this launch
+     * @param maxLaunches the number of launches kept
+     * @throws IOException if the summary cannot be written
+     */
+    public static void appendSummary(File file, Summary summary, int maxLaunches) throws IOException {
+        final ArrayDeque<String> lines = new ArrayDeque<>();
+        if (file.isFile()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            }
+        }
+        lines.add(summary.toString());
+        while (lines.size() > maxLaunches) {
+            lines.poll();
+        }
+        AtomicFile.writeText(file, writer -> {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        });
+    }
+
+    private long thread() {
+        final Thread thread = Thread.currentThread();
+        threads.putIfAbsent(thread.getId(), thread.getName());
+        return thread.getId();
+    }
+}
@@ -0,0 +1,168 @@
+package com.schrold.uncanav.venue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the building whose footprint contains a position. The footprints are indexed in a
+ * uniform grid over their bounds, so a lookup tests only the few footprints overlapping the
+ * position's cell, and a position off campus is rejected with one bounds check. Lookups do not
+ * allocate, so they can run on every fix.
+ * <p>
+ * Footprints are small enough to be treated as planar in latitude and longitude.
+ */
+public final class BuildingLocator {
+
+    // Size of a grid cell in degrees, about 100 m
+    private static final double CELL_SIZE = 0.001;
+
+    // Building identifiers and footprints, vertices as separate latitude and longitude arrays
+    private final String[] ids;
+    private final double[][] latitudes;
+    private final double[][] longitudes;
+
+    // Bounds of each footprint
+    private final double[] minLat;
+    private final double[] maxLat;
+    private final double[] minLon;
+    private final double[] maxLon;
+
+    // Bounds of the grid, and its size in cells
+    private final double gridLat;
+    private final double gridLon;
+    private final int rows;
+    private final int columns;
+
+    // Indices of the footprints overlapping each cell, row by row from the south-west
+    private final int[][] cells;
+
+    /**
+     * Indexes the footprints of a list of buildings. Buildings without a footprint of at least
+     * three vertices are left out.
+     *
+     * @param buildings the buildings
+     */
+    public BuildingLocator(List<VenueDirectory.Building> buildings) {
+        final List<VenueDirectory.Building> indexed = new ArrayList<>();
+        for (VenueDirectory.Building building : buildings) {
+            if (building.getFootprint() != null && building.getFootprint().length >= 3) {
+                indexed.add(building);
+            }
+        }
+        final int n = indexed.size();
+        ids = new String[n];
+        latitudes = new double[n][];
+        longitudes = new double[n][];
+        minLat = new double[n];
+        maxLat = new double[n];
+        minLon = new double[n];
+        maxLon = new double[n];
+        double south = Double.POSITIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final double[][] footprint = indexed.get(i).getFootprint();
+            ids[i] = indexed.get(i).getId();
+            latitudes[i] = new double[footprint.length];
+            longitudes[i] = new double[footprint.length];
+            minLat[i] = minLon[i] = Double.POSITIVE_INFINITY;
+            maxLat[i] = maxLon[i] = Double.NEGATIVE_INFINITY;
+            for (int v = 0; v < footprint.length; v++) {
+                latitudes[i][v] = footprint[v][0];
+                longitudes[i][v] = footprint[v][1];
+                minLat[i] = Math.min(minLat[i], footprint[v][0]);
+                maxLat[i] = Math.max(maxLat[i], footprint[v][0]);
+                minLon[i] = Math.min(minLon[i], footprint[v][1]);
+                maxLon[i] = Math.max(maxLon[i], footprint[v][1]);
+            }
+            south = Math.min(south, minLat[i]);
+            north = Math.max(north, maxLat[i]);
+            west = Math.min(west, minLon[i]);
+            east = Math.max(east, maxLon[i]);
+        }
+        if (n == 0) {
+            gridLat = gridLon = 0;
+            rows = columns = 0;
+            cells = new int[0][];
+            return;
+        }
+        gridLat = south;
+        gridLon = west;
+        rows = (int) ((north - south) / CELL_SIZE) + 1;
+        columns = (int) ((east - west) / CELL_SIZE) + 1;
+        final List<List<Integer>> overlapping = new ArrayList<>(rows * columns);
+        for (int c = 0; c < rows * columns; c++) {
+            overlapping.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int row = row(minLat[i]); row <= row(maxLat[i]); row++) {
+                for (int column = column(minLon[i]); column <= column(maxLon[i]); column++) {
+                    overlapping.get(row * columns + column).add(i);
+                }
+            }
+        }
+        cells = new int[rows * columns][];
+        for (int c = 0; c < cells.length; c++) {
+            final List<Integer> list = overlapping.get(c);
+            cells[c] = new int[list.size()];
+            for (int k = 0; k < list.size(); k++) {
+                cells[c][k] = list.get(k);
+            }
+        }
+    }
+
+    /**
+     * @return the number of indexed footprints
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Finds the building containing a position. Where footprints overlap, the first building in
+     * directory order wins.
+     *
+     * @param latitude the latitude of the position
+     * @param longitude the longitude of the position
+     * @return the building identifier, or null if the position is outside every footprint
+     */
+    public String locate(double latitude, double longitude) {
+        final int row = (int) Math.floor((latitude - gridLat) / CELL_SIZE);
+        final int column = (int) Math.floor((longitude - gridLon) / CELL_SIZE);
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            return null;
+        }
+        for (int i : cells[row * columns + column]) {
+            if (latitude >= minLat[i] && latitude <= maxLat[i] && longitude >= minLon[i] && longitude <= maxLon[i]
+                    && contains(latitudes[i], longitudes[i], latitude, longitude)) {
+                return ids[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether a polygon contains a point by counting the edges a ray from the point
+     * crosses.
+     */
+    static boolean contains(double[] latitudes, double[] longitudes, double latitude, double longitude) {
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i])
+                    / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private int row(double latitude) {
+        return Math.min(rows - 1, (int) ((latitude - gridLat) / CELL_SIZE));
+    }
+
+    private int column(double longitude) {
+        return Math.min(columns - 1, (int) ((longitude - gridLon) / CELL_SIZE));
+    }
+}
@@ -0,0 +1,114 @@
+package com.schrold.uncanav.venue;
+
+import com.schrold.uncanav.positioning.Fix;
+
+/**
+ * Detects when the user enters and leaves buildings, from each fix. The building reported by
+ * indoor positioning is used when it is in the directory; otherwise the fix is tested against
+ * the building footprints, which covers fixes without indoor positioning, e.g. GNSS fixes at an
+ * entrance. A change of building is confirmed by several fixes in a row, so that fixes jumping
+ * across a wall near a door do not switch buildings back and forth.
+ * <p>
+ * Updates do not allocate, so they can run at the full fix rate. Instances are confined to one
+ * thread.
+ */
+public final class BuildingTracker {
+
+    /**
+     * Receives the building transitions.
+     */
+    public interface Listener {
+        void onEnter(String buildingId);
+
+        void onExit(String buildingId);
+    }
+
+    private final VenueDirectory directory;
+    private final BuildingLocator locator;
+    private final Listener listener;
+
+    // Fixes in a row that must agree on a change of building
+    private final int confirmFixes;
+
+    // Building the user is in, null when outdoors
+    private String current;
+
+    // Building the latest fixes agree on, and how many in a row
+    private String candidate;
+    private int count;
+
+    /**
+     * Creates a tracker, starting outdoors.
+     *
+     * @param directory the directory of buildings, for the identifiers reported by positioning
+     * @param locator the index of building footprints
+     * @param confirmFixes the fixes in a row that must agree on a change of building
+     * @param listener receives the building transitions
+     */
+    public BuildingTracker(VenueDirectory directory, BuildingLocator locator, int confirmFixes, Listener listener) {
+        if (confirmFixes <= 0) {
+            throw new IllegalArgumentException("confirmFixes must be positive");
+        }
+        this.directory = directory;
+        this.locator = locator;
+        this.confirmFixes = confirmFixes;
+        this.listener = listener;
+    }
+
+    /**
+     * Updates the building from a fix, and reports a transition once it is confirmed.
+     *
+     * @param fix the fix
+     */
+    public void update(Fix fix) {
+        final String building = locate(fix);
+        if (same(building, current)) {
+            candidate = current;
+            count = 0;
+            return;
+        }
+        if (same(building, candidate)) {
+            count++;
+        } else {
+            candidate = building;
+            count = 1;
+        }
+        if (count >= confirmFixes) {
+            final String previous = current;
+            current = building;
+            count = 0;
+            if (previous != null) {
+                listener.onExit(previous);
+            }
+            if (building != null) {
+                listener.onEnter(building);
+            }
+        }
+    }
+
+    /**
+     * @return the building the user is in, or null when outdoors
+     */
+    public String getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the building of a fix.
+     *
+     * @return the building identifier, or null if the fix is outdoors
+     */
+    private String locate(Fix fix) {
+        if (fix.buildingId != null) {
+            final VenueDirectory.Building building = directory.getBuilding(fix.buildingId);
+            if (building != null) {
+                return building.getId();
+            }
+        }
+        return locator.locate(fix.latitude, fix.longitude);
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,111 @@
+package com.schrold.uncanav.venue;
+
+/**
+ * A place on campus the user can be guided to, such as a classroom or a restroom.
+ */
+public final class Destination {
+
+    /**
+     * Kind of place a destination is.
+     */
+    public enum Category {
+        CLASSROOM,
+        OFFICE,
+        LAB,
+        RESTROOM,
+        ENTRANCE,
+        ELEVATOR,
+        STAIRS,
+        OTHER
+    }
+
+    // Unique identifier, e.g. "rro-131"
+    private String id;
+
+    // Identifier of the venue containing the destination, e.g. "DM_15755"
+    private String building;
+
+    // Floor number within the building
+    private int floor;
+
+    // Kind of place
+    private Category category;
+
+    // Coordinates of the destination
+    private double lat;
+    private double lon;
+
+    // Identifier of the destination's node in the building's indoor graph, may be null
+    private String node;
+
+    // Spoken names of the destination, the first is used when announcing it
+    private String[] names;
+
+    /**
+     * Constructor used when parsing the directory asset.
+     */
+    Destination() {
+    }
+
+    public Destination(String id, String building, int floor, Category category, double lat,
+                       double lon, String node, String... names) {
+        this.id = id;
+        this.building = building;
+        this.floor = floor;
+        this.category = category;
+        this.lat = lat;
+        this.lon = lon;
+        this.node = node;
+        this.names = names;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getBuilding() {
+        return building;
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public Category getCategory() {
+        return category != null ? category : Category.OTHER;
+    }
+
+    public double getLatitude() {
+        return lat;
+    }
+
+    public double getLongitude() {
+        return lon;
+    }
+
+    /**
+     * @return the identifier of the destination's indoor graph node, or null if it has none
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return the spoken names of the destination
+     */
+    public String[] getNames() {
+        return names != null ? names : new String[0];
+    }
+
+    /**
+     * @return the name used when announcing the destination
+     */
+    public String getName() {
+        return names != null && names.length > 0 ? names[0] : id;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
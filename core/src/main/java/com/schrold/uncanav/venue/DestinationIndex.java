@@ -0,0 +1,233 @@
+package com.schrold.uncanav.venue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix trie over the spoken names of a set of destinations. Names are normalized to lowercase
+ * letters and digits separated by single spaces, so "Room 131" and "room-131" are the same key.
+ * <p>
+ * A lookup scans free text such as a recognized utterance and returns the longest name found
+ * at word boundaries. The text is normalized on the fly while walking the trie, so a lookup
+ * does not allocate. Once built the index is immutable and may be shared between threads.
+ */
+public final class DestinationIndex {
+
+    // Trie nodes: edge label, first child, next sibling, and the entry ending at the node
+    private char[] label;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] entry;
+    private int nodeCount;
+
+    // Destinations sharing a name, indexed by entry
+    private final List<Destination[]> entries = new ArrayList<>();
+
+    /**
+     * Builds an index over the names of the given destinations. A name shared by several
+     * destinations, such as "restroom", maps to all of them.
+     *
+     * @param destinations the destinations to index
+     */
+    public DestinationIndex(List<Destination> destinations) {
+        int capacity = 64;
+        label = new char[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        entry = new int[capacity];
+        nodeCount = 1;
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+        entry[0] = -1;
+
+        final StringBuilder key = new StringBuilder();
+        for (Destination destination : destinations) {
+            for (String name : destination.getNames()) {
+                key.setLength(0);
+                normalize(name, key);
+                if (key.length() > 0) {
+                    insert(key, destination);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the normalized form of a name: lowercase letters and digits, with every run of
+     * other characters collapsed into a single space and no leading or trailing space.
+     *
+     * @param text the text to normalize
+     * @param out the builder to append to
+     */
+    public static void normalize(CharSequence text, StringBuilder out) {
+        boolean gap = false;
+        final int start = out.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (gap && out.length() > start) {
+                    out.append(' ');
+                }
+                gap = false;
+                out.append(Character.toLowerCase(c));
+            } else {
+                gap = true;
+            }
+        }
+    }
+
+    /**
+     * Finds the longest destination name contained in the text.
+     *
+     * @param text the text to scan
+     * @return the destinations with that name, or null if no name is contained in the text
+     */
+    public Destination[] find(CharSequence text) {
+        final int found = findEntry(text, 0, text.length());
+        return found >= 0 ? entries.get(found) : null;
+    }
+
+    /**
+     * Finds the longest destination name contained in a range of the text. Names must start and
+     * end at word boundaries, so "13" does not match inside "131".
+     *
+     * @param text the text to scan
+     * @param from the first character of the range
+     * @param to one past the last character of the range
+     * @return the entry of the name, or -1 if no name is contained in the range
+     */
+    public int findEntry(CharSequence text, int from, int to) {
+        int bestEntry = -1;
+        int bestLength = 0;
+        boolean wordStart = true;
+        for (int i = from; i < to; i++) {
+            final boolean word = Character.isLetterOrDigit(text.charAt(i));
+            if (word && wordStart) {
+                final long match = longestMatch(text, i, to);
+                final int end = (int) (match >>> 32);
+                if (match >= 0 && end - i > bestLength) {
+                    bestLength = end - i;
+                    bestEntry = (int) match;
+                }
+            }
+            wordStart = !word;
+        }
+        return bestEntry;
+    }
+
+    /**
+     * @return the destinations sharing the name of an entry
+     */
+    public Destination[] destinations(int entryIndex) {
+        return entries.get(entryIndex);
+    }
+
+    /**
+     * @return the number of distinct names in the index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Walks the trie from a word start to find the longest name.
+     *
+     * @return the end of the name in the high and its entry in the low 32 bits, or -1 if no
+     *         name starts at the position
+     */
+    private long longestMatch(CharSequence text, int start, int to) {
+        int node = 0;
+        int bestEnd = -1;
+        int bestEntry = -1;
+        boolean gap = false;
+        for (int i = start; i < to; i++) {
+            final char raw = text.charAt(i);
+            if (!Character.isLetterOrDigit(raw)) {
+                gap = true;
+                continue;
+            }
+            if (gap) {
+                // A run of separators is a single space in the trie, and is also a word boundary
+                if (entry[node] >= 0) {
+                    bestEnd = i;
+                    bestEntry = entry[node];
+                }
+                node = child(node, ' ');
+                if (node < 0) {
+                    break;
+                }
+                gap = false;
+            }
+            node = child(node, Character.toLowerCase(raw));
+            if (node < 0) {
+                break;
+            }
+            if (i + 1 == to && entry[node] >= 0) {
+                bestEnd = to;
+                bestEntry = entry[node];
+            }
+        }
+        if (node >= 0 && gap && entry[node] >= 0) {
+            bestEnd = to;
+            bestEntry = entry[node];
+        }
+        return bestEntry < 0 ? -1L : ((long) bestEnd << 32) | bestEntry;
+    }
+
+    /**
+     * @return the child of a node with the given label, or -1 if there is none
+     */
+    private int child(int node, char c) {
+        for (int n = firstChild[node]; n >= 0; n = nextSibling[n]) {
+            if (label[n] == c) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(CharSequence key, Destination destination) {
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            int next = child(node, c);
+            if (next < 0) {
+                next = addNode(c);
+                nextSibling[next] = firstChild[node];
+                firstChild[node] = next;
+            }
+            node = next;
+        }
+        if (entry[node] < 0) {
+            entry[node] = entries.size();
+            entries.add(new Destination[] {destination});
+        } else {
+            Destination[] shared = entries.get(entry[node]);
+            for (Destination d : shared) {
+                if (d == destination) {
+                    return;
+                }
+            }
+            shared = Arrays.copyOf(shared, shared.length + 1);
+            shared[shared.length - 1] = destination;
+            entries.set(entry[node], shared);
+        }
+    }
+
+    private int addNode(char c) {
+        if (nodeCount == label.length) {
+            int capacity = nodeCount * 2;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            entry = Arrays.copyOf(entry, capacity);
+        }
+        final int node = nodeCount++;
+        label[node] = c;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        entry[node] = -1;
+        return node;
+    }
+}
@@ -0,0 +1,245 @@
+package com.schrold.uncanav.venue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded least-recently-used set of loaded venues, so that switching between buildings the user
+ * is near does not wait for a venue load. Venues are loaded asynchronously through a
+ * {@link Loader}, which reports back through {@link #onLoaded(String, Object)} or
+ * {@link #onLoadFailed(String)}; requests for a venue that is already loading wait for that
+ * load. The time each load takes is recorded.
+ * <p>
+ * Instances are confined to one thread, e.g. the main thread, on which the loader must report.
+ *
+ * @param <V> the venue type
+ */
+public final class VenueCache<V> {
+
+    /**
+     * Starts loading a venue.
+     */
+    public interface Loader {
+        void load(String venueId);
+    }
+
+    /**
+     * Receives the loads and evictions of the cache.
+     *
+     * @param <V> the venue type
+     */
+    public interface Listener<V> {
+
+        /**
+         * @param venueId the venue identifier
+         * @param venue the loaded venue, or null if the load failed
+         * @param elapsed the time the load took in milliseconds
+         */
+        void onLoaded(String venueId, V venue, long elapsed);
+
+        void onEvicted(String venueId, V venue);
+    }
+
+    // Maximum number of venues kept loaded
+    private final int capacity;
+
+    private final Loader loader;
+    private final Listener<V> listener;
+    private final LongSupplier clock;
+
+    // Loaded venues in access order, eldest first
+    private final LinkedHashMap<String, V> venues;
+
+    // Start time of each load in progress, and the requests waiting for it
+    private final HashMap<String, Long> loading = new HashMap<>();
+    private final HashMap<String, List<Consumer<V>>> waiting = new HashMap<>();
+
+    // Duration of the last load of each venue in milliseconds
+    private final LinkedHashMap<String, Long> loadTimes = new LinkedHashMap<>();
+
+    // Request statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the maximum number of venues kept loaded
+     * @param loader starts venue loads
+     * @param listener receives the loads and evictions
+     * @param clock the monotonic clock in milliseconds
+     */
+    public VenueCache(int capacity, Loader loader, Listener<V> listener, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.loader = loader;
+        this.listener = listener;
+        this.clock = clock;
+        this.venues = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+    }
+
+    /**
+     * Looks up a loaded venue without loading it.
+     *
+     * @param venueId the venue identifier
+     * @return the venue, or null if it is not loaded
+     */
+    public V peek(String venueId) {
+        return venues.get(venueId);
+    }
+
+    /**
+     * Requests a venue, loading it if it is not loaded.
+     *
+     * @param venueId the venue identifier
+     * @param callback receives the venue, right away on a hit, or null if the load fails
+     */
+    public void request(String venueId, Consumer<V> callback) {
+        final V venue = venues.get(venueId);
+        if (venue != null) {
+            hits++;
+            callback.accept(venue);
+            return;
+        }
+        misses++;
+        waiting.computeIfAbsent(venueId, id -> new ArrayList<>()).add(callback);
+        load(venueId);
+    }
+
+    /**
+     * Loads venues ahead of their use, nearest first. At most as many venues as fit in the cache
+     * are preloaded, so that preloading does not evict the venues it has just loaded.
+     *
+     * @param venueIds the venues to preload, in order of preference
+     */
+    public void preload(List<String> venueIds) {
+        for (int i = 0; i < venueIds.size() && i < capacity; i++) {
+            final String venueId = venueIds.get(i);
+            if (venues.containsKey(venueId)) {
+                // Keep the venue from being evicted
+                venues.get(venueId);
+            } else {
+                load(venueId);
+            }
+        }
+    }
+
+    /**
+     * Reports a completed load, evicting the least recently used venue if the cache is full.
+     *
+     * @param venueId the venue identifier
+     * @param venue the loaded venue
+     */
+    public void onLoaded(String venueId, V venue) {
+        final long elapsed = finishLoad(venueId);
+        if (elapsed < 0) {
+            return;
+        }
+        venues.put(venueId, venue);
+        while (venues.size() > capacity) {
+            final Map.Entry<String, V> eldest = venues.entrySet().iterator().next();
+            venues.remove(eldest.getKey());
+            evictions++;
+            listener.onEvicted(eldest.getKey(), eldest.getValue());
+        }
+        listener.onLoaded(venueId, venue, elapsed);
+        notifyWaiting(venueId, venue);
+    }
+
+    /**
+     * Reports a failed load, requests waiting for the venue receive null.
+     *
+     * @param venueId the venue identifier
+     */
+    public void onLoadFailed(String venueId) {
+        final long elapsed = finishLoad(venueId);
+        if (elapsed < 0) {
+            return;
+        }
+        listener.onLoaded(venueId, null, elapsed);
+        notifyWaiting(venueId, null);
+    }
+
+    /**
+     * @return true if the venue is being loaded
+     */
+    public boolean isLoading(String venueId) {
+        return loading.containsKey(venueId);
+    }
+
+    public int size() {
+        return venues.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the duration of the last load of each venue in milliseconds, in load order
+     */
+    public Map<String, Long> getLoadTimes() {
+        return new LinkedHashMap<>(loadTimes);
+    }
+
+    /**
+     * @return the number of requests answered by a loaded venue
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that had to wait for a load
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "VenueCache[size=" + venues.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", loading=" + loading.keySet() + ", loadTimes=" + loadTimes + "]";
+    }
+
+    private void load(String venueId) {
+        if (loading.containsKey(venueId)) {
+            return;
+        }
+        loading.put(venueId, clock.getAsLong());
+        loader.load(venueId);
+    }
+
+    /**
+     * Ends a load and records its duration.
+     *
+     * @return the time the load took in milliseconds, or -1 if the venue was not loading
+     */
+    private long finishLoad(String venueId) {
+        final Long start = loading.remove(venueId);
+        if (start == null) {
+            return -1;
+        }
+        final long elapsed = clock.getAsLong() - start;
+        loadTimes.remove(venueId);
+        loadTimes.put(venueId, elapsed);
+        return elapsed;
+    }
+
+    private void notifyWaiting(String venueId, V venue) {
+        final List<Consumer<V>> callbacks = waiting.remove(venueId);
+        if (callbacks != null) {
+            for (Consumer<V> callback : callbacks) {
+                callback.accept(venue);
+            }
+        }
+    }
+}
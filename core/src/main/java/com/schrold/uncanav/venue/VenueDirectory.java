@@ -0,0 +1,251 @@
+package com.schrold.uncanav.venue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.schrold.uncanav.geo.GeoMath;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Directory of the buildings and destinations on campus, with an index over the spoken names of
+ * every destination.
+ */
+public final class VenueDirectory {
+
+    /**
+     * A building that has an indoor venue map.
+     */
+    public static final class Building {
+
+        // Venue identifier, e.g. "DM_15755"
+        private String id;
+
+        // Name of the building
+        private String name;
+
+        // Asset containing the building's indoor graph, may be null
+        private String graph;
+
+        // Outline of the building as latitude, longitude pairs, may be null
+        private double[][] footprint;
+
+        Building() {
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the name of the asset containing the indoor graph, or null if there is none
+         */
+        public String getGraphAsset() {
+            return graph;
+        }
+
+        /**
+         * @return the outline of the building as latitude, longitude pairs, or null if it is
+         *         unknown
+         */
+        public double[][] getFootprint() {
+            return footprint;
+        }
+    }
+
+    // Buildings by venue identifier
+    private final HashMap<String, Building> buildings = new HashMap<>();
+
+    // All buildings in directory order
+    private final List<Building> buildingList;
+
+    // Destinations by identifier
+    private final HashMap<String, Destination> destinations = new HashMap<>();
+
+    // All destinations in directory order
+    private final List<Destination> destinationList;
+
+    // Index over the spoken names of the destinations
+    private final DestinationIndex index;
+
+    /**
+     * Creates a directory from buildings and destinations.
+     *
+     * @param buildings the buildings
+     * @param destinations the destinations
+     */
+    public VenueDirectory(List<Building> buildings, List<Destination> destinations) {
+        for (Building building : buildings) {
+            this.buildings.put(building.id, building);
+        }
+        for (Destination destination : destinations) {
+            this.destinations.put(destination.getId(), destination);
+        }
+        this.buildingList = Collections.unmodifiableList(new ArrayList<>(buildings));
+        this.destinationList = Collections.unmodifiableList(new ArrayList<>(destinations));
+        this.index = new DestinationIndex(destinations);
+    }
+
+    /**
+     * Parses a directory from its JSON asset form:
+     * <pre>
+     * { "buildings": [ {"id": "DM_15755", "name": "...", "graph": "rro_graph.json",
+     *                   "footprint": [[35.6155, -82.5659], [35.6155, -82.5651], ...]} ],
+     *   "destinations": [ {"id": "rro-131", "building": "DM_15755", "floor": 1,
+     *                      "category": "CLASSROOM", "lat": 35.6, "lon": -82.5,
+     *                      "node": "room:131", "names": ["131", "room 131"]} ] }
+     * </pre>
+     *
+     * @param reader the JSON source
+     * @return the parsed directory
+     * @throws IOException if the source is malformed
+     */
+    public static VenueDirectory fromJson(Reader reader) throws IOException {
+        final DirectoryJson json;
+        try {
+            json = new Gson().fromJson(reader, DirectoryJson.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed venue directory", e);
+        }
+        if (json == null || json.buildings == null || json.destinations == null) {
+            throw new IOException("Venue directory is missing buildings or destinations");
+        }
+        for (Destination destination : json.destinations) {
+            if (destination.getId() == null || destination.getBuilding() == null) {
+                throw new IOException("Venue directory has a destination without id or building");
+            }
+        }
+        return new VenueDirectory(json.buildings, json.destinations);
+    }
+
+    /**
+     * Returns the index over the spoken names of the destinations.
+     */
+    public DestinationIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return all buildings in directory order
+     */
+    public List<Building> getBuildings() {
+        return buildingList;
+    }
+
+    /**
+     * @return the building with the given venue identifier, or null if it is unknown
+     */
+    public Building getBuilding(String id) {
+        return buildings.get(id);
+    }
+
+    /**
+     * @return the destination with the given identifier, or null if it is unknown
+     */
+    public Destination get(String id) {
+        return destinations.get(id);
+    }
+
+    /**
+     * @return every destination in the directory
+     */
+    public List<Destination> getDestinations() {
+        return destinationList;
+    }
+
+    /**
+     * Returns the destinations inside a building.
+     *
+     * @param buildingId the venue identifier of the building
+     * @return the destinations in directory order
+     */
+    public List<Destination> getDestinations(String buildingId) {
+        List<Destination> result = new ArrayList<>();
+        for (Destination destination : destinationList) {
+            if (destination.getBuilding().equals(buildingId)) {
+                result.add(destination);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the buildings near a position, measured to the closest destination inside each
+     * building. Buildings without destinations are not included.
+     *
+     * @param latitude the latitude of the position
+     * @param longitude the longitude of the position
+     * @param radius the largest distance in meters
+     * @return the buildings within the radius, nearest first
+     */
+    public List<Building> getBuildingsNear(double latitude, double longitude, double radius) {
+        final HashMap<String, Double> distances = new HashMap<>();
+        for (Destination destination : destinationList) {
+            final double d = GeoMath.distance(latitude, longitude,
+                    destination.getLatitude(), destination.getLongitude());
+            if (d <= radius && buildings.containsKey(destination.getBuilding())) {
+                distances.merge(destination.getBuilding(), d, Math::min);
+            }
+        }
+        final List<Building> result = new ArrayList<>();
+        for (Building building : buildingList) {
+            if (distances.containsKey(building.id)) {
+                result.add(building);
+            }
+        }
+        result.sort((a, b) -> Double.compare(distances.get(a.id), distances.get(b.id)));
+        return result;
+    }
+
+    /**
+     * Resolves the destination named in a piece of text, such as a recognized utterance. When
+     * the name is shared, e.g. "restroom", the destination closest to the user is chosen.
+     *
+     * @param text the text to scan
+     * @param latitude the user's latitude
+     * @param longitude the user's longitude
+     * @return the destination, or null if the text names none
+     */
+    public Destination resolve(CharSequence text, double latitude, double longitude) {
+        final int entry = index.findEntry(text, 0, text.length());
+        return entry >= 0 ? nearest(index.destinations(entry), latitude, longitude) : null;
+    }
+
+    /**
+     * Returns the destination of a set that is closest to a position.
+     *
+     * @param candidates the destinations to choose from
+     * @param latitude the latitude of the position, NaN if unknown
+     * @param longitude the longitude of the position, NaN if unknown
+     * @return the closest destination, or the first one without a position
+     */
+    public static Destination nearest(Destination[] candidates, double latitude, double longitude) {
+        Destination best = candidates[0];
+        double bestDistance = Double.MAX_VALUE;
+        for (Destination candidate : candidates) {
+            double d = GeoMath.distance(latitude, longitude,
+                    candidate.getLatitude(), candidate.getLongitude());
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * JSON form of the directory.
+     */
+    private static class DirectoryJson {
+        List<Building> buildings;
+        List<Destination> destinations;
+    }
+}
@@ -0,0 +1,180 @@
+package com.schrold.uncanav.simulator;
+
+import com.schrold.uncanav.navigation.LocalRoutePlanner;
+import com.schrold.uncanav.navigation.Prompts;
+import com.schrold.uncanav.navigation.RoutePlanner;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.IndoorRouter;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteCache;
+import com.schrold.uncanav.routing.RouteTable;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs the navigation core end to end without a device: thousands of simulated users name a
+ * destination and walk to it in the campus venue, with simulated positioning, speech and
+ * text-to-speech, on a fork-join pool. Reports prompt latency, reroutes, arrival detection and
+ * throughput.
+ * <p>
+ * Usage: {@code NavigationSimulator [walks] [threads] [seed] [wrong turn rate] [speech error rate]},
+ * run from the root of the project.
+ */
+public final class NavigationSimulator {
+
+    // Assets of the app with the venue directory and indoor graphs
+    private static final String ASSET_DIRECTORY = "app/src/main/assets";
+    private static final String VENUE_DIRECTORY_ASSET = "venues.json";
+
+    // Venue identifier of Rhoades-Robinson, the building with an indoor graph
+    private static final String ACTIVE_VENUE = "DM_15755";
+
+    // Number of routes kept in memory by the route cache, as in the app
+    private static final int ROUTE_CACHE_SIZE = 32;
+
+    // Walks run by one fork-join task without splitting further
+    private static final int BATCH_SIZE = 16;
+
+    // Defaults of the command line arguments
+    private static final int DEFAULT_WALKS = 5000;
+    private static final long DEFAULT_SEED = 1;
+    private static final double DEFAULT_WRONG_TURN_RATE = 0.3;
+    private static final double DEFAULT_SPEECH_ERROR_RATE = 0.2;
+
+    /**
+     * Runs a range of walks, splitting it in halves across the pool.
+     */
+    private static final class WalkBatch extends RecursiveTask<SimulationReport> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Simulation simulation;
+        private final int from;
+        private final int to;
+
+        WalkBatch(Simulation simulation, int from, int to) {
+            this.simulation = simulation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SimulationReport compute() {
+            if (to - from > BATCH_SIZE) {
+                final int middle = from + (to - from) / 2;
+                final WalkBatch left = new WalkBatch(simulation, from, middle);
+                left.fork();
+                final SimulationReport right = new WalkBatch(simulation, middle, to).compute();
+                return left.join().merge(right);
+            }
+            final SimulationReport report = new SimulationReport();
+            for (int i = from; i < to; i++) {
+                simulation.walk(i, report).run();
+            }
+            return report;
+        }
+    }
+
+    /**
+     * What every walk shares: the venue, the planner and its cache, and the simulation settings.
+     */
+    private static final class Simulation {
+
+        final VenueDirectory directory;
+        final RoutePlanner planner;
+        final List<Destination> destinations;
+        final Prompts prompts = new Prompts("Starting navigation", "No destination found",
+                "Rerouting", "You have arrived", "Turn left", "Turn right", "Take the stairs up",
+                "Take the stairs down", "Your destination is on the left", "Your destination is on the right",
+                "Your destination is ahead");
+        final SimulatedSpeech speech;
+        final double wrongTurnRate;
+        final long seed;
+
+        Simulation(VenueDirectory directory, RoutePlanner planner, List<Destination> destinations,
+                   double wrongTurnRate, double speechErrorRate, long seed) {
+            this.directory = directory;
+            this.planner = planner;
+            this.destinations = destinations;
+            this.speech = new SimulatedSpeech(speechErrorRate);
+            this.wrongTurnRate = wrongTurnRate;
+            this.seed = seed;
+        }
+
+        SimulatedWalk walk(int index, SimulationReport report) {
+            return new SimulatedWalk(directory, planner, prompts, speech, destinations, wrongTurnRate,
+                    seed * 1_000_003L + index, report);
+        }
+    }
+
+    private NavigationSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int walks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WALKS;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        final double wrongTurnRate = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_WRONG_TURN_RATE;
+        final double speechErrorRate = args.length > 4 ? Double.parseDouble(args[4]) : DEFAULT_SPEECH_ERROR_RATE;
+
+        final File assets = new File(ASSET_DIRECTORY);
+        final VenueDirectory directory;
+        try (Reader reader = open(new File(assets, VENUE_DIRECTORY_ASSET))) {
+            directory = VenueDirectory.fromJson(reader);
+        }
+        final VenueDirectory.Building building = directory.getBuilding(ACTIVE_VENUE);
+        final IndoorGraph graph;
+        try (Reader reader = open(new File(assets, building.getGraphAsset()))) {
+            graph = IndoorGraph.fromJson(reader);
+        }
+        final List<Destination> destinations = new ArrayList<>();
+        final TreeSet<Integer> nodes = new TreeSet<>();
+        for (Destination destination : directory.getDestinations(building.getId())) {
+            final int node = destination.getNode() != null ? graph.indexOf(destination.getNode()) : -1;
+            if (node >= 0) {
+                destinations.add(destination);
+                nodes.add(node);
+            }
+        }
+        final IndoorRouter router = new IndoorRouter(graph);
+        final File tableFile = File.createTempFile(building.getId(), "_routes.bin");
+        tableFile.deleteOnExit();
+        final int[] tableNodes = new int[nodes.size()];
+        int i = 0;
+        for (int node : nodes) {
+            tableNodes[i++] = node;
+        }
+        router.setRouteTable(RouteTable.openOrBuild(graph, tableNodes, tableFile));
+        final RouteCache<Route> cache = new RouteCache<>(ROUTE_CACHE_SIZE);
+        final Simulation simulation = new Simulation(directory, new LocalRoutePlanner(router, cache),
+                destinations, wrongTurnRate, speechErrorRate, seed);
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // Warm up the JIT so that latencies reflect steady state
+            pool.invoke(new WalkBatch(simulation, -Math.min(walks, 1000), 0));
+            final long start = System.nanoTime();
+            final SimulationReport report = pool.invoke(new WalkBatch(simulation, 0, walks));
+            final long elapsed = System.nanoTime() - start;
+            System.out.print(report.format(elapsed, threads));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Reader open(File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+package com.schrold.uncanav.simulator;
+
+import com.schrold.uncanav.venue.Destination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A simulated speech recognizer: renders a destination the way a user would say it and returns
+ * the kind of hypotheses a recognizer produces, with spoken numbers, digit homophones and the
+ * occasional misheard digit.
+ */
+final class SimulatedSpeech {
+
+    // Words for the digits, and homophones a recognizer confuses them with
+    private static final String[] DIGITS = {
+            "zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine"};
+    private static final String[] HOMOPHONES = {
+            "zero", "won", "to", "three", "for", "five", "six", "seven", "ate", "nine"};
+    private static final String[] TEENS = {
+            "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen",
+            "eighteen", "nineteen"};
+    private static final String[] TENS = {
+            "", "", "twenty", "thirty", "forty", "fifty", "sixty", "seventy", "eighty", "ninety"};
+
+    // Number of hypotheses returned per utterance
+    private static final int HYPOTHESES = 3;
+
+    // Probability that a hypothesis is misheard
+    private final double errorRate;
+
+    /**
+     * Creates a recognizer.
+     *
+     * @param errorRate probability that a hypothesis is misheard, from 0 to 1
+     */
+    SimulatedSpeech(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Returns the hypotheses for a user asking for a destination, best first.
+     *
+     * @param destination the destination the user asks for
+     * @param random the source of variation
+     * @return the hypotheses
+     */
+    List<String> recognize(Destination destination, Random random) {
+        final String[] names = destination.getNames();
+        final String name = names[random.nextInt(names.length)];
+        final List<String> hypotheses = new ArrayList<>(HYPOTHESES);
+        for (int i = 0; i < HYPOTHESES; i++) {
+            final boolean misheard = random.nextDouble() < errorRate;
+            hypotheses.add(isNumber(name) ? speakNumber(name, misheard, random)
+                    : misheard ? name.substring(0, Math.max(1, name.length() - 2)) : name);
+        }
+        return hypotheses;
+    }
+
+    /**
+     * Returns the recognizer's confidence in each hypothesis, best first.
+     */
+    float[] confidences(int count, Random random) {
+        final float[] confidences = new float[count];
+        float confidence = 0.6f + 0.4f * random.nextFloat();
+        for (int i = 0; i < count; i++) {
+            confidences[i] = confidence;
+            confidence *= 0.5f + 0.4f * random.nextFloat();
+        }
+        return confidences;
+    }
+
+    /**
+     * Renders a room number as it is spoken: "131" as "one thirty one", "one three one", "room
+     * 131", or with a digit homophone as "won thirty one". A misheard number has one digit
+     * replaced.
+     */
+    private static String speakNumber(String number, boolean misheard, Random random) {
+        final char[] digits = number.toCharArray();
+        if (misheard) {
+            final int at = random.nextInt(digits.length);
+            digits[at] = (char) ('0' + (digits[at] - '0' + 1 + random.nextInt(9)) % 10);
+        }
+        final StringBuilder text = new StringBuilder();
+        if (random.nextBoolean()) {
+            text.append("room ");
+        }
+        final String[] words = random.nextInt(4) == 0 ? HOMOPHONES : DIGITS;
+        switch (random.nextInt(3)) {
+            case 0:
+                text.append(digits);
+                break;
+            case 1:
+                // Digit by digit
+                for (int i = 0; i < digits.length; i++) {
+                    text.append(i > 0 ? " " : "").append(words[digits[i] - '0']);
+                }
+                break;
+            default:
+                // Hundreds, then the rest as a number
+                text.append(words[digits[0] - '0']);
+                for (int i = 1; i + 1 < digits.length; i += 2) {
+                    text.append(' ').append(twoDigits(digits[i] - '0', digits[i + 1] - '0', words));
+                }
+                if (digits.length % 2 == 0) {
+                    text.append(' ').append(words[digits[digits.length - 1] - '0']);
+                }
+                break;
+        }
+        return text.toString();
+    }
+
+    private static String twoDigits(int tens, int units, String[] words) {
+        if (tens == 0) {
+            return "oh " + words[units];
+        }
+        if (tens == 1) {
+            return TEENS[units];
+        }
+        return units == 0 ? TENS[tens] : TENS[tens] + " " + words[units];
+    }
+
+    private static boolean isNumber(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return !text.isEmpty();
+    }
+}
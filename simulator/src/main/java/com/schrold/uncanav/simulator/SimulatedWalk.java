@@ -0,0 +1,301 @@
+package com.schrold.uncanav.simulator;
+
+import com.schrold.uncanav.geo.GeoMath;
+import com.schrold.uncanav.navigation.NavigationSession;
+import com.schrold.uncanav.navigation.Prompts;
+import com.schrold.uncanav.navigation.RoutePlanner;
+import com.schrold.uncanav.navigation.Speaker;
+import com.schrold.uncanav.positioning.Fix;
+import com.schrold.uncanav.positioning.KalmanPositionFilter;
+import com.schrold.uncanav.routing.IndoorGraph;
+import com.schrold.uncanav.routing.Route;
+import com.schrold.uncanav.routing.RouteProgressTracker;
+import com.schrold.uncanav.speech.DestinationRanker;
+import com.schrold.uncanav.venue.Destination;
+import com.schrold.uncanav.venue.VenueDirectory;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One simulated trip: the user waits for a position, names a destination, and walks the route
+ * they are given, sometimes taking a wrong turn, until arrival is announced. Runs a navigation
+ * session of its own on the calling thread and adds its outcome to a report.
+ */
+final class SimulatedWalk implements Speaker, NavigationSession.Listener {
+
+    // Walking speed in m/s
+    private static final double WALKING_SPEED = 1.3;
+
+    // Time between fixes in milliseconds
+    private static final long FIX_INTERVAL = 1000;
+
+    // Standard deviation of the positioning noise in meters
+    private static final double POSITION_NOISE = 3.0;
+
+    // Fixes received while standing before the destination is named
+    private static final int SETTLE_FIXES = 5;
+
+    // Distance from the end of a route in meters at which the user has arrived, as in the app
+    private static final double ARRIVAL_RADIUS = 2.0;
+
+    // Arrivals announced farther than this from the destination in meters are false
+    private static final double FALSE_ARRIVAL_DISTANCE = 5.0;
+
+    // Time in milliseconds the user waits at the destination for the arrival prompt
+    private static final long ARRIVAL_TIMEOUT = 30000;
+
+    // Shared by every walk
+    private final VenueDirectory directory;
+    private final RoutePlanner planner;
+    private final Prompts prompts;
+    private final SimulatedSpeech speech;
+    private final List<Destination> destinations;
+    private final double wrongTurnRate;
+    private final SimulationReport report;
+
+    // Source of all variation in this walk
+    private final Random random;
+
+    // The session under test and the user
+    private NavigationSession session;
+    private SimulatedWalker walker;
+
+    // Follows the user's true position along the first route, to tell whether a wrong turn took
+    // them off it by the session's own definition
+    private RouteProgressTracker truth;
+
+    // Simulated time in milliseconds, and when the user reached the end of the route
+    private long time;
+    private long reachedAt = -1;
+
+    // nanoTime at which the input being processed was delivered
+    private long inputStart;
+
+    // Destination being walked to, whether a wrong turn is taken, and the progress of the walk
+    private Destination goal;
+    private boolean wrongTurn;
+    private boolean routed;
+    private boolean arrived;
+    private boolean deviated;
+    private int reroutes;
+
+    /**
+     * Creates a walk.
+     *
+     * @param directory the venue directory
+     * @param planner the route planner, shared by all walks
+     * @param prompts the prompts
+     * @param speech the simulated speech recognizer
+     * @param destinations the destinations walks start at and go to
+     * @param wrongTurnRate probability of taking a wrong turn
+     * @param seed seed of the walk's variation
+     * @param report receives the outcome
+     */
+    SimulatedWalk(VenueDirectory directory, RoutePlanner planner, Prompts prompts, SimulatedSpeech speech,
+                  List<Destination> destinations, double wrongTurnRate, long seed, SimulationReport report) {
+        this.directory = directory;
+        this.planner = planner;
+        this.prompts = prompts;
+        this.speech = speech;
+        this.destinations = destinations;
+        this.wrongTurnRate = wrongTurnRate;
+        this.report = report;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs the walk.
+     */
+    void run() {
+        report.walks++;
+        final Destination origin = destinations.get(random.nextInt(destinations.size()));
+        Destination target = destinations.get(random.nextInt(destinations.size()));
+        while (target == origin && destinations.size() > 1) {
+            target = destinations.get(random.nextInt(destinations.size()));
+        }
+        session = new NavigationSession(directory, planner, new KalmanPositionFilter(), ARRIVAL_RADIUS,
+                this, prompts, this);
+        final IndoorGraph graph = planner.getGraph();
+        final int start = graph.indexOf(origin.getNode());
+        walker = new SimulatedWalker(graph.latitude(start), graph.longitude(start));
+        wrongTurn = random.nextDouble() < wrongTurnRate;
+        if (wrongTurn) {
+            report.wrongTurnWalks++;
+        }
+
+        final Fix fix = new Fix();
+        for (int i = 0; i < SETTLE_FIXES; i++) {
+            deliver(fix);
+        }
+
+        // The user names the destination
+        final List<String> hypotheses = speech.recognize(target, random);
+        inputStart = System.nanoTime();
+        final DestinationRanker.Result result = session.onSpeech(hypotheses,
+                speech.confidences(hypotheses.size(), random));
+        if (result.destination == null) {
+            report.unrecognized++;
+            return;
+        }
+        if (result.destination == target) {
+            report.recognized++;
+        } else {
+            report.misrecognized++;
+        }
+        goal = result.destination;
+        if (!session.navigateTo(goal)) {
+            report.unroutable++;
+            return;
+        }
+
+        // The user walks until arrival is announced or they give up waiting for it
+        final long deadline = time + (long) (session.getActiveRoute().getLength() / WALKING_SPEED * 3000) + 60000;
+        while (!arrived && time < deadline) {
+            walker.walk(WALKING_SPEED * FIX_INTERVAL / 1000.0);
+            if (reachedAt < 0 && walker.isAtEnd()) {
+                reachedAt = time;
+            }
+            deliver(fix);
+            if (reachedAt >= 0 && time - reachedAt > ARRIVAL_TIMEOUT) {
+                break;
+            }
+        }
+        if (!arrived) {
+            report.missedArrivals++;
+        }
+        if (wrongTurn) {
+            report.wrongTurnReroutes += reroutes;
+            if (deviated) {
+                report.deviatedWalks++;
+                if (reroutes > 0) {
+                    report.reroutedDeviations++;
+                }
+            }
+        } else {
+            report.falseReroutes += reroutes;
+        }
+    }
+
+    /**
+     * Delivers the next fix to the session.
+     */
+    private void deliver(Fix fix) {
+        time += FIX_INTERVAL;
+        walker.observe(time, POSITION_NOISE, random, fix);
+        inputStart = System.nanoTime();
+        session.onFix(fix);
+        report.fixLatency.add(System.nanoTime() - inputStart);
+        report.fixes++;
+        if (truth != null && !arrived && truth.update(walker.getLatitude(), walker.getLongitude(), time)
+                == RouteProgressTracker.State.OFF_ROUTE) {
+            deviated = true;
+        }
+    }
+
+    @Override
+    public void speak(String text) {
+        final long latency = System.nanoTime() - inputStart;
+        if (text == prompts.startNavigation) {
+            report.startLatency.add(latency);
+        } else if (text == prompts.rerouting) {
+            report.rerouteLatency.add(latency);
+        } else if (text == prompts.arrived) {
+            report.arrivalLatency.add(latency);
+        } else {
+            report.maneuverLatency.add(latency);
+        }
+    }
+
+    @Override
+    public void onRouteChanged(Route route) {
+        if (!routed) {
+            routed = true;
+            report.routeLatency.add(System.nanoTime() - inputStart);
+            followWithWrongTurn(route);
+        } else {
+            // The user follows the new route from where they are
+            reroutes++;
+            follow(route);
+        }
+    }
+
+    @Override
+    public void onArrived() {
+        arrived = true;
+        final IndoorGraph graph = planner.getGraph();
+        final int node = graph.indexOf(goal.getNode());
+        final double distance = GeoMath.distance(walker.getLatitude(), walker.getLongitude(),
+                graph.latitude(node), graph.longitude(node));
+        if (distance > FALSE_ARRIVAL_DISTANCE) {
+            report.falseArrivals++;
+            return;
+        }
+        report.arrivals++;
+        report.arrivalError.add(Math.round(distance * 100));
+        report.arrivalDelay.add(reachedAt >= 0 ? time - reachedAt
+                : -Math.round(walker.getRemaining() / WALKING_SPEED * 1000));
+    }
+
+    /**
+     * Walks a route. With a wrong turn, the user leaves the route at one of its nodes, walks two
+     * corridors away from it, and turns back, unless a new route is given first.
+     */
+    private void followWithWrongTurn(Route route) {
+        truth = new RouteProgressTracker(0);
+        truth.setRoute(route);
+        final IndoorGraph graph = planner.getGraph();
+        final int turnAt = wrongTurn && route.size() > 2 ? 1 + random.nextInt(route.size() - 2) : -1;
+        final int node = turnAt >= 0 ? route.node(turnAt) : -1;
+        final int away = node >= 0 ? neighborExcept(graph, node, route.node(turnAt - 1), route.node(turnAt + 1)) : -1;
+        if (away < 0) {
+            follow(route);
+            return;
+        }
+        final int further = neighborExcept(graph, away, node, -1);
+        final int[] detour = further >= 0 ? new int[] {away, further, away} : new int[] {away};
+        final int count = route.size() + detour.length + 1;
+        final double[] lat = new double[count];
+        final double[] lon = new double[count];
+        int n = 0;
+        for (int i = 0; i < route.size(); i++) {
+            lat[n] = route.latitude(i);
+            lon[n++] = route.longitude(i);
+            if (i == turnAt) {
+                for (int d : detour) {
+                    lat[n] = graph.latitude(d);
+                    lon[n++] = graph.longitude(d);
+                }
+                lat[n] = route.latitude(i);
+                lon[n++] = route.longitude(i);
+            }
+        }
+        walker.follow(lat, lon, n);
+    }
+
+    private void follow(Route route) {
+        final double[] lat = new double[route.size()];
+        final double[] lon = new double[route.size()];
+        for (int i = 0; i < route.size(); i++) {
+            lat[i] = route.latitude(i);
+            lon[i] = route.longitude(i);
+        }
+        walker.follow(lat, lon, route.size());
+    }
+
+    /**
+     * @return a random neighbor of a node other than the given ones, or -1 if there is none
+     */
+    private int neighborExcept(IndoorGraph graph, int node, int except1, int except2) {
+        final int start = graph.edgeStart(node);
+        final int count = graph.edgeEnd(node) - start;
+        final int offset = count > 0 ? random.nextInt(count) : 0;
+        for (int i = 0; i < count; i++) {
+            final int neighbor = graph.edgeTarget(start + (offset + i) % count);
+            if (neighbor != except1 && neighbor != except2) {
+                return neighbor;
+            }
+        }
+        return -1;
+    }
+}
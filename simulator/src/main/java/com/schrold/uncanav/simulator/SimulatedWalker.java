@@ -0,0 +1,123 @@
+package com.schrold.uncanav.simulator;
+
+import com.schrold.uncanav.geo.GeoMath;
+import com.schrold.uncanav.positioning.Fix;
+
+import java.util.Random;
+
+/**
+ * A simulated user walking along a polyline at a constant speed, and the noisy positioning
+ * source observing them.
+ */
+final class SimulatedWalker {
+
+    // Path being walked and the distance to each of its points
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private double[] distances = new double[0];
+
+    // Distance walked along the path, and the true position there
+    private double along;
+    private int segment;
+    private double latitude;
+    private double longitude;
+
+    /**
+     * Creates a walker standing at a position.
+     */
+    SimulatedWalker(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Starts walking a new path from the current position.
+     *
+     * @param pathLatitudes latitudes of the path
+     * @param pathLongitudes longitudes of the path
+     * @param count number of points of the path
+     */
+    void follow(double[] pathLatitudes, double[] pathLongitudes, int count) {
+        latitudes = new double[count + 1];
+        longitudes = new double[count + 1];
+        distances = new double[count + 1];
+        latitudes[0] = latitude;
+        longitudes[0] = longitude;
+        System.arraycopy(pathLatitudes, 0, latitudes, 1, count);
+        System.arraycopy(pathLongitudes, 0, longitudes, 1, count);
+        for (int i = 1; i <= count; i++) {
+            distances[i] = distances[i - 1]
+                    + GeoMath.distance(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        along = 0;
+        segment = 0;
+    }
+
+    /**
+     * Walks on along the path.
+     *
+     * @param meters the distance to walk
+     */
+    void walk(double meters) {
+        final int last = distances.length - 1;
+        if (last < 1) {
+            return;
+        }
+        along = Math.min(along + meters, distances[last]);
+        while (segment < last - 1 && distances[segment + 1] <= along) {
+            segment++;
+        }
+        final double length = distances[segment + 1] - distances[segment];
+        final double t = length > 0 ? (along - distances[segment]) / length : 1;
+        latitude = latitudes[segment] + t * (latitudes[segment + 1] - latitudes[segment]);
+        longitude = longitudes[segment] + t * (longitudes[segment + 1] - longitudes[segment]);
+    }
+
+    /**
+     * @return whether the walker has reached the end of the path
+     */
+    boolean isAtEnd() {
+        return distances.length < 2 || along >= distances[distances.length - 1];
+    }
+
+    /**
+     * @return the distance left to walk in meters
+     */
+    double getRemaining() {
+        return distances.length > 0 ? distances[distances.length - 1] - along : 0;
+    }
+
+    double getLatitude() {
+        return latitude;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Observes the walker like an indoor positioning source: the true position with Gaussian
+     * noise, without speed or heading.
+     *
+     * @param time the time of the fix in milliseconds
+     * @param sigma the standard deviation of the noise in meters, per axis
+     * @param random the noise source
+     * @param fix the fix to fill
+     * @return the fix
+     */
+    Fix observe(long time, double sigma, Random random, Fix fix) {
+        fix.time = time;
+        fix.latitude = latitude + random.nextGaussian() * sigma / GeoMath.METERS_PER_DEGREE;
+        fix.longitude = longitude + random.nextGaussian() * sigma / GeoMath.metersPerDegreeLongitude(latitude);
+        fix.altitude = Double.NaN;
+        fix.accuracy = sigma;
+        fix.heading = Double.NaN;
+        fix.speed = Double.NaN;
+        fix.source = Fix.UNKNOWN_BITS;
+        fix.technology = Fix.UNKNOWN_BITS;
+        fix.buildingId = null;
+        fix.buildingName = null;
+        fix.floorId = null;
+        return fix;
+    }
+}
@@ -0,0 +1,173 @@
+package com.schrold.uncanav.simulator;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Outcome of a batch of simulated walks. Reports of batches run in parallel are merged.
+ */
+final class SimulationReport {
+
+    /**
+     * A growable list of samples, with percentiles.
+     */
+    static final class Samples {
+
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the percentiles 50, 90, 99 and the maximum, in the unit of the samples
+         */
+        long[] percentiles() {
+            final long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return new long[] {
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    size > 0 ? sorted[size - 1] : 0};
+        }
+
+        double mean() {
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return size > 0 ? (double) sum / size : 0;
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            return sorted.length > 0 ? sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] : 0;
+        }
+    }
+
+    // Walks, and how the destination was recognized
+    int walks;
+    int recognized;
+    int misrecognized;
+    int unrecognized;
+    int unroutable;
+
+    // Walks with a wrong turn, and reroutes on walks with and without one
+    int wrongTurnWalks;
+    int wrongTurnReroutes;
+    int falseReroutes;
+
+    // Wrong turns that took the user off the route, as the session defines it, and those of them
+    // that were rerouted; other wrong turns stay within the positioning noise of the route
+    int deviatedWalks;
+    int reroutedDeviations;
+
+    // Arrivals announced within reach of the destination, too far from it, and never
+    int arrivals;
+    int falseArrivals;
+    int missedArrivals;
+
+    // Fixes processed
+    long fixes;
+
+    // Time from an input to the prompt it caused, in nanoseconds
+    final Samples startLatency = new Samples();
+    final Samples rerouteLatency = new Samples();
+    final Samples arrivalLatency = new Samples();
+    final Samples maneuverLatency = new Samples();
+
+    // Time from the final speech result to the route being shown, in nanoseconds
+    final Samples routeLatency = new Samples();
+
+    // Time to process one fix, in nanoseconds
+    final Samples fixLatency = new Samples();
+
+    // Distance from the destination when arrival was announced, in centimeters
+    final Samples arrivalError = new Samples();
+
+    // Time from reaching the destination to arrival being announced, in milliseconds, negative
+    // when announced early
+    final Samples arrivalDelay = new Samples();
+
+    /**
+     * Adds the outcome of another batch to this one.
+     *
+     * @param other the other report
+     * @return this report
+     */
+    SimulationReport merge(SimulationReport other) {
+        walks += other.walks;
+        recognized += other.recognized;
+        misrecognized += other.misrecognized;
+        unrecognized += other.unrecognized;
+        unroutable += other.unroutable;
+        wrongTurnWalks += other.wrongTurnWalks;
+        wrongTurnReroutes += other.wrongTurnReroutes;
+        falseReroutes += other.falseReroutes;
+        deviatedWalks += other.deviatedWalks;
+        reroutedDeviations += other.reroutedDeviations;
+        arrivals += other.arrivals;
+        falseArrivals += other.falseArrivals;
+        missedArrivals += other.missedArrivals;
+        fixes += other.fixes;
+        startLatency.addAll(other.startLatency);
+        rerouteLatency.addAll(other.rerouteLatency);
+        arrivalLatency.addAll(other.arrivalLatency);
+        maneuverLatency.addAll(other.maneuverLatency);
+        routeLatency.addAll(other.routeLatency);
+        fixLatency.addAll(other.fixLatency);
+        arrivalError.addAll(other.arrivalError);
+        arrivalDelay.addAll(other.arrivalDelay);
+        return this;
+    }
+
+    /**
+     * Formats the report.
+     *
+     * @param elapsedNanos the wall time the walks took
+     * @param threads the number of threads the walks ran on
+     * @return the report text
+     */
+    String format(long elapsedNanos, int threads) {
+        final StringBuilder out = new StringBuilder();
+        final double seconds = elapsedNanos / 1e9;
+        out.append(String.format(Locale.US, "walks %d on %d threads in %.2f s: %.0f walks/s, %.0f fixes/s%n",
+                walks, threads, seconds, walks / seconds, fixes / seconds));
+        out.append(String.format(Locale.US, "speech: %d recognized, %d misrecognized, %d unrecognized, %d unroutable%n",
+                recognized, misrecognized, unrecognized, unroutable));
+        out.append(String.format(Locale.US, "reroutes: %d on %d walks with a wrong turn, %d false%n",
+                wrongTurnReroutes, wrongTurnWalks, falseReroutes));
+        out.append(String.format(Locale.US, "deviations: %d rerouted of %d wrong turns off the route (%.1f%%)%n",
+                reroutedDeviations, deviatedWalks, deviatedWalks > 0 ? 100.0 * reroutedDeviations / deviatedWalks : 0));
+        final int routed = arrivals + falseArrivals + missedArrivals;
+        out.append(String.format(Locale.US, "arrival: %d detected (%.1f%%), %d false, %d missed%n",
+                arrivals, routed > 0 ? 100.0 * arrivals / routed : 0, falseArrivals, missedArrivals));
+        appendLine(out, "arrival error (m)", arrivalError, 0.01);
+        appendLine(out, "arrival delay (s)", arrivalDelay, 0.001);
+        appendLine(out, "start prompt (us)", startLatency, 0.001);
+        appendLine(out, "route shown (us)", routeLatency, 0.001);
+        appendLine(out, "reroute prompt (us)", rerouteLatency, 0.001);
+        appendLine(out, "arrival prompt (us)", arrivalLatency, 0.001);
+        appendLine(out, "maneuver prompt (us)", maneuverLatency, 0.001);
+        appendLine(out, "fix (us)", fixLatency, 0.001);
+        return out.toString();
+    }
+
+    private static void appendLine(StringBuilder out, String name, Samples samples, double scale) {
+        final long[] p = samples.percentiles();
+        out.append(String.format(Locale.US, "%-20s n=%-7d mean %8.2f  p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f%n",
+                name, samples.size(), samples.mean() * scale, p[0] * scale, p[1] * scale, p[2] * scale, p[3] * scale));
+    }
+}